@@ -0,0 +1,92 @@
+package msg.common;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.StringJoiner;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.util.StringUtils;
+
+import msg.model.TwitterUser;
+
+/**
+ * Compares {@link TwitterUserSerializer}/{@link TwitterUserDeserializer} against the previous
+ * String based path: {@link StringJoiner} + {@link StringSerializer} on the sender, and
+ * {@link StringDeserializer} + split + {@link TwitterUser#newInstance(String[])} on the receiver,
+ * and the {@link TwitterUserWireFormat#TEXT text} wire format against the {@link TwitterUserWireFormat#BINARY binary} one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TwitterUserCodecBenchmark {
+
+    private final TwitterUser twitterUser = new TwitterUser(new Date(1511548931000L), "Duke Développeur",
+            "Black Friday deals on #java books, 30% off everything until midnight! Grab them before they're gone ☕ https://t.co/abc123");
+
+    private final StringSerializer stringSerializer = new StringSerializer();
+
+    private final StringDeserializer stringDeserializer = new StringDeserializer();
+
+    private final TwitterUserSerializer twitterUserSerializer = new TwitterUserSerializer();
+
+    private final TwitterUserSerializer binaryTwitterUserSerializer = new TwitterUserSerializer();
+
+    private final TwitterUserDeserializer twitterUserDeserializer = new TwitterUserDeserializer();
+
+    private byte[] bytes;
+
+    private byte[] binaryBytes;
+
+    @Setup
+    public void setUp() {
+        binaryTwitterUserSerializer.configure(
+                Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+        bytes = twitterUserSerializer.serialize("tweets", twitterUser);
+        binaryBytes = binaryTwitterUserSerializer.serialize("tweets", twitterUser);
+    }
+
+    @Benchmark
+    public byte[] serializeStringJoiner() {
+        StringJoiner joiner = new StringJoiner(Constants.MESSAGE_DELIMITER);
+        joiner.add(twitterUser.getDateTime().toString())
+              .add(twitterUser.getUserName())
+              .add(twitterUser.getTweetMessage());
+        return stringSerializer.serialize("tweets", joiner.toString());
+    }
+
+    @Benchmark
+    public byte[] serializeTwitterUserSerializer() {
+        return twitterUserSerializer.serialize("tweets", twitterUser);
+    }
+
+    @Benchmark
+    public TwitterUser deserializeStringSplit() {
+        String message = stringDeserializer.deserialize("tweets", bytes);
+        String[] parts = StringUtils.delimitedListToStringArray(message, Constants.MESSAGE_DELIMITER);
+        return TwitterUser.newInstance(parts);
+    }
+
+    @Benchmark
+    public TwitterUser deserializeTwitterUserDeserializer() {
+        return twitterUserDeserializer.deserialize("tweets", bytes);
+    }
+
+    @Benchmark
+    public byte[] serializeBinary() {
+        return binaryTwitterUserSerializer.serialize("tweets", twitterUser);
+    }
+
+    @Benchmark
+    public TwitterUser deserializeBinary() {
+        return twitterUserDeserializer.deserialize("tweets", binaryBytes);
+    }
+}
@@ -0,0 +1,98 @@
+package msg.receiver;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.record.TimestampType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.util.ReflectionUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import msg.common.TwitterUserDeserializer;
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+import msg.sender.FormatTweetBenchmark;
+import msg.sender.SpringKafkaApplicationSenderMain;
+import reactor.core.publisher.Mono;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * End-to-end per-tweet path without a broker or MongoDB: format the status, serialize it, deserialize
+ * the bytes and hand the record to {@link KafkaReceiver#receiveMsg}, whose writer completes
+ * immediately in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TweetPipelineBenchmark {
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    private final TwitterUserDeserializer deserializer = new TwitterUserDeserializer();
+
+    private final KafkaReceiver receiver = new KafkaReceiver();
+
+    private Status status;
+
+    private final MockConsumer<Long, TwitterUser> consumer = new MockConsumer<>(OffsetResetStrategy.EARLIEST);
+
+    private long offset;
+
+    @Setup
+    public void setUp() throws TwitterException {
+        status = TwitterObjectFactory.createStatus(FormatTweetBenchmark.STATUS_JSON);
+
+        // the limits are never reached, so the limiter never needs the listener endpoint registry
+        setField(receiver, "tweetStore", inMemoryStore());
+        setField(receiver, "inFlightWriteLimiter", new InFlightWriteLimiter(Integer.MAX_VALUE, Long.MAX_VALUE));
+        setField(receiver, "receiverMetrics", new ReceiverMetrics(new SimpleMeterRegistry()));
+    }
+
+    /**
+     * Sets an {@code @Autowired} field of a receiver built outside of the application context.
+     */
+    static void setField(Object target, String name, Object value) {
+        Field field = ReflectionUtils.findField(target.getClass(), name);
+        ReflectionUtils.makeAccessible(field);
+        ReflectionUtils.setField(field, target, value);
+    }
+
+    /**
+     * Store whose upserts complete immediately with their input.
+     */
+    static TweetStore inMemoryStore() {
+        return new DocumentTweetStore(null, null) {
+            @Override
+            public Mono<TwitterUser> upsert(TwitterUser twitterUser) {
+                return Mono.just(twitterUser);
+            }
+
+            @Override
+            public Mono<Long> upsertAll(List<TwitterUser> twitterUsers) {
+                return Mono.just((long) twitterUsers.size());
+            }
+        };
+    }
+
+    @Benchmark
+    public void pipeline() {
+        TwitterUser twitterUser = SpringKafkaApplicationSenderMain.formatTweetForKafka(status);
+        byte[] bytes = serializer.serialize("tweets", twitterUser);
+        ConsumerRecord<Long, TwitterUser> record = new ConsumerRecord<>("tweets", 0, offset++,
+                ConsumerRecord.NO_TIMESTAMP, TimestampType.NO_TIMESTAMP_TYPE, ConsumerRecord.NULL_CHECKSUM,
+                ConsumerRecord.NULL_SIZE, bytes.length, null, deserializer.deserialize("tweets", bytes));
+        receiver.receiveMsg(record, consumer);
+    }
+}
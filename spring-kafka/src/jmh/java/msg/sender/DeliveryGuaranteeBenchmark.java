@@ -0,0 +1,128 @@
+package msg.sender;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.test.rule.KafkaEmbedded;
+
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+
+/**
+ * Sends tweets to an embedded three broker cluster with each delivery guarantee of the sender, to weigh
+ * {@code kafka.producer.idempotence.enabled} and {@code kafka.producer.transactional.topics} against their cost:
+ * <ul>
+ * <li>{@code plain}: the default producer, acks from the leader, no idempotence</li>
+ * <li>{@code idempotent}: acks from all in-sync replicas, retries deduplicated by the broker</li>
+ * <li>{@code transactional:n}: idempotent, with a transaction committed every n tweets, as the ingest
+ * publishers do with {@code kafka.producer.transaction.max.tweets=n}</li>
+ * </ul>
+ * The score is tweets/s. Plain and idempotent sends are asynchronous, so their rate is what the broker takes once
+ * the producer's buffer is full; a transactional send waits for the commit every n tweets, as the publishers do.
+ * Three brokers, so the transaction log has its default replication and acks=all waits for followers.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class DeliveryGuaranteeBenchmark {
+
+    private static final String TOPIC = "tweets";
+
+    private static final String TRANSACTIONAL = "transactional:";
+
+    @Benchmark
+    public void send(Broker broker) {
+        if (broker.tweetsPerTransaction > 0 && broker.inTransaction == 0) {
+            broker.producer.beginTransaction();
+        }
+        broker.producer.send(new ProducerRecord<>(TOPIC, (long) (broker.next & 0xff),
+                broker.tweets[broker.next++ & (broker.tweets.length - 1)]));
+        if (broker.tweetsPerTransaction > 0 && ++broker.inTransaction == broker.tweetsPerTransaction) {
+            broker.producer.commitTransaction();
+            broker.inTransaction = 0;
+        }
+    }
+
+    /**
+     * Embedded cluster and a producer with the delivery guarantee under test.
+     */
+    @State(Scope.Benchmark)
+    public static class Broker {
+
+        @Param({ "plain", "idempotent", "transactional:10", "transactional:100", "transactional:1000" })
+        public String delivery;
+
+        private KafkaEmbedded kafkaEmbedded;
+
+        private KafkaProducer<Long, TwitterUser> producer;
+
+        private int tweetsPerTransaction;
+
+        private int inTransaction;
+
+        private TwitterUser[] tweets;
+
+        private int next;
+
+        @Setup
+        public void setUp() throws Exception {
+            kafkaEmbedded = new KafkaEmbedded(3, true, 4, TOPIC);
+            kafkaEmbedded.before();
+
+            Map<String, Object> props = new HashMap<>();
+            props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaEmbedded.getBrokersAsString());
+            props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
+            props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, TwitterUserSerializer.class);
+            ProducerProfile.THROUGHPUT.applyTo(props);
+            if (!"plain".equals(delivery)) {
+                // as KafkaSenderConfig sets them
+                props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+                props.put(ProducerConfig.ACKS_CONFIG, "all");
+                props.put(ProducerConfig.RETRIES_CONFIG, Integer.MAX_VALUE);
+            }
+            if (delivery.startsWith(TRANSACTIONAL)) {
+                tweetsPerTransaction = Integer.parseInt(delivery.substring(TRANSACTIONAL.length()));
+                props.put(ProducerConfig.TRANSACTIONAL_ID_CONFIG, "tweet-sender-benchmark");
+            }
+            producer = new KafkaProducer<>(props);
+            if (tweetsPerTransaction > 0) {
+                producer.initTransactions();
+            }
+
+            Random random = new Random(42);
+            tweets = new TwitterUser[1024];
+            for (int i = 0; i < tweets.length; i++) {
+                tweets[i] = new TwitterUser(new Date(1511548931000L + i * 1000L), "user" + random.nextInt(100),
+                        "Black Friday deals on #java books, 30% off everything until midnight! #" + i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            if (inTransaction > 0) {
+                producer.commitTransaction();
+            }
+            producer.close();
+            kafkaEmbedded.after();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package msg.sender;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+import twitter4j.Status;
+import twitter4j.TwitterException;
+import twitter4j.TwitterObjectFactory;
+
+/**
+ * Sender side per-tweet path: {@link SpringKafkaApplicationSenderMain#formatTweetForKafka(Status)},
+ * alone and followed by the value serializer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class FormatTweetBenchmark {
+
+    public static final String STATUS_JSON = "{\"created_at\":\"Fri Nov 24 18:42:11 +0000 2017\",\"id\":934150423842091008,"
+            + "\"text\":\"Black Friday deals on #java books, 30% off everything until midnight! Grab them before they're gone \\u2615 https://t.co/abc123\","
+            + "\"user\":{\"id\":12345,\"name\":\"Duke D\\u00e9veloppeur\",\"screen_name\":\"duke\"}}";
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    private Status status;
+
+    @Setup
+    public void setUp() throws TwitterException {
+        status = TwitterObjectFactory.createStatus(STATUS_JSON);
+    }
+
+    @Benchmark
+    public TwitterUser formatTweetForKafka() {
+        return SpringKafkaApplicationSenderMain.formatTweetForKafka(status);
+    }
+
+    @Benchmark
+    public byte[] formatAndSerialize() {
+        return serializer.serialize("tweets", SpringKafkaApplicationSenderMain.formatTweetForKafka(status));
+    }
+}
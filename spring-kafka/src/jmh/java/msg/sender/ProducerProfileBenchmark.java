@@ -0,0 +1,139 @@
+package msg.sender;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.kafka.test.rule.KafkaEmbedded;
+
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+
+/**
+ * Sends tweets to an embedded single broker with each {@link ProducerProfile}.
+ * <p>
+ * The primary score is records/s accepted by the producer; once its buffer memory is full
+ * {@code send} blocks, so the sustained rate is what the broker actually takes. The {@code bytes}
+ * secondary score is the producer's {@code outgoing-byte-total} per second, i.e. bytes on the wire
+ * after compression.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 3, time = 10)
+public class ProducerProfileBenchmark {
+
+    private static final String TOPIC = "tweets";
+
+    private static final String[] USERS = { "Duke Développeur", "Jane Doe", "kafka_fan", "mongo daily", "Zoë 日本" };
+
+    private static final String[] WORDS = { "Black", "Friday", "deals", "on", "#java", "books", "30%", "off",
+            "everything", "until", "midnight!", "Grab", "them", "before", "they're", "gone", "☕", "#kafka",
+            "streams", "https://t.co/abc123", "new", "release", "today", "@spring", "reactive" };
+
+    @Benchmark
+    public void send(Broker broker, WireBytes wireBytes) {
+        broker.producer.send(new ProducerRecord<>(TOPIC, broker.tweets[broker.next++ & (broker.tweets.length - 1)]));
+    }
+
+    /**
+     * Embedded broker and a producer configured with the profile under test.
+     */
+    @State(Scope.Benchmark)
+    public static class Broker {
+
+        @Param({ "throughput", "latency" })
+        public String profile;
+
+        private KafkaEmbedded kafkaEmbedded;
+
+        private KafkaProducer<Long, TwitterUser> producer;
+
+        private TwitterUser[] tweets;
+
+        private int next;
+
+        @Setup
+        public void setUp() throws Exception {
+            kafkaEmbedded = new KafkaEmbedded(1, true, 4, TOPIC);
+            kafkaEmbedded.before();
+
+            Map<String, Object> props = new HashMap<>();
+            props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, kafkaEmbedded.getBrokersAsString());
+            props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
+            props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, TwitterUserSerializer.class);
+            ProducerProfile.of(profile).applyTo(props);
+            producer = new KafkaProducer<>(props);
+
+            // distinct tweets, so compression ratios are not flattered by identical records
+            Random random = new Random(42);
+            tweets = new TwitterUser[1024];
+            for (int i = 0; i < tweets.length; i++) {
+                StringBuilder text = new StringBuilder();
+                for (int w = 10 + random.nextInt(15); w > 0; w--) {
+                    text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+                }
+                tweets[i] = new TwitterUser(new Date(1511548931000L + i * 1000L), USERS[random.nextInt(USERS.length)],
+                        text.toString().trim());
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            producer.close();
+            kafkaEmbedded.after();
+        }
+    }
+
+    /**
+     * Bytes the producer wrote to the broker during the iteration, reported by JMH per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class WireBytes {
+
+        public long bytes;
+
+        private double lastOutgoingByteTotal;
+
+        @TearDown(Level.Iteration)
+        public void stop(Broker broker) {
+            broker.producer.flush();
+            double outgoingByteTotal = outgoingByteTotal(broker.producer);
+            bytes = (long) (outgoingByteTotal - lastOutgoingByteTotal);
+            lastOutgoingByteTotal = outgoingByteTotal;
+        }
+
+        @SuppressWarnings("deprecation")
+        private static double outgoingByteTotal(KafkaProducer<?, ?> producer) {
+            for (Map.Entry<MetricName, ? extends Metric> metric : producer.metrics().entrySet()) {
+                if ("outgoing-byte-total".equals(metric.getKey().name())
+                        && "producer-metrics".equals(metric.getKey().group())) {
+                    return metric.getValue().value();
+                }
+            }
+            return 0;
+        }
+    }
+}
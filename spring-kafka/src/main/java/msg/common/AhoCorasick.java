@@ -0,0 +1,180 @@
+package msg.common;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.function.IntConsumer;
+
+/**
+ * Aho-Corasick automaton finding any number of keywords in a text in a single pass, whatever their number.
+ * <p>
+ * Matching ignores case, character by character. Only whole words match: a keyword starting or ending with a
+ * letter, digit or {@code _} does not match inside a longer word, so {@code #java} does not match
+ * {@code #javascript} and {@code kafka} does not match {@code kafkaesque}.
+ * <p>
+ * The automaton is immutable once built and can be shared by any number of threads. Each state keeps its
+ * transitions as sorted parallel arrays searched by binary search, except the root, whose ASCII transitions are
+ * a direct table since most characters of a text lead back to it.
+ */
+public final class AhoCorasick {
+
+    private static final int ROOT = 0;
+
+    private static final int[] NO_OUTPUT = new int[0];
+
+    private final String[] keywords;
+
+    private final int[] rootAscii = new int[128];
+
+    private final char[][] transitionChars;
+
+    private final int[][] transitionTargets;
+
+    private final int[] failure;
+
+    // the keywords ending in a state, including those of the states on its failure chain
+    private final int[][] output;
+
+    /**
+     * @param keywords the keywords, matches are reported by their index in this list
+     */
+    public AhoCorasick(List<String> keywords) {
+        this.keywords = new String[keywords.size()];
+        List<TreeMap<Character, Integer>> trie = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        trie.add(new TreeMap<>());
+        ends.add(new ArrayList<>());
+        for (int k = 0; k < keywords.size(); k++) {
+            String keyword = keywords.get(k);
+            if (keyword == null || keyword.isEmpty()) {
+                throw new IllegalArgumentException("Keywords must not be empty");
+            }
+            this.keywords[k] = keyword;
+            int state = ROOT;
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                Integer next = trie.get(state).get(c);
+                if (next == null) {
+                    next = trie.size();
+                    trie.get(state).put(c, next);
+                    trie.add(new TreeMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                state = next;
+            }
+            ends.get(state).add(k);
+        }
+
+        int states = trie.size();
+        this.transitionChars = new char[states][];
+        this.transitionTargets = new int[states][];
+        this.failure = new int[states];
+        this.output = new int[states][];
+        for (int state = 0; state < states; state++) {
+            TreeMap<Character, Integer> transitions = trie.get(state);
+            transitionChars[state] = new char[transitions.size()];
+            transitionTargets[state] = new int[transitions.size()];
+            int i = 0;
+            for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+                transitionChars[state][i] = transition.getKey();
+                transitionTargets[state][i++] = transition.getValue();
+            }
+        }
+        Arrays.fill(rootAscii, ROOT);
+        for (Map.Entry<Character, Integer> transition : trie.get(ROOT).entrySet()) {
+            if (transition.getKey() < 128) {
+                rootAscii[transition.getKey()] = transition.getValue();
+            }
+        }
+
+        // breadth first, a state's failure is resolved before those of its children
+        output[ROOT] = toArray(ends.get(ROOT));
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int child : transitionTargets[ROOT]) {
+            failure[child] = ROOT;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            List<Integer> stateOutput = new ArrayList<>(ends.get(state));
+            for (int keyword : output[failure[state]]) {
+                stateOutput.add(keyword);
+            }
+            output[state] = stateOutput.isEmpty() ? NO_OUTPUT : toArray(stateOutput);
+            for (int i = 0; i < transitionChars[state].length; i++) {
+                char c = transitionChars[state][i];
+                int child = transitionTargets[state][i];
+                int fallback = failure[state];
+                while (fallback != ROOT && next(fallback, c) < 0) {
+                    fallback = failure[fallback];
+                }
+                int target = next(fallback, c);
+                failure[child] = target >= 0 ? target : ROOT;
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Reports the index of every keyword found in the text, once per occurrence, in the order their matches end.
+     */
+    public void match(CharSequence text, IntConsumer onKeyword) {
+        int state = ROOT;
+        for (int i = 0; i < text.length(); i++) {
+            char c = Character.toLowerCase(text.charAt(i));
+            int target;
+            while ((target = next(state, c)) < 0 && state != ROOT) {
+                state = failure[state];
+            }
+            state = target < 0 ? ROOT : target;
+            for (int keyword : output[state]) {
+                if (isWholeWord(text, i + 1 - keywords[keyword].length(), i + 1, keywords[keyword])) {
+                    onKeyword.accept(keyword);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the keywords the automaton was built from, in their original case
+     */
+    public List<String> getKeywords() {
+        return Arrays.asList(keywords);
+    }
+
+    public int size() {
+        return keywords.length;
+    }
+
+    private int next(int state, char c) {
+        if (state == ROOT && c < 128) {
+            int target = rootAscii[c];
+            return target == ROOT ? -1 : target;
+        }
+        int i = Arrays.binarySearch(transitionChars[state], c);
+        return i < 0 ? -1 : transitionTargets[state][i];
+    }
+
+    private static boolean isWholeWord(CharSequence text, int start, int end, String keyword) {
+        boolean startOk = start == 0 || !isWordChar(keyword.charAt(0)) || !isWordChar(text.charAt(start - 1));
+        boolean endOk = end == text.length() || !isWordChar(keyword.charAt(keyword.length() - 1))
+                || !isWordChar(text.charAt(end));
+        return startOk && endOk;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_';
+    }
+
+    private static int[] toArray(List<Integer> values) {
+        int[] array = new int[values.size()];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = values.get(i);
+        }
+        return array;
+    }
+}
@@ -0,0 +1,117 @@
+package msg.common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Lock-free bounded queue on a power-of-two ring of slots (Dmitry Vyukov's bounded MPMC queue).
+ * <p>
+ * Every slot carries a sequence number telling whether it is ready to be written or read for a given
+ * lap, so producers and consumers each claim a position with a single CAS and never block each other.
+ * It is used with many producers and one consumer per ring, but stays correct when a producer also
+ * polls, which the drop-oldest overflow policy relies on.
+ */
+public class BoundedRingBuffer<E> {
+
+    private final int capacity;
+
+    private final int mask;
+
+    private final AtomicReferenceArray<E> elements;
+
+    // slot index -> position the slot is ready for: pos when writable, pos + 1 when readable
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong head = new AtomicLong();
+
+    /**
+     * @param capacity minimum capacity, rounded up to a power of two of at least 2 (with a single slot the
+     *        sequence of a written slot would equal the next lap's write position)
+     */
+    public BoundedRingBuffer(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30) {
+            throw new IllegalArgumentException("Capacity must be between 1 and 2^30 but was " + capacity);
+        }
+        this.capacity = ceilingPowerOfTwo(capacity);
+        this.mask = this.capacity - 1;
+        this.elements = new AtomicReferenceArray<>(this.capacity);
+        this.sequences = new AtomicLongArray(this.capacity);
+        for (int i = 0; i < this.capacity; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    private static int ceilingPowerOfTwo(int value) {
+        return value <= 2 ? 2 : Integer.highestOneBit(value - 1) << 1;
+    }
+
+    /**
+     * Adds the element unless the ring is full.
+     *
+     * @return {@code false} if the ring is full
+     */
+    public boolean offer(E element) {
+        long pos = tail.get();
+        for (;;) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements.lazySet(index, element);
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false; // the slot still holds the element of the previous lap
+            } else {
+                pos = tail.get(); // another producer claimed pos
+            }
+        }
+    }
+
+    /**
+     * Removes the oldest element.
+     *
+     * @return the element, or {@code null} if the ring is empty
+     */
+    public E poll() {
+        long pos = head.get();
+        for (;;) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = elements.get(index);
+                    elements.lazySet(index, null);
+                    sequences.lazySet(index, pos + capacity);
+                    return element;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null; // not written yet
+            } else {
+                pos = head.get(); // another consumer took pos
+            }
+        }
+    }
+
+    /**
+     * Number of elements, exact only while no offer or poll is in progress.
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -0,0 +1,174 @@
+package msg.common;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs each task on its own virtual thread, with at most {@code maxConcurrency} tasks running at once,
+ * enabled with {@code kafka.virtual.threads.enabled=true}.
+ * <p>
+ * {@link #execute(Runnable)} blocks the caller while all permits are taken, so a slow downstream
+ * (MongoDB, enrichment) slows down the Kafka thread handing out work instead of piling up threads.
+ * Threads that must never wait, like the producer I/O thread, use {@link #tryExecute(Runnable)} instead.
+ * Virtual threads need a Java 21 runtime; they are looked up reflectively because the build targets
+ * an older release. On older runtimes tasks run on a cached pool of platform threads, bounded the same way;
+ * tasks {@link #tryExecute(Runnable)} starts beyond the bound wait in the queue of a second pool of at most
+ * {@code maxConcurrency} platform threads instead of getting a thread each.
+ */
+public class BoundedVirtualThreadExecutor implements Executor {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(BoundedVirtualThreadExecutor.class);
+
+    private final Semaphore permits;
+
+    private final int maxConcurrency;
+
+    private final boolean virtual;
+
+    private final ThreadFactory threadFactory;
+
+    // only used without virtual threads
+    private final ExecutorService platformThreads;
+
+    // only used without virtual threads, runs the tasks tryExecute starts without a permit
+    private final ThreadPoolExecutor overflowThreads;
+
+    public BoundedVirtualThreadExecutor(String threadNamePrefix, int maxConcurrency) {
+        this.maxConcurrency = maxConcurrency;
+        this.permits = new Semaphore(maxConcurrency);
+        ThreadFactory virtualThreadFactory = virtualThreadFactory(threadNamePrefix);
+        this.virtual = virtualThreadFactory != null;
+        if (virtual) {
+            this.threadFactory = virtualThreadFactory;
+            this.platformThreads = null;
+            this.overflowThreads = null;
+        } else {
+            logger.warn("Virtual threads need Java 21, running {} tasks on platform threads", threadNamePrefix);
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.threadFactory = runnable -> {
+                Thread thread = new Thread(runnable, threadNamePrefix + threadNumber.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            };
+            // never rejects, the permits bound the number of threads
+            this.platformThreads = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+                    new SynchronousQueue<>(), threadFactory);
+            // unbounded queue, a platform thread per task could exhaust memory on a burst of send results
+            this.overflowThreads = new ThreadPoolExecutor(maxConcurrency, maxConcurrency, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(), threadFactory);
+            this.overflowThreads.allowCoreThreadTimeOut(true);
+        }
+    }
+
+    /**
+     * Returns a factory of virtual threads named {@code prefix0, prefix1, ...}, or {@code null} before Java 21.
+     */
+    static ThreadFactory virtualThreadFactory(String prefix) {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderType = Class.forName("java.lang.Thread$Builder");
+            Method name = builderType.getMethod("name", String.class, long.class);
+            builder = name.invoke(builder, prefix, 0L);
+            return (ThreadFactory) builderType.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        permits.acquireUninterruptibly();
+        start(task, true);
+    }
+
+    /**
+     * Like {@link #execute(Runnable)} but never blocks: when all permits are taken the task still runs, outside
+     * the concurrency bound, on a virtual thread of its own or, with platform threads, once one of the overflow
+     * threads is free.
+     *
+     * @return {@code false} if the task runs beyond {@code maxConcurrency}
+     */
+    public boolean tryExecute(Runnable task) {
+        boolean permitted = permits.tryAcquire();
+        start(task, permitted);
+        return permitted;
+    }
+
+    private void start(Runnable task, boolean permitted) {
+        Runnable releasing = () -> {
+            try {
+                task.run();
+            } finally {
+                if (permitted) {
+                    permits.release();
+                }
+            }
+        };
+        try {
+            if (virtual) {
+                threadFactory.newThread(releasing).start();
+            } else if (permitted) {
+                platformThreads.execute(releasing);
+            } else {
+                overflowThreads.execute(releasing);
+            }
+        } catch (Throwable e) {
+            if (permitted) {
+                permits.release();
+            }
+            throw e;
+        }
+    }
+
+    public int getMaxConcurrency() {
+        return maxConcurrency;
+    }
+
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Number of tasks currently running within the bound, tasks started by {@link #tryExecute(Runnable)}
+     * without a permit are not counted.
+     */
+    public int getActiveTasks() {
+        return maxConcurrency - permits.availablePermits();
+    }
+
+    /**
+     * Tasks started by {@link #tryExecute(Runnable)} beyond the bound that wait for an overflow thread, always 0
+     * with virtual threads.
+     */
+    public int getQueuedTasks() {
+        return overflowThreads == null ? 0 : overflowThreads.getQueue().size();
+    }
+
+    /**
+     * Waits for running tasks, called by the application context on shutdown.
+     */
+    public void shutdown() throws InterruptedException {
+        if (platformThreads != null) {
+            platformThreads.shutdown();
+            overflowThreads.shutdown();
+        }
+        if (!permits.tryAcquire(maxConcurrency, 30, TimeUnit.SECONDS)) {
+            logger.warn("{} tasks still running after 30 seconds", getActiveTasks());
+        }
+        if (overflowThreads != null && !overflowThreads.awaitTermination(30, TimeUnit.SECONDS)) {
+            logger.warn("{} tasks beyond the bound still waiting after 30 seconds", getQueuedTasks());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package msg.common;
+
+import java.util.Arrays;
+
+/**
+ * Count-Min Sketch: approximate counts of strings in {@code depth} rows of {@code width} counters, the same
+ * memory however many distinct strings are counted. An estimate is never below the true count and, with
+ * probability {@code 1 - e^-depth}, at most {@code e / width} of the total count above it.
+ * <p>
+ * Counts are added conservatively: only the counters at the current minimum of a key are raised, which keeps
+ * the overestimate of rare keys that share counters with frequent ones down. Counts can therefore not be
+ * subtracted again, a sketch is cleared as a whole.
+ * <p>
+ * Keys are hashed once with {@link #hash(CharSequence)}, so several sketches can be updated and read with the
+ * same hash. Not thread-safe.
+ */
+public class CountMinSketch {
+
+    private final int width;
+
+    private final int depth;
+
+    private final int[] counters;
+
+    private long total;
+
+    /**
+     * @param width counters per row, rounded up to a power of two
+     * @param depth rows, each with its own hash of the key
+     */
+    public CountMinSketch(int width, int depth) {
+        if (width < 1 || depth < 1 || width > 1 << 30) {
+            throw new IllegalArgumentException("Sketch width and depth must be positive");
+        }
+        int powerOfTwo = Integer.highestOneBit(width);
+        this.width = powerOfTwo < width ? powerOfTwo << 1 : powerOfTwo;
+        this.depth = depth;
+        this.counters = new int[this.width * depth];
+    }
+
+    public void add(CharSequence key, int count) {
+        add(hash(key), count);
+    }
+
+    public void add(long keyHash, int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Counts can only be added");
+        }
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[index(keyHash, row)]);
+        }
+        int raised = (int) Math.min((long) min + count, Integer.MAX_VALUE);
+        for (int row = 0; row < depth; row++) {
+            int index = index(keyHash, row);
+            if (counters[index] < raised) {
+                counters[index] = raised;
+            }
+        }
+        total += count;
+    }
+
+    public long estimate(CharSequence key) {
+        return estimate(hash(key));
+    }
+
+    public long estimate(long keyHash) {
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, counters[index(keyHash, row)]);
+        }
+        return min;
+    }
+
+    public void clear() {
+        Arrays.fill(counters, 0);
+        total = 0;
+    }
+
+    /**
+     * Sum of all counts added since the sketch was last cleared.
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * The row hashes are derived from the two halves of this 64-bit hash (Kirsch and Mitzenmacher).
+     */
+    private int index(long keyHash, int row) {
+        int h1 = (int) keyHash;
+        int h2 = (int) (keyHash >>> 32) | 1;
+        return row * width + ((h1 + row * h2) & (width - 1));
+    }
+
+    /**
+     * 64-bit FNV-1a of the characters, finished with the MurmurHash3 mixer so that similar keys spread over
+     * all bits.
+     */
+    public static long hash(CharSequence key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ (hash >>> 33);
+    }
+}
@@ -0,0 +1,46 @@
+package msg.common;
+
+import org.springframework.beans.factory.ListableBeanFactory;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Micrometer registry shared by the sender and receiver: {@code metrics.registry=prometheus} (default), scraped
+ * from the {@link PrometheusScrapeServer} each application starts with {@code metrics.prometheus.server.enabled},
+ * or {@code jmx}.
+ * <p>
+ * Components that own their gauges implement {@link MeterBinder} and are bound to the registry once all
+ * singletons exist.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    @ConditionalOnProperty(name = "metrics.registry", havingValue = "prometheus", matchIfMissing = true)
+    public PrometheusMeterRegistry prometheusMeterRegistry() {
+        return new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+    }
+
+    @Bean(destroyMethod = "stop")
+    @ConditionalOnProperty(name = "metrics.registry", havingValue = "jmx")
+    public JmxMeterRegistry jmxMeterRegistry() {
+        return new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM);
+    }
+
+    @Bean
+    public SmartInitializingSingleton meterBinderRegistration(ListableBeanFactory beanFactory,
+            MeterRegistry meterRegistry) {
+        return () -> beanFactory.getBeansOfType(MeterBinder.class).values()
+                .forEach(binder -> binder.bindTo(meterRegistry));
+    }
+}
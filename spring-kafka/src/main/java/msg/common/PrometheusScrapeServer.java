@@ -0,0 +1,59 @@
+package msg.common;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+
+/**
+ * Serves {@code GET /metrics} in the Prometheus text format from the JDK's built-in HTTP server, so the
+ * receiver, which runs without a web server, can be scraped the same way as the sender.
+ */
+public class PrometheusScrapeServer {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(PrometheusScrapeServer.class);
+
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private final PrometheusMeterRegistry registry;
+
+    private final int port;
+
+    private HttpServer server;
+
+    public PrometheusScrapeServer(PrometheusMeterRegistry registry, int port) {
+        this.registry = registry;
+        this.port = port;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", this::scrape);
+        server.start();
+        logger.info("Serving Prometheus metrics on port {}", port);
+    }
+
+    private void scrape(HttpExchange exchange) throws IOException {
+        byte[] body = registry.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    public void stop() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+}
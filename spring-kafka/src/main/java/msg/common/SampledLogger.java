@@ -0,0 +1,101 @@
+package msg.common;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+/**
+ * Rate-limited logging for one log site on a per-message path: at most {@code maxPerSecond} messages are
+ * written each second, the rest are counted and the count is appended to the next message written.
+ * <p>
+ * Nothing is formatted, and no argument's {@code toString()} is called, unless the level is enabled and the
+ * message is within the limit. Pass objects rather than strings built by the caller.
+ */
+public final class SampledLogger {
+
+    private final Logger logger;
+
+    private final int maxPerInterval;
+
+    private final long intervalNanos;
+
+    private final AtomicLong windowStart = new AtomicLong(System.nanoTime());
+
+    private final AtomicInteger windowCount = new AtomicInteger();
+
+    private final AtomicLong suppressed = new AtomicLong();
+
+    SampledLogger(Logger logger, int maxPerInterval, long intervalNanos) {
+        this.logger = logger;
+        this.maxPerInterval = maxPerInterval;
+        this.intervalNanos = intervalNanos;
+    }
+
+    public static SampledLogger perSecond(Logger logger, int maxPerSecond) {
+        return new SampledLogger(logger, maxPerSecond, TimeUnit.SECONDS.toNanos(1));
+    }
+
+    public void info(String format, Object... args) {
+        if (logger.isInfoEnabled() && tryAcquire()) {
+            long skipped = suppressed.getAndSet(0);
+            logger.info(withSuppressed(format, skipped), withSuppressed(args, skipped));
+        }
+    }
+
+    public void warn(String format, Object... args) {
+        if (logger.isWarnEnabled() && tryAcquire()) {
+            long skipped = suppressed.getAndSet(0);
+            logger.warn(withSuppressed(format, skipped), withSuppressed(args, skipped));
+        }
+    }
+
+    public void error(String format, Object... args) {
+        if (logger.isErrorEnabled() && tryAcquire()) {
+            long skipped = suppressed.getAndSet(0);
+            logger.error(withSuppressed(format, skipped), withSuppressed(args, skipped));
+        }
+    }
+
+    private boolean tryAcquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= intervalNanos && windowStart.compareAndSet(start, now)) {
+            windowCount.set(0);
+        }
+        if (windowCount.incrementAndGet() <= maxPerInterval) {
+            return true;
+        }
+        suppressed.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Messages not written since the last one that was.
+     */
+    public long getSuppressed() {
+        return suppressed.get();
+    }
+
+    private static String withSuppressed(String format, long skipped) {
+        return skipped == 0 ? format : format + " [{} similar messages suppressed]";
+    }
+
+    private static Object[] withSuppressed(Object[] args, long skipped) {
+        if (skipped == 0) {
+            return args;
+        }
+        // a trailing Throwable must stay last to be logged as the exception
+        Object[] withCount = Arrays.copyOf(args, args.length + 1);
+        int last = args.length;
+        if (last > 0 && args[last - 1] instanceof Throwable) {
+            withCount[last - 1] = skipped;
+            withCount[last] = args[last - 1];
+        } else {
+            withCount[last] = skipped;
+        }
+        return withCount;
+    }
+}
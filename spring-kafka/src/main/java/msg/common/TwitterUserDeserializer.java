@@ -0,0 +1,39 @@
+package msg.common;
+
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Deserializer;
+
+import msg.model.TwitterUser;
+
+/**
+ * Kafka {@link Deserializer} reading the formats written by {@link TwitterUserSerializer}.
+ * <p>
+ * The {@link TwitterUserWireFormat} is detected per record, so a topic can carry legacy text records
+ * and binary records side by side while producers migrate. Fields are decoded straight from the byte
+ * array, without an intermediate String or String[]. In the text format everything after the second
+ * delimiter is the tweet text, which may itself contain the delimiter.
+ * <p>
+ * Malformed records (missing or empty fields, an unparseable date or an unknown binary version)
+ * deserialize to {@code null} and are skipped by the receivers.
+ */
+public class TwitterUserDeserializer implements Deserializer<TwitterUser> {
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        // nothing to configure, the format is detected per record
+    }
+
+    @Override
+    public TwitterUser deserialize(String topic, byte[] data) {
+        if (data == null || data.length == 0) {
+            return null;
+        }
+        return TwitterUserWireFormat.detect(data).decode(data);
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,77 @@
+package msg.common;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.kafka.common.serialization.Serializer;
+import org.springframework.util.StringUtils;
+
+import msg.model.TwitterUser;
+
+/**
+ * Kafka {@link Serializer} writing a {@link TwitterUser} in a {@link TwitterUserWireFormat}.
+ * <p>
+ * The format is chosen per topic: {@link #TOPIC_WIRE_FORMATS_CONFIG} lists {@code topic:format} overrides
+ * and {@link #WIRE_FORMAT_CONFIG} sets the format of all other topics ({@code text} by default).
+ * Either way the fields are encoded straight into a single, exactly sized byte array.
+ */
+public class TwitterUserSerializer implements Serializer<TwitterUser> {
+
+    public static final String WIRE_FORMAT_CONFIG = "twitter.user.wire.format";
+
+    public static final String TOPIC_WIRE_FORMATS_CONFIG = "twitter.user.wire.format.topics";
+
+    private TwitterUserWireFormat defaultWireFormat = TwitterUserWireFormat.TEXT;
+
+    private final Map<String, TwitterUserWireFormat> topicWireFormats = new HashMap<>();
+
+    @Override
+    public void configure(Map<String, ?> configs, boolean isKey) {
+        Object wireFormat = configs.get(WIRE_FORMAT_CONFIG);
+        if (wireFormat != null && StringUtils.hasText(wireFormat.toString())) {
+            defaultWireFormat = parseWireFormat(wireFormat.toString());
+        }
+        Object topicWireFormatList = configs.get(TOPIC_WIRE_FORMATS_CONFIG);
+        if (topicWireFormatList != null) {
+            for (String topicWireFormat : StringUtils.commaDelimitedListToStringArray(topicWireFormatList.toString())) {
+                if (!StringUtils.hasText(topicWireFormat)) {
+                    continue;
+                }
+                String[] parts = StringUtils.split(topicWireFormat.trim(), ":");
+                if (parts == null || parts[0].trim().isEmpty() || parts[1].trim().isEmpty()) {
+                    throw invalidEntry(topicWireFormat);
+                }
+                TwitterUserWireFormat format;
+                try {
+                    format = parseWireFormat(parts[1]);
+                } catch (IllegalArgumentException e) {
+                    throw invalidEntry(topicWireFormat);
+                }
+                topicWireFormats.put(parts[0].trim(), format);
+            }
+        }
+    }
+
+    private static IllegalArgumentException invalidEntry(String entry) {
+        return new IllegalArgumentException("Expected topic:format in " + TOPIC_WIRE_FORMATS_CONFIG
+                + " but got '" + entry + "'");
+    }
+
+    private static TwitterUserWireFormat parseWireFormat(String wireFormat) {
+        return TwitterUserWireFormat.valueOf(wireFormat.trim().toUpperCase(Locale.ROOT));
+    }
+
+    @Override
+    public byte[] serialize(String topic, TwitterUser data) {
+        if (data == null) {
+            return null;
+        }
+        return topicWireFormats.getOrDefault(topic, defaultWireFormat).encode(data);
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,292 @@
+package msg.common;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+
+import msg.model.TwitterUser;
+
+/**
+ * Encodings of a {@link TwitterUser} record value on a topic.
+ * <p>
+ * {@link #TEXT} is the original format: {@link Date#toString()}, user name and tweet text joined with
+ * {@link Constants#MESSAGE_DELIMITER}. It carries no ids: the tweet text may itself contain the delimiter, so
+ * any field appended to it would be read as text by older receivers and could not be told apart from text.
+ * {@link #BINARY} starts with {@link #BINARY_MAGIC} and a version byte, followed by the date as epoch millis (8 bytes, big endian), with
+ * {@link #BINARY_V2} the tweet id (8 bytes, big endian), with {@link #BINARY_V3} the tweet id and the retweeted
+ * tweet's id, and the user name and tweet text as varint length-prefixed UTF-8. Each tweet is written in the
+ * oldest layout that holds its ids: tweets without an id still as {@link #BINARY_V1}, which receivers from
+ * before the id was added can read, and only retweets as {@link #BINARY_V3}.
+ * <p>
+ * {@link #detect(byte[])} tells the formats apart from the first byte: {@link #BINARY_MAGIC} never occurs in
+ * UTF-8, so no text record starts with it, whatever its fields hold.
+ */
+public enum TwitterUserWireFormat {
+
+    TEXT {
+        @Override
+        byte[] encode(TwitterUser data) {
+            String dateTime = data.getDateTime() == null ? "" : data.getDateTime().toString();
+            String userName = nullToEmpty(data.getUserName());
+            String tweetMessage = nullToEmpty(data.getTweetMessage());
+
+            byte[] bytes = new byte[utf8Length(dateTime) + utf8Length(userName) + utf8Length(tweetMessage) + 2];
+            int pos = writeUtf8(dateTime, bytes, 0);
+            bytes[pos++] = DELIMITER;
+            pos = writeUtf8(userName, bytes, pos);
+            bytes[pos++] = DELIMITER;
+            writeUtf8(tweetMessage, bytes, pos);
+            return bytes;
+        }
+
+        @Override
+        TwitterUser decode(byte[] data) {
+            int firstDelimiter = indexOfDelimiter(data, 0);
+            if (firstDelimiter < 0) {
+                return null;
+            }
+            int secondDelimiter = indexOfDelimiter(data, firstDelimiter + 1);
+            if (secondDelimiter < 0) {
+                return null;
+            }
+            if (firstDelimiter == 0 || secondDelimiter == firstDelimiter + 1 || secondDelimiter == data.length - 1) {
+                return null; // empty field
+            }
+            Date dateTime = TwitterUser.parseDateTime(new String(data, 0, firstDelimiter, StandardCharsets.UTF_8));
+            if (dateTime == null) {
+                return null;
+            }
+            return new TwitterUser(
+                    dateTime,
+                    new String(data, firstDelimiter + 1, secondDelimiter - firstDelimiter - 1, StandardCharsets.UTF_8),
+                    new String(data, secondDelimiter + 1, data.length - secondDelimiter - 1, StandardCharsets.UTF_8));
+        }
+    },
+
+    BINARY {
+        @Override
+        byte[] encode(TwitterUser data) {
+            long dateTime = data.getDateTime() == null ? 0L : data.getDateTime().getTime();
+            String userName = nullToEmpty(data.getUserName());
+            String tweetMessage = nullToEmpty(data.getTweetMessage());
+            int userNameLength = utf8Length(userName);
+            int tweetMessageLength = utf8Length(tweetMessage);
+            byte version = data.getRetweetedId() != null ? BINARY_V3 : data.getTweetId() != null ? BINARY_V2 : BINARY_V1;
+            int headerLength = headerLength(version);
+
+            byte[] bytes = new byte[headerLength + varintLength(userNameLength) + userNameLength
+                    + varintLength(tweetMessageLength) + tweetMessageLength];
+            bytes[0] = BINARY_MAGIC;
+            bytes[1] = version;
+            writeLong(dateTime, bytes, 2);
+            if (version != BINARY_V1) {
+                writeLong(data.getTweetId() == null ? 0L : data.getTweetId(), bytes, 10);
+            }
+            if (version == BINARY_V3) {
+                writeLong(data.getRetweetedId(), bytes, 18);
+            }
+            int pos = writeVarint(userNameLength, bytes, headerLength);
+            pos = writeUtf8(userName, bytes, pos);
+            pos = writeVarint(tweetMessageLength, bytes, pos);
+            writeUtf8(tweetMessage, bytes, pos);
+            return bytes;
+        }
+
+        @Override
+        TwitterUser decode(byte[] data) {
+            int headerLength = data.length < 2 || data[0] != BINARY_MAGIC ? 0 : headerLength(data[1]);
+            if (headerLength == 0 || data.length < headerLength) {
+                return null; // not binary, unknown version or truncated
+            }
+            long dateTime = readLong(data, 2);
+            Long tweetId = headerLength >= 18 ? readLong(data, 10) : null;
+            Long retweetedId = headerLength == 26 ? readLong(data, 18) : null;
+            int[] pos = { headerLength };
+            int userNameLength = readVarint(data, pos);
+            if (userNameLength <= 0 || pos[0] + userNameLength > data.length) {
+                return null;
+            }
+            String userName = new String(data, pos[0], userNameLength, StandardCharsets.UTF_8);
+            pos[0] += userNameLength;
+            int tweetMessageLength = readVarint(data, pos);
+            if (tweetMessageLength <= 0 || pos[0] + tweetMessageLength != data.length) {
+                return null;
+            }
+            return new TwitterUser(new Date(dateTime), userName,
+                    new String(data, pos[0], tweetMessageLength, StandardCharsets.UTF_8), tweetId, retweetedId);
+        }
+    };
+
+    static final byte DELIMITER = (byte) Constants.MESSAGE_DELIMITER.charAt(0);
+
+    /**
+     * First byte of every binary record, a byte that is not valid anywhere in UTF-8.
+     */
+    static final byte BINARY_MAGIC = (byte) 0xFF;
+
+    /**
+     * Version byte of the binary layout without a tweet id.
+     */
+    static final byte BINARY_V1 = 0x01;
+
+    /**
+     * Version byte of the binary layout with the tweet id after the date.
+     */
+    static final byte BINARY_V2 = 0x02;
+
+    /**
+     * Version byte of the binary layout with the tweet id and the retweeted tweet's id after the date.
+     */
+    static final byte BINARY_V3 = 0x03;
+
+    /**
+     * Encodes the given, non-null {@link TwitterUser}. Null fields are written as empty.
+     */
+    abstract byte[] encode(TwitterUser data);
+
+    /**
+     * Decodes a record value.
+     *
+     * @return the decoded {@link TwitterUser}, or {@code null} if the record is malformed
+     */
+    abstract TwitterUser decode(byte[] data);
+
+    /**
+     * Returns the format a non-empty record value was written in.
+     */
+    static TwitterUserWireFormat detect(byte[] data) {
+        return data[0] == BINARY_MAGIC ? BINARY : TEXT;
+    }
+
+    /**
+     * Returns the length of the magic and version bytes, date and ids of a binary layout, 0 for an unknown
+     * version.
+     */
+    private static int headerLength(byte version) {
+        switch (version) {
+            case BINARY_V1:
+                return 10;
+            case BINARY_V2:
+                return 18;
+            case BINARY_V3:
+                return 26;
+            default:
+                return 0;
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static int indexOfDelimiter(byte[] data, int from) {
+        for (int i = from; i < data.length; i++) {
+            if (data[i] == DELIMITER) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static void writeLong(long value, byte[] dst, int pos) {
+        for (int i = 0; i < 8; i++) {
+            dst[pos + i] = (byte) (value >>> (56 - 8 * i));
+        }
+    }
+
+    private static long readLong(byte[] data, int pos) {
+        long value = 0;
+        for (int i = pos; i < pos + 8; i++) {
+            value = (value << 8) | (data[i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static int varintLength(int value) {
+        int length = 1;
+        while ((value >>>= 7) != 0) {
+            length++;
+        }
+        return length;
+    }
+
+    private static int writeVarint(int value, byte[] dst, int pos) {
+        while ((value & ~0x7F) != 0) {
+            dst[pos++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        dst[pos++] = (byte) value;
+        return pos;
+    }
+
+    /**
+     * Reads an unsigned varint at {@code pos[0]}, advancing it.
+     *
+     * @return the value, or {@code -1} if the varint is truncated or longer than 4 bytes
+     */
+    private static int readVarint(byte[] data, int[] pos) {
+        int value = 0;
+        for (int shift = 0; shift < 28 && pos[0] < data.length; shift += 7) {
+            byte b = data[pos[0]++];
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the number of bytes {@link #writeUtf8(String, byte[], int)} writes for the given String.
+     */
+    static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                length += 1;
+            } else if (c < 0x800) {
+                length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                length += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                length += 1; // unpaired surrogate, written as '?' like String.getBytes
+            } else {
+                length += 3;
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Writes the UTF-8 encoding of the given String into {@code dst} starting at {@code pos}.
+     *
+     * @return the position after the last byte written
+     */
+    static int writeUtf8(String value, byte[] dst, int pos) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                dst[pos++] = (byte) c;
+            } else if (c < 0x800) {
+                dst[pos++] = (byte) (0xC0 | (c >> 6));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                    && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                dst[pos++] = (byte) (0xF0 | (codePoint >> 18));
+                dst[pos++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                dst[pos++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                dst[pos++] = (byte) '?';
+            } else {
+                dst[pos++] = (byte) (0xE0 | (c >> 12));
+                dst[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                dst[pos++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+        return pos;
+    }
+}
@@ -1,6 +1,14 @@
 package msg.model;
 
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Locale;
+
+import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.util.StringUtils;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -12,15 +20,70 @@ import lombok.NoArgsConstructor;
 @Document
 public class TwitterUser {
 
-private String dateTime;
+	/**
+	 * Format of {@link Date#toString()}, used for the date in the text wire format.
+	 */
+	public static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+
+private Date dateTime;
 	
 	private String userName;
 	
 	private String tweetMessage;
 
+	/**
+	 * Id of the tweet, a retweet has its own. {@code null} for records from producers that did not send it.
+	 * Stored as the document {@code _id}.
+	 */
+	@Id
+	private Long tweetId;
+
+	/**
+	 * Id of the original tweet for a retweet, {@code null} otherwise. Retweets of a tweet share it.
+	 */
+	private Long retweetedId;
+
+	public TwitterUser(Date dateTime, String userName, String tweetMessage) {
+		this(dateTime, userName, tweetMessage, null);
+	}
+
+	public TwitterUser(Date dateTime, String userName, String tweetMessage, Long tweetId) {
+		this(dateTime, userName, tweetMessage, tweetId, null);
+	}
+
+	/**
+	 * Creates a {@link TwitterUser} from the date, user name and tweet text parts of a message.
+	 *
+	 * The date is expected in {@link Date#toString()} format.
+	 *
+	 * @return the new instance, or {@code null} if there are not exactly 3 parts, any part is empty or the date can't be parsed
+	 */
 	public static TwitterUser newInstance(String[] msg) {
 
-		return new TwitterUser(msg[0], msg[1], msg[2]);
+		if (msg == null || msg.length != 3) {
+			return null;
+		}
+		for (String part : msg) {
+			if (!StringUtils.hasLength(part)) {
+				return null;
+			}
+		}
+		Date dateTime = parseDateTime(msg[0]);
+		return dateTime == null ? null : new TwitterUser(dateTime, msg[1], msg[2]);
+	}
+
+	/**
+	 * Parses a date written by {@link Date#toString()}. Time zone abbreviations are ambiguous
+	 * (IST, CST, ...), which is one reason the binary wire format carries epoch millis instead.
+	 *
+	 * @return the parsed date, or {@code null} if it is not in {@link #DATE_TIME_FORMAT}
+	 */
+	public static Date parseDateTime(String dateTime) {
+		try {
+			return Date.from(ZonedDateTime.parse(dateTime, DATE_TIME_FORMAT).toInstant());
+		} catch (DateTimeParseException e) {
+			return null;
+		}
 	}
 	
 	
@@ -0,0 +1,385 @@
+package msg.receiver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.client.model.Aggregates;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.IndexModel;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link TweetStore} packing the tweets of a user into one document per {@code mongo.bucket.window.minutes}
+ * window, enabled with {@code mongo.storage.mode=bucket}:
+ * <pre>
+ * { userName, start, first, last, count, tweets: [ { tweetId, retweetedId, dateTime, tweetMessage }, ... ] }
+ * </pre>
+ * A tweet is {@code $push}ed by an upsert matching the user's bucket for its window that still has room; once a
+ * bucket holds {@code mongo.bucket.max.tweets} the upsert starts a new one for the same window. A batch groups its
+ * tweets per bucket, so an active user costs one write per poll instead of one per tweet, and the queries read
+ * one document per bucket instead of one per tweet.
+ * <p>
+ * Writing a tweet again changes nothing, as with {@link DocumentTweetStore}: the upsert only matches a bucket
+ * that holds none of its tweets, and a unique index on user name, window and tweet id rejects the bucket it
+ * would otherwise start, or a push into another bucket of the window. A group rejected that way is written
+ * again one tweet at a time, so the tweets not stored yet are still added. Without the unique index, when
+ * stored buckets already hold duplicates, a redelivered tweet can start a bucket of its own again.
+ * <p>
+ * Queries read the buckets overlapping the range and unpack their tweets on the server. MongoDB's native
+ * time-series collections need server and driver versions newer than the ones used here.
+ */
+public class BucketTweetStore implements TweetStore {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(BucketTweetStore.class);
+
+    static final List<IndexModel> INDEXES = Arrays.asList(
+            new IndexModel(Indexes.compoundIndex(Indexes.ascending("userName"), Indexes.descending("start")),
+                    new IndexOptions().name("userName_start").background(true)),
+            new IndexModel(Indexes.descending("start"), new IndexOptions().name("start").background(true)),
+            new IndexModel(Indexes.text("tweets.tweetMessage"),
+                    new IndexOptions().name("tweets.tweetMessage_text").background(true)));
+
+    // created on its own, it fails on collections that hold a tweet twice already
+    static final IndexModel TWEET_ID_INDEX = new IndexModel(
+            Indexes.ascending("userName", "start", "tweets.tweetId"),
+            new IndexOptions().name("userName_start_tweets.tweetId").unique(true).background(true));
+
+    private static final Duration INDEX_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private final String collectionName;
+
+    private final WriteConcern writeConcern;
+
+    private final long windowMillis;
+
+    private final int maxTweets;
+
+    /**
+     * @param window the time span of one bucket, windows start at multiples of it since the epoch
+     * @param maxTweets tweets per bucket, a busier window of a user continues in further buckets
+     */
+    public BucketTweetStore(ReactiveMongoTemplate reactiveMongoTemplate, String collectionName,
+            WriteConcern writeConcern, Duration window, int maxTweets) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.collectionName = collectionName;
+        this.writeConcern = writeConcern;
+        this.windowMillis = window.toMillis();
+        this.maxTweets = maxTweets;
+    }
+
+    /**
+     * Creates the {@link #INDEXES} and the {@link #TWEET_ID_INDEX} that do not exist yet, a failure is logged
+     * and the receiver starts anyway.
+     */
+    @Override
+    public void ensureIndexes() {
+        try {
+            Mono.from(collection().createIndexes(INDEXES)).block(INDEX_TIMEOUT);
+        } catch (RuntimeException e) {
+            logger.warn("Could not create the tweet bucket indexes: {}", e.getMessage());
+        }
+        try {
+            Mono.from(collection().createIndexes(Collections.singletonList(TWEET_ID_INDEX))).block(INDEX_TIMEOUT);
+        } catch (RuntimeException e) {
+            logger.warn("Could not create the unique tweet id index of the buckets, redelivered tweets may be"
+                    + " stored twice: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Adds the tweet to a bucket unless it is stored already.
+     *
+     * @return the tweet, with its tweet id set
+     */
+    @Override
+    public Mono<TwitterUser> upsert(TwitterUser twitterUser) {
+        Document tweet = tweetDocument(twitterUser);
+        UpdateOneModel<Document> push = pushModel(twitterUser.getUserName(), windowStart(twitterUser),
+                Collections.singletonList(tweet));
+        return Mono.from(collection().updateOne(push.getFilter(), push.getUpdate(), UPSERT))
+                .map(result -> twitterUser)
+                .onErrorResume(MongoWriteException.class, e -> isDuplicateKey(e.getError().getCode())
+                        ? Mono.just(twitterUser) : Mono.error(e));
+    }
+
+    /**
+     * Adds the tweets that are not stored already, in one unordered bulk write with one push per bucket.
+     *
+     * @return the number of tweets added, tweets stored already are not counted
+     */
+    @Override
+    public Mono<Long> upsertAll(List<TwitterUser> twitterUsers) {
+        if (twitterUsers.isEmpty()) {
+            return Mono.just(0L);
+        }
+        Map<BucketKey, List<Document>> buckets = new LinkedHashMap<>();
+        Set<Long> tweetIds = new HashSet<>();
+        for (TwitterUser twitterUser : twitterUsers) {
+            Document tweet = tweetDocument(twitterUser);
+            // a tweet twice in one push would be stored twice
+            if (tweetIds.add(twitterUser.getTweetId())) {
+                buckets.computeIfAbsent(new BucketKey(twitterUser.getUserName(), windowStart(twitterUser)),
+                        key -> new ArrayList<>()).add(tweet);
+            }
+        }
+        List<BucketPush> pushes = new ArrayList<>(buckets.size());
+        for (Map.Entry<BucketKey, List<Document>> bucket : buckets.entrySet()) {
+            List<Document> tweets = bucket.getValue();
+            // a group larger than a bucket is split, each part has to fit into a bucket of its own
+            for (int from = 0; from < tweets.size(); from += maxTweets) {
+                pushes.add(new BucketPush(bucket.getKey(),
+                        tweets.subList(from, Math.min(from + maxTweets, tweets.size()))));
+            }
+        }
+        return push(pushes);
+    }
+
+    /**
+     * Writes the pushes and counts the tweets of those that succeeded: a push either matched a bucket holding
+     * none of its tweets or started a new one, so all its tweets were added. Pushes rejected because one of
+     * their tweets is stored already are written again one tweet at a time.
+     */
+    private Mono<Long> push(List<BucketPush> pushes) {
+        List<WriteModel<Document>> models = new ArrayList<>(pushes.size());
+        for (BucketPush push : pushes) {
+            models.add(pushModel(push.key.userName, push.key.start, push.tweets));
+        }
+        return Mono.from(collection().bulkWrite(models, UNORDERED))
+                .map(result -> tweetCount(pushes, Collections.emptySet()))
+                .onErrorResume(MongoBulkWriteException.class, e -> {
+                    Set<Integer> rejected = new HashSet<>();
+                    for (BulkWriteError error : e.getWriteErrors()) {
+                        if (!isDuplicateKey(error.getCode())) {
+                            return Mono.error(e);
+                        }
+                        rejected.add(error.getIndex());
+                    }
+                    long added = tweetCount(pushes, rejected);
+                    List<BucketPush> singles = new ArrayList<>();
+                    for (int index : rejected) {
+                        BucketPush push = pushes.get(index);
+                        // a single tweet rejected is stored already
+                        if (push.tweets.size() > 1) {
+                            for (Document tweet : push.tweets) {
+                                singles.add(new BucketPush(push.key, Collections.singletonList(tweet)));
+                            }
+                        }
+                    }
+                    return singles.isEmpty() ? Mono.just(added) : push(singles).map(more -> added + more);
+                });
+    }
+
+    private static long tweetCount(List<BucketPush> pushes, Set<Integer> rejected) {
+        long count = 0;
+        for (int i = 0; i < pushes.size(); i++) {
+            if (!rejected.contains(i)) {
+                count += pushes.get(i).tweets.size();
+            }
+        }
+        return count;
+    }
+
+    private static boolean isDuplicateKey(int code) {
+        return ErrorCategory.fromErrorCode(code) == ErrorCategory.DUPLICATE_KEY;
+    }
+
+    @Override
+    public Flux<TwitterUser> findByUserName(String userName, Date from, Date to, TweetCursor after, int limit) {
+        return find(Filters.and(Filters.eq("userName", userName), overlapping(start(from, after), to)),
+                inRange(from, to), after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> findByDateTime(Date from, Date to, TweetCursor after, int limit) {
+        return find(overlapping(start(from, after), to), inRange(from, to), after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> findByHashtag(String hashtag, Date from, Date to, TweetCursor after, int limit) {
+        return find(Filters.and(Filters.text(hashtag), overlapping(start(from, after), to)),
+                Filters.and(inRange(from, to), Filters.regex("tweets.tweetMessage", TweetStore.hashtagPattern(hashtag))),
+                after, limit);
+    }
+
+    /**
+     * The text index covers the messages of a bucket as a whole, it finds the buckets with a matching tweet.
+     * The tweets in them are then matched by a case-insensitive search for any of the words, without the
+     * stemming and stop words of the text index.
+     */
+    @Override
+    public Flux<TwitterUser> search(String text, TweetCursor after, int limit) {
+        StringJoiner words = new StringJoiner("|");
+        for (String word : text.replace('"', ' ').trim().split("\\s+")) {
+            words.add(Pattern.quote(word));
+        }
+        return find(Filters.text(text), Filters.regex("tweets.tweetMessage", words.toString(), "i"), after, limit);
+    }
+
+    /**
+     * Unpacks the matching buckets on the server: one document per tweet, filtered, ordered and limited there,
+     * so only the page is sent back.
+     */
+    private Flux<TwitterUser> find(Bson bucketFilter, Bson tweetFilter, TweetCursor after, int limit) {
+        List<Bson> pipeline = Arrays.asList(
+                Aggregates.match(bucketFilter),
+                Aggregates.unwind("$tweets"),
+                Aggregates.match(after == null ? tweetFilter
+                        : Filters.and(tweetFilter, after.filter("tweets.dateTime", "tweets.tweetId"))),
+                Aggregates.sort(Sorts.ascending("tweets.dateTime", "tweets.tweetId")),
+                Aggregates.limit(limit));
+        return Flux.from(collection().aggregate(pipeline)).map(BucketTweetStore::toTwitterUser);
+    }
+
+    /**
+     * Buckets with a tweet in the range start before its end and have their last tweet at or after its start.
+     */
+    private Bson overlapping(Date from, Date to) {
+        return Filters.and(Filters.gt("start", new Date(from.getTime() - windowMillis)), Filters.lt("start", to),
+                Filters.gte("last", from));
+    }
+
+    /**
+     * Buckets before the cursor hold no tweets of the page, the cursor's own bucket may still hold later ones.
+     */
+    private static Date start(Date from, TweetCursor after) {
+        return after == null || after.getDateTime().before(from) ? from : after.getDateTime();
+    }
+
+    private static Bson inRange(Date from, Date to) {
+        return Filters.and(Filters.gte("tweets.dateTime", from), Filters.lt("tweets.dateTime", to));
+    }
+
+    /**
+     * Reads one unwound tweet, {@code { userName, tweets: { tweetId, retweetedId, dateTime, tweetMessage } }}.
+     */
+    static TwitterUser toTwitterUser(Document unwound) {
+        Document tweet = (Document) unwound.get("tweets");
+        return new TwitterUser(tweet.getDate("dateTime"), unwound.getString("userName"),
+                tweet.getString("tweetMessage"), tweet.getLong("tweetId"), tweet.getLong("retweetedId"));
+    }
+
+    private UpdateOneModel<Document> pushModel(String userName, Date start, List<Document> tweets) {
+        Date first = tweets.get(0).getDate("dateTime");
+        Date last = first;
+        for (Document tweet : tweets) {
+            Date dateTime = tweet.getDate("dateTime");
+            first = dateTime.before(first) ? dateTime : first;
+            last = dateTime.after(last) ? dateTime : last;
+        }
+        List<Long> tweetIds = new ArrayList<>(tweets.size());
+        for (Document tweet : tweets) {
+            tweetIds.add(tweet.getLong("tweetId"));
+        }
+        // a bucket holding one of the tweets does not match, the unique index rejects the upsert then
+        Bson filter = Filters.and(Filters.eq("userName", userName), Filters.eq("start", start),
+                Filters.lte("count", maxTweets - tweets.size()), Filters.nin("tweets.tweetId", tweetIds));
+        Bson update = Updates.combine(
+                Updates.pushEach("tweets", tweets),
+                Updates.inc("count", tweets.size()),
+                Updates.min("first", first),
+                Updates.max("last", last));
+        return new UpdateOneModel<>(filter, update, UPSERT);
+    }
+
+    private MongoCollection<Document> collection() {
+        return reactiveMongoTemplate.getCollection(collectionName).withWriteConcern(writeConcern);
+    }
+
+    private Date windowStart(TwitterUser twitterUser) {
+        long time = twitterUser.getDateTime().getTime();
+        return new Date(time - Math.floorMod(time, windowMillis));
+    }
+
+    private static Document tweetDocument(TwitterUser twitterUser) {
+        if (twitterUser.getTweetId() == null) {
+            twitterUser.setTweetId(TweetStore.contentId(twitterUser));
+        }
+        Document tweet = new Document("tweetId", twitterUser.getTweetId());
+        if (twitterUser.getRetweetedId() != null) {
+            tweet.append("retweetedId", twitterUser.getRetweetedId());
+        }
+        return tweet.append("dateTime", twitterUser.getDateTime())
+                .append("tweetMessage", twitterUser.getTweetMessage());
+    }
+
+    /**
+     * Tweets pushed into one bucket by one write.
+     */
+    private static final class BucketPush {
+
+        private final BucketKey key;
+
+        private final List<Document> tweets;
+
+        BucketPush(BucketKey key, List<Document> tweets) {
+            this.key = key;
+            this.tweets = tweets;
+        }
+    }
+
+    private static final class BucketKey {
+
+        private final String userName;
+
+        private final Date start;
+
+        BucketKey(String userName, Date start) {
+            this.userName = userName;
+            this.start = start;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof BucketKey)) {
+                return false;
+            }
+            BucketKey key = (BucketKey) other;
+            return userName.equals(key.userName) && start.equals(key.start);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * userName.hashCode() + start.hashCode();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package msg.receiver;
+
+import java.util.Date;
+import java.util.List;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link TweetStore} answering the queries for recent tweets of a user from a {@link TweetCache},
+ * enabled with {@code query.cache.enabled}. Tweets are added to the cache once their write to the wrapped
+ * store succeeded, so the cache never holds a tweet MongoDB does not; queries the cache cannot answer in full
+ * go to the wrapped store.
+ */
+public class CachingTweetStore implements TweetStore {
+
+    private final TweetStore tweetStore;
+
+    private final TweetCache tweetCache;
+
+    public CachingTweetStore(TweetStore tweetStore, TweetCache tweetCache) {
+        this.tweetStore = tweetStore;
+        this.tweetCache = tweetCache;
+    }
+
+    @Override
+    public void ensureIndexes() {
+        tweetStore.ensureIndexes();
+    }
+
+    @Override
+    public Mono<TwitterUser> upsert(TwitterUser twitterUser) {
+        return tweetStore.upsert(twitterUser).doOnSuccess(saved -> tweetCache.add(twitterUser));
+    }
+
+    @Override
+    public Mono<Long> upsertAll(List<TwitterUser> twitterUsers) {
+        return tweetStore.upsertAll(twitterUsers).doOnSuccess(inserted -> twitterUsers.forEach(tweetCache::add));
+    }
+
+    @Override
+    public Flux<TwitterUser> findByUserName(String userName, Date from, Date to, TweetCursor after, int limit) {
+        return Flux.defer(() -> {
+            List<TwitterUser> cached = tweetCache.findByUserName(userName, from, to, after, limit);
+            return cached != null ? Flux.fromIterable(cached)
+                    : tweetStore.findByUserName(userName, from, to, after, limit);
+        });
+    }
+
+    @Override
+    public Flux<TwitterUser> findByDateTime(Date from, Date to, TweetCursor after, int limit) {
+        return tweetStore.findByDateTime(from, to, after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> findByHashtag(String hashtag, Date from, Date to, TweetCursor after, int limit) {
+        // a receiver only caches the tweets of its partitions, a hashtag's are spread over all of them
+        return tweetStore.findByHashtag(hashtag, from, to, after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> search(String text, TweetCursor after, int limit) {
+        return tweetStore.search(text, after, limit);
+    }
+}
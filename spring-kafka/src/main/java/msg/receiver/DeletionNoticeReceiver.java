@@ -0,0 +1,126 @@
+package msg.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.ConsumerFactory;
+
+/**
+ * Consumes the deletion notices the sender forwards to {@code kafka.topic.deletions.name}, keyed by user id
+ * with the id of the deleted tweet as value, and drops the deleted tweets from the {@link TweetCache}.
+ * <p>
+ * Every receiver has a cache of its own, so every receiver reads all notices: its consumer is assigned all
+ * partitions of the topic and starts at their end, notices from before the start concern tweets the new cache
+ * does not hold. The consumer has no group and commits nothing, so no consumer group is left behind when the
+ * receiver stops. Partitions added to the topic later are not read until the receiver restarts.
+ */
+public class DeletionNoticeReceiver implements Runnable {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(DeletionNoticeReceiver.class);
+
+    private static final long POLL_TIMEOUT_MS = 1000;
+
+    private final ConsumerFactory<Long, Long> consumerFactory;
+
+    private final String topic;
+
+    private final TweetCache tweetCache;
+
+    private volatile boolean running;
+
+    private volatile Consumer<Long, Long> consumer;
+
+    private Thread thread;
+
+    /**
+     * @param consumerFactory creates consumers without a {@code group.id} and with auto-commit disabled
+     */
+    public DeletionNoticeReceiver(ConsumerFactory<Long, Long> consumerFactory, String topic, TweetCache tweetCache) {
+        this.consumerFactory = consumerFactory;
+        this.topic = topic;
+        this.tweetCache = tweetCache;
+    }
+
+    public void start() {
+        running = true;
+        thread = new Thread(this, "deletion-notices");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() throws InterruptedException {
+        running = false;
+        Consumer<Long, Long> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+        if (thread != null) {
+            thread.join(POLL_TIMEOUT_MS * 5);
+        }
+    }
+
+    @Override
+    public void run() {
+        try (Consumer<Long, Long> deletions = consumerFactory.createConsumer()) {
+            consumer = deletions;
+            List<TopicPartition> partitions = partitions(deletions);
+            if (partitions.isEmpty()) {
+                return;
+            }
+            deletions.assign(partitions);
+            deletions.seekToEnd(partitions);
+            logger.info("Reading deletion notices from {} partitions of {}", partitions.size(), topic);
+            while (running) {
+                for (ConsumerRecord<Long, Long> record : deletions.poll(POLL_TIMEOUT_MS)) {
+                    if (record.value() != null) {
+                        tweetCache.invalidate(record.value());
+                    }
+                }
+            }
+        } catch (WakeupException e) {
+            // stopped
+        } catch (RuntimeException e) {
+            logger.error("Deletion notices are no longer read, cached tweets may outlive their deletion", e);
+        } finally {
+            consumer = null;
+        }
+    }
+
+    /**
+     * Waits until the topic's partitions are known, the broker may not be up yet.
+     *
+     * @return the partitions, empty once stopped
+     */
+    private List<TopicPartition> partitions(Consumer<Long, Long> deletions) {
+        while (running) {
+            try {
+                List<PartitionInfo> infos = deletions.partitionsFor(topic);
+                if (infos != null && !infos.isEmpty()) {
+                    List<TopicPartition> partitions = new ArrayList<>(infos.size());
+                    for (PartitionInfo info : infos) {
+                        partitions.add(new TopicPartition(info.topic(), info.partition()));
+                    }
+                    return partitions;
+                }
+                Thread.sleep(POLL_TIMEOUT_MS);
+            } catch (WakeupException e) {
+                throw e;
+            } catch (KafkaException e) {
+                logger.warn("Partitions of {} not available yet: {}", topic, e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return new ArrayList<>();
+    }
+}
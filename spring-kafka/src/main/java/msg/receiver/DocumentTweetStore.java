@@ -0,0 +1,173 @@
+package msg.receiver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.TextIndexDefinition.TextIndexDefinitionBuilder;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * {@link TweetStore} with one MongoDB document per tweet, keyed on the tweet id, so writing a tweet again
+ * changes nothing. The default {@code mongo.storage.mode=document}.
+ * <p>
+ * Every write is an upsert by {@code _id} that only sets the fields when it inserts ({@code $setOnInsert}):
+ * a redelivered or duplicated tweet matches the existing document and costs an index lookup, no document write.
+ * Batches go out as one unordered bulk write, so the server may apply them in parallel and one failing tweet
+ * does not stop the rest.
+ * <p>
+ * The indexes queries rely on, user name with newest first, time and a text index on the message, are
+ * created on start-up by {@link #ensureIndexes()}. Writes use the write concern of the {@link MongoWriteProfile}.
+ */
+public class DocumentTweetStore implements TweetStore {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(DocumentTweetStore.class);
+
+    static final List<IndexDefinition> INDEXES = Arrays.asList(
+            new Index().on("userName", Sort.Direction.ASC).on("dateTime", Sort.Direction.DESC)
+                    .named("userName_dateTime").background(),
+            new Index().on("dateTime", Sort.Direction.DESC).named("dateTime").background(),
+            new TextIndexDefinitionBuilder().onField("tweetMessage").named("tweetMessage_text").build());
+
+    private static final Duration INDEX_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private final String collectionName;
+
+    private final WriteConcern writeConcern;
+
+    /**
+     * Stores the tweets in the collection of the {@link TwitterUser} entity.
+     */
+    public DocumentTweetStore(ReactiveMongoTemplate reactiveMongoTemplate, WriteConcern writeConcern) {
+        this(reactiveMongoTemplate, reactiveMongoTemplate.getCollectionName(TwitterUser.class), writeConcern);
+    }
+
+    public DocumentTweetStore(ReactiveMongoTemplate reactiveMongoTemplate, String collectionName,
+            WriteConcern writeConcern) {
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.collectionName = collectionName;
+        this.writeConcern = writeConcern;
+    }
+
+    /**
+     * Creates the {@link #INDEXES} that do not exist yet. Index builds run in the background on the server,
+     * a failure is logged and the receiver starts anyway, queries are only slower without them.
+     */
+    @Override
+    public void ensureIndexes() {
+        try {
+            Flux.fromIterable(INDEXES)
+                    .concatMap(index -> reactiveMongoTemplate.indexOps(collectionName).ensureIndex(index))
+                    .collectList()
+                    .block(INDEX_TIMEOUT);
+        } catch (RuntimeException e) {
+            logger.warn("Could not create the indexes of {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Inserts the tweet unless a tweet with its id is stored already.
+     *
+     * @return the tweet, with its tweet id set
+     */
+    @Override
+    public Mono<TwitterUser> upsert(TwitterUser twitterUser) {
+        UpdateOneModel<Document> upsert = upsertModel(twitterUser);
+        return Mono.from(collection().updateOne(upsert.getFilter(), upsert.getUpdate(), UPSERT))
+                .map(result -> twitterUser);
+    }
+
+    /**
+     * Inserts the tweets that are not stored already, in one unordered bulk write.
+     *
+     * @return the number of tweets inserted, tweets stored already are not counted
+     */
+    @Override
+    public Mono<Long> upsertAll(List<TwitterUser> twitterUsers) {
+        if (twitterUsers.isEmpty()) {
+            return Mono.just(0L);
+        }
+        List<WriteModel<Document>> upserts = new ArrayList<>(twitterUsers.size());
+        for (TwitterUser twitterUser : twitterUsers) {
+            upserts.add(upsertModel(twitterUser));
+        }
+        return Mono.from(collection().bulkWrite(upserts, UNORDERED))
+                .map(result -> (long) result.getUpserts().size());
+    }
+
+    @Override
+    public Flux<TwitterUser> findByUserName(String userName, Date from, Date to, TweetCursor after, int limit) {
+        return find(Filters.and(Filters.eq("userName", userName), Filters.gte("dateTime", from),
+                Filters.lt("dateTime", to)), after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> findByDateTime(Date from, Date to, TweetCursor after, int limit) {
+        return find(Filters.and(Filters.gte("dateTime", from), Filters.lt("dateTime", to)), after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> findByHashtag(String hashtag, Date from, Date to, TweetCursor after, int limit) {
+        return find(Filters.and(Filters.text(hashtag),
+                Filters.regex("tweetMessage", TweetStore.hashtagPattern(hashtag)),
+                Filters.gte("dateTime", from), Filters.lt("dateTime", to)), after, limit);
+    }
+
+    @Override
+    public Flux<TwitterUser> search(String text, TweetCursor after, int limit) {
+        return find(Filters.text(text), after, limit);
+    }
+
+    /**
+     * Reads from the driver rather than the template, the driver fetches as many documents per round trip as
+     * the subscriber requests, so a slow reader holds at most one batch in memory.
+     */
+    private Flux<TwitterUser> find(Bson filter, TweetCursor after, int limit) {
+        Bson query = after == null ? filter : Filters.and(filter, after.filter("dateTime", "_id"));
+        return Flux.from(collection().find(query).sort(Sorts.ascending("dateTime", "_id")).limit(limit))
+                .map(document -> reactiveMongoTemplate.getConverter().read(TwitterUser.class, document));
+    }
+
+    private MongoCollection<Document> collection() {
+        return reactiveMongoTemplate.getCollection(collectionName).withWriteConcern(writeConcern);
+    }
+
+    private UpdateOneModel<Document> upsertModel(TwitterUser twitterUser) {
+        if (twitterUser.getTweetId() == null) {
+            twitterUser.setTweetId(TweetStore.contentId(twitterUser));
+        }
+        Document document = new Document();
+        reactiveMongoTemplate.getConverter().write(twitterUser, document);
+        Object id = document.remove("_id");
+        return new UpdateOneModel<>(Filters.eq("_id", id), new Document("$setOnInsert", document), UPSERT);
+    }
+}
@@ -0,0 +1,139 @@
+package msg.receiver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+/**
+ * Bounds the number of MongoDB writes and bytes that the receivers have in flight.
+ * <p>
+ * The receivers subscribe to reactive writes and return immediately, so without a bound the
+ * listener keeps polling however far MongoDB falls behind. When either limit is reached the
+ * listener containers are paused; they are resumed once in-flight writes and bytes have drained
+ * to half of their limits. Pausing takes effect on the next poll, so the limits can be exceeded
+ * by at most one poll worth of records. The {@link KeyedWorkerPool} and {@link KeyedVirtualThreadExecutor}
+ * also keep the containers paused while they are {@link #setBacklogged backlogged}.
+ * <p>
+ * The counters are updated without locking; whether to pause or resume is decided under the limiter's lock
+ * from the counters as they are then, so a release that drains everything between an acquire's update and its
+ * pause cannot leave the containers paused.
+ * <p>
+ * The in-flight counts and the paused state are published as {@code tweets.write.inflight.*} gauges.
+ */
+public class InFlightWriteLimiter implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(InFlightWriteLimiter.class);
+
+    private final int maxInFlightWrites;
+
+    private final long maxInFlightBytes;
+
+    private final AtomicInteger inFlightWrites = new AtomicInteger();
+
+    private final AtomicLong inFlightBytes = new AtomicLong();
+
+    // guarded by this
+    private volatile boolean paused;
+
+    private volatile boolean backlogged;
+
+    @Autowired
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    public InFlightWriteLimiter(int maxInFlightWrites, long maxInFlightBytes) {
+        this.maxInFlightWrites = maxInFlightWrites;
+        this.maxInFlightBytes = maxInFlightBytes;
+    }
+
+    /**
+     * Records writes that are about to be subscribed, pausing the listener containers if a limit is reached.
+     *
+     * @param writes number of documents being written
+     * @param bytes approximate size of the records being written
+     */
+    public void acquire(int writes, long bytes) {
+        int currentWrites = inFlightWrites.addAndGet(writes);
+        long currentBytes = inFlightBytes.addAndGet(bytes);
+
+        if (currentWrites >= maxInFlightWrites || currentBytes >= maxInFlightBytes) {
+            pauseOrResume();
+        }
+    }
+
+    /**
+     * Records completed (or failed) writes, resuming the listener containers once they have drained.
+     *
+     * @param writes number of documents that completed
+     * @param bytes approximate size of the completed records, as passed to {@link #acquire(int, long)}
+     */
+    public void release(int writes, long bytes) {
+        int currentWrites = inFlightWrites.addAndGet(-writes);
+        long currentBytes = inFlightBytes.addAndGet(-bytes);
+
+        if (currentWrites <= maxInFlightWrites / 2 && currentBytes <= maxInFlightBytes / 2) {
+            pauseOrResume();
+        }
+    }
+
+    /**
+     * Keeps the listener containers paused while {@code true}, whatever the in-flight counts.
+     */
+    public void setBacklogged(boolean backlogged) {
+        this.backlogged = backlogged;
+        pauseOrResume();
+    }
+
+    private synchronized void pauseOrResume() {
+        int currentWrites = inFlightWrites.get();
+        long currentBytes = inFlightBytes.get();
+
+        if (!paused && (backlogged || currentWrites >= maxInFlightWrites || currentBytes >= maxInFlightBytes)) {
+            paused = true;
+            logger.warn("Pausing listener containers: {} writes / {} bytes in flight", currentWrites, currentBytes);
+            for (MessageListenerContainer container : kafkaListenerEndpointRegistry.getListenerContainers()) {
+                container.pause();
+            }
+        } else if (paused && !backlogged
+                && currentWrites <= maxInFlightWrites / 2 && currentBytes <= maxInFlightBytes / 2) {
+            paused = false;
+            logger.info("Resuming listener containers: {} writes / {} bytes in flight", currentWrites, currentBytes);
+            for (MessageListenerContainer container : kafkaListenerEndpointRegistry.getListenerContainers()) {
+                container.resume();
+            }
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tweets.write.inflight", this, InFlightWriteLimiter::getInFlightWrites)
+                .description("MongoDB writes subscribed but not completed")
+                .register(registry);
+        Gauge.builder("tweets.write.inflight.bytes", this, InFlightWriteLimiter::getInFlightBytes)
+                .register(registry);
+        Gauge.builder("tweets.write.inflight.paused", this, limiter -> limiter.isPaused() ? 1 : 0)
+                .description("1 while the listener containers are paused")
+                .register(registry);
+    }
+
+    public int getInFlightWrites() {
+        return inFlightWrites.get();
+    }
+
+    public long getInFlightBytes() {
+        return inFlightBytes.get();
+    }
+
+    public boolean isPaused() {
+        return paused;
+    }
+}
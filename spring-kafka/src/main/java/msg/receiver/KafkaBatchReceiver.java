@@ -0,0 +1,158 @@
+package msg.receiver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.kafka.annotation.KafkaListener;
+
+import msg.common.SampledLogger;
+import msg.model.TwitterUser;
+
+/**
+ * Batch variant of {@link KafkaReceiver}, enabled with {@code kafka.consumer.batch.enabled=true}.
+ * Each poll is handed over as a list of records and written to MongoDB with a single
+ * unordered bulk upsert instead of one round trip per tweet, see {@link TweetStore}.
+ * The batch size and linger time are configured on the consumer in {@link KafkaReceiverConfig}.
+ * A poll holding several topics is written with one bulk upsert per topic, see {@link TopicTweetStores}.
+ */
+public class KafkaBatchReceiver {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(KafkaBatchReceiver.class);
+
+    // Logged for every poll, so limited to a few lines a second per site
+    private static final SampledLogger receivedLogger = SampledLogger.perSecond(logger, 1);
+
+    private static final SampledLogger upsertedLogger = SampledLogger.perSecond(logger, 1);
+
+    private static final SampledLogger errorLogger = SampledLogger.perSecond(logger, 10);
+
+    @Autowired
+    private TweetStore tweetStore;
+
+    // The store of each topic; without it every record goes to tweetStore
+    @Autowired(required = false)
+    private TopicTweetStores topicTweetStores;
+
+    @Autowired
+    private InFlightWriteLimiter inFlightWriteLimiter;
+
+    @Autowired
+    private ReceiverMetrics receiverMetrics;
+
+    @Autowired
+    private WriteRetry writeRetry;
+
+    // Only present when kafka.consumer.manual.commit.enabled, kafka.consumer.workers.enabled or
+    // kafka.virtual.threads.enabled is true, which all turn auto-commit off; otherwise offsets are auto-committed
+    @Autowired(required = false)
+    private OffsetCommitTracker offsetCommitTracker;
+
+    // Only present when kafka.consumer.dedup.enabled=true, otherwise every record is written
+    @Autowired(required = false)
+    private TweetDeduplicator tweetDeduplicator;
+
+    // Only present when trending.enabled=true
+    @Autowired(required = false)
+    private TrendingAggregator trendingAggregator;
+
+    // kafka.topic.name, or the topics matching kafka.consumer.topic.pattern, see ReceiverTopics
+    @KafkaListener(topics = "#{@receiverTopics.listenerTopics}", topicPattern = "#{@receiverTopics.listenerPattern}",
+            containerFactory = "batchKafkaListenerContainerFactory")
+    public void receiveBatch(List<ConsumerRecord<Long, TwitterUser>> records, Consumer<?, ?> consumer) {
+        receivedLogger.info("Received batch of {} records", records.size());
+        receiverMetrics.received(records.size());
+        receiverMetrics.updateLag(consumer);
+
+        if (offsetCommitTracker != null) {
+            offsetCommitTracker.commitIfDue(consumer);
+        }
+
+        // A poll of a pattern subscription holds several topics, each is written to its own store
+        Map<String, List<ConsumerRecord<Long, TwitterUser>>> parsedRecords = new LinkedHashMap<>();
+        for (ConsumerRecord<Long, TwitterUser> record : records) {
+            if (offsetCommitTracker != null) {
+                offsetCommitTracker.track(record);
+            }
+            TwitterUser twitterUser = record.value();
+            if (twitterUser != null && tweetDeduplicator != null
+                    && !tweetDeduplicator.markSeen(record.topic(), twitterUser)) {
+                // Written already within the dedup window (or earlier in this batch)
+                if (offsetCommitTracker != null) {
+                    offsetCommitTracker.complete(record);
+                }
+            } else if (twitterUser != null) {
+                parsedRecords.computeIfAbsent(record.topic(), topic -> new ArrayList<>()).add(record);
+            } else {
+                errorLogger.error("Malformed message received at {}-{}@{}, skipping.",
+                             record.topic(), record.partition(), record.offset());
+                receiverMetrics.parseFailed();
+                if (offsetCommitTracker != null) {
+                    // Malformed records will never be written, don't let them hold back the commit
+                    offsetCommitTracker.complete(record);
+                }
+            }
+        }
+
+        // Nothing valid in this poll if empty, malformed records already logged, duplicates dropped
+        parsedRecords.forEach(this::write);
+    }
+
+    private void write(String topic, List<ConsumerRecord<Long, TwitterUser>> parsedRecords) {
+        List<TwitterUser> twitterUsers = new ArrayList<>(parsedRecords.size());
+        long recordBytes = 0;
+        for (ConsumerRecord<Long, TwitterUser> record : parsedRecords) {
+            twitterUsers.add(record.value());
+            recordBytes += Math.max(record.serializedValueSize(), 0);
+        }
+
+        int batchSize = twitterUsers.size();
+        long batchBytes = recordBytes;
+        inFlightWriteLimiter.acquire(batchSize, batchBytes);
+        try {
+            TweetStore store = topicTweetStores != null ? topicTweetStores.forTopic(topic) : tweetStore;
+            writeRetry.withRetries(() -> receiverMetrics.timeWrite(store.upsertAll(twitterUsers), "batch"))
+                .doFinally(signal -> inFlightWriteLimiter.release(batchSize, batchBytes))
+                .doOnSuccess(inserted -> {
+                    if (offsetCommitTracker != null) {
+                        parsedRecords.forEach(offsetCommitTracker::complete);
+                    }
+                    if (trendingAggregator != null) {
+                        twitterUsers.forEach(trendingAggregator::add);
+                    }
+                })
+                .doOnError(error -> failAll(topic, parsedRecords, twitterUsers))
+                .subscribe(
+                    inserted -> upsertedLogger.info("Inserted {} new of {} TwitterUsers", inserted, batchSize),
+                    error -> errorLogger.error("Failed to upsert batch of {} TwitterUsers: {}", batchSize, error.getMessage())
+                );
+        } catch (Exception e) {
+            // Synchronous failure before the reactive chain is established
+            inFlightWriteLimiter.release(batchSize, batchBytes);
+            failAll(topic, parsedRecords, twitterUsers);
+            logger.error("Unexpected synchronous error during upsert of {} TwitterUsers: {}",
+                         batchSize, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * A write that failed after the last retry is redelivered, the redelivered records have to be written rather
+     * than dropped as duplicates. Without manual commits they are lost.
+     */
+    private void failAll(String topic, List<ConsumerRecord<Long, TwitterUser>> parsedRecords,
+            List<TwitterUser> twitterUsers) {
+        if (tweetDeduplicator != null) {
+            twitterUsers.forEach(twitterUser -> tweetDeduplicator.forget(topic, twitterUser));
+        }
+        if (offsetCommitTracker != null) {
+            parsedRecords.forEach(offsetCommitTracker::fail);
+        }
+    }
+}
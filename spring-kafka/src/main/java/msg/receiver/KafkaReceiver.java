@@ -1,76 +1,165 @@
 package msg.receiver;
 
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.kafka.annotation.KafkaListener;
-import org.springframework.util.StringUtils;
 
-import msg.common.Constants; // Added import
+import msg.common.SampledLogger;
 import msg.model.TwitterUser;
-
-// Assuming TwitterUserRepository is in this package (msg.receiver) as per original file structure.
-// If it's actually in msg.repository, an import for msg.repository.TwitterUserRepository would be needed,
-// and the type of the field below would need to change.
-// For now, sticking to the original file's direct usage of TwitterUserRepository.
+import reactor.core.publisher.Mono;
 
 public class KafkaReceiver {
 
     private static final Logger logger = LoggerFactory
             .getLogger(KafkaReceiver.class);
 
+    // Logged for every record, so limited to a few lines a second per site
+    private static final SampledLogger receivedLogger = SampledLogger.perSecond(logger, 1);
+
+    private static final SampledLogger savedLogger = SampledLogger.perSecond(logger, 1);
+
+    private static final SampledLogger errorLogger = SampledLogger.perSecond(logger, 10);
+
     // int soh = 0x01; // This line is removed as per requirements
 
     @Autowired
-    private TwitterUserRepository twitterUserRepository; // Type kept as msg.receiver.TwitterUserRepository
-	 
-    @KafkaListener(topics = "${kafka.topic.name}") // Updated to use property placeholder
-    public void receiveMsg(String message) {
-        logger.info("Received message: [{}]", message); // Standardized logging
+    private TweetStore tweetStore;
 
-        String[] parts = StringUtils.split(message, Constants.MESSAGE_DELIMITER);
+    // The store of each topic; without it every record goes to tweetStore
+    @Autowired(required = false)
+    private TopicTweetStores topicTweetStores;
 
-        if (parts == null || parts.length != 3) {
-            logger.error("Malformed message received: [{}]. Expected 3 parts, but got {}.", 
-                         message, (parts == null ? 0 : parts.length));
-            return; // Skip further processing
-        }
+    @Autowired
+    private InFlightWriteLimiter inFlightWriteLimiter;
+
+    @Autowired
+    private ReceiverMetrics receiverMetrics;
+
+    @Autowired
+    private WriteRetry writeRetry;
+
+    // Only present when kafka.consumer.manual.commit.enabled, kafka.consumer.workers.enabled or
+    // kafka.virtual.threads.enabled is true, which all turn auto-commit off; otherwise offsets are auto-committed
+    @Autowired(required = false)
+    private OffsetCommitTracker offsetCommitTracker;
+
+    // Only present when kafka.consumer.dedup.enabled=true, otherwise every record is written
+    @Autowired(required = false)
+    private TweetDeduplicator tweetDeduplicator;
+
+    // Only present when trending.enabled=true
+    @Autowired(required = false)
+    private TrendingAggregator trendingAggregator;
+
+    // Only present in worker or virtual thread mode, otherwise writes are subscribed on the consumer thread
+    @Autowired(required = false)
+    private KeyedExecutor keyedExecutor;
+	 
+    // kafka.topic.name, or the topics matching kafka.consumer.topic.pattern, see ReceiverTopics
+    @KafkaListener(topics = "#{@receiverTopics.listenerTopics}", topicPattern = "#{@receiverTopics.listenerPattern}")
+    public void receiveMsg(ConsumerRecord<Long, TwitterUser> record, Consumer<?, ?> consumer) {
+        // The record value is decoded straight into the model by TwitterUserDeserializer
+        TwitterUser twitterUser = record.value();
+        receivedLogger.info("Received message: [{}]", twitterUser); // Standardized logging
+        receiverMetrics.received(1);
+        receiverMetrics.updateLag(consumer);
 
-        // Assuming TwitterUser.newInstance can handle a String array of 3 parts.
-        // If it expects specific types, conversions would be needed here.
-        TwitterUser twitterUser = TwitterUser.newInstance(parts);
+        if (offsetCommitTracker != null) {
+            offsetCommitTracker.commitIfDue(consumer);
+            offsetCommitTracker.track(record);
+        }
 
         if (twitterUser == null) {
-            // Log with "(Object) parts" to ensure parts.toString() is not misinterpreted by logger varargs
-            logger.error("Failed to create TwitterUser from parts: {}", (Object) parts);
+            errorLogger.error("Malformed message received at {}-{}@{}, skipping.",
+                         record.topic(), record.partition(), record.offset());
+            receiverMetrics.parseFailed();
+            // Malformed records will never be written, don't let them hold back the commit
+            if (offsetCommitTracker != null) {
+                offsetCommitTracker.complete(record);
+            }
             return; // Skip further processing
         }
+
+        if (tweetDeduplicator != null && !tweetDeduplicator.markSeen(record.topic(), twitterUser)) {
+            // Written already within the dedup window, only its offset is left to commit
+            if (offsetCommitTracker != null) {
+                offsetCommitTracker.complete(record);
+            }
+            return;
+        }
         
-        // Save to MongoDB with reactive error handling
-        // Assuming twitterUserRepository.save returns a Mono or Flux (common for Spring Data Reactive Repositories)
+        // Upsert by tweet id into MongoDB with reactive error handling, a redelivered tweet changes nothing
+        // The write counts against the in-flight limits until it completes, errors or is cancelled
+        long messageBytes = Math.max(record.serializedValueSize(), 0);
+        inFlightWriteLimiter.acquire(1, messageBytes);
         try {
-            twitterUserRepository.save(twitterUser)
-                .doOnError(e -> {
-                    // Using toString() on twitterUser for logging, assuming a sensible implementation.
-                    // Be cautious if twitterUser.toString() can throw exceptions or is very verbose.
-                    logger.error("Failed to save TwitterUser {}: {}", twitterUser.toString(), e.getMessage());
+            TweetStore store = topicTweetStores != null ? topicTweetStores.forTopic(record.topic()) : tweetStore;
+            Mono<TwitterUser> save = writeRetry
+                .withRetries(() -> receiverMetrics.timeWrite(store.upsert(twitterUser), "single"))
+                .doFinally(signal -> inFlightWriteLimiter.release(1, messageBytes))
+                .doOnSuccess(savedUser -> {
+                    if (offsetCommitTracker != null) {
+                        offsetCommitTracker.complete(record);
+                    }
+                    // Counted once written, a failed write is counted when its redelivery is written
+                    if (trendingAggregator != null) {
+                        trendingAggregator.add(twitterUser);
+                    }
                 })
-                .subscribe(
+                .doOnError(e -> {
+                    // Failed after the last retry: the record is redelivered, and has to be written then,
+                    // not dropped as a duplicate. Without manual commits it is lost.
+                    if (tweetDeduplicator != null) {
+                        tweetDeduplicator.forget(record.topic(), twitterUser);
+                    }
+                    if (offsetCommitTracker != null) {
+                        offsetCommitTracker.fail(record);
+                    }
+                    // twitterUser is formatted only if the line is written
+                    errorLogger.error("Failed to save TwitterUser {}: {}", twitterUser, e.getMessage());
+                });
+
+            if (keyedExecutor != null) {
+                // Each write is awaited before the next one of the same user (record key) starts, keeping their order
+                Object orderingKey = record.key() != null ? record.key() : record.partition();
+                keyedExecutor.execute(orderingKey, () -> awaitSave(save, twitterUser));
+                return;
+            }
+            save.subscribe(
                     savedUser -> {
-                        // Using toString() on savedUser for logging.
-                        logger.info("TwitterUser {} saved successfully", savedUser.toString());
+                        savedLogger.info("TwitterUser {} saved successfully", savedUser);
                     },
                     error -> {
                         // This error callback in subscribe is for errors that occur *after* doOnError
                         // or if doOnError itself fails, or for terminal errors in the reactive stream.
-                        logger.error("Error during subscribe phase for TwitterUser {}: {}", twitterUser.toString(), error.getMessage());
+                        errorLogger.error("Error during subscribe phase for TwitterUser {}: {}", twitterUser, error.getMessage());
                     }
                 );
         } catch (Exception e) {
             // This catch block is for any synchronous exceptions that might occur *before*
             // the reactive chain is even established, or if .save() itself is not fully reactive.
+            inFlightWriteLimiter.release(1, messageBytes);
+            if (tweetDeduplicator != null) {
+                tweetDeduplicator.forget(record.topic(), twitterUser);
+            }
+            if (offsetCommitTracker != null) {
+                offsetCommitTracker.fail(record);
+            }
             logger.error("Unexpected synchronous error during save operation for TwitterUser {}: {}", 
-                         twitterUser.toString(), e.getMessage(), e);
+                         twitterUser, e.getMessage(), e);
+        }
+    }
+
+    private void awaitSave(Mono<TwitterUser> save, TwitterUser twitterUser) {
+        try {
+            TwitterUser savedUser = save.block();
+            savedLogger.info("TwitterUser {} saved successfully", savedUser);
+        } catch (Exception e) {
+            // Already logged by doOnError, the worker moves on to the next record
+            logger.debug("Save of TwitterUser {} failed off the consumer thread", twitterUser, e);
         }
     }
 }
@@ -1,26 +1,64 @@
 package msg.receiver;
 
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
+import org.apache.kafka.clients.consumer.Consumer;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.common.serialization.IntegerDeserializer;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.LongDeserializer;
 import org.apache.kafka.common.serialization.IntegerSerializer;
-import org.apache.kafka.common.serialization.StringDeserializer;
 import org.apache.kafka.common.serialization.StringSerializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
 import org.springframework.kafka.annotation.EnableKafka;
+import org.springframework.kafka.annotation.KafkaListenerConfigurer;
 import org.springframework.kafka.config.ConcurrentKafkaListenerContainerFactory;
+import org.springframework.kafka.config.MethodKafkaListenerEndpoint;
 import org.springframework.kafka.core.ConsumerFactory;
 import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.listener.AbstractMessageListenerContainer.AckMode;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+import org.springframework.kafka.listener.config.ContainerProperties;
+import org.springframework.messaging.handler.annotation.support.DefaultMessageHandlerMethodFactory;
+import org.springframework.util.ReflectionUtils;
+
+import com.mongodb.WriteConcern;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import msg.common.BoundedVirtualThreadExecutor;
+import msg.common.PrometheusScrapeServer;
+import msg.common.TwitterUserDeserializer;
+import msg.model.TwitterUser;
 
 @Configuration
 @EnableKafka
 public class KafkaReceiverConfig {
 
+    private static final Logger logger = LoggerFactory
+            .getLogger(KafkaReceiverConfig.class);
+
     @Value("${kafka.bootstrap.servers}")
     private String bootstrapServers;
 
@@ -30,21 +68,168 @@ public class KafkaReceiverConfig {
     @Value("${kafka.consumer.client.id}") // Injected consumer client ID
     private String consumerClientId;
 
+    @Value("${kafka.topic.deletions.name:tweet-deletions}")
+    private String deletionsTopicName;
+
+    @Value("${kafka.topic.name}")
+    private String topicName;
+
+    @Value("${kafka.consumer.concurrency:1}")
+    private String concurrency;
+
+    @Value("${kafka.consumer.concurrency.auto.timeout.ms:10000}")
+    private int autoConcurrencyTimeoutMs;
+
+    @Value("${kafka.consumer.isolation.level:read_committed}")
+    private String isolationLevel;
+
+    @Value("${kafka.consumer.topic.pattern:}")
+    private String topicPattern;
+
+    @Value("${kafka.consumer.topic.concurrency:}")
+    private String topicConcurrency;
+
+    @Value("${kafka.consumer.workers.enabled:false}")
+    private boolean workersEnabled;
+
+    @Value("${kafka.consumer.workers:0}")
+    private int workers;
+
+    @Value("${kafka.consumer.worker.queue.capacity:256}")
+    private int workerQueueCapacity;
+
+    @Value("${kafka.virtual.threads.enabled:false}")
+    private boolean virtualThreadsEnabled;
+
+    @Value("${kafka.virtual.threads.max.concurrency:1000}")
+    private int virtualThreadsMaxConcurrency;
+
+    @Value("${kafka.consumer.batch.enabled:false}")
+    private boolean batchEnabled;
+
+    @Value("${kafka.consumer.batch.max.records:500}")
+    private int batchMaxRecords;
+
+    @Value("${kafka.consumer.batch.linger.ms:100}")
+    private int batchLingerMs;
+
+    @Value("${kafka.consumer.batch.min.bytes:1}")
+    private int batchMinBytes;
+
+    @Value("${kafka.consumer.max.inflight.writes:1000}")
+    private int maxInFlightWrites;
+
+    @Value("${kafka.consumer.max.inflight.bytes:16777216}")
+    private long maxInFlightBytes;
+
+    @Value("${kafka.consumer.manual.commit.enabled:false}")
+    private boolean manualCommitEnabled;
+
+    @Value("${kafka.consumer.commit.count:500}")
+    private int commitCount;
+
+    @Value("${kafka.consumer.commit.interval.ms:1000}")
+    private long commitIntervalMs;
+
+    @Value("${kafka.consumer.dedup.capacity:262144}")
+    private int dedupCapacity;
+
+    @Value("${kafka.consumer.dedup.window.ms:600000}")
+    private long dedupWindowMs;
+
+    @Value("${mongo.write.retries:5}")
+    private int writeRetries;
+
+    @Value("${mongo.write.retry.backoff.ms:100}")
+    private long writeRetryBackoffMs;
+
+    @Value("${mongo.write.retry.max.backoff.ms:5000}")
+    private long writeRetryMaxBackoffMs;
+
+    @Value("${mongo.write.profile:fast}")
+    private String mongoWriteProfile;
+
+    @Value("${mongo.storage.mode:document}")
+    private String storageMode;
+
+    @Value("${mongo.collection.topic.template:{collection}-{topic}}")
+    private String collectionTemplate;
+
+    @Value("${mongo.bucket.collection:twitterUserBuckets}")
+    private String bucketCollection;
+
+    @Value("${mongo.bucket.window.minutes:60}")
+    private long bucketWindowMinutes;
+
+    @Value("${mongo.bucket.max.tweets:200}")
+    private int bucketMaxTweets;
+
+    @Value("${metrics.prometheus.receiver.port:9402}")
+    private int prometheusPort;
+
+    @Value("${query.api.port:9403}")
+    private int queryApiPort;
+
+    @Value("${query.api.page.size:100}")
+    private int queryPageSize;
+
+    @Value("${query.api.max.page.size:1000}")
+    private int queryMaxPageSize;
+
+    @Value("${query.api.fetch.size:100}")
+    private int queryFetchSize;
+
+    @Value("${query.cache.max.entries:100000}")
+    private int cacheMaxEntries;
+
+    @Value("${query.cache.max.bytes:67108864}")
+    private long cacheMaxBytes;
+
+    @Value("${query.cache.ttl.ms:300000}")
+    private long cacheTtlMs;
+
+    @Value("${trending.collection:trending}")
+    private String trendingCollection;
+
+    @Value("${trending.window.minutes:15}")
+    private long trendingWindowMinutes;
+
+    @Value("${trending.slices:15}")
+    private int trendingSlices;
+
+    @Value("${trending.top.k:50}")
+    private int trendingTopK;
+
+    @Value("${trending.sketch.width:2048}")
+    private int trendingSketchWidth;
+
+    @Value("${trending.sketch.depth:4}")
+    private int trendingSketchDepth;
+
+    @Value("${trending.flush.interval.ms:10000}")
+    private long trendingFlushIntervalMs;
+
     @Bean
     public Map<String, Object> consumerConfigs() { // Return type specified for clarity
         Map<String, Object> props = new HashMap<>(); // Type specified for clarity
         props.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG,
                 bootstrapServers);
         props.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG,
-                IntegerDeserializer.class);
+                LongDeserializer.class);
+        // detects the text or binary wire format per record, whatever the producer is configured with
         props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG,
-                StringDeserializer.class);
+                TwitterUserDeserializer.class);
         // consumer groups allow a pool of processes to divide the work of
         // consuming and processing records
         props.put(ConsumerConfig.GROUP_ID_CONFIG, consumerGroupId); // Used injected property
         
         props.put(ConsumerConfig.CLIENT_ID_CONFIG, consumerClientId); // Used injected property
 
+        // with manual commits, offsets are committed by the OffsetCommitTracker once writes complete
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, !manualCommit());
+        // skips tweets of aborted sender transactions and holds back those of open ones
+        props.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, isolationLevel);
+
         return props;
     }
 
@@ -53,17 +238,393 @@ public class KafkaReceiverConfig {
         return new DefaultKafkaConsumerFactory<>(consumerConfigs());
     }
 
+    /**
+     * The topics the receivers consume and their consumer threads, see {@link ReceiverTopics}. The listeners
+     * subscribe through {@code #{@receiverTopics...}} expressions.
+     */
+    @Bean
+    public ReceiverTopics receiverTopics() {
+        return new ReceiverTopics(topicName, topicPattern, topicConcurrency);
+    }
+
     @Bean
-    public ConcurrentKafkaListenerContainerFactory kafkaListenerContainerFactory() {
+    public ConcurrentKafkaListenerContainerFactory kafkaListenerContainerFactory(ObjectProvider<TweetCache> tweetCache,
+            ReceiverMetrics receiverMetrics) {
+        return listenerContainerFactory(consumerFactory(), false, mainListenerConcurrency(),
+                tweetCache.getIfAvailable(), receiverMetrics);
+    }
+
+    private ConcurrentKafkaListenerContainerFactory listenerContainerFactory(ConsumerFactory consumerFactory,
+            boolean batch, int concurrency, TweetCache tweetCache, ReceiverMetrics receiverMetrics) {
         ConcurrentKafkaListenerContainerFactory factory = new ConcurrentKafkaListenerContainerFactory<>();
-        factory.setConsumerFactory(consumerFactory());
+        factory.setConsumerFactory(consumerFactory);
+        factory.setBatchListener(batch);
+        factory.setConcurrency(concurrency);
+        configureOffsetCommits(factory);
+        configureRebalanceListener(factory, tweetCache, receiverMetrics);
 
         return factory;
     }
 
+    /**
+     * Consumer configs for the batch listener: at most {@code kafka.consumer.batch.max.records}
+     * records per poll, and the broker holds a fetch for up to {@code kafka.consumer.batch.linger.ms}
+     * until {@code kafka.consumer.batch.min.bytes} are available.
+     */
+    public Map<String, Object> batchConsumerConfigs() {
+        Map<String, Object> props = new HashMap<>(consumerConfigs());
+        props.put(ConsumerConfig.MAX_POLL_RECORDS_CONFIG, batchMaxRecords);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, batchLingerMs);
+        props.put(ConsumerConfig.FETCH_MIN_BYTES_CONFIG, batchMinBytes);
+
+        return props;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.batch.enabled", havingValue = "true")
+    public ConcurrentKafkaListenerContainerFactory batchKafkaListenerContainerFactory(
+            ObjectProvider<TweetCache> tweetCache, ReceiverMetrics receiverMetrics) {
+        return listenerContainerFactory(new DefaultKafkaConsumerFactory<>(batchConsumerConfigs()), true,
+                mainListenerConcurrency(), tweetCache.getIfAvailable(), receiverMetrics);
+    }
+
+    /**
+     * A listener container per topic of {@code kafka.consumer.topic.concurrency} with its own number of consumer
+     * threads, calling the same receiver as the main listener.
+     */
+    @Bean
+    public KafkaListenerConfigurer dedicatedTopicListeners(ObjectProvider<KafkaReceiver> receiver,
+            ObjectProvider<KafkaBatchReceiver> batchReceiver, ObjectProvider<TweetCache> tweetCache,
+            ReceiverMetrics receiverMetrics, BeanFactory beanFactory, ApplicationEventPublisher eventPublisher) {
+        return registrar -> {
+            if (receiverTopics().getDedicatedTopics().isEmpty()) {
+                return;
+            }
+            DefaultMessageHandlerMethodFactory handlerMethodFactory = new DefaultMessageHandlerMethodFactory();
+            handlerMethodFactory.setBeanFactory(beanFactory);
+            handlerMethodFactory.afterPropertiesSet();
+            Object listener = batchEnabled ? batchReceiver.getObject() : receiver.getObject();
+            Method method = batchEnabled
+                    ? ReflectionUtils.findMethod(KafkaBatchReceiver.class, "receiveBatch", List.class, Consumer.class)
+                    : ReflectionUtils.findMethod(KafkaReceiver.class, "receiveMsg", ConsumerRecord.class,
+                            Consumer.class);
+            receiverTopics().getDedicatedTopics().forEach((topic, threads) -> {
+                MethodKafkaListenerEndpoint<Long, TwitterUser> endpoint = new MethodKafkaListenerEndpoint<>();
+                endpoint.setId("receiver-" + topic);
+                endpoint.setTopics(topic);
+                endpoint.setBean(listener);
+                endpoint.setMethod(method);
+                endpoint.setBatchListener(batchEnabled);
+                endpoint.setMessageHandlerMethodFactory(handlerMethodFactory);
+                endpoint.setBeanFactory(beanFactory);
+                ConcurrentKafkaListenerContainerFactory factory = listenerContainerFactory(
+                        batchEnabled ? new DefaultKafkaConsumerFactory<>(batchConsumerConfigs()) : consumerFactory(),
+                        batchEnabled, listenerConcurrency(threads, topic, null), tweetCache.getIfAvailable(),
+                        receiverMetrics);
+                // not a bean, the idle events the offset commits rely on need the publisher
+                factory.setApplicationEventPublisher(eventPublisher);
+                registrar.registerEndpoint(endpoint, factory);
+            });
+        };
+    }
+
+    private int mainListenerConcurrency() {
+        return listenerConcurrency(concurrency, topicName, receiverTopics().getListenerPattern());
+    }
+
+    /**
+     * Number of consumer threads of a listener: a fixed number, or {@code auto} for one thread per
+     * partition of its topic, or of all topics matching its pattern. Threads beyond the partition count
+     * would sit idle.
+     * <p>
+     * The partitions are looked up while the listener containers are created, waiting at most
+     * {@code kafka.consumer.concurrency.auto.timeout.ms}; startup fails if the broker does not answer in time.
+     */
+    private int listenerConcurrency(String threads, String topic, Pattern pattern) {
+        if (!ReceiverTopics.AUTO.equalsIgnoreCase(threads.trim())) {
+            return Integer.parseInt(threads.trim());
+        }
+        String topics = pattern == null ? "Topic " + topic : "Topics matching " + pattern;
+        try (Consumer<?, ?> consumer = partitionLookupConsumerFactory().createConsumer()) {
+            int partitionCount = 0;
+            if (pattern == null) {
+                List<PartitionInfo> partitions = consumer.partitionsFor(topic);
+                partitionCount = partitions == null ? 0 : partitions.size();
+            } else {
+                for (Map.Entry<String, List<PartitionInfo>> partitions : consumer.listTopics().entrySet()) {
+                    if (pattern.matcher(partitions.getKey()).matches()) {
+                        partitionCount += partitions.getValue().size();
+                    }
+                }
+            }
+            if (partitionCount == 0) {
+                logger.warn("{} have no partitions yet, using one consumer thread", topics);
+                return 1;
+            }
+            logger.info("{} have {} partitions, using as many consumer threads", topics, partitionCount);
+            return partitionCount;
+        } catch (KafkaException e) {
+            throw new IllegalStateException("Could not look up the partitions of " + topics + " within "
+                    + autoConcurrencyTimeoutMs + " ms for concurrency auto, start the broker or set a number of"
+                    + " consumer threads instead", e);
+        }
+    }
+
+    /**
+     * Consumers that only look up partitions, without a group and giving up after
+     * {@code kafka.consumer.concurrency.auto.timeout.ms} instead of the default {@code request.timeout.ms}
+     * of several minutes.
+     */
+    private ConsumerFactory<Object, Object> partitionLookupConsumerFactory() {
+        Map<String, Object> props = new HashMap<>(consumerConfigs());
+        props.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG, consumerClientId + "-partitions");
+        // request.timeout.ms has to exceed the session timeout and the fetch wait
+        props.put(ConsumerConfig.REQUEST_TIMEOUT_MS_CONFIG, autoConcurrencyTimeoutMs);
+        props.put(ConsumerConfig.SESSION_TIMEOUT_MS_CONFIG, autoConcurrencyTimeoutMs / 2);
+        props.put(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG, Math.min(500, autoConcurrencyTimeoutMs / 2));
+        return new DefaultKafkaConsumerFactory<>(props);
+    }
+
+    /**
+     * Worker and virtual thread modes need the {@link OffsetCommitTracker}: a record's offset may only be
+     * committed once it has been written off the consumer thread, not when the listener returns.
+     */
+    private boolean manualCommit() {
+        return manualCommitEnabled || workersEnabled || virtualThreadsEnabled;
+    }
+
+    /**
+     * With manual commits the container itself never commits (nothing is acknowledged); the
+     * {@link OffsetCommitTracker} commits on the consumer thread from the listeners, on idle events
+     * and before partitions are revoked, see {@link #configureRebalanceListener}.
+     */
+    private void configureOffsetCommits(ConcurrentKafkaListenerContainerFactory<?, ?> factory) {
+        if (manualCommit()) {
+            ContainerProperties containerProperties = factory.getContainerProperties();
+            containerProperties.setAckMode(AckMode.MANUAL);
+            containerProperties.setIdleEventInterval(commitIntervalMs);
+        }
+    }
+
+    /**
+     * On revocation the {@link OffsetCommitTracker} commits what was written, when it commits the offsets, and the
+     * lag gauges of the revoked partitions are zeroed. A user's tweets may be consumed by another receiver after a
+     * rebalance, the {@link TweetCache} is cleared so it does not answer for them with what it had.
+     */
+    private void configureRebalanceListener(ConcurrentKafkaListenerContainerFactory<?, ?> factory,
+            TweetCache tweetCache, ReceiverMetrics receiverMetrics) {
+        ConsumerAwareRebalanceListener commits = manualCommit() ? offsetCommitTracker() : null;
+        factory.getContainerProperties().setConsumerRebalanceListener(new ConsumerAwareRebalanceListener() {
+            @Override
+            public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                if (commits != null) {
+                    commits.onPartitionsRevokedBeforeCommit(consumer, partitions);
+                }
+            }
+
+            @Override
+            public void onPartitionsRevokedAfterCommit(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                if (commits != null) {
+                    commits.onPartitionsRevokedAfterCommit(consumer, partitions);
+                }
+                receiverMetrics.partitionsRevoked(partitions);
+                if (tweetCache != null) {
+                    tweetCache.clear();
+                }
+            }
+
+            @Override
+            public void onPartitionsAssigned(Consumer<?, ?> consumer, Collection<TopicPartition> partitions) {
+                if (commits != null) {
+                    commits.onPartitionsAssigned(consumer, partitions);
+                }
+            }
+        });
+    }
+
+    @Bean
+    @ConditionalOnExpression("${kafka.consumer.manual.commit.enabled:false} or ${kafka.consumer.workers.enabled:false}"
+            + " or ${kafka.virtual.threads.enabled:false}")
+    public OffsetCommitTracker offsetCommitTracker() {
+        return new OffsetCommitTracker(commitCount, commitIntervalMs);
+    }
+
+    /**
+     * Per-key write workers for {@link KafkaReceiver}, one per core unless {@code kafka.consumer.workers} is set.
+     * The batch receiver already writes a whole poll in one bulk insert and does not use them.
+     */
+    @Bean
+    @ConditionalOnExpression("${kafka.consumer.workers.enabled:false} and !${kafka.virtual.threads.enabled:false}")
+    public KeyedWorkerPool keyedWorkerPool(InFlightWriteLimiter inFlightWriteLimiter) {
+        int workerCount = workers > 0 ? workers : Runtime.getRuntime().availableProcessors();
+        return new KeyedWorkerPool(workerCount, workerQueueCapacity, inFlightWriteLimiter);
+    }
+
+    /**
+     * Virtual thread per record for {@link KafkaReceiver}, pausing the listener containers while
+     * {@code kafka.virtual.threads.max.concurrency} records are queued or running. Takes precedence over the
+     * worker pool when both are enabled.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "kafka.virtual.threads.enabled", havingValue = "true")
+    public KeyedVirtualThreadExecutor keyedVirtualThreadExecutor(InFlightWriteLimiter inFlightWriteLimiter) {
+        return new KeyedVirtualThreadExecutor(
+                new BoundedVirtualThreadExecutor("tweet-writer-", virtualThreadsMaxConcurrency),
+                inFlightWriteLimiter);
+    }
+
+    /**
+     * Replaces Spring Boot's conversions, so tweets stored before the date and tweet id changed can still be read.
+     */
+    @Bean
+    public MongoCustomConversions mongoCustomConversions() {
+        return new MongoCustomConversions(LegacyTweetConverters.all());
+    }
+
+    @Bean
+    public WriteRetry writeRetry() {
+        return new WriteRetry(writeRetries, writeRetryBackoffMs, writeRetryMaxBackoffMs);
+    }
+
+    @Bean
+    public InFlightWriteLimiter inFlightWriteLimiter() {
+        return new InFlightWriteLimiter(maxInFlightWrites, maxInFlightBytes);
+    }
+
+    /**
+     * Drops tweets written within the last {@code kafka.consumer.dedup.window.ms}, remembering up to
+     * {@code kafka.consumer.dedup.capacity} tweet ids per window.
+     */
     @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.dedup.enabled", havingValue = "true")
+    public TweetDeduplicator tweetDeduplicator() {
+        return new TweetDeduplicator(dedupCapacity, dedupWindowMs);
+    }
+
+    /**
+     * Upserts tweets by tweet id with the write concern of {@code mongo.write.profile}, creating the
+     * query indexes on start-up.
+     */
+    @Bean(initMethod = "ensureIndexes")
+    @ConditionalOnProperty(name = "mongo.storage.mode", havingValue = "document", matchIfMissing = true)
+    public TweetStore documentTweetStore(ReactiveMongoTemplate reactiveMongoTemplate,
+            ObjectProvider<TweetCache> tweetCache) {
+        return cached(new DocumentTweetStore(reactiveMongoTemplate,
+                MongoWriteProfile.of(mongoWriteProfile).getWriteConcern()), tweetCache.getIfAvailable());
+    }
+
+    /**
+     * Pushes tweets into per-user buckets of {@code mongo.bucket.window.minutes}, at most
+     * {@code mongo.bucket.max.tweets} each, with the write concern of {@code mongo.write.profile}.
+     */
+    @Bean(initMethod = "ensureIndexes")
+    @ConditionalOnProperty(name = "mongo.storage.mode", havingValue = "bucket")
+    public TweetStore bucketTweetStore(ReactiveMongoTemplate reactiveMongoTemplate,
+            ObjectProvider<TweetCache> tweetCache) {
+        return cached(new BucketTweetStore(reactiveMongoTemplate, bucketCollection,
+                MongoWriteProfile.of(mongoWriteProfile).getWriteConcern(),
+                Duration.ofMinutes(bucketWindowMinutes), bucketMaxTweets), tweetCache.getIfAvailable());
+    }
+
+    private static TweetStore cached(TweetStore tweetStore, TweetCache tweetCache) {
+        return tweetCache == null ? tweetStore : new CachingTweetStore(tweetStore, tweetCache);
+    }
+
+    /**
+     * The store of {@code kafka.topic.name} and one per other topic, in the collections of
+     * {@code mongo.collection.topic.template}, with the layout of {@code mongo.storage.mode}.
+     */
+    @Bean
+    public TopicTweetStores topicTweetStores(ReactiveMongoTemplate reactiveMongoTemplate, TweetStore tweetStore) {
+        WriteConcern writeConcern = MongoWriteProfile.of(mongoWriteProfile).getWriteConcern();
+        if ("bucket".equals(storageMode)) {
+            return new TopicTweetStores(receiverTopics(), tweetStore, bucketCollection, collectionTemplate,
+                    collection -> new BucketTweetStore(reactiveMongoTemplate, collection, writeConcern,
+                            Duration.ofMinutes(bucketWindowMinutes), bucketMaxTweets));
+        }
+        return new TopicTweetStores(receiverTopics(), tweetStore,
+                reactiveMongoTemplate.getCollectionName(TwitterUser.class), collectionTemplate,
+                collection -> new DocumentTweetStore(reactiveMongoTemplate, collection, writeConcern));
+    }
+
+    /**
+     * Recent tweets per user, {@code query.cache.ttl.ms} of them, for the query API, see
+     * {@link CachingTweetStore}.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "query.cache.enabled", havingValue = "true")
+    public TweetCache tweetCache() {
+        return new TweetCache(cacheMaxEntries, cacheMaxBytes, cacheTtlMs);
+    }
+
+    /**
+     * Reads all deletion notices from the latest on, assigned every partition without a consumer group.
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "query.cache.enabled", havingValue = "true")
+    public DeletionNoticeReceiver deletionNoticeReceiver(TweetCache tweetCache) {
+        Map<String, Object> props = new HashMap<>(consumerConfigs());
+        props.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, LongDeserializer.class);
+        props.remove(ConsumerConfig.GROUP_ID_CONFIG);
+        props.put(ConsumerConfig.CLIENT_ID_CONFIG, consumerClientId + "-deletions");
+        props.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        return new DeletionNoticeReceiver(new DefaultKafkaConsumerFactory<>(props), deletionsTopicName, tweetCache);
+    }
+
+    /**
+     * Top hashtags and users of the last {@code trending.window.minutes}, flushed to {@code trending.collection}
+     * under the client id and process of this receiver.
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "trending.enabled", havingValue = "true")
+    public TrendingAggregator trendingAggregator(ReactiveMongoTemplate reactiveMongoTemplate) {
+        long windowMillis = Duration.ofMinutes(trendingWindowMinutes).toMillis();
+        return new TrendingAggregator(
+                new SlidingTopK(windowMillis, trendingSlices, trendingTopK, trendingSketchWidth, trendingSketchDepth),
+                new SlidingTopK(windowMillis, trendingSlices, trendingTopK, trendingSketchWidth, trendingSketchDepth),
+                reactiveMongoTemplate, trendingCollection,
+                consumerClientId + "-" + ManagementFactory.getRuntimeMXBean().getName(), trendingFlushIntervalMs);
+    }
+
+    @Bean
+    public ReceiverMetrics receiverMetrics(MeterRegistry meterRegistry) {
+        return new ReceiverMetrics(meterRegistry);
+    }
+
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnExpression("'${metrics.registry:prometheus}' == 'prometheus' and ${metrics.prometheus.server.enabled:false}")
+    public PrometheusScrapeServer receiverPrometheusScrapeServer(PrometheusMeterRegistry meterRegistry) {
+        return new PrometheusScrapeServer(meterRegistry, prometheusPort);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "query.api.enabled", havingValue = "true")
+    public TweetQueryHandler tweetQueryHandler(TweetStore tweetStore, TopicTweetStores topicTweetStores) {
+        return new TweetQueryHandler(tweetStore, topicTweetStores, queryPageSize, queryMaxPageSize, queryFetchSize);
+    }
+
+    /**
+     * Streams stored tweets over HTTP on {@code query.api.port}, see {@link TweetQueryHandler}. Off unless
+     * {@code query.api.enabled=true}: the API has no authentication.
+     */
+    @Bean(initMethod = "start", destroyMethod = "stop")
+    @ConditionalOnProperty(name = "query.api.enabled", havingValue = "true")
+    public TweetQueryServer tweetQueryServer(TweetQueryHandler tweetQueryHandler) {
+        return new TweetQueryServer(tweetQueryHandler, queryApiPort);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.batch.enabled", havingValue = "false", matchIfMissing = true)
     public KafkaReceiver receiver() {
         return new KafkaReceiver();
     }
 
+    @Bean
+    @ConditionalOnProperty(name = "kafka.consumer.batch.enabled", havingValue = "true")
+    public KafkaBatchReceiver batchReceiver() {
+        return new KafkaBatchReceiver();
+    }
+
 }
@@ -0,0 +1,15 @@
+package msg.receiver;
+
+/**
+ * Runs tasks in submission order per key and concurrently across keys.
+ * {@link KafkaReceiver} uses it to write the tweets of one user in order, see {@link KeyedWorkerPool}
+ * and {@link KeyedVirtualThreadExecutor}.
+ */
+public interface KeyedExecutor {
+
+    /**
+     * Runs the task after all tasks submitted earlier for the same key. May block while the executor is
+     * at capacity, or pause the listener containers instead, see {@link KeyedWorkerPool}.
+     */
+    void execute(Object key, Runnable task);
+}
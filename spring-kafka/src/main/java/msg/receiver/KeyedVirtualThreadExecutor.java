@@ -0,0 +1,122 @@
+package msg.receiver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import msg.common.BoundedVirtualThreadExecutor;
+
+/**
+ * {@link KeyedExecutor} starting a virtual thread per record, enabled with
+ * {@code kafka.virtual.threads.enabled=true}.
+ * <p>
+ * Each task first waits for the previous task of its key, so per-user order is kept without a fixed
+ * number of workers: a user whose writes are slow only holds up their own records.
+ * <p>
+ * {@code execute} never blocks the listener thread, which would risk exceeding {@code max.poll.interval.ms}.
+ * Once {@code kafka.virtual.threads.max.concurrency} records are queued or running the executor marks the
+ * {@link InFlightWriteLimiter} backlogged, which pauses the listener containers, until they have drained to
+ * half of it. Records submitted meanwhile still get a thread, so the limit can be exceeded by at most one
+ * poll worth of records, as with {@link KeyedWorkerPool}.
+ */
+public class KeyedVirtualThreadExecutor implements KeyedExecutor {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(KeyedVirtualThreadExecutor.class);
+
+    private final BoundedVirtualThreadExecutor executor;
+
+    private final InFlightWriteLimiter inFlightWriteLimiter;
+
+    // key -> completion of the last task submitted for it, removed by that task once done
+    private final ConcurrentMap<Object, CompletableFuture<Void>> tails = new ConcurrentHashMap<>();
+
+    // tasks submitted and not finished, waiting for their key or running
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    // guarded by this, read without locking to skip the lock while not backlogged
+    private volatile boolean backlogged;
+
+    public KeyedVirtualThreadExecutor(BoundedVirtualThreadExecutor executor,
+            InFlightWriteLimiter inFlightWriteLimiter) {
+        this.executor = executor;
+        this.inFlightWriteLimiter = inFlightWriteLimiter;
+    }
+
+    /**
+     * Runs the task on a virtual thread after all tasks submitted earlier for the same key. Does not block,
+     * pauses the listener containers while {@code max.concurrency} tasks are pending.
+     */
+    @Override
+    public void execute(Object key, Runnable task) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        CompletableFuture<Void> previous = tails.put(key, done);
+        pendingTasks.incrementAndGet();
+        try {
+            executor.tryExecute(() -> {
+                try {
+                    if (previous != null) {
+                        previous.join();
+                    }
+                    task.run();
+                } finally {
+                    done.complete(null);
+                    tails.remove(key, done);
+                    pendingTasks.decrementAndGet();
+                    if (backlogged) {
+                        updateBacklog();
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            // never started, don't hold up later tasks of the key
+            done.complete(null);
+            tails.remove(key, done);
+            pendingTasks.decrementAndGet();
+            throw e;
+        }
+        if (backlogged || pendingTasks.get() >= executor.getMaxConcurrency()) {
+            updateBacklog();
+        }
+    }
+
+    /**
+     * Marks the limiter backlogged once {@code max.concurrency} tasks are pending and clears it once they
+     * have drained to half.
+     */
+    private synchronized void updateBacklog() {
+        int pending = pendingTasks.get();
+        int maxConcurrency = executor.getMaxConcurrency();
+        if (!backlogged && pending >= maxConcurrency) {
+            backlogged = true;
+            logger.warn("{} writes pending on virtual threads, pausing", pending);
+            inFlightWriteLimiter.setBacklogged(true);
+        } else if (backlogged && pending <= maxConcurrency / 2) {
+            backlogged = false;
+            logger.info("Virtual thread writes caught up, resuming");
+            inFlightWriteLimiter.setBacklogged(false);
+        }
+    }
+
+    /**
+     * Number of keys with a task queued or running.
+     */
+    public int getActiveKeys() {
+        return tails.size();
+    }
+
+    /**
+     * Number of tasks waiting for their key or running.
+     */
+    public int getPendingTasks() {
+        return pendingTasks.get();
+    }
+
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,128 @@
+package msg.receiver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link KeyedExecutor} with single-threaded workers, enabled with {@code kafka.consumer.workers.enabled=true}.
+ * <p>
+ * {@link KafkaReceiver} hands each record's MongoDB write to the worker chosen by the record key (the
+ * Twitter user id), so the writes of one user run one after the other in offset order while different
+ * users are written in parallel.
+ * <p>
+ * {@code execute} never blocks the consumer thread, which would risk exceeding {@code max.poll.interval.ms}.
+ * Once a worker has {@code queueCapacity} tasks queued the pool marks the {@link InFlightWriteLimiter}
+ * backlogged, which pauses the listener containers, until that worker's queue has drained to half of it.
+ * As with the limiter's own limits, a queue can exceed its capacity by at most one poll worth of records.
+ */
+public class KeyedWorkerPool implements KeyedExecutor {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(KeyedWorkerPool.class);
+
+    private final List<ThreadPoolExecutor> workers;
+
+    private final int queueCapacity;
+
+    private final InFlightWriteLimiter inFlightWriteLimiter;
+
+    // guarded by this
+    private final boolean[] backlogged;
+
+    // number of backlogged workers, read without locking to skip the lock while there are none
+    private volatile int backloggedWorkers;
+
+    public KeyedWorkerPool(int workerCount, int queueCapacity, InFlightWriteLimiter inFlightWriteLimiter) {
+        this.queueCapacity = queueCapacity;
+        this.inFlightWriteLimiter = inFlightWriteLimiter;
+        this.backlogged = new boolean[workerCount];
+        AtomicInteger threadNumber = new AtomicInteger();
+        workers = new ArrayList<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            ThreadPoolExecutor worker = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<>(),
+                    runnable -> new Thread(runnable, "tweet-writer-" + threadNumber.incrementAndGet()));
+            workers.add(worker);
+        }
+    }
+
+    /**
+     * Runs the task on the worker owning the given key, after all tasks submitted earlier for that key.
+     * Does not block, pauses the listener containers while the worker's queue is full.
+     */
+    @Override
+    public void execute(Object key, Runnable task) {
+        int index = workerIndex(key, workers.size());
+        ThreadPoolExecutor worker = workers.get(index);
+        worker.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                if (backloggedWorkers > 0) {
+                    updateBacklog(index);
+                }
+            }
+        });
+        if (backloggedWorkers > 0 || worker.getQueue().size() >= queueCapacity) {
+            updateBacklog(index);
+        }
+    }
+
+    /**
+     * Marks the worker backlogged once its queue is full and clears it once the queue has drained to half,
+     * pausing the listener containers while any worker is backlogged.
+     */
+    private synchronized void updateBacklog(int index) {
+        int queued = workers.get(index).getQueue().size();
+        if (!backlogged[index] && queued >= queueCapacity) {
+            backlogged[index] = true;
+            if (backloggedWorkers++ == 0) {
+                logger.warn("Write worker {} has {} queued writes, pausing", index, queued);
+                inFlightWriteLimiter.setBacklogged(true);
+            }
+        } else if (backlogged[index] && queued <= queueCapacity / 2) {
+            backlogged[index] = false;
+            if (--backloggedWorkers == 0) {
+                logger.info("Write workers caught up, resuming");
+                inFlightWriteLimiter.setBacklogged(false);
+            }
+        }
+    }
+
+    static int workerIndex(Object key, int workerCount) {
+        int hash = key == null ? 0 : key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), workerCount);
+    }
+
+    /**
+     * Number of tasks waiting in all worker queues.
+     */
+    public int getQueuedTasks() {
+        int queued = 0;
+        for (ThreadPoolExecutor worker : workers) {
+            queued += worker.getQueue().size();
+        }
+        return queued;
+    }
+
+    /**
+     * Lets queued writes finish, called by the application context on shutdown.
+     */
+    public void shutdown() throws InterruptedException {
+        for (ThreadPoolExecutor worker : workers) {
+            worker.shutdown();
+        }
+        for (ThreadPoolExecutor worker : workers) {
+            if (!worker.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Worker {} did not finish its {} queued writes", worker, worker.getQueue().size());
+            }
+        }
+    }
+}
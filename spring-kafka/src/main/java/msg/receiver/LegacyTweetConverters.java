@@ -0,0 +1,57 @@
+package msg.receiver;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.types.ObjectId;
+import org.springframework.core.convert.converter.Converter;
+import org.springframework.data.convert.ReadingConverter;
+
+import msg.model.TwitterUser;
+
+/**
+ * Reads tweet documents written before {@link TwitterUser} stored its date as a BSON date and its tweet id as
+ * {@code _id}: such documents hold the date as a {@link Date#toString()} string and a generated
+ * {@link ObjectId}.
+ * <p>
+ * The string date is parsed, the {@link ObjectId} is read as a {@code null} tweet id. Nothing is written back,
+ * so date range queries, which compare BSON dates, still do not match these documents.
+ */
+public final class LegacyTweetConverters {
+
+    private LegacyTweetConverters() {
+    }
+
+    public static List<Converter<?, ?>> all() {
+        return Arrays.asList(StringToDateConverter.INSTANCE, ObjectIdToLongConverter.INSTANCE);
+    }
+
+    @ReadingConverter
+    enum StringToDateConverter implements Converter<String, Date> {
+
+        INSTANCE;
+
+        /**
+         * @return the date, or {@code null} if it is not in {@link TwitterUser#DATE_TIME_FORMAT}
+         */
+        @Override
+        public Date convert(String source) {
+            return TwitterUser.parseDateTime(source);
+        }
+    }
+
+    @ReadingConverter
+    enum ObjectIdToLongConverter implements Converter<ObjectId, Long> {
+
+        INSTANCE;
+
+        /**
+         * @return always {@code null}, a generated id is not a tweet id
+         */
+        @Override
+        public Long convert(ObjectId source) {
+            return null;
+        }
+    }
+}
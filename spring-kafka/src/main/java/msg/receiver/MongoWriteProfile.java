@@ -0,0 +1,40 @@
+package msg.receiver;
+
+import java.util.Locale;
+
+import com.mongodb.WriteConcern;
+
+/**
+ * Named write concerns for the tweet writes, chosen with {@code mongo.write.profile}; set it per deployment,
+ * for example in an {@code application-<profile>.properties}.
+ * <p>
+ * {@link #FAST} is acknowledged by the primary once the write is in memory, fine for a single node where
+ * lost tweets are redelivered from Kafka anyway. {@link #JOURNALED} also waits for the primary's journal.
+ * {@link #DURABLE} waits for a majority of the replica set and their journals, so an acknowledged tweet
+ * survives a failover.
+ */
+public enum MongoWriteProfile {
+
+    FAST(WriteConcern.W1.withJournal(false)),
+
+    JOURNALED(WriteConcern.W1.withJournal(true)),
+
+    DURABLE(WriteConcern.MAJORITY.withJournal(true));
+
+    private final WriteConcern writeConcern;
+
+    MongoWriteProfile(WriteConcern writeConcern) {
+        this.writeConcern = writeConcern;
+    }
+
+    /**
+     * Returns the profile with the given name, ignoring case.
+     */
+    public static MongoWriteProfile of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    public WriteConcern getWriteConcern() {
+        return writeConcern;
+    }
+}
@@ -0,0 +1,231 @@
+package msg.receiver;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.event.EventListener;
+import org.springframework.kafka.event.ListenerContainerIdleEvent;
+import org.springframework.kafka.listener.ConsumerAwareRebalanceListener;
+
+/**
+ * Commits offsets only for records whose MongoDB write has completed, enabled with
+ * {@code kafka.consumer.manual.commit.enabled=true}.
+ * <p>
+ * Receivers {@link #track(ConsumerRecord) track} each record on the consumer thread before subscribing
+ * to its write and {@link #complete(ConsumerRecord) complete} it from whatever thread the write finishes on.
+ * Each partition keeps a high-water mark: the offset after the highest contiguous completed record.
+ * High-water marks are committed asynchronously, from the consumer thread, once
+ * {@code kafka.consumer.commit.count} records of one of the consumer's partitions have completed or
+ * {@code kafka.consumer.commit.interval.ms} has elapsed since the consumer last committed, either on the next
+ * listener call or on the container's idle event. One tracker serves all consumers of all containers, so the
+ * counts are kept per partition and the timer per consumer; a consumer only ever commits its own assignment.
+ * <p>
+ * A record whose write failed for good is {@link #fail(ConsumerRecord) failed} instead: its partition is sought
+ * back to it on the consumer thread, so it and the records after it are delivered again, while the high-water
+ * mark stays below it.
+ * <p>
+ * A failed asynchronous commit is only logged; the next commit for the partition supersedes it.
+ */
+public class OffsetCommitTracker implements ConsumerAwareRebalanceListener {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(OffsetCommitTracker.class);
+
+    private final int commitCount;
+
+    private final long commitIntervalMs;
+
+    private final ConcurrentMap<TopicPartition, PartitionOffsets> partitions = new ConcurrentHashMap<>();
+
+    // lowest failed offset per partition, not yet sought back to
+    private final ConcurrentMap<TopicPartition, Long> failed = new ConcurrentHashMap<>();
+
+    // partitions with commit.count completions since their last commit
+    private final Set<TopicPartition> dueByCount = ConcurrentHashMap.newKeySet();
+
+    // consumer -> time it last committed, consumers not seen yet count from the tracker's creation
+    private final ConcurrentMap<Consumer<?, ?>, Long> lastCommitTimes = new ConcurrentHashMap<>();
+
+    private final long createdTime = System.currentTimeMillis();
+
+    public OffsetCommitTracker(int commitCount, long commitIntervalMs) {
+        this.commitCount = commitCount;
+        this.commitIntervalMs = commitIntervalMs;
+    }
+
+    /**
+     * Registers a record whose write is about to start. Must be called on the consumer thread,
+     * in offset order per partition.
+     */
+    public void track(ConsumerRecord<?, ?> record) {
+        partitions.computeIfAbsent(new TopicPartition(record.topic(), record.partition()), tp -> new PartitionOffsets())
+            .track(record.offset());
+    }
+
+    /**
+     * Marks the write of a tracked record as finished. Records that were skipped (for example malformed
+     * messages) must be completed too, otherwise the high-water mark of their partition stops advancing.
+     */
+    public void complete(ConsumerRecord<?, ?> record) {
+        TopicPartition topicPartition = new TopicPartition(record.topic(), record.partition());
+        PartitionOffsets offsets = partitions.get(topicPartition);
+        if (offsets != null && offsets.complete(record.offset()) >= commitCount) {
+            dueByCount.add(topicPartition);
+        }
+    }
+
+    /**
+     * Marks the write of a tracked record as failed, it is redelivered once the consumer of its partition
+     * next calls {@link #commitIfDue(Consumer)}.
+     */
+    public void fail(ConsumerRecord<?, ?> record) {
+        failed.merge(new TopicPartition(record.topic(), record.partition()), record.offset(), Math::min);
+    }
+
+    /**
+     * Seeks back to failed records, then commits the high-water marks of the consumer's partitions if one of
+     * them reached the count or the consumer's time threshold is reached. Must be called on the consumer thread.
+     */
+    public void commitIfDue(Consumer<?, ?> consumer) {
+        if (!failed.isEmpty()) {
+            seekToFailed(consumer);
+        }
+        long lastCommitTime = lastCommitTimes.getOrDefault(consumer, createdTime);
+        if (System.currentTimeMillis() - lastCommitTime >= commitIntervalMs
+                || (!dueByCount.isEmpty() && ownsAny(consumer, dueByCount))) {
+            commit(consumer);
+        }
+    }
+
+    private static boolean ownsAny(Consumer<?, ?> consumer, Set<TopicPartition> topicPartitions) {
+        Set<TopicPartition> assignment = consumer.assignment();
+        for (TopicPartition topicPartition : topicPartitions) {
+            if (assignment.contains(topicPartition)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @EventListener
+    public void onIdle(ListenerContainerIdleEvent event) {
+        commitIfDue(event.getConsumer());
+    }
+
+    @Override
+    public void onPartitionsRevokedBeforeCommit(Consumer<?, ?> consumer, Collection<TopicPartition> revoked) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(revoked);
+        if (!offsets.isEmpty()) {
+            consumer.commitSync(offsets);
+        }
+        // Writes still in flight or failed for revoked partitions are redelivered to the new owner
+        partitions.keySet().removeAll(revoked);
+        failed.keySet().removeAll(revoked);
+        dueByCount.removeAll(revoked);
+    }
+
+    private void seekToFailed(Consumer<?, ?> consumer) {
+        for (TopicPartition topicPartition : consumer.assignment()) {
+            Long offset = failed.remove(topicPartition);
+            if (offset == null) {
+                continue;
+            }
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null) {
+                partitionOffsets.rewind(offset);
+            }
+            logger.warn("Write of {}@{} failed, seeking back to redeliver it", topicPartition, offset);
+            consumer.seek(topicPartition, offset);
+        }
+    }
+
+    private void commit(Consumer<?, ?> consumer) {
+        lastCommitTimes.put(consumer, System.currentTimeMillis());
+        Set<TopicPartition> assignment = consumer.assignment();
+        dueByCount.removeAll(assignment);
+
+        Map<TopicPartition, OffsetAndMetadata> offsets = committableOffsets(assignment);
+        if (offsets.isEmpty()) {
+            return;
+        }
+        consumer.commitAsync(offsets, (committed, ex) -> {
+            if (ex != null) {
+                logger.error("Failed to commit offsets {}: {}", committed, ex.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Returns the high-water marks of the given partitions that advanced since they were last taken, and
+     * restarts their completion counts.
+     */
+    Map<TopicPartition, OffsetAndMetadata> committableOffsets(Collection<TopicPartition> assignment) {
+        Map<TopicPartition, OffsetAndMetadata> offsets = new HashMap<>();
+        for (TopicPartition topicPartition : assignment) {
+            PartitionOffsets partitionOffsets = partitions.get(topicPartition);
+            if (partitionOffsets != null) {
+                long offset = partitionOffsets.takeCommittable();
+                if (offset >= 0) {
+                    offsets.put(topicPartition, new OffsetAndMetadata(offset));
+                }
+            }
+        }
+        return offsets;
+    }
+
+    private static final class PartitionOffsets {
+
+        // tracked offset -> write completed
+        private final TreeMap<Long, Boolean> pending = new TreeMap<>();
+
+        private long highWaterMark = -1;
+
+        private long committed = -1;
+
+        private int completedSinceCommit;
+
+        synchronized void track(long offset) {
+            pending.put(offset, Boolean.FALSE);
+        }
+
+        /**
+         * @return the records completed since the last commit, 0 if the offset was not tracked
+         */
+        synchronized int complete(long offset) {
+            if (pending.replace(offset, Boolean.TRUE) == null) {
+                return 0;
+            }
+            while (!pending.isEmpty() && pending.firstEntry().getValue()) {
+                highWaterMark = pending.pollFirstEntry().getKey() + 1;
+            }
+            return ++completedSinceCommit;
+        }
+
+        /**
+         * Forgets the offsets from {@code offset} on, they are tracked again when redelivered.
+         */
+        synchronized void rewind(long offset) {
+            pending.tailMap(offset, true).clear();
+        }
+
+        synchronized long takeCommittable() {
+            completedSinceCommit = 0;
+            if (highWaterMark <= committed) {
+                return -1;
+            }
+            committed = highWaterMark;
+            return committed;
+        }
+    }
+}
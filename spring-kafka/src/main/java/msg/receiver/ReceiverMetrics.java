@@ -0,0 +1,147 @@
+package msg.receiver;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Meters of the receiver stages: records consumed, records that could not be parsed, MongoDB write latency
+ * and consumer lag per partition. In-flight writes are bound by {@link InFlightWriteLimiter}.
+ */
+public class ReceiverMetrics {
+
+    static final String FETCH_METRICS_GROUP = "consumer-fetch-manager-metrics";
+
+    private static final long LAG_UPDATE_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final MeterRegistry registry;
+
+    private final Counter recordsReceived;
+
+    private final Counter parseFailures;
+
+    private final Map<String, Timer> writeTimers = new ConcurrentHashMap<>();
+
+    private final Map<TopicPartition, AtomicLong> lags = new ConcurrentHashMap<>();
+
+    // consumers are confined to their container thread, so is the time of their last lag update
+    private final ThreadLocal<long[]> nextLagUpdate = ThreadLocal.withInitial(() -> new long[1]);
+
+    public ReceiverMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        recordsReceived = Counter.builder("tweets.received")
+                .description("Records consumed from Kafka")
+                .register(registry);
+        parseFailures = Counter.builder("tweets.parse.failures")
+                .description("Records skipped because their value could not be parsed")
+                .register(registry);
+    }
+
+    public void received(int records) {
+        recordsReceived.increment(records);
+    }
+
+    public void parseFailed() {
+        parseFailures.increment();
+    }
+
+    /**
+     * Times {@code write} from subscription until it completes, tagged with {@code mode} (single or batch) and
+     * the result.
+     */
+    public <T> Mono<T> timeWrite(Mono<T> write, String mode) {
+        return Mono.defer(() -> {
+            long startNanos = System.nanoTime();
+            return write
+                    .doOnSuccess(value -> writeTimer(mode, "success").record(System.nanoTime() - startNanos,
+                            TimeUnit.NANOSECONDS))
+                    .doOnError(e -> writeTimer(mode, "failure").record(System.nanoTime() - startNanos,
+                            TimeUnit.NANOSECONDS));
+        });
+    }
+
+    private Timer writeTimer(String mode, String result) {
+        return writeTimers.computeIfAbsent(mode + '/' + result, key -> Timer.builder("tweets.write")
+                .description("MongoDB write latency")
+                .tags("mode", mode, "result", result)
+                .publishPercentileHistogram()
+                .register(registry));
+    }
+
+    /**
+     * Copies the consumer's per-partition {@code records-lag} into {@code kafka.consumer.lag} gauges, at most
+     * once a second per consumer. Must be called on the consumer's thread.
+     */
+    public void updateLag(Consumer<?, ?> consumer) {
+        long[] next = nextLagUpdate.get();
+        long now = System.nanoTime();
+        if (now - next[0] < 0) {
+            return;
+        }
+        next[0] = now + LAG_UPDATE_INTERVAL_NANOS;
+        for (Map.Entry<MetricName, ? extends Metric> metric : consumer.metrics().entrySet()) {
+            TopicPartition partition = lagPartition(metric.getKey());
+            Object value = partition == null ? null : metric.getValue().metricValue();
+            if (value instanceof Double && !((Double) value).isNaN()) {
+                lags.computeIfAbsent(partition, this::registerLagGauge).set(((Double) value).longValue());
+            }
+        }
+    }
+
+    /**
+     * Zeroes the {@code kafka.consumer.lag} gauges of revoked partitions, so this receiver stops reporting the
+     * last lag it saw for a partition another consumer reads now. Micrometer 1.0 cannot remove a gauge; the next
+     * {@link #updateLag} sets it again if the partition is assigned back.
+     */
+    public void partitionsRevoked(Collection<TopicPartition> partitions) {
+        for (TopicPartition partition : partitions) {
+            AtomicLong lag = lags.get(partition);
+            if (lag != null) {
+                lag.set(0);
+            }
+        }
+    }
+
+    /**
+     * Returns the partition of a per-partition lag metric: named {@code <topic>-<partition>.records-lag} up to
+     * kafka-clients 1.0, {@code records-lag} with topic and partition tags from 1.1 on.
+     */
+    static TopicPartition lagPartition(MetricName name) {
+        if (!FETCH_METRICS_GROUP.equals(name.group())) {
+            return null;
+        }
+        if (name.name().endsWith(".records-lag")) {
+            String topicPartition = name.name().substring(0, name.name().length() - ".records-lag".length());
+            int dash = topicPartition.lastIndexOf('-');
+            if (dash > 0) {
+                return new TopicPartition(topicPartition.substring(0, dash),
+                        Integer.parseInt(topicPartition.substring(dash + 1)));
+            }
+        } else if ("records-lag".equals(name.name()) && name.tags().containsKey("partition")) {
+            return new TopicPartition(name.tags().get("topic"), Integer.parseInt(name.tags().get("partition")));
+        }
+        return null;
+    }
+
+    private AtomicLong registerLagGauge(TopicPartition partition) {
+        AtomicLong lag = new AtomicLong();
+        Gauge.builder("kafka.consumer.lag", lag, AtomicLong::get)
+                .description("Records between the last fetched offset and the end of the partition")
+                .tags("topic", partition.topic(), "partition", String.valueOf(partition.partition()))
+                .register(registry);
+        return lag;
+    }
+}
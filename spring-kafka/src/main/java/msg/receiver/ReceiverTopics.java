@@ -0,0 +1,122 @@
+package msg.receiver;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.regex.Pattern;
+
+import org.springframework.util.StringUtils;
+
+/**
+ * The topics the receivers consume: {@code kafka.topic.name}, or with {@code kafka.consumer.topic.pattern} every
+ * topic matching it, including topics created while the receivers run.
+ * <p>
+ * Topics listed in {@code kafka.consumer.topic.concurrency} as {@code topic:threads} are consumed by a listener
+ * container of their own with that many consumer threads, {@code auto} for one per partition. A hot stream
+ * whose topic has more partitions gets more threads without adding idle ones to the quiet streams; the other
+ * topics share the main listener and {@code kafka.consumer.concurrency}. The pattern leaves the listed topics
+ * out, so no topic is consumed twice.
+ */
+public class ReceiverTopics {
+
+    public static final String AUTO = "auto";
+
+    private final String defaultTopic;
+
+    private final Pattern pattern;
+
+    private final Pattern listenerPattern;
+
+    private final Map<String, String> dedicatedTopics = new LinkedHashMap<>();
+
+    /**
+     * @param pattern the topics of the main listener, empty for {@code defaultTopic} alone
+     * @param topicConcurrency comma separated {@code topic:threads}, may be empty
+     */
+    public ReceiverTopics(String defaultTopic, String pattern, String topicConcurrency) {
+        this.defaultTopic = defaultTopic;
+        this.pattern = StringUtils.hasText(pattern) ? Pattern.compile(pattern.trim()) : null;
+        for (String entry : StringUtils.commaDelimitedListToStringArray(topicConcurrency)) {
+            if (!StringUtils.hasText(entry)) {
+                continue;
+            }
+            String[] parts = StringUtils.split(entry.trim(), ":");
+            if (parts == null || parts[0].trim().isEmpty()) {
+                throw invalidEntry(entry);
+            }
+            dedicatedTopics.put(parts[0].trim(), concurrency(entry, parts[1].trim()));
+        }
+        if (this.pattern == null && dedicatedTopics.containsKey(defaultTopic)) {
+            throw new IllegalArgumentException("Without kafka.consumer.topic.pattern the threads of " + defaultTopic
+                    + " are set with kafka.consumer.concurrency");
+        }
+        this.listenerPattern = this.pattern == null ? null : excludingDedicated(this.pattern);
+    }
+
+    private static String concurrency(String entry, String threads) {
+        if (AUTO.equalsIgnoreCase(threads)) {
+            return AUTO;
+        }
+        int count;
+        try {
+            count = Integer.parseInt(threads);
+        } catch (NumberFormatException e) {
+            throw invalidEntry(entry);
+        }
+        if (count < 1) {
+            throw new IllegalArgumentException("Consumer threads must be positive: " + threads);
+        }
+        return threads;
+    }
+
+    private static IllegalArgumentException invalidEntry(String entry) {
+        return new IllegalArgumentException("Expected topic:threads in kafka.consumer.topic.concurrency"
+                + " but got '" + entry + "'");
+    }
+
+    private Pattern excludingDedicated(Pattern pattern) {
+        if (dedicatedTopics.isEmpty()) {
+            return pattern;
+        }
+        StringJoiner dedicated = new StringJoiner("|", "(?!(?:", ")$)");
+        for (String topic : dedicatedTopics.keySet()) {
+            dedicated.add(Pattern.quote(topic));
+        }
+        return Pattern.compile(dedicated + "(?:" + pattern.pattern() + ")");
+    }
+
+    /**
+     * The topics the main listener subscribes to by name: {@code kafka.topic.name} without a pattern, none with one.
+     */
+    public String[] getListenerTopics() {
+        return pattern == null ? new String[] {defaultTopic} : new String[0];
+    }
+
+    /**
+     * The pattern the main listener subscribes with, without the topics of a listener of their own; {@code null}
+     * without a pattern.
+     */
+    public Pattern getListenerPattern() {
+        return listenerPattern;
+    }
+
+    /**
+     * The topics with a listener of their own and its number of consumer threads, a number or {@link #AUTO}.
+     */
+    public Map<String, String> getDedicatedTopics() {
+        return Collections.unmodifiableMap(dedicatedTopics);
+    }
+
+    public String getDefaultTopic() {
+        return defaultTopic;
+    }
+
+    /**
+     * Whether the receivers consume the topic, by name or pattern.
+     */
+    public boolean consumes(String topic) {
+        return topic.equals(defaultTopic) || dedicatedTopics.containsKey(topic)
+                || (pattern != null && pattern.matcher(topic).matches());
+    }
+}
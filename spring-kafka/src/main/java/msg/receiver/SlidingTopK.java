@@ -0,0 +1,216 @@
+package msg.receiver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.LongSupplier;
+
+import msg.common.CountMinSketch;
+
+/**
+ * The {@code k} most frequent keys of a sliding time window, in bounded memory.
+ * <p>
+ * The window is split into slices of equal length, each counting its keys in a {@link CountMinSketch}. When a
+ * slice ends, the oldest one is cleared and reused for the next, so the window moves on by one slice at a
+ * time. The count of a key is the sum of its estimates in all slices.
+ * <p>
+ * The top keys are kept with their counts in a map and an ordered set. A counted key replaces the least
+ * frequent top key once its count is higher; when a slice ends, the counts of the top keys are estimated
+ * again, and keys no longer seen in the window are dropped. A key that was frequent only in slices outside
+ * the top does not come back until it is counted again, so the top is approximate at slice boundaries.
+ * <p>
+ * Memory is {@code slices * width * depth} counters plus {@code k} keys, whatever the number of distinct keys.
+ * Thread-safe.
+ */
+public class SlidingTopK {
+
+    private static final Comparator<Candidate> ORDER = Comparator.comparingLong((Candidate c) -> c.count)
+            .thenComparing(c -> c.key);
+
+    private final CountMinSketch[] slices;
+
+    private final long sliceMillis;
+
+    private final int k;
+
+    private final LongSupplier clock;
+
+    private final Map<String, Candidate> candidates = new HashMap<>();
+
+    // least frequent first
+    private final TreeSet<Candidate> ranking = new TreeSet<>(ORDER);
+
+    private int current;
+
+    private long sliceStart;
+
+    public SlidingTopK(long windowMillis, int sliceCount, int k, int sketchWidth, int sketchDepth) {
+        this(windowMillis, sliceCount, k, sketchWidth, sketchDepth, System::currentTimeMillis);
+    }
+
+    SlidingTopK(long windowMillis, int sliceCount, int k, int sketchWidth, int sketchDepth, LongSupplier clock) {
+        if (sliceCount < 1 || k < 1 || windowMillis < sliceCount) {
+            throw new IllegalArgumentException("Window, slices and k must be positive");
+        }
+        this.slices = new CountMinSketch[sliceCount];
+        for (int i = 0; i < sliceCount; i++) {
+            slices[i] = new CountMinSketch(sketchWidth, sketchDepth);
+        }
+        this.sliceMillis = windowMillis / sliceCount;
+        this.k = k;
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.sliceStart = now - Math.floorMod(now, sliceMillis);
+    }
+
+    public synchronized void add(String key) {
+        advance(clock.getAsLong());
+        long hash = CountMinSketch.hash(key);
+        slices[current].add(hash, 1);
+        long count = estimate(hash);
+        Candidate candidate = candidates.get(key);
+        if (candidate != null) {
+            ranking.remove(candidate);
+            candidate.count = count;
+            ranking.add(candidate);
+        } else if (candidates.size() < k) {
+            rank(new Candidate(key, hash, count));
+        } else if (count > ranking.first().count) {
+            candidates.remove(ranking.pollFirst().key);
+            rank(new Candidate(key, hash, count));
+        }
+    }
+
+    /**
+     * The top keys of the window, most frequent first.
+     */
+    public synchronized List<Count> top() {
+        advance(clock.getAsLong());
+        List<Count> top = new ArrayList<>(ranking.size());
+        for (Candidate candidate : ranking.descendingSet()) {
+            top.add(new Count(candidate.key, candidate.count));
+        }
+        return top;
+    }
+
+    /**
+     * Number of keys counted in the window.
+     */
+    public synchronized long getTotal() {
+        advance(clock.getAsLong());
+        long total = 0;
+        for (CountMinSketch slice : slices) {
+            total += slice.getTotal();
+        }
+        return total;
+    }
+
+    /**
+     * Start of the oldest slice of the window, the window ends now.
+     */
+    public synchronized long getWindowStart() {
+        advance(clock.getAsLong());
+        return sliceStart - (slices.length - 1) * sliceMillis;
+    }
+
+    private long estimate(long hash) {
+        long count = 0;
+        for (CountMinSketch slice : slices) {
+            count += slice.estimate(hash);
+        }
+        return count;
+    }
+
+    private void advance(long now) {
+        long ended = (now - sliceStart) / sliceMillis;
+        if (ended <= 0) {
+            return;
+        }
+        for (long i = 0; i < Math.min(ended, slices.length); i++) {
+            current = (current + 1) % slices.length;
+            slices[current].clear();
+        }
+        sliceStart += ended * sliceMillis;
+        List<Candidate> recounted = new ArrayList<>(ranking);
+        ranking.clear();
+        for (Candidate candidate : recounted) {
+            candidate.count = estimate(candidate.hash);
+            ranking.add(candidate);
+        }
+        Iterator<Candidate> leastFrequent = ranking.iterator();
+        while (leastFrequent.hasNext()) {
+            Candidate candidate = leastFrequent.next();
+            if (candidate.count > 0) {
+                break;
+            }
+            leastFrequent.remove();
+            candidates.remove(candidate.key);
+        }
+    }
+
+    private void rank(Candidate candidate) {
+        candidates.put(candidate.key, candidate);
+        ranking.add(candidate);
+    }
+
+    /**
+     * A key with its estimated count in the window.
+     */
+    public static final class Count {
+
+        private final String key;
+
+        private final long count;
+
+        public Count(String key, long count) {
+            this.key = key;
+            this.count = count;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Count)) {
+                return false;
+            }
+            Count other = (Count) o;
+            return key.equals(other.key) && count == other.count;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * key.hashCode() + Long.hashCode(count);
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count;
+        }
+    }
+
+    private static final class Candidate {
+
+        private final String key;
+
+        private final long hash;
+
+        private long count;
+
+        Candidate(String key, long hash, long count) {
+            this.key = key;
+            this.hash = hash;
+            this.count = count;
+        }
+    }
+}
@@ -1,14 +1,15 @@
 package msg.receiver;
 
-import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.annotation.Import;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 
+import msg.common.MetricsConfig;
 import msg.model.TwitterUser;
 
 /**
@@ -20,11 +21,9 @@ import msg.model.TwitterUser;
  */
 @EnableAutoConfiguration
 @SpringBootApplication
+@Import(MetricsConfig.class)
 public class SpringKafkaApplicationReceiverMain implements CommandLineRunner {
 
-	 @Autowired
-	 private KafkaReceiver kafkaReceiver;
-
 	    public static void main(String[] args)  {
 		ConfigurableApplicationContext applicationContext =	new SpringApplicationBuilder(SpringKafkaApplicationReceiverMain.class)
 			.web(WebApplicationType.NONE).run(args);
@@ -38,6 +37,6 @@ public class SpringKafkaApplicationReceiverMain implements CommandLineRunner {
 		}
 }
 
-interface TwitterUserRepository extends ReactiveMongoRepository<TwitterUser, String> {
+interface TwitterUserRepository extends ReactiveMongoRepository<TwitterUser, Long> {
 	
 }
\ No newline at end of file
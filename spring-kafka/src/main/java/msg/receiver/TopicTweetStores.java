@@ -0,0 +1,106 @@
+package msg.receiver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * The {@link TweetStore} of each topic the receivers consume. Tweets of {@code kafka.topic.name} go to the store
+ * of {@code mongo.storage.mode} as before, those of every other topic to a collection of their own, named by
+ * {@code mongo.collection.topic.template}: {@code {collection}} is the collection of {@code kafka.topic.name}
+ * and {@code {topic}} the topic. Streams are stored, indexed and dropped separately and their queries do not
+ * scan the tweets of the others.
+ * <p>
+ * The store of a topic is created when the first tweet of the topic arrives; its indexes are ensured in the
+ * background, so the listener thread does not wait for MongoDB to build them. Queries only read the stores
+ * created so far. Only the store of {@code kafka.topic.name} is in front of the {@link TweetCache}.
+ */
+public class TopicTweetStores {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TopicTweetStores.class);
+
+    private final ReceiverTopics receiverTopics;
+
+    private final TweetStore defaultStore;
+
+    private final String defaultCollection;
+
+    private final String collectionTemplate;
+
+    private final Function<String, TweetStore> storeFactory;
+
+    private final Executor indexExecutor;
+
+    private final ConcurrentMap<String, TweetStore> stores = new ConcurrentHashMap<>();
+
+    /**
+     * @param defaultStore the store of {@code kafka.topic.name}, writing to {@code defaultCollection}
+     * @param storeFactory creates the store writing to a collection
+     */
+    public TopicTweetStores(ReceiverTopics receiverTopics, TweetStore defaultStore, String defaultCollection,
+            String collectionTemplate, Function<String, TweetStore> storeFactory) {
+        this(receiverTopics, defaultStore, defaultCollection, collectionTemplate, storeFactory,
+                task -> Schedulers.elastic().schedule(task));
+    }
+
+    /**
+     * @param indexExecutor runs {@link TweetStore#ensureIndexes()} of new stores
+     */
+    TopicTweetStores(ReceiverTopics receiverTopics, TweetStore defaultStore, String defaultCollection,
+            String collectionTemplate, Function<String, TweetStore> storeFactory, Executor indexExecutor) {
+        this.receiverTopics = receiverTopics;
+        this.defaultStore = defaultStore;
+        this.defaultCollection = defaultCollection;
+        this.collectionTemplate = collectionTemplate;
+        this.storeFactory = storeFactory;
+        this.indexExecutor = indexExecutor;
+    }
+
+    /**
+     * The store of a topic the receivers consume, created if it does not exist yet. For the listeners.
+     *
+     * @throws IllegalArgumentException if the receivers do not consume the topic
+     */
+    public TweetStore forTopic(String topic) {
+        if (topic.equals(receiverTopics.getDefaultTopic())) {
+            return defaultStore;
+        }
+        TweetStore store = stores.get(topic);
+        if (store != null) {
+            return store;
+        }
+        if (!receiverTopics.consumes(topic)) {
+            throw new IllegalArgumentException("Topic " + topic + " is not consumed by the receivers");
+        }
+        // creating a store only creates an object, the loser of a race drops its own
+        String collection = collectionFor(topic);
+        TweetStore created = storeFactory.apply(collection);
+        store = stores.putIfAbsent(topic, created);
+        if (store != null) {
+            return store;
+        }
+        logger.info("Storing the tweets of topic {} in {}", topic, collection);
+        indexExecutor.execute(created::ensureIndexes);
+        return created;
+    }
+
+    /**
+     * The store of a topic that tweets were written to, for queries: a query never creates a store.
+     *
+     * @return the store, or {@code null} if no tweet of the topic was received
+     */
+    public TweetStore existing(String topic) {
+        return topic.equals(receiverTopics.getDefaultTopic()) ? defaultStore : stores.get(topic);
+    }
+
+    String collectionFor(String topic) {
+        return collectionTemplate.replace("{collection}", defaultCollection).replace("{topic}", topic);
+    }
+}
@@ -0,0 +1,181 @@
+package msg.receiver;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Mono;
+
+/**
+ * Streaming aggregation of the tweets the receivers wrote: the most tweeted hashtags and the most active
+ * users of the last {@code trending.window.minutes}, counted in a {@link SlidingTopK} each, enabled with
+ * {@code trending.enabled}.
+ * <p>
+ * Every {@code trending.flush.interval.ms} the top {@code trending.top.k} of both are written to the
+ * {@code trending.collection}, one document per receiver and kind that is replaced on every flush:
+ * <pre>
+ * { _id: "hashtags/receiver-1", kind: "hashtags", instance: "receiver-1", windowStart, windowEnd, total,
+ *   top: [ { key: "java", count: 42 }, ... ] }
+ * </pre>
+ * Dashboards read these few documents instead of aggregating the tweet collection. A receiver only counts
+ * the partitions it consumes: the users of different receivers never overlap, the counts of a hashtag are
+ * summed over the documents of all receivers. Documents of receivers that stopped flushing expire through a
+ * TTL index on {@code updatedAt}.
+ * <p>
+ * Within one document counts are estimates that may be somewhat too high, never too low, see
+ * {@link msg.common.CountMinSketch}. Sums over receivers hold no such bound: a hashtag that is not in the top
+ * of a receiver adds nothing for it, so its sum can be too low, and a hashtag that is frequent overall but in no
+ * receiver's top is missing altogether. The flushed top lists rank hashtags well when each receiver sees a
+ * similar mix of tags; exact global counts would need the sketches themselves merged.
+ */
+public class TrendingAggregator {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TrendingAggregator.class);
+
+    static final String HASHTAGS = "hashtags";
+
+    static final String USERS = "users";
+
+    private static final Duration INDEX_TIMEOUT = Duration.ofSeconds(30);
+
+    private static final UpdateOptions UPSERT = new UpdateOptions().upsert(true);
+
+    private static final BulkWriteOptions UNORDERED = new BulkWriteOptions().ordered(false);
+
+    // documents outlive a few missed flushes before they expire
+    private static final int EXPIRE_AFTER_FLUSHES = 3;
+
+    private final SlidingTopK hashtags;
+
+    private final SlidingTopK users;
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+
+    private final String collectionName;
+
+    private final String instanceId;
+
+    private final long flushIntervalMs;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "trending-flusher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public TrendingAggregator(SlidingTopK hashtags, SlidingTopK users, ReactiveMongoTemplate reactiveMongoTemplate,
+            String collectionName, String instanceId, long flushIntervalMs) {
+        this.hashtags = hashtags;
+        this.users = users;
+        this.reactiveMongoTemplate = reactiveMongoTemplate;
+        this.collectionName = collectionName;
+        this.instanceId = instanceId;
+        this.flushIntervalMs = flushIntervalMs;
+    }
+
+    /**
+     * Counts a tweet that was written to MongoDB for its user and each of its hashtags.
+     */
+    public void add(TwitterUser twitterUser) {
+        if (twitterUser.getUserName() != null) {
+            users.add(twitterUser.getUserName());
+        }
+        for (String hashtag : TweetStore.hashtags(twitterUser.getTweetMessage())) {
+            hashtags.add(hashtag);
+        }
+    }
+
+    /**
+     * Creates the TTL index and starts flushing, a failed index build is logged and the flushes start anyway.
+     */
+    public void start() {
+        long expireAfterSeconds = Math.max(TimeUnit.MILLISECONDS.toSeconds(flushIntervalMs * EXPIRE_AFTER_FLUSHES),
+                60);
+        try {
+            reactiveMongoTemplate.indexOps(collectionName)
+                    .ensureIndex(new Index().on("updatedAt", Sort.Direction.ASC)
+                            .expire(expireAfterSeconds).named("updatedAt_ttl"))
+                    .block(INDEX_TIMEOUT);
+        } catch (RuntimeException e) {
+            logger.warn("Could not create the TTL index of {}: {}", collectionName, e.getMessage());
+        }
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMs, flushIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops flushing after writing the current counts once more.
+     */
+    public void stop() throws InterruptedException {
+        scheduler.shutdown();
+        scheduler.awaitTermination(flushIntervalMs, TimeUnit.MILLISECONDS);
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush().block(Duration.ofMillis(Math.max(flushIntervalMs, 1000)));
+        } catch (RuntimeException e) {
+            // the next flush replaces the documents anyway
+            logger.warn("Could not flush the trending counts to {}: {}", collectionName, e.getMessage());
+        }
+    }
+
+    /**
+     * Replaces the documents of this receiver with the current top hashtags and users in one bulk write.
+     */
+    Mono<Void> flush() {
+        Date now = new Date();
+        List<WriteModel<Document>> replacements = Arrays.asList(
+                replacement(snapshot(HASHTAGS, hashtags, now)),
+                replacement(snapshot(USERS, users, now)));
+        return Mono.from(reactiveMongoTemplate.getCollection(collectionName).bulkWrite(replacements, UNORDERED))
+                .then();
+    }
+
+    Document snapshot(String kind, SlidingTopK counts, Date now) {
+        List<Document> top = new ArrayList<>();
+        for (SlidingTopK.Count count : counts.top()) {
+            top.add(new Document("key", count.getKey()).append("count", count.getCount()));
+        }
+        return new Document("_id", kind + "/" + instanceId)
+                .append("kind", kind)
+                .append("instance", instanceId)
+                .append("windowStart", new Date(counts.getWindowStart()))
+                .append("windowEnd", now)
+                .append("total", counts.getTotal())
+                .append("top", top)
+                .append("updatedAt", now);
+    }
+
+    private static ReplaceOneModel<Document> replacement(Document snapshot) {
+        return new ReplaceOneModel<>(Filters.eq("_id", snapshot.get("_id")), snapshot, UPSERT);
+    }
+
+    public SlidingTopK getHashtags() {
+        return hashtags;
+    }
+
+    public SlidingTopK getUsers() {
+        return users;
+    }
+}
@@ -0,0 +1,255 @@
+package msg.receiver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import msg.model.TwitterUser;
+
+/**
+ * The tweets of the last {@code query.cache.ttl.ms} per user, so the queries for what a user just tweeted are
+ * answered without MongoDB. Filled by {@link CachingTweetStore} with every tweet the receivers
+ * write, removed again on the deletion notices {@link DeletionNoticeReceiver} consumes.
+ * <p>
+ * An entry knows since when it holds all tweets of its user: since it was created, or since the
+ * start of the TTL once older tweets have been dropped. A query starting before that, or for a key without an
+ * entry, is a miss and goes to MongoDB. The least recently used entries are evicted once there are more than
+ * {@code query.cache.max.entries} of them or their tweets take more than {@code query.cache.max.bytes}.
+ * <p>
+ * All tweets of a user are consumed by one receiver, on the partition of the user. When partitions move to
+ * another receiver, the cache is cleared so it never answers for a user whose tweets go elsewhere now.
+ * Hashtags are not cached: the tweets of a hashtag are spread over all partitions, a receiver only sees those of
+ * its own.
+ * <p>
+ * Hits, misses and evictions are published as {@code tweets.cache.*} meters.
+ */
+public class TweetCache implements MeterBinder {
+
+    private static final Comparator<TwitterUser> ORDER = Comparator.comparing(TwitterUser::getDateTime)
+            .thenComparing(TwitterUser::getTweetId);
+
+    // object headers, fields and the date of a cached tweet, its strings are added per character
+    private static final int TWEET_OVERHEAD_BYTES = 128;
+
+    private final int maxEntries;
+
+    private final long maxBytes;
+
+    private final long ttlMillis;
+
+    private final LongSupplier clock;
+
+    // access order, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // the cached tweets by id
+    private final Map<Long, CachedTweet> tweets = new HashMap<>();
+
+    private long bytes;
+
+    private final LongAdder hits = new LongAdder();
+
+    private final LongAdder misses = new LongAdder();
+
+    private final LongAdder evictions = new LongAdder();
+
+    public TweetCache(int maxEntries, long maxBytes, long ttlMillis) {
+        this(maxEntries, maxBytes, ttlMillis, System::currentTimeMillis);
+    }
+
+    TweetCache(int maxEntries, long maxBytes, long ttlMillis, LongSupplier clock) {
+        if (maxEntries < 1 || maxBytes < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Cache size and TTL must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlMillis = ttlMillis;
+        this.clock = clock;
+    }
+
+    /**
+     * Adds a tweet that was written to MongoDB to the entry of its user.
+     */
+    public synchronized void add(TwitterUser twitterUser) {
+        if (twitterUser.getTweetId() == null || twitterUser.getDateTime() == null) {
+            return;
+        }
+        long now = clock.getAsLong();
+        if (twitterUser.getDateTime().getTime() < now - ttlMillis || tweets.containsKey(twitterUser.getTweetId())) {
+            return;
+        }
+        CachedTweet cached = new CachedTweet(twitterUser);
+        tweets.put(twitterUser.getTweetId(), cached);
+        Entry entry = entries.computeIfAbsent(twitterUser.getUserName(), k -> new Entry(now));
+        expire(entry, now);
+        entry.tweets.add(twitterUser);
+        bytes += cached.bytes;
+        evict();
+    }
+
+    /**
+     * Tweets of a user, as {@link TweetStore#findByUserName} would return them.
+     *
+     * @return the tweets, or {@code null} if the cache does not hold all of them
+     */
+    public synchronized List<TwitterUser> findByUserName(String userName, Date from, Date to, TweetCursor after,
+            int limit) {
+        Entry entry = entries.get(userName);
+        if (entry != null) {
+            expire(entry, clock.getAsLong());
+        }
+        if (entry == null || from.getTime() < entry.completeSince) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        TwitterUser start = after != null && !after.getDateTime().before(from)
+                ? probe(after.getDateTime(), after.getTweetId()) : probe(from, Long.MIN_VALUE);
+        boolean inclusive = after == null || after.getDateTime().before(from);
+        List<TwitterUser> found = new ArrayList<>(Math.min(limit, entry.tweets.size()));
+        for (TwitterUser twitterUser : entry.tweets.tailSet(start, inclusive)) {
+            if (found.size() == limit || !twitterUser.getDateTime().before(to)) {
+                break;
+            }
+            found.add(twitterUser);
+        }
+        return found;
+    }
+
+    /**
+     * Removes a deleted tweet from the entry of its user.
+     */
+    public synchronized void invalidate(long tweetId) {
+        CachedTweet cached = tweets.remove(tweetId);
+        if (cached == null) {
+            return;
+        }
+        Entry entry = entries.get(cached.twitterUser.getUserName());
+        if (entry != null && entry.tweets.remove(cached.twitterUser)) {
+            bytes -= cached.bytes;
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        tweets.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Drops the tweets older than the TTL, the entry is complete from the start of the TTL on.
+     */
+    private void expire(Entry entry, long now) {
+        long expiredBefore = now - ttlMillis;
+        if (entry.completeSince < expiredBefore) {
+            entry.completeSince = expiredBefore;
+        }
+        Iterator<TwitterUser> oldest = entry.tweets.iterator();
+        while (oldest.hasNext()) {
+            TwitterUser twitterUser = oldest.next();
+            if (twitterUser.getDateTime().getTime() >= expiredBefore) {
+                break;
+            }
+            oldest.remove();
+            release(twitterUser);
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> eldest = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+            Entry entry = eldest.next();
+            eldest.remove();
+            entry.tweets.forEach(this::release);
+            evictions.increment();
+        }
+    }
+
+    private void release(TwitterUser twitterUser) {
+        CachedTweet cached = tweets.remove(twitterUser.getTweetId());
+        if (cached != null) {
+            bytes -= cached.bytes;
+        }
+    }
+
+    private static TwitterUser probe(Date dateTime, long tweetId) {
+        return new TwitterUser(dateTime, null, null, tweetId);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tweets.cache.hits", hits, LongAdder::sum)
+                .description("Queries answered from the tweet cache")
+                .register(registry);
+        FunctionCounter.builder("tweets.cache.misses", misses, LongAdder::sum)
+                .description("Queries the tweet cache could not answer")
+                .register(registry);
+        FunctionCounter.builder("tweets.cache.evictions", evictions, LongAdder::sum)
+                .description("Users evicted from the tweet cache")
+                .register(registry);
+        Gauge.builder("tweets.cache.size", this, TweetCache::getSize)
+                .description("Tweets cached")
+                .register(registry);
+        Gauge.builder("tweets.cache.bytes", this, TweetCache::getBytes)
+                .description("Estimated heap taken by the cached tweets")
+                .register(registry);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    public synchronized long getSize() {
+        return tweets.size();
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    private static final class Entry {
+
+        private final NavigableSet<TwitterUser> tweets = new TreeSet<>(ORDER);
+
+        private long completeSince;
+
+        Entry(long now) {
+            this.completeSince = now;
+        }
+    }
+
+    private static final class CachedTweet {
+
+        private final TwitterUser twitterUser;
+
+        private final long bytes;
+
+        CachedTweet(TwitterUser twitterUser) {
+            this.twitterUser = twitterUser;
+            int chars = twitterUser.getUserName() == null ? 0 : twitterUser.getUserName().length();
+            chars += twitterUser.getTweetMessage() == null ? 0 : twitterUser.getTweetMessage().length();
+            this.bytes = TWEET_OVERHEAD_BYTES + 2L * chars;
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package msg.receiver;
+
+import java.util.Date;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+
+import msg.model.TwitterUser;
+
+/**
+ * Position after a tweet in the {@code (dateTime, tweetId)} order queries return tweets in, so the next page
+ * starts exactly after the last tweet of the previous one, however many tweets share a timestamp.
+ * <p>
+ * Written as {@code <epoch millis>_<tweet id>}, for example {@code 1698314400000_923817263}.
+ */
+public final class TweetCursor {
+
+    private static final char SEPARATOR = '_';
+
+    private final Date dateTime;
+
+    private final long tweetId;
+
+    public TweetCursor(Date dateTime, long tweetId) {
+        this.dateTime = dateTime;
+        this.tweetId = tweetId;
+    }
+
+    /**
+     * The cursor after the given tweet, which has to be a stored one, with a tweet id.
+     */
+    public static TweetCursor after(TwitterUser twitterUser) {
+        return new TweetCursor(twitterUser.getDateTime(), twitterUser.getTweetId());
+    }
+
+    /**
+     * Parses a cursor written by {@link #toString()}.
+     *
+     * @throws IllegalArgumentException if the text is not a cursor
+     */
+    public static TweetCursor parse(String text) {
+        int separator = text.indexOf(SEPARATOR);
+        if (separator < 1) {
+            throw new IllegalArgumentException("Invalid cursor: " + text);
+        }
+        try {
+            return new TweetCursor(new Date(Long.parseLong(text.substring(0, separator))),
+                    Long.parseLong(text.substring(separator + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + text);
+        }
+    }
+
+    /**
+     * Matches the documents after this cursor.
+     *
+     * @param dateTimeField the field holding the tweet's date
+     * @param tweetIdField the field holding the tweet id
+     */
+    public Bson filter(String dateTimeField, String tweetIdField) {
+        return Filters.or(Filters.gt(dateTimeField, dateTime),
+                Filters.and(Filters.eq(dateTimeField, dateTime), Filters.gt(tweetIdField, tweetId)));
+    }
+
+    public Date getDateTime() {
+        return dateTime;
+    }
+
+    public long getTweetId() {
+        return tweetId;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof TweetCursor)) {
+            return false;
+        }
+        TweetCursor cursor = (TweetCursor) other;
+        return dateTime.equals(cursor.dateTime) && tweetId == cursor.tweetId;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * dateTime.hashCode() + Long.hashCode(tweetId);
+    }
+
+    @Override
+    public String toString() {
+        return Long.toString(dateTime.getTime()) + SEPARATOR + tweetId;
+    }
+}
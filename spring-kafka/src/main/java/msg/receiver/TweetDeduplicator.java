@@ -0,0 +1,293 @@
+package msg.receiver;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import msg.model.TwitterUser;
+
+/**
+ * Remembers the ids of the tweets the receivers wrote recently, so copies of a tweet are dropped before they
+ * reach MongoDB: records redelivered after a rebalance, tweets sent twice by producer retries or journal
+ * replays, and retweets, which are looked up by the id of the original tweet they carry
+ * ({@link TwitterUser#getRetweetedId()}), so only the first copy of a tweet in a window is written. Tweets
+ * without an id always pass.
+ * <p>
+ * Ids are kept in two generations of open-addressing tables of {@code long}s, split into stripes that are locked
+ * separately. New ids go into the current generation; once it has been current for
+ * {@code kafka.consumer.dedup.window.ms} or holds its share of {@code kafka.consumer.dedup.capacity} ids, it
+ * becomes the previous generation and the old previous one is cleared. An id is remembered for at least one
+ * window, unless more than the capacity of distinct tweets arrive in it, and at most for two. The tables are
+ * allocated up front and hold no references, so the memory is fixed and never traced by the GC.
+ * <p>
+ * Lookups and hits are published as {@code tweets.dedup.*} meters.
+ */
+public class TweetDeduplicator implements MeterBinder {
+
+    private static final int STRIPES = 16;
+
+    // tweet ids start at 1, an empty slot is 0 and id 0 is stored as this
+    private static final long ZERO_KEY = Long.MIN_VALUE;
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    private final LongSupplier nanoClock;
+
+    private final long windowNanos;
+
+    private final LongAdder lookups = new LongAdder();
+
+    private final LongAdder hits = new LongAdder();
+
+    public TweetDeduplicator(int capacity, long windowMs) {
+        this(capacity, windowMs, System::nanoTime);
+    }
+
+    TweetDeduplicator(int capacity, long windowMs, LongSupplier nanoClock) {
+        if (capacity < 1 || windowMs < 1) {
+            throw new IllegalArgumentException("Dedup capacity and window must be positive");
+        }
+        this.nanoClock = nanoClock;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMs);
+        int stripeCapacity = Math.max(1, (capacity + STRIPES - 1) / STRIPES);
+        long now = nanoClock.getAsLong();
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe(stripeCapacity, now);
+        }
+    }
+
+    /**
+     * Records the tweet as written.
+     *
+     * @return {@code false} if a tweet with the same id was seen within the window, {@code true} otherwise
+     */
+    public boolean markSeen(TwitterUser twitterUser) {
+        return markSeen(null, twitterUser);
+    }
+
+    /**
+     * Records the tweet as written to the collection of {@code topic}. A tweet routed to several topics is
+     * written once to each of them, only copies within a topic are dropped.
+     *
+     * @return {@code false} if a tweet with the same id was seen in the topic within the window
+     */
+    public boolean markSeen(String topic, TwitterUser twitterUser) {
+        Long tweetId = dedupId(twitterUser);
+        if (tweetId == null) {
+            return true;
+        }
+        lookups.increment();
+        long key = key(topic, tweetId);
+        if (stripeFor(key).add(key, nanoClock.getAsLong(), windowNanos)) {
+            return true;
+        }
+        hits.increment();
+        return false;
+    }
+
+    /**
+     * Forgets a tweet whose write failed, so it is written when it is delivered again.
+     */
+    public void forget(TwitterUser twitterUser) {
+        forget(null, twitterUser);
+    }
+
+    public void forget(String topic, TwitterUser twitterUser) {
+        Long tweetId = dedupId(twitterUser);
+        if (tweetId != null) {
+            long key = key(topic, tweetId);
+            stripeFor(key).remove(key);
+        }
+    }
+
+    /**
+     * The id copies of the tweet share: the original's for a retweet, its own otherwise.
+     */
+    private static Long dedupId(TwitterUser twitterUser) {
+        return twitterUser.getRetweetedId() != null ? twitterUser.getRetweetedId() : twitterUser.getTweetId();
+    }
+
+    private static long key(String topic, long tweetId) {
+        // the topic moves the id to an unrelated key, colliding with another tweet of the window is unlikely
+        long key = topic == null ? tweetId : tweetId ^ mix(topic.hashCode());
+        return key == 0 ? ZERO_KEY : key;
+    }
+
+    private Stripe stripeFor(long key) {
+        return stripes[(int) (mix(key) >>> 60)];
+    }
+
+    /**
+     * Finalizer of MurmurHash3, tweet ids are sequential in their low bits.
+     */
+    static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        return key ^ (key >>> 33);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tweets.dedup.lookups", lookups, LongAdder::sum)
+                .description("Tweets with an id checked for duplicates")
+                .register(registry);
+        FunctionCounter.builder("tweets.dedup.hits", hits, LongAdder::sum)
+                .description("Duplicate tweets dropped")
+                .register(registry);
+        Gauge.builder("tweets.dedup.hit.ratio", this, TweetDeduplicator::getHitRatio)
+                .register(registry);
+        Gauge.builder("tweets.dedup.size", this, TweetDeduplicator::getSize)
+                .description("Tweet ids remembered")
+                .register(registry);
+    }
+
+    public long getLookups() {
+        return lookups.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public double getHitRatio() {
+        long lookupCount = lookups.sum();
+        return lookupCount == 0 ? 0 : (double) hits.sum() / lookupCount;
+    }
+
+    public long getSize() {
+        long size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    private static final class Stripe {
+
+        private final int capacity;
+
+        private long[] current;
+
+        private long[] previous;
+
+        private int currentSize;
+
+        private int previousSize;
+
+        private long rotatedAt;
+
+        Stripe(int capacity, long now) {
+            this.capacity = capacity;
+            // at most half full, probe sequences stay short
+            int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+            this.current = new long[tableSize];
+            this.previous = new long[tableSize];
+            this.rotatedAt = now;
+        }
+
+        synchronized boolean add(long key, long now, long windowNanos) {
+            if (now - rotatedAt >= windowNanos) {
+                rotate(now, now - rotatedAt >= 2 * windowNanos);
+            }
+            boolean seen = contains(previous, key);
+            if (currentSize == capacity) {
+                if (seen || contains(current, key)) {
+                    return false;
+                }
+                rotate(now, false);
+            }
+            if (insert(current, key)) {
+                currentSize++;
+                return !seen;
+            }
+            return false;
+        }
+
+        synchronized void remove(long key) {
+            if (delete(current, key)) {
+                currentSize--;
+            }
+            if (delete(previous, key)) {
+                previousSize--;
+            }
+        }
+
+        synchronized int size() {
+            return currentSize + previousSize;
+        }
+
+        private void rotate(long now, boolean clearBoth) {
+            long[] cleared = previous;
+            Arrays.fill(cleared, 0L);
+            previous = current;
+            previousSize = currentSize;
+            current = cleared;
+            currentSize = 0;
+            if (clearBoth) {
+                Arrays.fill(previous, 0L);
+                previousSize = 0;
+            }
+            rotatedAt = now;
+        }
+
+        private static int home(long key, int mask) {
+            return (int) mix(key) & mask;
+        }
+
+        private static boolean contains(long[] table, long key) {
+            int mask = table.length - 1;
+            for (int i = home(key, mask); table[i] != 0; i = (i + 1) & mask) {
+                if (table[i] == key) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return {@code false} if the key was already in the table
+         */
+        private static boolean insert(long[] table, long key) {
+            int mask = table.length - 1;
+            int i = home(key, mask);
+            while (table[i] != 0) {
+                if (table[i] == key) {
+                    return false;
+                }
+                i = (i + 1) & mask;
+            }
+            table[i] = key;
+            return true;
+        }
+
+        /**
+         * Removes the key and shifts the entries probing past it back, so lookups need no tombstones.
+         */
+        private static boolean delete(long[] table, long key) {
+            int mask = table.length - 1;
+            int gap = home(key, mask);
+            while (table[gap] != key) {
+                if (table[gap] == 0) {
+                    return false;
+                }
+                gap = (gap + 1) & mask;
+            }
+            for (int i = (gap + 1) & mask; table[i] != 0; i = (i + 1) & mask) {
+                // an entry can fill the gap if the gap lies between its home slot and where it is
+                if (((i - home(table[i], mask)) & mask) >= ((i - gap) & mask)) {
+                    table[gap] = table[i];
+                    gap = i;
+                }
+            }
+            table[gap] = 0;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package msg.receiver;
+
+import static org.springframework.web.reactive.function.server.RequestPredicates.GET;
+
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.server.RouterFunction;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+import org.springframework.web.reactive.function.server.ServerRequest;
+import org.springframework.web.reactive.function.server.ServerResponse;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Read API over the stored tweets, served by {@link TweetQueryServer}:
+ * <pre>
+ * GET /tweets?from=&amp;to=                  tweets of all users in a time range
+ * GET /tweets/user/{userName}?from=&amp;to=  tweets of one user
+ * GET /tweets/hashtag/{hashtag}?from=&amp;to=  tweets tagged #hashtag
+ * GET /tweets/search?q=                    full-text search on the message
+ * </pre>
+ * All of them read the tweets of {@code kafka.topic.name}, or with {@code topic=} those of another topic the
+ * receivers wrote tweets of, see {@link TopicTweetStores}; any other topic is 404 Not Found.
+ * {@code from} and {@code to} are ISO-8601 instants, {@code from} inclusive and {@code to} exclusive, both
+ * optional. Tweets come oldest first, at most {@code limit} of them ({@code query.api.page.size} by default,
+ * never more than {@code query.api.max.page.size}). The next page starts {@code after} the
+ * {@link TweetCursor} of the last tweet received.
+ * <p>
+ * Results are streamed as they are read from MongoDB, one JSON tweet per line ({@code application/x-ndjson}),
+ * or as server-sent events carrying the cursor as event id when the client accepts {@code text/event-stream}.
+ * The store is asked for at most {@code query.api.fetch.size} tweets at a time, so a slow client holds back
+ * the reads instead of filling the receiver's memory. Recent tweets of a user or hashtag come from the
+ * {@link TweetCache} when it is enabled.
+ */
+public class TweetQueryHandler {
+
+    public static final MediaType APPLICATION_NDJSON = MediaType.parseMediaType("application/x-ndjson");
+
+    private static final Date NO_END = new Date(Long.MAX_VALUE);
+
+    private final TweetStore tweetStore;
+
+    private final TopicTweetStores topicTweetStores;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final int pageSize;
+
+    private final int maxPageSize;
+
+    private final int fetchSize;
+
+    public TweetQueryHandler(TweetStore tweetStore, int pageSize, int maxPageSize, int fetchSize) {
+        this(tweetStore, null, pageSize, maxPageSize, fetchSize);
+    }
+
+    /**
+     * @param topicTweetStores the stores of the other topics, {@code null} to serve {@code tweetStore} only
+     */
+    public TweetQueryHandler(TweetStore tweetStore, TopicTweetStores topicTweetStores, int pageSize,
+            int maxPageSize, int fetchSize) {
+        this.tweetStore = tweetStore;
+        this.topicTweetStores = topicTweetStores;
+        this.pageSize = pageSize;
+        this.maxPageSize = maxPageSize;
+        this.fetchSize = fetchSize;
+    }
+
+    public RouterFunction<ServerResponse> routes() {
+        return RouterFunctions.route(GET("/tweets/search"), this::search)
+                .andRoute(GET("/tweets/user/{userName}"), this::findByUserName)
+                .andRoute(GET("/tweets/hashtag/{hashtag}"), this::findByHashtag)
+                .andRoute(GET("/tweets"), this::findByDateTime);
+    }
+
+    Mono<ServerResponse> findByUserName(ServerRequest request) {
+        return respond(request, () -> store(request).findByUserName(request.pathVariable("userName"),
+                date(request, "from", new Date(0)), date(request, "to", NO_END), after(request), limit(request)));
+    }
+
+    Mono<ServerResponse> findByHashtag(ServerRequest request) {
+        return respond(request, () -> store(request).findByHashtag(request.pathVariable("hashtag"),
+                date(request, "from", new Date(0)), date(request, "to", NO_END), after(request), limit(request)));
+    }
+
+    Mono<ServerResponse> findByDateTime(ServerRequest request) {
+        return respond(request, () -> store(request).findByDateTime(date(request, "from", new Date(0)),
+                date(request, "to", NO_END), after(request), limit(request)));
+    }
+
+    Mono<ServerResponse> search(ServerRequest request) {
+        return respond(request, () -> store(request).search(request.queryParam("q").filter(q -> !q.trim().isEmpty())
+                .orElseThrow(() -> new IllegalArgumentException("Missing search text q")),
+                after(request), limit(request)));
+    }
+
+    private Mono<ServerResponse> respond(ServerRequest request, Supplier<Flux<TwitterUser>> query) {
+        Flux<TwitterUser> tweets;
+        try {
+            tweets = query.get().limitRate(fetchSize);
+        } catch (UnknownTopicException e) {
+            return ServerResponse.status(HttpStatus.NOT_FOUND).contentType(MediaType.TEXT_PLAIN).syncBody(e.getMessage());
+        } catch (IllegalArgumentException | DateTimeParseException e) {
+            return ServerResponse.badRequest().contentType(MediaType.TEXT_PLAIN).syncBody(e.getMessage());
+        }
+        if (request.headers().accept().contains(MediaType.TEXT_EVENT_STREAM)) {
+            return ServerResponse.ok().contentType(MediaType.TEXT_EVENT_STREAM)
+                    .body(BodyInserters.fromServerSentEvents(tweets.map(tweet -> ServerSentEvent.builder(toJson(tweet))
+                            .id(TweetCursor.after(tweet).toString())
+                            .build())));
+        }
+        return ServerResponse.ok().contentType(APPLICATION_NDJSON)
+                .body(tweets.map(tweet -> toJson(tweet) + '\n'), String.class);
+    }
+
+    private String toJson(TwitterUser twitterUser) {
+        try {
+            return objectMapper.writeValueAsString(twitterUser);
+        } catch (JsonProcessingException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private TweetStore store(ServerRequest request) {
+        Optional<String> topic = request.queryParam("topic");
+        if (!topic.isPresent()) {
+            return tweetStore;
+        }
+        TweetStore store = topicTweetStores != null ? topicTweetStores.existing(topic.get()) : null;
+        if (store == null) {
+            throw new UnknownTopicException(topic.get());
+        }
+        return store;
+    }
+
+    private static Date date(ServerRequest request, String name, Date defaultValue) {
+        Optional<String> value = request.queryParam(name);
+        return value.isPresent() ? Date.from(Instant.parse(value.get())) : defaultValue;
+    }
+
+    private static TweetCursor after(ServerRequest request) {
+        return request.queryParam("after").map(TweetCursor::parse).orElse(null);
+    }
+
+    private int limit(ServerRequest request) {
+        Optional<String> value = request.queryParam("limit");
+        if (!value.isPresent()) {
+            return pageSize;
+        }
+        int limit;
+        try {
+            limit = Integer.parseInt(value.get());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid limit: " + value.get());
+        }
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + value.get());
+        }
+        return Math.min(limit, maxPageSize);
+    }
+
+    private static final class UnknownTopicException extends RuntimeException {
+
+        UnknownTopicException(String topic) {
+            super("Unknown topic: " + topic);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package msg.receiver;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.server.reactive.ReactorHttpHandlerAdapter;
+import org.springframework.web.reactive.function.server.RouterFunctions;
+
+import reactor.ipc.netty.NettyContext;
+import reactor.ipc.netty.http.server.HttpServer;
+
+/**
+ * Serves the {@link TweetQueryHandler} routes from an embedded Reactor Netty server on
+ * {@code query.api.port}. The receiver runs without a web application context, like the
+ * {@link msg.common.PrometheusScrapeServer} this server has its own port and lifecycle.
+ */
+public class TweetQueryServer {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TweetQueryServer.class);
+
+    private final TweetQueryHandler tweetQueryHandler;
+
+    private final int port;
+
+    private NettyContext context;
+
+    public TweetQueryServer(TweetQueryHandler tweetQueryHandler, int port) {
+        this.tweetQueryHandler = tweetQueryHandler;
+        this.port = port;
+    }
+
+    public void start() {
+        ReactorHttpHandlerAdapter adapter = new ReactorHttpHandlerAdapter(
+                RouterFunctions.toHttpHandler(tweetQueryHandler.routes()));
+        context = HttpServer.create(port).newHandler(adapter).block();
+        logger.info("Serving tweet queries on port {}", port);
+    }
+
+    public void stop() {
+        if (context != null) {
+            context.dispose();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package msg.receiver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Where the receivers write tweets and queries read them, chosen with {@code mongo.storage.mode}:
+ * {@link DocumentTweetStore} keeps one document per tweet, {@link BucketTweetStore} packs the tweets of a
+ * user into one document per time window.
+ * <p>
+ * Writes are keyed on the tweet id; tweets without one get a {@link #contentId(TwitterUser)}.
+ */
+public interface TweetStore {
+
+    /**
+     * A hashtag in a tweet text, the tag without {@code #} as group 1.
+     */
+    Pattern HASHTAG = Pattern.compile("#(\\w+)");
+
+    /**
+     * Creates the indexes the writes and queries rely on, called once on start-up.
+     */
+    void ensureIndexes();
+
+    /**
+     * Stores the tweet.
+     *
+     * @return the tweet, with its tweet id set
+     */
+    Mono<TwitterUser> upsert(TwitterUser twitterUser);
+
+    /**
+     * Stores the tweets in as few writes as the storage allows.
+     *
+     * @return the number of tweets newly stored
+     */
+    Mono<Long> upsertAll(List<TwitterUser> twitterUsers);
+
+    /**
+     * Tweets of a user with {@code from <= dateTime < to}, ordered by date and tweet id.
+     *
+     * @param after only tweets after this cursor, {@code null} for the first page
+     * @param limit the most tweets to return
+     */
+    Flux<TwitterUser> findByUserName(String userName, Date from, Date to, TweetCursor after, int limit);
+
+    /**
+     * Tweets of all users with {@code from <= dateTime < to}, ordered by date and tweet id.
+     *
+     * @param after only tweets after this cursor, {@code null} for the first page
+     * @param limit the most tweets to return
+     */
+    Flux<TwitterUser> findByDateTime(Date from, Date to, TweetCursor after, int limit);
+
+    /**
+     * Tweets tagged with {@code #hashtag} with {@code from <= dateTime < to}, ordered by date and tweet id.
+     *
+     * @param hashtag the tag without {@code #}, case is ignored
+     * @param after only tweets after this cursor, {@code null} for the first page
+     * @param limit the most tweets to return
+     */
+    Flux<TwitterUser> findByHashtag(String hashtag, Date from, Date to, TweetCursor after, int limit);
+
+    /**
+     * Tweets whose text matches a MongoDB {@code $text} search, ordered by date and tweet id.
+     *
+     * @param text words to search for, any of them matches, a {@code "quoted phrase"} has to match as a whole
+     * @param after only tweets after this cursor, {@code null} for the first page
+     * @param limit the most tweets to return
+     */
+    Flux<TwitterUser> search(String text, TweetCursor after, int limit);
+
+    /**
+     * Id for a tweet without one: an FNV-1a hash of its date, user name and text with the sign bit set, so it
+     * never collides with a real tweet id and a redelivered copy gets the same id.
+     */
+    static long contentId(TwitterUser twitterUser) {
+        long hash = 0xcbf29ce484222325L;
+        hash = fnv(hash, twitterUser.getDateTime() == null ? "" : Long.toString(twitterUser.getDateTime().getTime()));
+        hash = fnv(hash, twitterUser.getUserName());
+        hash = fnv(hash, twitterUser.getTweetMessage());
+        return hash | Long.MIN_VALUE;
+    }
+
+    /**
+     * Matches the tweet texts tagged with {@code #hashtag}, ignoring case. The text index finds the words, this
+     * tells {@code #java} from {@code java} and {@code #javascript}.
+     */
+    static Pattern hashtagPattern(String hashtag) {
+        return Pattern.compile("#" + Pattern.quote(hashtag) + "(?!\\w)", Pattern.CASE_INSENSITIVE);
+    }
+
+    /**
+     * The hashtags of a tweet text in lower case without {@code #}, each once, in order of appearance.
+     */
+    static Set<String> hashtags(String tweetMessage) {
+        Set<String> hashtags = new LinkedHashSet<>();
+        if (tweetMessage != null) {
+            Matcher matcher = HASHTAG.matcher(tweetMessage);
+            while (matcher.find()) {
+                hashtags.add(matcher.group(1).toLowerCase(Locale.ROOT));
+            }
+        }
+        return hashtags;
+    }
+
+    private static long fnv(long hash, String value) {
+        if (value != null) {
+            for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+                hash = (hash ^ (b & 0xFF)) * 0x100000001b3L;
+            }
+        }
+        // separates the fields, so moving text from one field to the next changes the hash
+        return (hash ^ 0xFF) * 0x100000001b3L;
+    }
+}
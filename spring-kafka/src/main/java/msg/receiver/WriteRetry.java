@@ -0,0 +1,69 @@
+package msg.receiver;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import msg.common.SampledLogger;
+import reactor.core.publisher.Mono;
+
+/**
+ * Retries failed MongoDB writes of the receivers up to {@code mongo.write.retries} times, waiting
+ * {@code mongo.write.retry.backoff.ms} before the first retry and twice as long before each next one,
+ * at most {@code mongo.write.retry.max.backoff.ms}.
+ * <p>
+ * The write is subscribed again on each retry, so it has to be idempotent, as the upserts of {@link TweetStore} are.
+ * It keeps its in-flight write while it waits, see {@link InFlightWriteLimiter}: while MongoDB is down the
+ * retrying writes pile up and pause the listener containers. A write that still fails after the last retry is
+ * handed back to Kafka by {@link OffsetCommitTracker#fail}.
+ */
+public class WriteRetry {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(WriteRetry.class);
+
+    private static final SampledLogger retryLogger = SampledLogger.perSecond(logger, 10);
+
+    private final int retries;
+
+    private final long backoffMs;
+
+    private final long maxBackoffMs;
+
+    public WriteRetry(int retries, long backoffMs, long maxBackoffMs) {
+        this.retries = retries;
+        this.backoffMs = backoffMs;
+        this.maxBackoffMs = maxBackoffMs;
+    }
+
+    /**
+     * The write, created by {@code write} on each subscription and retried on error.
+     */
+    public <T> Mono<T> withRetries(Supplier<Mono<T>> write) {
+        Mono<T> mono = Mono.defer(write);
+        if (retries <= 0) {
+            return mono;
+        }
+        return mono.retryWhen(errors -> {
+            // per subscription of the write
+            AtomicInteger attempts = new AtomicInteger();
+            return errors.concatMap(error -> {
+                int attempt = attempts.incrementAndGet();
+                if (attempt > retries) {
+                    return Mono.error(error);
+                }
+                long delayMs = backoff(attempt);
+                retryLogger.warn("Write failed, retry {} of {} in {} ms: {}", attempt, retries, delayMs,
+                        error.getMessage());
+                return Mono.delay(Duration.ofMillis(delayMs));
+            });
+        });
+    }
+
+    long backoff(int attempt) {
+        return Math.min(maxBackoffMs, backoffMs << Math.min(attempt - 1, 30));
+    }
+}
@@ -0,0 +1,106 @@
+package msg.sender;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+
+import msg.common.SampledLogger;
+
+/**
+ * Forwards Twitter's status deletion notices to {@code kafka.topic.deletions.name}, keyed by the user id like
+ * the tweets, with the id of the deleted tweet as value. The receivers drop deleted tweets from their caches.
+ * Enabled with {@code kafka.producer.deletions.enabled=true}, for receivers running with {@code query.cache.enabled}.
+ * <p>
+ * {@link #send} only queues the notice: it is called on the stream thread, which must never wait for Kafka,
+ * and a send blocks for up to {@code max.block.ms} while the brokers are down. The sender's own thread hands
+ * the notices to the producer. While {@value #QUEUE_CAPACITY} notices are waiting further ones are dropped.
+ * <p>
+ * Notices are sent once, without the journal: a lost notice leaves a deleted tweet in a receiver's cache until
+ * its TTL expires.
+ */
+public class DeletionNoticeSender {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(DeletionNoticeSender.class);
+
+    private static final SampledLogger failedLogger = SampledLogger.perSecond(logger, 10);
+
+    static final int QUEUE_CAPACITY = 10_000;
+
+    // marks the end of the queue on close
+    private static final long[] STOP = new long[0];
+
+    private final KafkaTemplate<Long, Long> kafkaTemplate;
+
+    private final String topic;
+
+    // { user id, tweet id }
+    private final BlockingQueue<long[]> notices = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final Thread thread;
+
+    public DeletionNoticeSender(KafkaTemplate<Long, Long> kafkaTemplate, String topic) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topic = topic;
+        this.thread = new Thread(this::run, "deletion-notice-sender");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    /**
+     * Queues the notice for sending, never blocks.
+     */
+    public void send(long userId, long tweetId) {
+        if (!notices.offer(new long[] { userId, tweetId })) {
+            failedLogger.warn("{} deletion notices waiting, dropping the deletion of tweet {}", QUEUE_CAPACITY,
+                    tweetId);
+        }
+    }
+
+    private void run() {
+        try {
+            for (long[] notice = notices.take(); notice != STOP; notice = notices.take()) {
+                sendNow(notice[0], notice[1]);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void sendNow(long userId, long tweetId) {
+        try {
+            kafkaTemplate.send(topic, userId, tweetId).addCallback(
+                    result -> { },
+                    e -> failedLogger.warn("Failed to forward the deletion of tweet {}: {}", tweetId, e.getMessage()));
+        } catch (RuntimeException e) {
+            failedLogger.warn("Failed to forward the deletion of tweet {}: {}", tweetId, e.getMessage());
+        }
+    }
+
+    /**
+     * Number of notices waiting to be handed to the producer.
+     */
+    public int getQueuedNotices() {
+        return notices.size();
+    }
+
+    /**
+     * Sends the queued notices and those still buffered by the producer.
+     */
+    public void close() throws InterruptedException {
+        // waits for room, the sender thread keeps taking notices
+        if (!notices.offer(STOP, 30, TimeUnit.SECONDS)) {
+            logger.warn("Deletion notice sender did not drain its queue, {} notices dropped", notices.size());
+            thread.interrupt();
+        }
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+        kafkaTemplate.flush();
+    }
+}
@@ -0,0 +1,183 @@
+package msg.sender;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.RetriableException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.ListenableFuture;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import msg.model.TwitterUser;
+
+/**
+ * Background thread sending the tweets of a {@link SendJournal} to Kafka again.
+ * <p>
+ * Every {@code kafka.producer.journal.replay.interval.ms} it sends up to {@code kafka.producer.journal.replay.batch}
+ * journaled tweets and waits for all of them; the ones acknowledged in order are removed from the journal.
+ * A batch that fails with a retriable error, or one that is not Kafka's own, means the cluster is still unavailable,
+ * so the wait before the next attempt doubles, up to {@link #MAX_BACKOFF_MS}. While the backlog is being worked off
+ * batches follow each other without waiting.
+ * <p>
+ * A tweet Kafka rejects for good, for example one that is too large, cannot be serialized or goes to a topic the
+ * producer may not write to, would fail again on every attempt and hold up everything journaled after it. It is
+ * logged as an error and removed from the journal.
+ * <p>
+ * Replayed tweets go straight to the {@link KafkaTemplate}, so a failed replay stays in the journal instead of
+ * being journaled again. They can arrive after newer tweets of the same user.
+ */
+public class JournalReplayer {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(JournalReplayer.class);
+
+    static final long MAX_BACKOFF_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private final SendJournal journal;
+
+    private final KafkaTemplate<Long, TwitterUser> kafkaTemplate;
+
+    private final int batchSize;
+
+    private final long intervalMs;
+
+    private final long sendTimeoutMs;
+
+    private final Thread thread;
+
+    // not interrupting the thread, an interrupt would close the journal's checkpoint channel
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    /**
+     * @param sendTimeoutMs how long to wait for a batch to be acknowledged
+     */
+    public JournalReplayer(SendJournal journal, KafkaTemplate<Long, TwitterUser> kafkaTemplate, int batchSize,
+            long intervalMs, long sendTimeoutMs) {
+        this.journal = journal;
+        this.kafkaTemplate = kafkaTemplate;
+        this.batchSize = batchSize;
+        this.intervalMs = intervalMs;
+        this.sendTimeoutMs = sendTimeoutMs;
+        this.thread = new Thread(this::run, "journal-replayer");
+        this.thread.setDaemon(true);
+    }
+
+    public void start() {
+        thread.start();
+    }
+
+    private void run() {
+        long backoffMs = intervalMs;
+        while (stopped.getCount() > 0) {
+            int replayed = replayBatch();
+            if (replayed > 0) {
+                backoffMs = intervalMs;
+                continue;
+            }
+            try {
+                if (stopped.await(replayed < 0 ? backoffMs : intervalMs, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (replayed < 0) {
+                backoffMs = Math.min(backoffMs * 2, MAX_BACKOFF_MS);
+            }
+        }
+    }
+
+    /**
+     * Sends one batch from the journal.
+     *
+     * @return the number of tweets replayed or dropped, 0 if the journal is empty, or -1 if the batch failed
+     */
+    int replayBatch() {
+        List<SendJournal.Entry> batch = journal.peek(batchSize);
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<ListenableFuture<SendResult<Long, TwitterUser>>> futures = new ArrayList<>(batch.size());
+        Exception failure = null;
+        for (SendJournal.Entry entry : batch) {
+            try {
+                futures.add(kafkaTemplate.send(entry.getTopic(), entry.getUserId(), entry.getTweet()));
+            } catch (RuntimeException e) {
+                if (!isPermanent(e)) {
+                    failure = e;
+                    break;
+                }
+                SettableListenableFuture<SendResult<Long, TwitterUser>> rejected = new SettableListenableFuture<>();
+                rejected.setException(e);
+                futures.add(rejected);
+            }
+        }
+        int acknowledged = 0;
+        int dropped = 0;
+        try {
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(sendTimeoutMs);
+            for (ListenableFuture<SendResult<Long, TwitterUser>> future : futures) {
+                try {
+                    future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                    acknowledged++;
+                } catch (ExecutionException e) {
+                    if (!isPermanent(e.getCause())) {
+                        throw e;
+                    }
+                    drop(batch.get(acknowledged + dropped), e.getCause());
+                    dropped++;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1; // sent again after the restart
+        } catch (ExecutionException | TimeoutException e) {
+            failure = e;
+        }
+        journal.remove(acknowledged + dropped);
+        if (failure != null) {
+            logger.warn("Kafka still unavailable, {} journaled tweets left to replay: {}",
+                    journal.getPendingRecords(), failure.toString());
+            return -1;
+        }
+        logger.info("Replayed {} journaled tweets, dropped {}, {} left", acknowledged, dropped,
+                journal.getPendingRecords());
+        return acknowledged + dropped;
+    }
+
+    /**
+     * Whether Kafka rejected the send for good: the failure is one of Kafka's own errors and none of its
+     * causes is retriable. Anything else may pass once the cluster is back.
+     */
+    static boolean isPermanent(Throwable failure) {
+        boolean kafkaError = false;
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof RetriableException) {
+                return false;
+            }
+            kafkaError |= cause instanceof KafkaException;
+        }
+        return kafkaError;
+    }
+
+    private void drop(SendJournal.Entry entry, Throwable cause) {
+        logger.error("Kafka rejected journaled tweet for {}, dropping it: message='{}'",
+                entry.getTopic(), entry.getTweet(), cause);
+    }
+
+    /**
+     * Stops replaying, tweets not replayed yet stay in the journal for the next start.
+     */
+    public void close() throws InterruptedException {
+        stopped.countDown();
+        thread.join(TimeUnit.SECONDS.toMillis(30));
+    }
+}
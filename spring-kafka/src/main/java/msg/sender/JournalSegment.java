@@ -0,0 +1,192 @@
+package msg.sender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One fixed-size, memory-mapped file of a {@link SendJournal}.
+ * <p>
+ * Records are {@code [int length][int crc32][length bytes of payload]}, written one after the other from the
+ * start of the file; the zero-filled rest of the file reads as length 0. Callers synchronize access.
+ */
+class JournalSegment {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(JournalSegment.class);
+
+    static final int RECORD_HEADER_BYTES = 4 + 4;
+
+    private final long number;
+
+    private final Path path;
+
+    private final MappedByteBuffer buffer;
+
+    private int writePosition;
+
+    private int readPosition;
+
+    private long pendingRecords;
+
+    private JournalSegment(long number, Path path, MappedByteBuffer buffer) {
+        this.number = number;
+        this.path = path;
+        this.buffer = buffer;
+    }
+
+    static JournalSegment create(Path directory, long number, int segmentBytes) throws IOException {
+        Path path = directory.resolve(fileName(number));
+        return new JournalSegment(number, path, map(path, segmentBytes));
+    }
+
+    /**
+     * Maps an existing segment and finds the end of its valid records. Everything from the first record
+     * whose checksum does not match (a write torn by a crash) is zeroed, so it can be overwritten safely.
+     */
+    static JournalSegment recover(Path path, long number, int readPosition) throws IOException {
+        JournalSegment segment = new JournalSegment(number, path, map(path, (int) Files.size(path)));
+        MappedByteBuffer buffer = segment.buffer;
+        int position = 0;
+        long records = 0;
+        int length;
+        while ((length = segment.recordLength(position)) > 0) {
+            if (position >= readPosition) {
+                records++;
+            }
+            position += RECORD_HEADER_BYTES + length;
+        }
+        if (length < 0) {
+            logger.warn("Discarding the corrupt tail of journal segment {} from byte {}", path, position);
+            ByteBuffer tail = segment.slice(position, buffer.capacity() - position);
+            byte[] zeros = new byte[Math.min(64 * 1024, tail.remaining())];
+            while (tail.hasRemaining()) {
+                tail.put(zeros, 0, Math.min(zeros.length, tail.remaining()));
+            }
+        }
+        segment.writePosition = position;
+        segment.readPosition = Math.min(readPosition, position);
+        segment.pendingRecords = records;
+        return segment;
+    }
+
+    private static MappedByteBuffer map(Path path, int segmentBytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // the mapping stays valid after the channel is closed
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+        }
+    }
+
+    static String fileName(long number) {
+        return String.format("%020d.journal", number);
+    }
+
+    /**
+     * @return the payload length of a valid record at {@code position}, 0 at the end of the records, or -1
+     *         if the record there is torn
+     */
+    private int recordLength(int position) {
+        if (position + RECORD_HEADER_BYTES > buffer.capacity()) {
+            return 0;
+        }
+        int length = buffer.getInt(position);
+        if (length == 0) {
+            return 0;
+        }
+        if (length < 0 || position + RECORD_HEADER_BYTES + length > buffer.capacity()
+                || buffer.getInt(position + 4) != checksum(position + RECORD_HEADER_BYTES, length)) {
+            return -1;
+        }
+        return length;
+    }
+
+    private int checksum(int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(slice(offset, length));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * A view of {@code length} bytes from {@code offset}, for bulk access without moving the mapped buffer's
+     * own position.
+     */
+    private ByteBuffer slice(int offset, int length) {
+        ByteBuffer view = buffer.duplicate();
+        view.limit(offset + length).position(offset);
+        return view;
+    }
+
+    boolean hasRoomFor(int payloadLength) {
+        return writePosition + RECORD_HEADER_BYTES + payloadLength <= buffer.capacity();
+    }
+
+    int capacity() {
+        return buffer.capacity();
+    }
+
+    void append(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        int position = writePosition;
+        buffer.putInt(position + 4, (int) crc.getValue());
+        slice(position + RECORD_HEADER_BYTES, payload.length).put(payload);
+        // the length goes last, so a record is never visible before its payload
+        buffer.putInt(position, payload.length);
+        writePosition = position + RECORD_HEADER_BYTES + payload.length;
+        pendingRecords++;
+    }
+
+    /**
+     * Reads the payload at {@code position}, which must be below {@link #writePosition()}.
+     */
+    byte[] read(int position) {
+        byte[] payload = new byte[buffer.getInt(position)];
+        slice(position + RECORD_HEADER_BYTES, payload.length).get(payload);
+        return payload;
+    }
+
+    int nextPosition(int position) {
+        return position + RECORD_HEADER_BYTES + buffer.getInt(position);
+    }
+
+    /**
+     * Marks the record at the read position as replayed.
+     */
+    void advance() {
+        readPosition = nextPosition(readPosition);
+        pendingRecords--;
+    }
+
+    long number() {
+        return number;
+    }
+
+    Path path() {
+        return path;
+    }
+
+    int writePosition() {
+        return writePosition;
+    }
+
+    int readPosition() {
+        return readPosition;
+    }
+
+    long pendingRecords() {
+        return pendingRecords;
+    }
+
+    void force() {
+        buffer.force();
+    }
+}
@@ -1,55 +1,181 @@
 package msg.sender;
 
+import java.util.List;
+import java.util.concurrent.CompletionException;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
 
+import msg.common.BoundedVirtualThreadExecutor;
+import msg.common.SampledLogger;
+import msg.model.TwitterUser;
+
 public class KafkaSender {
 
 	 private static final Logger LOGGER = LoggerFactory
 	            .getLogger(KafkaSender.class);
 
+	    // every send passes these, so at most a few lines a second each
+	    private static final SampledLogger SENT_LOGGER = SampledLogger.perSecond(LOGGER, 1);
+
+	    private static final SampledLogger FAILED_LOGGER = SampledLogger.perSecond(LOGGER, 10);
+
+	    private static final SampledLogger JOURNALED_LOGGER = SampledLogger.perSecond(LOGGER, 10);
+
 	    @Autowired
-	    private KafkaTemplate<Integer, String> kafkaTemplate;
+	    private KafkaTemplate<Long, TwitterUser> kafkaTemplate;
+
+	    // Only present when kafka.producer.transactions.enabled=true, see sendBatch
+	    @Autowired(required = false)
+	    @Qualifier("transactionalKafkaTemplate")
+	    private KafkaTemplate<Long, TwitterUser> transactionalKafkaTemplate;
+
+	    @Autowired
+	    private SenderMetrics senderMetrics;
+
+	    // Only present when kafka.virtual.threads.enabled=true, otherwise callbacks run on the producer I/O thread
+	    @Autowired(required = false)
+	    private BoundedVirtualThreadExecutor sendResultExecutor;
 
-	    public void sendMessage(String topic, String message) {
+	    // Only present when kafka.producer.journal.enabled=true, otherwise failed sends are logged and dropped
+	    @Autowired(required = false)
+	    private SendJournal sendJournal;
+
+	    /**
+	     * Sends a tweet keyed by the id of its Twitter user, see {@link UserIdPartitioner}.
+	     */
+	    public void sendMessage(String topic, long userId, TwitterUser message) {
 	        // the KafkaTemplate provides asynchronous send methods returning a
 	        // Future
-	        ListenableFuture<SendResult<Integer, String>> future = kafkaTemplate
-	                .send(topic, message);
+	        long startNanos = System.nanoTime();
+	        ListenableFuture<SendResult<Long, TwitterUser>> future;
+	        try {
+	            future = kafkaTemplate.send(topic, userId, message);
+	        } catch (RuntimeException e) {
+	            senderMetrics.sendFailed(System.nanoTime() - startNanos);
+	            // for example no metadata or buffer space within max.block.ms
+	            if (sendJournal == null) {
+	                throw e;
+	            }
+	            journal(topic, userId, message, e);
+	            return;
+	        }
 
-	        callBackPublish(message, future); // Typo corrected
+	        callBackPublish(topic, userId, message, startNanos, future); // Typo corrected
 	    }
 	    
 	    // sendMessageWithPattition method removed
 
-		private void callBackPublish(String message, // Typo corrected
-				ListenableFuture<SendResult<Integer, String>> future) {
+	    /**
+	     * Sends the tweets to the topic in one Kafka transaction and waits for it to commit, so consumers reading
+	     * with {@code isolation.level=read_committed} see all of them or none. Needs
+	     * {@code kafka.producer.transactions.enabled=true}.
+	     * <p>
+	     * A failed transaction is aborted and its tweets are journaled like failed single sends; the journal
+	     * replays them one by one, outside a transaction.
+	     *
+	     * @throws IllegalStateException if transactions are not enabled
+	     */
+	    public void sendBatch(String topic, List<QueuedTweet> tweets) {
+	        if (transactionalKafkaTemplate == null) {
+	            throw new IllegalStateException("Transactional sends need kafka.producer.transactions.enabled=true");
+	        }
+	        long startNanos = System.nanoTime();
+	        try {
+	            transactionalKafkaTemplate.executeInTransaction(operations -> {
+	                for (QueuedTweet tweet : tweets) {
+	                    operations.send(topic, tweet.getUserId(), tweet.getTweet());
+	                }
+	                return null;
+	            });
+	        } catch (RuntimeException e) {
+	            senderMetrics.transactionAborted(tweets.size(), System.nanoTime() - startNanos);
+	            if (sendJournal == null) {
+	                throw e;
+	            }
+	            for (QueuedTweet tweet : tweets) {
+	                journal(topic, tweet.getUserId(), tweet.getTweet(), e);
+	            }
+	            return;
+	        }
+	        senderMetrics.transactionCommitted(tweets.size(), System.nanoTime() - startNanos);
+	        SENT_LOGGER.info("sent {} messages to {} in one transaction", tweets.size(), topic);
+	    }
+
+		private void callBackPublish(String topic, long userId, TwitterUser message, long startNanos, // Typo corrected
+				ListenableFuture<SendResult<Long, TwitterUser>> future) {
 			// you can register a callback with the listener to receive the result
 	        // of the send asynchronously
-	        future.addCallback(
-	                new ListenableFutureCallback<SendResult<Integer, String>>() {
+	        ListenableFutureCallback<SendResult<Long, TwitterUser>> callback =
+	                new ListenableFutureCallback<SendResult<Long, TwitterUser>>() {
 
 	                    @Override
 	                    public void onSuccess(
-	                            SendResult<Integer, String> result) {
-	                        LOGGER.info("sent message='{}' with offset={}",
+	                            SendResult<Long, TwitterUser> result) {
+	                        senderMetrics.sent(System.nanoTime() - startNanos);
+	                        SENT_LOGGER.info("sent message='{}' with offset={}",
 	                                message,
 	                                result.getRecordMetadata().offset());
 	                    }
 
 	                    @Override
 	                    public void onFailure(Throwable ex) {
-	                        LOGGER.error("unable to send message='{}'",
+	                        senderMetrics.sendFailed(System.nanoTime() - startNanos);
+	                        if (sendJournal != null && sendResultExecutor == null) {
+	                            // on the producer I/O thread, which must not wait for a journal segment to roll over
+	                            journalAsync(topic, userId, message, ex);
+	                            return;
+	                        }
+	                        if (sendJournal != null) {
+	                            journal(topic, userId, message, ex);
+	                            return;
+	                        }
+	                        FAILED_LOGGER.error("unable to send message='{}'",
 	                                message, ex);
 	                    }
-	                });
+	                };
+
+	        if (sendResultExecutor == null) {
+	            future.addCallback(callback);
+	        } else {
+	            // completions arrive on the producer I/O thread, hand them over without waiting for a permit
+	            // so callbacks never hold it up
+	            future.addCallback(
+	                    result -> sendResultExecutor.tryExecute(() -> callback.onSuccess(result)),
+	                    ex -> sendResultExecutor.tryExecute(() -> callback.onFailure(ex)));
+	        }
 
 	        // alternatively, to block the sending thread, to await the result,
 	        // invoke the futures get() method
 		}
+
+	    private void journal(String topic, long userId, TwitterUser message, Throwable cause) {
+	        try {
+	            sendJournal.append(topic, userId, message);
+	            JOURNALED_LOGGER.warn("unable to send message='{}', journaled for replay: {}",
+	                    message, cause.toString());
+	        } catch (RuntimeException e) {
+	            FAILED_LOGGER.error("unable to send or journal message='{}': {}",
+	                    message, e.getMessage(), cause);
+	        }
+	    }
+
+	    private void journalAsync(String topic, long userId, TwitterUser message, Throwable cause) {
+	        sendJournal.appendAsync(topic, userId, message).whenComplete((appended, e) -> {
+	            if (e == null) {
+	                JOURNALED_LOGGER.warn("unable to send message='{}', journaled for replay: {}",
+	                        message, cause.toString());
+	                return;
+	            }
+	            Throwable failure = e instanceof CompletionException ? e.getCause() : e;
+	            FAILED_LOGGER.error("unable to send or journal message='{}': {}",
+	                    message, failure.getMessage(), cause);
+	        });
+	    }
 }
@@ -1,23 +1,129 @@
 package msg.sender;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 import org.apache.kafka.clients.producer.ProducerConfig;
-import org.apache.kafka.common.serialization.IntegerSerializer;
-import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnExpression;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
 import org.springframework.kafka.core.DefaultKafkaProducerFactory;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.core.ProducerFactory;
+import org.springframework.util.StringUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import msg.common.BoundedVirtualThreadExecutor;
+import msg.common.PrometheusScrapeServer;
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+import reactor.kafka.sender.SenderOptions;
 
 @Configuration
 public class KafkaSenderConfig {
 
 	 @Value("${kafka.bootstrap.servers}")
 	  private String bootstrapServers;
+
+	 @Value("${kafka.producer.profile:throughput}")
+	  private String producerProfile;
+
+	 @Value("${kafka.producer.idempotence.enabled:false}")
+	  private boolean idempotenceEnabled;
+
+	 @Value("${kafka.producer.transactions.enabled:false}")
+	  private boolean transactionsEnabled;
+
+	 @Value("${kafka.producer.transaction.id.prefix:tweet-sender-}")
+	  private String transactionIdPrefix;
+
+	 @Value("${kafka.producer.transactional.topics:}")
+	  private String transactionalTopics;
+
+	 @Value("${kafka.producer.transaction.max.tweets:100}")
+	  private int transactionMaxTweets;
+
+	 @Value("${kafka.producer.reactive.max.inflight:1024}")
+	  private int reactiveMaxInFlight;
+
+	 @Value("${kafka.producer.hot.user.ids:}")
+	  private String hotUserIds;
+
+	 @Value("${kafka.virtual.threads.max.concurrency:1000}")
+	  private int virtualThreadsMaxConcurrency;
+
+	 @Value("${kafka.producer.wire.format:text}")
+	  private String wireFormat;
+
+	 @Value("${kafka.producer.wire.format.topics:}")
+	  private String topicWireFormats;
+
+	 @Value("${kafka.topic.name}")
+	  private String topicName;
+
+	 @Value("${kafka.topic.deletions.name:tweet-deletions}")
+	  private String deletionsTopicName;
+
+	 @Value("${kafka.producer.ingest.queue.capacity:8192}")
+	  private int ingestQueueCapacity;
+
+	 @Value("${kafka.producer.ingest.publishers:1}")
+	  private int ingestPublishers;
+
+	 @Value("${kafka.producer.ingest.overflow:spill}")
+	  private String ingestOverflow;
+
+	 @Value("${kafka.producer.ingest.spill.dir:spill}")
+	  private String ingestSpillDir;
+
+	 @Value("${kafka.producer.ingest.spill.segment.bytes:16777216}")
+	  private int ingestSpillSegmentBytes;
+
+	 @Value("${kafka.producer.journal.dir:journal}")
+	  private String journalDir;
+
+	 @Value("${kafka.producer.journal.segment.bytes:16777216}")
+	  private int journalSegmentBytes;
+
+	 @Value("${kafka.producer.journal.replay.batch:500}")
+	  private int journalReplayBatch;
+
+	 @Value("${kafka.producer.journal.replay.interval.ms:1000}")
+	  private long journalReplayIntervalMs;
+
+	 @Value("${metrics.prometheus.sender.port:9401}")
+	  private int prometheusPort;
+
+	 @Value("${tweet.source.replay.file:tweets.ndjson}")
+	  private String replayFile;
+
+	 @Value("${tweet.source.replay.rate:1}")
+	  private double replayRate;
+
+	 @Value("${tweet.source.replay.chunk.bytes:268435456}")
+	  private int replayChunkBytes;
+
+	 @Value("${tweet.source.capture.file:}")
+	  private String captureFile;
+
+	 @Value("${sender.filter.rules.file:filter-rules.properties}")
+	  private String filterRulesFile;
+
+	 @Value("${sender.filter.rules.reload.interval.ms:5000}")
+	  private long filterRulesReloadIntervalMs;
+
+	 @Value("${sender.filter.topic.template:${kafka.topic.name}}")
+	  private String filterTopicTemplate;
 	 
 	 @Bean
 	    public Map producerConfigs() {
@@ -28,27 +134,179 @@ public class KafkaSenderConfig {
 	        // to the Kakfa cluster
 	        props.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG,
 	                bootstrapServers);
+	        // records are keyed by Twitter user id, so a user's tweets stay on one partition in order
 	        props.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG,
-	                IntegerSerializer.class);
+	                LongSerializer.class);
+	        props.put(ProducerConfig.PARTITIONER_CLASS_CONFIG, UserIdPartitioner.class);
+	        props.put(UserIdPartitioner.HOT_USER_IDS_CONFIG, hotUserIds);
 	        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG,
-	                StringSerializer.class);
+	                TwitterUserSerializer.class);
+	        // text (legacy) or binary, the receivers detect the format per record
+	        props.put(TwitterUserSerializer.WIRE_FORMAT_CONFIG, wireFormat);
+	        props.put(TwitterUserSerializer.TOPIC_WIRE_FORMATS_CONFIG, topicWireFormats);
 	        // value to block, after which it will throw a TimeoutException
 	        props.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 5000);
+	        // batch size, linger, compression, buffer memory and in-flight requests
+	        ProducerProfile.of(producerProfile).applyTo(props);
+	        if (idempotenceEnabled || transactionsEnabled) {
+	            // retried batches are deduplicated by the broker, which needs acks from all in-sync replicas
+	            // and at most 5 requests in flight, as both profiles have
+	            props.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+	            props.put(ProducerConfig.ACKS_CONFIG, "all");
+	            props.put(ProducerConfig.RETRIES_CONFIG, Integer.MAX_VALUE);
+	        }
 
 	        return props;
 	    }
 	 @Bean
+	 @Primary
 	    public ProducerFactory producerFactory() {
 	        return new DefaultKafkaProducerFactory<>(producerConfigs());
 	    }
 
 	    @Bean
+	    @Primary
 	    public KafkaTemplate kafkaTemplate() {
 	        return new KafkaTemplate(producerFactory());
 	    }
 
+	    /**
+	     * Producers for {@link KafkaSender#sendBatch}, each with a transactional id of
+	     * {@code kafka.producer.transaction.id.prefix} and a number. The prefix must differ between sender
+	     * instances, a producer with the same id fences the other one off.
+	     */
+	    @Bean
+	    @ConditionalOnProperty(name = "kafka.producer.transactions.enabled", havingValue = "true")
+	    public ProducerFactory transactionalProducerFactory() {
+	        Map<String, Object> props = new HashMap<>(producerConfigs());
+	        // the factory opens several producers from these configs, Kafka numbers their client ids
+	        props.remove(ProducerConfig.CLIENT_ID_CONFIG);
+	        DefaultKafkaProducerFactory producerFactory = new DefaultKafkaProducerFactory<>(props);
+	        producerFactory.setTransactionIdPrefix(transactionIdPrefix);
+	        return producerFactory;
+	    }
+
+	    @Bean
+	    @ConditionalOnProperty(name = "kafka.producer.transactions.enabled", havingValue = "true")
+	    public KafkaTemplate transactionalKafkaTemplate() {
+	        return new KafkaTemplate(transactionalProducerFactory());
+	    }
+
+	    @Bean
+	    @ConditionalOnProperty(name = "kafka.virtual.threads.enabled", havingValue = "true")
+	    public BoundedVirtualThreadExecutor sendResultExecutor() {
+	        return new BoundedVirtualThreadExecutor("send-result-", virtualThreadsMaxConcurrency);
+	    }
+
+	    @Bean
+	    public SenderMetrics senderMetrics(MeterRegistry meterRegistry) {
+	        SenderMetrics senderMetrics = new SenderMetrics(meterRegistry);
+	        senderMetrics.producerProfile(ProducerProfile.of(producerProfile));
+	        return senderMetrics;
+	    }
+
+	    @Bean(initMethod = "start", destroyMethod = "stop")
+	    @ConditionalOnExpression("'${metrics.registry:prometheus}' == 'prometheus' and ${metrics.prometheus.server.enabled:false}")
+	    public PrometheusScrapeServer senderPrometheusScrapeServer(PrometheusMeterRegistry meterRegistry) {
+	        return new PrometheusScrapeServer(meterRegistry, prometheusPort);
+	    }
+
+	    /**
+	     * Deletion notices are small and rare, they go out with the tweet producer settings, serialized as longs.
+	     * Only the receivers' query caches need them, so no producer is opened unless they are wanted.
+	     */
+	    @Bean(initMethod = "start", destroyMethod = "close")
+	    @ConditionalOnProperty(name = "kafka.producer.deletions.enabled", havingValue = "true")
+	    public DeletionNoticeSender deletionNoticeSender() {
+	        Map<String, Object> props = new HashMap<>(producerConfigs());
+	        props.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, LongSerializer.class);
+	        props.put(ProducerConfig.CLIENT_ID_CONFIG, ProducerProfile.of(producerProfile).clientId("deletions"));
+	        return new DeletionNoticeSender(new KafkaTemplate<>(new DefaultKafkaProducerFactory<Long, Long>(props)),
+	                deletionsTopicName);
+	    }
+
 	    @Bean
 	    public KafkaSender sender() {
 	        return new KafkaSender();
 	    }
+
+	    @Bean(destroyMethod = "close")
+	    @ConditionalOnProperty(name = "kafka.producer.journal.enabled", havingValue = "true", matchIfMissing = true)
+	    public SendJournal sendJournal() throws IOException {
+	        return new SendJournal(Paths.get(journalDir), journalSegmentBytes);
+	    }
+
+	    @Bean(initMethod = "start", destroyMethod = "close")
+	    @ConditionalOnProperty(name = "kafka.producer.journal.enabled", havingValue = "true", matchIfMissing = true)
+	    public JournalReplayer journalReplayer() throws IOException {
+	        // waits up to 30s for a batch to be acknowledged before backing off
+	        return new JournalReplayer(sendJournal(), kafkaTemplate(), journalReplayBatch, journalReplayIntervalMs,
+	                30000);
+	    }
+
+	    /**
+	     * Replays {@code tweet.source.replay.file} instead of reading the Twitter stream, see {@link ReplayTweetSource}.
+	     */
+	    @Bean(destroyMethod = "stop")
+	    @ConditionalOnProperty(name = "tweet.source", havingValue = "replay")
+	    public TweetSource replayTweetSource(SenderMetrics senderMetrics) {
+	        return new ReplayTweetSource(Paths.get(replayFile), replayRate, replayChunkBytes, senderMetrics);
+	    }
+
+	    @Bean(destroyMethod = "close")
+	    @ConditionalOnProperty(name = "tweet.source.capture.file")
+	    public TweetCaptureWriter tweetCaptureWriter() throws IOException {
+	        return new TweetCaptureWriter(Paths.get(captureFile));
+	    }
+
+	    /**
+	     * Sends tweets to the topics of the {@code sender.filter.rules.file} rules they match, drops the others.
+	     */
+	    @Bean(initMethod = "start", destroyMethod = "stop")
+	    @ConditionalOnProperty(name = "sender.filter.enabled", havingValue = "true")
+	    public TweetRouter tweetRouter() throws IOException {
+	        return new TweetRouter(Paths.get(filterRulesFile), filterTopicTemplate, filterRulesReloadIntervalMs);
+	    }
+
+	    @Bean(initMethod = "start", destroyMethod = "close")
+	    @ConditionalOnProperty(name = "kafka.producer.reactive.enabled", havingValue = "false", matchIfMissing = true)
+	    public TweetIngestQueue tweetIngestQueue() throws IOException {
+	        OverflowPolicy overflowPolicy = OverflowPolicy.of(ingestOverflow);
+	        SpillFile spillFile = overflowPolicy == OverflowPolicy.SPILL
+	                ? new SpillFile(Paths.get(ingestSpillDir, topicName), ingestSpillSegmentBytes) : null;
+	        return new TweetIngestQueue(sender(), topicName, ingestQueueCapacity, ingestPublishers,
+	                overflowPolicy, spillFile, transactionalTopics(), transactionMaxTweets);
+	    }
+
+	    /**
+	     * Sends the tweets as a {@link reactor.core.publisher.Flux} with at most
+	     * {@code kafka.producer.reactive.max.inflight} unacknowledged, instead of the ingest queue.
+	     */
+	    @Bean(destroyMethod = "close")
+	    @ConditionalOnProperty(name = "kafka.producer.reactive.enabled", havingValue = "true")
+	    public ReactiveKafkaSender reactiveKafkaSender(SenderMetrics senderMetrics,
+	            ObjectProvider<SendJournal> sendJournal) {
+	        Map<String, Object> props = new HashMap<>(producerConfigs());
+	        // the tweet producer of the KafkaTemplate is still used by the journal replay
+	        props.put(ProducerConfig.CLIENT_ID_CONFIG, ProducerProfile.of(producerProfile).clientId("reactive"));
+	        SenderOptions<Long, TwitterUser> senderOptions = SenderOptions.<Long, TwitterUser>create(props)
+	                .maxInFlight(reactiveMaxInFlight)
+	                .stopOnError(false);
+	        return new ReactiveKafkaSender(reactor.kafka.sender.KafkaSender.create(senderOptions), topicName,
+	                senderMetrics, sendJournal.getIfAvailable());
+	    }
+
+	    private Set<String> transactionalTopics() {
+	        Set<String> topics = new LinkedHashSet<>();
+	        for (String topic : StringUtils.commaDelimitedListToStringArray(transactionalTopics)) {
+	            if (StringUtils.hasText(topic)) {
+	                topics.add(topic.trim());
+	            }
+	        }
+	        if (!topics.isEmpty() && !transactionsEnabled) {
+	            throw new IllegalStateException("kafka.producer.transactional.topics " + topics
+	                    + " need kafka.producer.transactions.enabled=true");
+	        }
+	        return topics;
+	    }
 }
@@ -0,0 +1,37 @@
+package msg.sender;
+
+import java.util.Locale;
+
+/**
+ * What {@link TweetIngestQueue} does with a tweet when its ring is full, chosen with
+ * {@code kafka.producer.ingest.overflow}.
+ */
+public enum OverflowPolicy {
+
+    /**
+     * Wait for the publisher to make room. Loses nothing, but stalls the stream thread like a direct send.
+     */
+    BLOCK,
+
+    /**
+     * Discard the oldest queued tweet to make room for the new one.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Discard the new tweet.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Append the tweet to a file on disk; it is queued again once the publisher catches up.
+     */
+    SPILL;
+
+    /**
+     * Returns the policy with the given name, ignoring case and accepting {@code -} for {@code _}.
+     */
+    public static OverflowPolicy of(String name) {
+        return valueOf(name.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+    }
+}
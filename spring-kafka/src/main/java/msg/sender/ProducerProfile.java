@@ -0,0 +1,76 @@
+package msg.sender;
+
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+/**
+ * Named batching, linger and compression settings for the tweet producer, chosen with
+ * {@code kafka.producer.profile}.
+ * <p>
+ * {@link #THROUGHPUT} lets records accumulate for up to 20ms into 128KB lz4 compressed batches, which
+ * fills batches even at a few hundred tweets per second. {@link #LATENCY} sends as soon as the sender
+ * thread is free and skips compression. zstd needs kafka-clients 2.1 or later and brokers on 2.1; with
+ * the 1.0 client used here lz4 is the cheapest codec that still compresses tweet text well.
+ */
+public enum ProducerProfile {
+
+    THROUGHPUT(128 * 1024, 20, "lz4", 64 * 1024 * 1024L, 5),
+
+    LATENCY(16 * 1024, 0, "none", 32 * 1024 * 1024L, 5);
+
+    private final int batchSize;
+
+    private final int lingerMs;
+
+    private final String compressionType;
+
+    private final long bufferMemory;
+
+    private final int maxInFlightRequestsPerConnection;
+
+    ProducerProfile(int batchSize, int lingerMs, String compressionType, long bufferMemory,
+            int maxInFlightRequestsPerConnection) {
+        this.batchSize = batchSize;
+        this.lingerMs = lingerMs;
+        this.compressionType = compressionType;
+        this.bufferMemory = bufferMemory;
+        this.maxInFlightRequestsPerConnection = maxInFlightRequestsPerConnection;
+    }
+
+    /**
+     * Returns the profile with the given name, ignoring case.
+     */
+    public static ProducerProfile of(String name) {
+        return valueOf(name.trim().toUpperCase(Locale.ROOT));
+    }
+
+    /**
+     * Puts the settings of this profile into the given producer configs.
+     * <p>
+     * The client id carries the profile name. It is the id of the tweet producer; every other producer built
+     * from these configs needs an id of its own, see {@link #clientId(String)}, otherwise their JMX metrics
+     * ({@code kafka.producer:type=producer-metrics,client-id=...}) collide. The profile itself is published as
+     * the {@code tweets.send.profile} gauge of {@link SenderMetrics}.
+     */
+    public void applyTo(Map<String, Object> producerConfigs) {
+        producerConfigs.put(ProducerConfig.BATCH_SIZE_CONFIG, batchSize);
+        producerConfigs.put(ProducerConfig.LINGER_MS_CONFIG, lingerMs);
+        producerConfigs.put(ProducerConfig.COMPRESSION_TYPE_CONFIG, compressionType);
+        producerConfigs.put(ProducerConfig.BUFFER_MEMORY_CONFIG, bufferMemory);
+        producerConfigs.put(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, maxInFlightRequestsPerConnection);
+        producerConfigs.put(ProducerConfig.CLIENT_ID_CONFIG, clientId());
+    }
+
+    public String clientId() {
+        return "tweet-sender-" + name().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The client id of another producer with this profile, {@code tweet-sender-<profile>-<suffix>}.
+     */
+    public String clientId(String suffix) {
+        return clientId() + "-" + suffix;
+    }
+}
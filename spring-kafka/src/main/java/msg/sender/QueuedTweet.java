@@ -0,0 +1,44 @@
+package msg.sender;
+
+import msg.model.TwitterUser;
+
+/**
+ * A formatted tweet waiting in {@link TweetIngestQueue}, with the user id it is keyed by and, when a
+ * {@link TweetRouter} chose one, the topic it goes to.
+ */
+public final class QueuedTweet {
+
+    private final String topic;
+
+    private final long userId;
+
+    private final TwitterUser tweet;
+
+    public QueuedTweet(long userId, TwitterUser tweet) {
+        this(null, userId, tweet);
+    }
+
+    /**
+     * @param topic the topic to send to, {@code null} for the queue's topic
+     */
+    public QueuedTweet(String topic, long userId, TwitterUser tweet) {
+        this.topic = topic;
+        this.userId = userId;
+        this.tweet = tweet;
+    }
+
+    /**
+     * @return the topic to send to, {@code null} for the queue's topic
+     */
+    public String getTopic() {
+        return topic;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public TwitterUser getTweet() {
+        return tweet;
+    }
+}
@@ -0,0 +1,103 @@
+package msg.sender;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import msg.common.SampledLogger;
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+import reactor.kafka.sender.SenderResult;
+
+/**
+ * Sends a {@link Flux} of tweets with reactor-kafka, enabled with {@code kafka.producer.reactive.enabled}
+ * instead of {@link TweetIngestQueue} and the {@link msg.sender.KafkaSender}.
+ * <p>
+ * At most {@code kafka.producer.reactive.max.inflight} tweets are sent and not yet acknowledged at any time,
+ * and tweets are only requested from upstream as acknowledgements come in. A slow or unavailable cluster
+ * therefore slows the tweet source down, see {@link TweetSourceFlux}, long before the producer's
+ * {@code buffer.memory} fills up and {@code send} blocks for {@code max.block.ms}.
+ * <p>
+ * Every result carries the {@link SendCorrelation} of its tweet. A failed send does not end the flux: it is
+ * counted, journaled when {@code kafka.producer.journal.enabled}, and emitted with its exception.
+ */
+public class ReactiveKafkaSender {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(ReactiveKafkaSender.class);
+
+    private static final SampledLogger sentLogger = SampledLogger.perSecond(logger, 1);
+
+    private static final SampledLogger failedLogger = SampledLogger.perSecond(logger, 10);
+
+    private final KafkaSender<Long, TwitterUser> kafkaSender;
+
+    private final String topic;
+
+    private final SenderMetrics senderMetrics;
+
+    private final SendJournal sendJournal;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param kafkaSender created with {@code stopOnError(false)}, so failed sends are emitted as results
+     * @param topic the topic of tweets without one
+     * @param sendJournal where failed sends go, {@code null} to log and drop them
+     */
+    public ReactiveKafkaSender(KafkaSender<Long, TwitterUser> kafkaSender, String topic,
+            SenderMetrics senderMetrics, SendJournal sendJournal) {
+        this.kafkaSender = kafkaSender;
+        this.topic = topic;
+        this.senderMetrics = senderMetrics;
+        this.sendJournal = sendJournal;
+    }
+
+    /**
+     * Sends the tweets, keyed by user id, each to its topic or the sender's. Tweets are requested as earlier
+     * ones are acknowledged; the results of one partition come in the order the tweets were sent.
+     */
+    public Flux<SenderResult<SendCorrelation>> send(Flux<QueuedTweet> tweets) {
+        return kafkaSender.send(tweets.map(this::record))
+                .doOnNext(this::completed);
+    }
+
+    private SenderRecord<Long, TwitterUser, SendCorrelation> record(QueuedTweet queuedTweet) {
+        String tweetTopic = queuedTweet.getTopic() != null ? queuedTweet.getTopic() : topic;
+        SendCorrelation correlation = new SendCorrelation(sequence.getAndIncrement(), tweetTopic,
+                queuedTweet.getUserId(), queuedTweet.getTweet(), System.nanoTime());
+        // no partition, the producer's UserIdPartitioner picks it
+        return SenderRecord.create(tweetTopic, null, null, queuedTweet.getUserId(), queuedTweet.getTweet(),
+                correlation);
+    }
+
+    private void completed(SenderResult<SendCorrelation> result) {
+        SendCorrelation correlation = result.correlationMetadata();
+        long nanos = System.nanoTime() - correlation.getStartNanos();
+        if (result.exception() == null) {
+            senderMetrics.sent(nanos);
+            sentLogger.info("sent message='{}' with offset={}", correlation.getTweet(),
+                    result.recordMetadata().offset());
+            return;
+        }
+        senderMetrics.sendFailed(nanos);
+        if (sendJournal == null) {
+            failedLogger.error("unable to send message='{}': {}", correlation.getTweet(),
+                    result.exception().toString());
+            return;
+        }
+        try {
+            sendJournal.append(correlation.getTopic(), correlation.getUserId(), correlation.getTweet());
+        } catch (RuntimeException e) {
+            failedLogger.error("unable to send or journal message='{}': {}", correlation.getTweet(),
+                    e.getMessage(), result.exception());
+        }
+    }
+
+    public void close() {
+        kafkaSender.close();
+    }
+}
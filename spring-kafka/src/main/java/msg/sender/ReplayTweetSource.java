@@ -0,0 +1,297 @@
+package msg.sender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import msg.common.SampledLogger;
+import msg.common.TwitterUserDeserializer;
+import msg.model.TwitterUser;
+
+/**
+ * {@link TweetSource} replaying a capture file recorded by {@link TweetCaptureWriter}, for load tests that are
+ * reproducible and need no Twitter credentials. Enabled with {@code tweet.source=replay}.
+ * <p>
+ * The capture is read through memory mappings of up to {@code tweet.source.replay.chunk.bytes} at a time,
+ * so files larger than the heap, or than 2 GB, replay without copying them through read buffers. Its format
+ * follows the file name, see {@link TweetCaptureWriter}: one JSON tweet per line for {@code .ndjson},
+ * {@code .jsonl} and {@code .json}, binary {@link SpillFile} entries otherwise. The NDJSON of the receiver's
+ * query API replays as well; tweets without a {@code userId} are keyed by the hash of their user name.
+ * <p>
+ * Tweets are paced by their dates: with {@code tweet.source.replay.rate} 1 they go out as far apart as they
+ * were tweeted, with 10 ten times faster, and with 0 as fast as the ingest queue takes them. Once the file is
+ * replayed the number of tweets and their rate are logged, the sender and receiver meters tell how far the
+ * pipeline kept up.
+ */
+public class ReplayTweetSource implements TweetSource {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(ReplayTweetSource.class);
+
+    private static final SampledLogger skippedLogger = SampledLogger.perSecond(logger, 10);
+
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final Path path;
+
+    private final double rate;
+
+    private final int chunkBytes;
+
+    private final SenderMetrics senderMetrics;
+
+    private final boolean ndjson;
+
+    private final TwitterUserDeserializer deserializer = new TwitterUserDeserializer();
+
+    private byte[] record = new byte[1024];
+
+    private Thread thread;
+
+    private volatile boolean stopped;
+
+    // pacing: the date of the first tweet and when it was sent
+    private long firstTweetMillis = -1;
+
+    private long firstSentNanos;
+
+    private long replayed;
+
+    /**
+     * @param rate how many times faster than recorded to replay, 0 for as fast as possible
+     * @param chunkBytes the most bytes mapped at a time, a record must fit into it
+     */
+    public ReplayTweetSource(Path path, double rate, int chunkBytes, SenderMetrics senderMetrics) {
+        if (rate < 0 || chunkBytes < 1) {
+            throw new IllegalArgumentException("Replay rate must not be negative and chunk size must be positive");
+        }
+        this.path = path;
+        this.rate = rate;
+        this.chunkBytes = chunkBytes;
+        this.senderMetrics = senderMetrics;
+        this.ndjson = TweetCaptureWriter.isNdjson(path);
+    }
+
+    @Override
+    public void start(Listener listener) {
+        thread = new Thread(() -> run(listener), "tweet-replay");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(Listener listener) {
+        long startNanos = System.nanoTime();
+        try {
+            replay(listener);
+            long elapsedMillis = Math.max(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), 1);
+            logger.info("Replayed {} tweets from {} in {} ms, {} tweets/s", replayed, path, elapsedMillis,
+                    replayed * 1000 / elapsedMillis);
+        } catch (IOException e) {
+            logger.error("Could not replay {}: {}", path, e.toString());
+        }
+    }
+
+    /**
+     * Replays the whole file on the calling thread, unless stopped.
+     */
+    void replay(Listener listener) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long position = 0;
+            while (position < size && !stopped) {
+                long length = Math.min(size - position, chunkBytes);
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = ndjson ? replayLines(chunk, last, listener) : replayEntries(chunk, last, listener);
+                if (stopped) {
+                    return;
+                }
+                if (consumed == 0 && !last) {
+                    throw new IOException("Record at " + position + " of " + path + " is larger than "
+                            + chunkBytes + " bytes");
+                }
+                position += last ? length : consumed;
+            }
+        }
+    }
+
+    /**
+     * @return the bytes of the complete lines, all bytes of the last chunk
+     */
+    private int replayLines(MappedByteBuffer chunk, boolean last, Listener listener) {
+        int lineStart = 0;
+        for (int i = 0; i < chunk.limit() && !stopped; i++) {
+            if (chunk.get(i) == '\n') {
+                replayLine(chunk, lineStart, i - lineStart, listener);
+                lineStart = i + 1;
+            }
+        }
+        if (last && lineStart < chunk.limit() && !stopped) {
+            replayLine(chunk, lineStart, chunk.limit() - lineStart, listener);
+        }
+        return lineStart;
+    }
+
+    private void replayLine(MappedByteBuffer chunk, int start, int length, Listener listener) {
+        if (length == 0 || (length == 1 && chunk.get(start) == '\r')) {
+            return;
+        }
+        copy(chunk, start, length);
+        try (JsonParser parser = JSON.createParser(record, 0, length)) {
+            Long userId = null;
+            Long tweetId = null;
+            Long retweetedId = null;
+            Date dateTime = null;
+            String userName = null;
+            String tweetMessage = null;
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("not a JSON object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                switch (field) {
+                    case "userId":
+                        userId = parser.getLongValue();
+                        break;
+                    case "tweetId":
+                        tweetId = parser.getLongValue();
+                        break;
+                    case "retweetedId":
+                        retweetedId = parser.getLongValue();
+                        break;
+                    case "dateTime":
+                        dateTime = value == JsonToken.VALUE_NUMBER_INT ? new Date(parser.getLongValue())
+                                : Date.from(Instant.parse(parser.getText()));
+                        break;
+                    case "userName":
+                        userName = parser.getText();
+                        break;
+                    case "tweetMessage":
+                        tweetMessage = parser.getText();
+                        break;
+                    default:
+                        parser.skipChildren();
+                }
+            }
+            if (dateTime == null || userName == null || tweetMessage == null) {
+                throw new IOException("dateTime, userName or tweetMessage missing");
+            }
+            deliver(userId != null ? userId : userName.hashCode() & 0xFFFFFFFFL,
+                    new TwitterUser(dateTime, userName, tweetMessage, tweetId, retweetedId), listener);
+        } catch (IOException | DateTimeParseException e) {
+            skipped(e.getMessage());
+        }
+    }
+
+    /**
+     * @return the bytes of the complete entries, all bytes of the last chunk
+     */
+    private int replayEntries(MappedByteBuffer chunk, boolean last, Listener listener) {
+        int position = 0;
+        while (chunk.limit() - position >= 4 && !stopped) {
+            int length = chunk.getInt(position);
+            boolean routed = (length & SpillFile.TOPIC_FLAG) != 0;
+            length &= ~SpillFile.TOPIC_FLAG;
+            if (length < 8) {
+                // nothing after a corrupt length can be framed
+                skipped("corrupt entry length " + length);
+                return chunk.limit();
+            }
+            if (chunk.limit() - position - 4 < length) {
+                break;
+            }
+            long userId = chunk.getLong(position + 4);
+            // a spill file entry's topic is not replayed, the router decides again
+            int topicBytes = routed ? 2 + chunk.getShort(position + 12) : 0;
+            byte[] tweet = new byte[length - 8 - topicBytes];
+            slice(chunk, position + 12 + topicBytes).get(tweet);
+            TwitterUser twitterUser = deserializer.deserialize(null, tweet);
+            if (twitterUser != null) {
+                deliver(userId, twitterUser, listener);
+            } else {
+                skipped("unreadable tweet");
+            }
+            position += 4 + length;
+        }
+        if (last && position < chunk.limit() && !stopped) {
+            logger.warn("Dropped a torn entry of {} bytes at the end of {}", chunk.limit() - position, path);
+        }
+        return position;
+    }
+
+    private void deliver(long userId, TwitterUser twitterUser, Listener listener) {
+        senderMetrics.statusReceived();
+        pace(twitterUser.getDateTime().getTime());
+        listener.onTweet(userId, twitterUser);
+        replayed++;
+    }
+
+    /**
+     * Waits until the tweet is due: its distance from the first tweet, divided by the rate.
+     */
+    private void pace(long tweetMillis) {
+        if (rate == 0) {
+            return;
+        }
+        if (firstTweetMillis < 0) {
+            firstTweetMillis = tweetMillis;
+            firstSentNanos = System.nanoTime();
+            return;
+        }
+        long dueNanos = firstSentNanos + (long) (TimeUnit.MILLISECONDS.toNanos(tweetMillis - firstTweetMillis) / rate);
+        long waitNanos;
+        while ((waitNanos = dueNanos - System.nanoTime()) > 0 && !stopped) {
+            LockSupport.parkNanos(waitNanos);
+        }
+    }
+
+    private void skipped(String reason) {
+        senderMetrics.statusReceived();
+        senderMetrics.statusSkipped();
+        skippedLogger.warn("Skipping unreadable record in {}: {}", path, reason);
+    }
+
+    private void copy(MappedByteBuffer chunk, int start, int length) {
+        if (record.length < length) {
+            record = new byte[Math.max(length, record.length * 2)];
+        }
+        slice(chunk, start).get(record, 0, length);
+    }
+
+    private static ByteBuffer slice(MappedByteBuffer chunk, int start) {
+        ByteBuffer view = chunk.duplicate();
+        view.position(start);
+        return view;
+    }
+
+    @Override
+    public void stop() {
+        stopped = true;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    public long getReplayed() {
+        return replayed;
+    }
+}
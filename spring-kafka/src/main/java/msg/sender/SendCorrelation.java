@@ -0,0 +1,59 @@
+package msg.sender;
+
+import msg.model.TwitterUser;
+
+/**
+ * Correlation metadata of a tweet sent by {@link ReactiveKafkaSender}, handed back with its send result: which
+ * tweet it was, where it went and when it was handed to the producer.
+ */
+public final class SendCorrelation {
+
+    private final long sequence;
+
+    private final String topic;
+
+    private final long userId;
+
+    private final TwitterUser tweet;
+
+    private final long startNanos;
+
+    SendCorrelation(long sequence, String topic, long userId, TwitterUser tweet, long startNanos) {
+        this.sequence = sequence;
+        this.topic = topic;
+        this.userId = userId;
+        this.tweet = tweet;
+        this.startNanos = startNanos;
+    }
+
+    /**
+     * Position of the tweet among the tweets the sender was given, starting at 0.
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    public long getUserId() {
+        return userId;
+    }
+
+    public TwitterUser getTweet() {
+        return tweet;
+    }
+
+    /**
+     * {@link System#nanoTime()} when the tweet was handed to the producer.
+     */
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    @Override
+    public String toString() {
+        return "SendCorrelation{sequence=" + sequence + ", topic=" + topic + ", userId=" + userId + "}";
+    }
+}
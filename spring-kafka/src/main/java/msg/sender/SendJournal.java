@@ -0,0 +1,368 @@
+package msg.sender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import msg.common.TwitterUserDeserializer;
+import msg.common.TwitterUserSerializer;
+import msg.common.TwitterUserWireFormat;
+import msg.model.TwitterUser;
+
+/**
+ * Append-only journal of tweets {@link KafkaSender} could not send, enabled with
+ * {@code kafka.producer.journal.enabled=true}; {@link JournalReplayer} sends them again once Kafka is back.
+ * <p>
+ * Tweets are appended to memory-mapped segment files of {@code kafka.producer.journal.segment.bytes} in
+ * {@code kafka.producer.journal.dir}, so an append is a copy into the page cache. Each record carries a CRC32 of
+ * its payload; on start-up the segments are scanned and anything after the first record whose checksum does not
+ * match is discarded. A checkpoint file remembers how far the replay got; fully replayed segments are deleted.
+ * <p>
+ * Data written before a process crash survives it; after a power loss the part of the last segment the OS had
+ * not flushed yet is lost. Records replayed just before a crash may be sent twice.
+ * <p>
+ * An append that fills a segment forces it to disk and maps the next one, which can take a while. Callers that
+ * must not wait for that, like the producer's network thread, use {@link #appendAsync}, which appends on the
+ * journal's own thread.
+ */
+@ManagedResource(objectName = "msg.sender:name=sendJournal")
+public class SendJournal implements Closeable, MeterBinder {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SendJournal.class);
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private final Deque<JournalSegment> segments = new ArrayDeque<>();
+
+    private final FileChannel checkpoint;
+
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(8 + 4);
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    private final TwitterUserDeserializer deserializer = new TwitterUserDeserializer();
+
+    // unbounded, the waiting appends are tweets the producer gave up on, at most buffer.memory worth of them
+    private final ThreadPoolExecutor appender = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+            new LinkedBlockingQueue<>(), runnable -> {
+                Thread thread = new Thread(runnable, "send-journal");
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    private volatile long pendingRecords;
+
+    private volatile long journaledRecords;
+
+    private volatile long replayedRecords;
+
+    private boolean closed;
+
+    public SendJournal(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG,
+                TwitterUserWireFormat.BINARY.name()), false);
+        recover();
+    }
+
+    /**
+     * Opens the segments left by a previous run, skipping what the checkpoint says was replayed already.
+     */
+    private void recover() throws IOException {
+        long checkpointSegment = -1;
+        int checkpointPosition = 0;
+        if (checkpoint.read(checkpointBuffer, 0) == checkpointBuffer.capacity()) {
+            checkpointSegment = checkpointBuffer.getLong(0);
+            checkpointPosition = checkpointBuffer.getInt(8);
+        }
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.journal")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.indexOf('.'))), path);
+            }
+        }
+        long pending = 0;
+        for (long number : files.keySet()) {
+            if (number < checkpointSegment) {
+                Files.delete(files.get(number));
+                continue;
+            }
+            JournalSegment segment = JournalSegment.recover(files.get(number), number,
+                    number == checkpointSegment ? checkpointPosition : 0);
+            segments.addLast(segment);
+            pending += segment.pendingRecords();
+        }
+        pendingRecords = pending;
+        if (pending > 0) {
+            logger.info("Recovered {} unsent tweets from {} journal segments in {}", pending, segments.size(),
+                    directory);
+        }
+    }
+
+    /**
+     * Appends a tweet for {@code topic}, rolling over to a new segment when the current one is full.
+     *
+     * @throws UncheckedIOException if a new segment cannot be created
+     * @throws IllegalStateException if the journal is closed
+     */
+    public synchronized void append(String topic, long userId, TwitterUser tweet) {
+        if (closed) {
+            throw new IllegalStateException("Send journal is closed");
+        }
+        byte[] payload = encode(topic, userId, tweet);
+        if (JournalSegment.RECORD_HEADER_BYTES + payload.length > segmentBytes) {
+            throw new IllegalArgumentException("Tweet of " + payload.length + " bytes exceeds the journal segment size");
+        }
+        JournalSegment segment = segments.peekLast();
+        if (segment == null || !segment.hasRoomFor(payload.length)) {
+            segment = roll(segment);
+        }
+        segment.append(payload);
+        pendingRecords++;
+        journaledRecords++;
+    }
+
+    /**
+     * Appends a tweet for {@code topic} on the journal's thread, never on the calling thread.
+     *
+     * @return completed once the tweet is appended, or exceptionally as {@link #append} would throw
+     */
+    public CompletableFuture<Void> appendAsync(String topic, long userId, TwitterUser tweet) {
+        try {
+            return CompletableFuture.runAsync(() -> append(topic, userId, tweet), appender);
+        } catch (RejectedExecutionException e) {
+            CompletableFuture<Void> rejected = new CompletableFuture<>();
+            rejected.completeExceptionally(new IllegalStateException("Send journal is closed"));
+            return rejected;
+        }
+    }
+
+    private JournalSegment roll(JournalSegment full) {
+        try {
+            if (full != null) {
+                full.force();
+            }
+            JournalSegment segment = JournalSegment.create(directory, full == null ? 0 : full.number() + 1,
+                    segmentBytes);
+            segments.addLast(segment);
+            deleteReplayedSegments();
+            return segment;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create a journal segment in " + directory, e);
+        }
+    }
+
+    /**
+     * Returns up to {@code max} of the oldest tweets, without removing them.
+     */
+    public synchronized List<Entry> peek(int max) {
+        List<Entry> entries = new ArrayList<>(Math.min(max, (int) Math.min(pendingRecords, Integer.MAX_VALUE)));
+        for (JournalSegment segment : segments) {
+            int position = segment.readPosition();
+            while (entries.size() < max && position < segment.writePosition()) {
+                entries.add(decode(segment.read(position)));
+                position = segment.nextPosition(position);
+            }
+            if (entries.size() == max) {
+                break;
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Removes the {@code count} oldest tweets, after they were sent.
+     */
+    public synchronized void remove(int count) {
+        for (int i = 0; i < count && pendingRecords > 0; i++) {
+            JournalSegment segment = segments.peekFirst();
+            while (segment.readPosition() == segment.writePosition()) {
+                segments.removeFirst();
+                delete(segment);
+                segment = segments.peekFirst();
+            }
+            segment.advance();
+            pendingRecords--;
+            replayedRecords++;
+        }
+        deleteReplayedSegments();
+        writeCheckpoint();
+    }
+
+    private void deleteReplayedSegments() {
+        while (segments.size() > 1 && segments.peekFirst().pendingRecords() == 0) {
+            delete(segments.removeFirst());
+        }
+    }
+
+    private void delete(JournalSegment segment) {
+        try {
+            Files.delete(segment.path());
+        } catch (IOException e) {
+            logger.warn("Failed to delete replayed journal segment {}: {}", segment.path(), e.getMessage());
+        }
+    }
+
+    private void writeCheckpoint() {
+        JournalSegment head = segments.peekFirst();
+        if (head == null) {
+            return;
+        }
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(head.number()).putInt(head.readPosition()).flip();
+        try {
+            checkpoint.write(checkpointBuffer, 0);
+        } catch (IOException e) {
+            // only costs duplicates after a restart
+            logger.warn("Failed to write the journal checkpoint: {}", e.getMessage());
+        }
+    }
+
+    private byte[] encode(String topic, long userId, TwitterUser tweet) {
+        byte[] topicBytes = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] tweetBytes = serializer.serialize(topic, tweet);
+        return ByteBuffer.allocate(8 + 2 + topicBytes.length + tweetBytes.length)
+                .putLong(userId)
+                .putShort((short) topicBytes.length)
+                .put(topicBytes)
+                .put(tweetBytes)
+                .array();
+    }
+
+    private Entry decode(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        long userId = buffer.getLong();
+        byte[] topicBytes = new byte[buffer.getShort()];
+        buffer.get(topicBytes);
+        byte[] tweetBytes = new byte[buffer.remaining()];
+        buffer.get(tweetBytes);
+        String topic = new String(topicBytes, StandardCharsets.UTF_8);
+        return new Entry(topic, userId, deserializer.deserialize(topic, tweetBytes));
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tweets.journal.pending", this, SendJournal::getPendingRecords)
+                .description("Journaled tweets waiting to be replayed")
+                .register(registry);
+        Gauge.builder("tweets.journal.segments", this, SendJournal::getSegmentCount)
+                .register(registry);
+        FunctionCounter.builder("tweets.journal.appended", this, SendJournal::getJournaledRecords)
+                .register(registry);
+        FunctionCounter.builder("tweets.journal.replayed", this, SendJournal::getReplayedRecords)
+                .register(registry);
+    }
+
+    @ManagedAttribute(description = "Tweets waiting to be replayed")
+    public long getPendingRecords() {
+        return pendingRecords;
+    }
+
+    @ManagedAttribute
+    public long getJournaledRecords() {
+        return journaledRecords;
+    }
+
+    @ManagedAttribute
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    @ManagedAttribute
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    public boolean isEmpty() {
+        return pendingRecords == 0;
+    }
+
+    /**
+     * Finishes the waiting appends and flushes the segments to disk.
+     */
+    @Override
+    public void close() throws IOException {
+        appender.shutdown();
+        try {
+            if (!appender.awaitTermination(30, TimeUnit.SECONDS)) {
+                logger.warn("Journal appends did not finish, {} tweets are lost", appender.getQueue().size());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            closed = true;
+            for (JournalSegment segment : segments) {
+                segment.force();
+            }
+            checkpoint.close();
+        }
+    }
+
+    /**
+     * A journaled tweet and the topic it was sent to.
+     */
+    public static final class Entry {
+
+        private final String topic;
+
+        private final long userId;
+
+        private final TwitterUser tweet;
+
+        Entry(String topic, long userId, TwitterUser tweet) {
+            this.topic = topic;
+            this.userId = userId;
+            this.tweet = tweet;
+        }
+
+        public String getTopic() {
+            return topic;
+        }
+
+        public long getUserId() {
+            return userId;
+        }
+
+        public TwitterUser getTweet() {
+            return tweet;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+package msg.sender;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Meters of the sender stages: tweets arriving from the Twitter stream, formatting them into
+ * {@link msg.model.TwitterUser}s and sending them to Kafka, one by one or in transactions. Queue and journal
+ * gauges are bound by {@link TweetIngestQueue} and {@link SendJournal} themselves.
+ */
+public class SenderMetrics {
+
+    private final MeterRegistry registry;
+
+    private final Counter statusesReceived;
+
+    private final Counter statusesSkipped;
+
+    private final Timer formatTimer;
+
+    private final Timer sendSuccessTimer;
+
+    private final Timer sendFailureTimer;
+
+    private final Timer transactionCommitTimer;
+
+    private final Timer transactionAbortTimer;
+
+    public SenderMetrics(MeterRegistry registry) {
+        this.registry = registry;
+        statusesReceived = Counter.builder("tweets.stream.received")
+                .description("Statuses received from the Twitter stream")
+                .register(registry);
+        statusesSkipped = Counter.builder("tweets.stream.skipped")
+                .description("Statuses missing a creation date, user or text")
+                .register(registry);
+        formatTimer = Timer.builder("tweets.format")
+                .description("Time to turn a status into a TwitterUser")
+                .register(registry);
+        sendSuccessTimer = sendTimer(registry, "success");
+        sendFailureTimer = sendTimer(registry, "failure");
+        transactionCommitTimer = transactionTimer(registry, "commit");
+        transactionAbortTimer = transactionTimer(registry, "abort");
+    }
+
+    private static Timer transactionTimer(MeterRegistry registry, String result) {
+        return Timer.builder("tweets.send.transaction")
+                .description("Time from beginning a transaction of tweets until it was committed or aborted")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static Timer sendTimer(MeterRegistry registry, String result) {
+        return Timer.builder("tweets.send")
+                .description("Time from handing a tweet to the producer until Kafka acknowledged or rejected it")
+                .tag("result", result)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    /**
+     * Publishes the producer profile in use as {@code tweets.send.profile}, 1 with the profile as tag.
+     */
+    public void producerProfile(ProducerProfile profile) {
+        Gauge.builder("tweets.send.profile", profile, p -> 1)
+                .description("Producer profile the sender runs with")
+                .tag("profile", profile.name().toLowerCase(Locale.ROOT))
+                .register(registry);
+    }
+
+    public void statusReceived() {
+        statusesReceived.increment();
+    }
+
+    public void statusSkipped() {
+        statusesSkipped.increment();
+    }
+
+    public void formatted(long nanos) {
+        formatTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void sent(long nanos) {
+        sendSuccessTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a send that failed, synchronously or when Kafka rejected it.
+     */
+    public void sendFailed(long nanos) {
+        sendFailureTimer.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Records a committed transaction, each of its tweets counts as sent after the whole transaction.
+     */
+    public void transactionCommitted(int tweets, long nanos) {
+        transactionCommitTimer.record(nanos, TimeUnit.NANOSECONDS);
+        for (int i = 0; i < tweets; i++) {
+            sendSuccessTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public void transactionAborted(int tweets, long nanos) {
+        transactionAbortTimer.record(nanos, TimeUnit.NANOSECONDS);
+        for (int i = 0; i < tweets; i++) {
+            sendFailureTimer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+    }
+}
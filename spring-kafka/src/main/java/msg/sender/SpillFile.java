@@ -0,0 +1,237 @@
+package msg.sender;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import msg.common.TwitterUserDeserializer;
+import msg.common.TwitterUserSerializer;
+import msg.common.TwitterUserWireFormat;
+import msg.model.TwitterUser;
+
+/**
+ * Append-only store of the tweets that did not fit into {@link TweetIngestQueue}, in arrival order.
+ * <p>
+ * Entries go to {@link SpillSegment} files of about {@code kafka.producer.ingest.spill.segment.bytes} in the
+ * spill directory. Each entry is {@code [int length][long user id][tweet in the binary wire format]}. A tweet
+ * routed to a topic of its own, see {@link QueuedTweet#getTopic()}, has {@link #TOPIC_FLAG} set in the length
+ * and {@code [short topic length][UTF-8 topic]} before the tweet.
+ * <p>
+ * Entries are read back from the front; a segment is deleted once all of its entries have been read, so the
+ * disk holds no more than the entries still waiting. A checkpoint file remembers how far the replay got, and
+ * entries left over from a previous run are replayed from there after a restart; a torn entry at the end of a
+ * segment is dropped. A spill file of earlier versions, {@code <directory>.spill}, is taken over as the first
+ * segment.
+ */
+public class SpillFile implements Closeable {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SpillFile.class);
+
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    // entries are far smaller than 1 GB, so the second highest bit of the length is free
+    static final int TOPIC_FLAG = 1 << 30;
+
+    private final Path directory;
+
+    private final int segmentBytes;
+
+    private final Deque<SpillSegment> segments = new ArrayDeque<>();
+
+    private final FileChannel checkpoint;
+
+    private final ByteBuffer checkpointBuffer = ByteBuffer.allocate(8 + 8);
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    private final TwitterUserDeserializer deserializer = new TwitterUserDeserializer();
+
+    // number of the next segment to create
+    private long nextSegment;
+
+    private volatile long entries;
+
+    public SpillFile(Path directory, int segmentBytes) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        Files.createDirectories(directory);
+        this.checkpoint = FileChannel.open(directory.resolve(CHECKPOINT_FILE), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG,
+                TwitterUserWireFormat.BINARY.name()), false);
+        recover();
+    }
+
+    /**
+     * Opens the segments left by a previous run, skipping what the checkpoint says was replayed already.
+     */
+    private void recover() throws IOException {
+        long checkpointSegment = 0;
+        long checkpointPosition = 0;
+        if (checkpoint.read(checkpointBuffer, 0) == checkpointBuffer.capacity()) {
+            checkpointSegment = checkpointBuffer.getLong(0);
+            checkpointPosition = checkpointBuffer.getLong(8);
+        }
+        TreeMap<Long, Path> files = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.spill")) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                files.put(Long.parseLong(name.substring(0, name.indexOf('.'))), path);
+            }
+        }
+        Path legacy = directory.resolveSibling(directory.getFileName() + ".spill");
+        if (files.isEmpty() && Files.isRegularFile(legacy)) {
+            Path path = directory.resolve(SpillSegment.fileName(checkpointSegment));
+            Files.move(legacy, path);
+            files.put(checkpointSegment, path);
+            checkpointPosition = 0;
+        }
+        long recovered = 0;
+        nextSegment = checkpointSegment;
+        for (long number : files.keySet()) {
+            nextSegment = Math.max(nextSegment, number + 1);
+            if (number < checkpointSegment) {
+                Files.delete(files.get(number));
+                continue;
+            }
+            SpillSegment segment = SpillSegment.recover(files.get(number), number,
+                    number == checkpointSegment ? checkpointPosition : 0);
+            if (segment.pendingEntries() == 0) {
+                segment.delete();
+                continue;
+            }
+            segments.addLast(segment);
+            recovered += segment.pendingEntries();
+        }
+        entries = recovered;
+        if (recovered > 0) {
+            logger.info("Replaying {} tweets spilled to {} before the restart", recovered, directory);
+        }
+    }
+
+    public synchronized void append(QueuedTweet queuedTweet) {
+        byte[] tweet = serializer.serialize(null, queuedTweet.getTweet());
+        byte[] topic = queuedTweet.getTopic() == null ? null
+                : queuedTweet.getTopic().getBytes(StandardCharsets.UTF_8);
+        int length = 8 + (topic == null ? 0 : 2 + topic.length) + tweet.length;
+        ByteBuffer entry = ByteBuffer.allocate(4 + length);
+        entry.putInt(topic == null ? length : length | TOPIC_FLAG).putLong(queuedTweet.getUserId());
+        if (topic != null) {
+            entry.putShort((short) topic.length).put(topic);
+        }
+        entry.put(tweet).flip();
+        try {
+            SpillSegment segment = segments.peekLast();
+            if (segment == null || !segment.hasRoomFor(entry.remaining(), segmentBytes)) {
+                segment = SpillSegment.create(directory, nextSegment++);
+                segments.addLast(segment);
+            }
+            segment.append(entry);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to spill tweet to " + directory, e);
+        }
+        entries++;
+    }
+
+    /**
+     * Hands entries to {@code consumer} in order until it returns {@code false} or the file is exhausted.
+     * The entry the consumer refused stays in the file.
+     *
+     * @return the number of entries consumed
+     */
+    public synchronized int replay(Predicate<QueuedTweet> consumer) {
+        int replayed = 0;
+        try {
+            SpillSegment segment;
+            while ((segment = segments.peekFirst()) != null) {
+                ByteBuffer entry = segment.peek();
+                if (entry == null) {
+                    segments.removeFirst();
+                    // the checkpoint moves past the segment before it goes
+                    writeCheckpoint();
+                    segment.delete();
+                    continue;
+                }
+                int length = entry.getInt();
+                String topic = null;
+                long userId = entry.getLong();
+                if ((length & TOPIC_FLAG) != 0) {
+                    byte[] topicBytes = new byte[entry.getShort()];
+                    entry.get(topicBytes);
+                    topic = new String(topicBytes, StandardCharsets.UTF_8);
+                }
+                byte[] tweet = new byte[entry.remaining()];
+                entry.get(tweet);
+                TwitterUser twitterUser = deserializer.deserialize(null, tweet);
+                if (twitterUser != null && !consumer.test(new QueuedTweet(topic, userId, twitterUser))) {
+                    break;
+                }
+                segment.advance(entry);
+                entries--;
+                replayed++;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read spilled tweets from " + directory, e);
+        }
+        if (replayed > 0) {
+            writeCheckpoint();
+        }
+        return replayed;
+    }
+
+    private void writeCheckpoint() {
+        SpillSegment head = segments.peekFirst();
+        checkpointBuffer.clear();
+        checkpointBuffer.putLong(head == null ? nextSegment : head.number())
+                .putLong(head == null ? 0 : head.readPosition())
+                .flip();
+        try {
+            checkpoint.write(checkpointBuffer, 0);
+        } catch (IOException e) {
+            // only costs duplicates after a restart
+            logger.warn("Failed to write the spill checkpoint: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Number of segment files, the last one possibly still being written.
+     */
+    public synchronized int segmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Number of entries not replayed yet.
+     */
+    public long size() {
+        return entries;
+    }
+
+    public boolean isEmpty() {
+        return entries == 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (SpillSegment segment : segments) {
+            segment.close();
+        }
+        checkpoint.close();
+    }
+}
@@ -0,0 +1,165 @@
+package msg.sender;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One file of a {@link SpillFile}, holding {@code [int length][length bytes]} entries one after the other.
+ * The second highest bit of the length is a flag of the entry, see {@link SpillFile#TOPIC_FLAG}. Callers
+ * synchronize access.
+ */
+class SpillSegment {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(SpillSegment.class);
+
+    private static final int LENGTH_MASK = ~SpillFile.TOPIC_FLAG;
+
+    private final long number;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final ByteBuffer lengthBuffer = ByteBuffer.allocate(4);
+
+    private long writePosition;
+
+    private long readPosition;
+
+    private long pendingEntries;
+
+    private SpillSegment(long number, Path path) throws IOException {
+        this.number = number;
+        this.path = path;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    static SpillSegment create(Path directory, long number) throws IOException {
+        return new SpillSegment(number, directory.resolve(fileName(number)));
+    }
+
+    /**
+     * Opens an existing segment, counts the entries from the first one at or after {@code readPosition} and
+     * cuts off a torn last entry.
+     */
+    static SpillSegment recover(Path path, long number, long readPosition) throws IOException {
+        SpillSegment segment = new SpillSegment(number, path);
+        long size = segment.channel.size();
+        long position = 0;
+        long entries = 0;
+        long firstUnread = -1;
+        int length;
+        while ((length = segment.entryLength(position)) >= 0 && position + 4 + length <= size) {
+            if (position >= readPosition) {
+                if (firstUnread < 0) {
+                    firstUnread = position;
+                }
+                entries++;
+            }
+            position += 4 + length;
+        }
+        if (position < size) {
+            logger.warn("Dropping {} bytes of a torn entry at the end of {}", size - position, path);
+            segment.channel.truncate(position);
+        }
+        segment.writePosition = position;
+        segment.readPosition = firstUnread < 0 ? position : firstUnread;
+        segment.pendingEntries = entries;
+        return segment;
+    }
+
+    static String fileName(long number) {
+        return String.format("%020d.spill", number);
+    }
+
+    /**
+     * @return the length of the entry at {@code position} without its length field, or -1 if there is none
+     */
+    private int entryLength(long position) throws IOException {
+        lengthBuffer.clear();
+        while (lengthBuffer.hasRemaining()) {
+            if (channel.read(lengthBuffer, position + lengthBuffer.position()) < 0) {
+                return -1;
+            }
+        }
+        int length = lengthBuffer.getInt(0) & LENGTH_MASK;
+        // every entry holds at least a user id
+        return length < 8 ? -1 : length;
+    }
+
+    /**
+     * An entry that does not fit goes to the next segment, unless this one is still empty.
+     */
+    boolean hasRoomFor(int entryBytes, int segmentBytes) {
+        return writePosition == 0 || writePosition + entryBytes <= segmentBytes;
+    }
+
+    void append(ByteBuffer entry) throws IOException {
+        while (entry.hasRemaining()) {
+            writePosition += channel.write(entry, writePosition);
+        }
+        pendingEntries++;
+    }
+
+    /**
+     * Reads the entry at the read position, length field included, without moving past it.
+     *
+     * @return the entry, or {@code null} once every entry has been read
+     */
+    ByteBuffer peek() throws IOException {
+        if (readPosition >= writePosition) {
+            return null;
+        }
+        ByteBuffer entry = ByteBuffer.allocate(4 + entryLength(readPosition));
+        while (entry.hasRemaining()) {
+            channel.read(entry, readPosition + entry.position());
+        }
+        entry.flip();
+        return entry;
+    }
+
+    /**
+     * Moves past the entry returned by the last {@link #peek()}.
+     */
+    void advance(ByteBuffer entry) {
+        readPosition += entry.limit();
+        pendingEntries--;
+    }
+
+    long number() {
+        return number;
+    }
+
+    long readPosition() {
+        return readPosition;
+    }
+
+    long pendingEntries() {
+        return pendingEntries;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the segment once all of its entries were replayed.
+     */
+    void delete() {
+        try {
+            channel.close();
+            Files.delete(path);
+        } catch (IOException e) {
+            logger.warn("Failed to delete replayed spill segment {}: {}", path, e.getMessage());
+        }
+    }
+}
@@ -1,54 +1,77 @@
 package msg.sender;
 
-import java.util.StringJoiner;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date; // Added for explicit type usage in formatTweetForKafka if needed, though status.getCreatedAt() is already Date
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Import;
 
-import msg.common.Constants;
+import msg.common.MetricsConfig;
+import msg.common.SampledLogger;
+
+import msg.model.TwitterUser;
 
-import twitter4j.StallWarning;
 import twitter4j.Status;
-import twitter4j.StatusDeletionNotice;
-import twitter4j.StatusListener;
-import twitter4j.TwitterStream;
 import twitter4j.User; // Added for explicit type usage in formatTweetForKafka
 
 /**
  * Main entry point for running the Kafka message sender application.
- * This application connects to Twitter, fetches tweets based on configured filters,
- * and sends them as messages to a Kafka topic.
+ * This application reads tweets from the {@link TweetSource} chosen with {@code tweet.source}, the Twitter stream
+ * filtered on {@code social.twitter.track} or a replayed capture file, and sends them as messages to a Kafka topic,
+ * or with {@code sender.filter.enabled} to the topics of the {@link TweetRouter} rules they match.
+ * Tweets go through the {@link TweetIngestQueue}, or with {@code kafka.producer.reactive.enabled} are pulled
+ * from the source by the {@link ReactiveKafkaSender}.
  */
 @EnableAutoConfiguration
 @SpringBootApplication
+@Import(MetricsConfig.class)
 public class SpringKafkaApplicationSenderMain implements CommandLineRunner {
 
 	private static final Logger logger = LoggerFactory
             .getLogger(SpringKafkaApplicationSenderMain.class);
+
+	// onTweet runs for every tweet, so its lines are limited to a few a second
+	private static final SampledLogger statusLogger = SampledLogger.perSecond(logger, 1);
 	
-	@Autowired
-	private KafkaSender kafkaSender;
+	// Only present when kafka.producer.reactive.enabled is false (default)
+	@Autowired(required = false)
+	private TweetIngestQueue tweetIngestQueue;
+
+	// Only present when kafka.producer.reactive.enabled is true
+	@Autowired(required = false)
+	private ReactiveKafkaSender reactiveKafkaSender;
 	 
-    @Value("${kafka.topic.name}")
-    private String topicName;
-	
 	@Autowired
-	private TwitterStream twitterStream;
+	private TweetSource tweetSource;
+
+	// Only present when tweet.source.capture.file is set
+	@Autowired(required = false)
+	private TweetCaptureWriter tweetCaptureWriter;
+
+	// Only present when kafka.producer.deletions.enabled is true, otherwise deletion notices are ignored
+	@Autowired(required = false)
+	private DeletionNoticeSender deletionNoticeSender;
+
+	// Only present when sender.filter.enabled is true
+	@Autowired(required = false)
+	private TweetRouter tweetRouter;
 	 
     public static void main(String[] args)  {
         SpringApplication.run(SpringKafkaApplicationSenderMain.class, args);
     }
 
     /**
-     * Formats a Twitter {@link twitter4j.Status} object into a string suitable for sending via Kafka.
-     * The fields (creation date, username, tweet text) are joined using {@link msg.common.Constants#MESSAGE_DELIMITER}.
+     * Formats a Twitter {@link twitter4j.Status} object into a {@link TwitterUser} suitable for sending via Kafka.
+     * The fields (creation date, username, tweet text, tweet id) are written to the topic by {@link msg.common.TwitterUserSerializer},
+     * in the {@link msg.common.TwitterUserWireFormat} configured for the topic.
      * <p>
      * This method performs null checks on the status object itself and its critical fields:
      * {@code getCreatedAt()}, {@code getUser()}, {@code getUser().getName()}, and {@code getText()}.
@@ -56,10 +79,10 @@ public class SpringKafkaApplicationSenderMain implements CommandLineRunner {
      * and returns {@code null}.
      *
      * @param status The {@link twitter4j.Status} object to format.
-     * @return A delimited string representation of the tweet, or {@code null} if the input status object
+     * @return A {@link TwitterUser} holding the tweet, or {@code null} if the input status object
      *         or any of its critical fields (createdAt, user, user.name, text) are null.
      */
-    public static String formatTweetForKafka(Status status) {
+    public static TwitterUser formatTweetForKafka(Status status) {
         if (status == null) {
             logger.warn("formatTweetForKafka: Received null status object.");
             return null;
@@ -87,66 +110,75 @@ public class SpringKafkaApplicationSenderMain implements CommandLineRunner {
             return null; 
         }
 
-        StringJoiner joiner = new StringJoiner(Constants.MESSAGE_DELIMITER);
-        joiner.add(createdAt.toString()) // Consider more specific date formatting if required downstream
-              .add(userName)
-              .add(text);
-        return joiner.toString();
+        // a retweet keeps its own id and carries the original's, which the receiver's dedup drops copies by
+        Status retweetedStatus = status.getRetweetedStatus();
+        return new TwitterUser(createdAt, userName, text, status.getId(),
+                retweetedStatus != null ? retweetedStatus.getId() : null);
     }
 
-	private void writeToKafka(String msg) {
-		kafkaSender.sendMessage(this.topicName, msg);
+	private void writeToKafka(long userId, TwitterUser msg) {
+		if (tweetRouter == null) {
+			// queued, the ingest publisher threads send it to kafka.topic.name
+			tweetIngestQueue.submit(userId, msg);
+			return;
+		}
+		// one send per topic of the matching rules, none if no rule matched
+		for (String topic : tweetRouter.route(userId, msg)) {
+			tweetIngestQueue.submit(topic, userId, msg);
+		}
 	}
 
-	@Override
-	public void run(String... args) throws Exception {
-		readTwitterStream();
+	/**
+	 * The topics a tweet goes to, {@code kafka.topic.name} without a router, none if no rule matched.
+	 */
+	private List<QueuedTweet> route(QueuedTweet tweet) {
+		if (tweetRouter == null) {
+			return Collections.singletonList(tweet);
+		}
+		List<String> topics = tweetRouter.route(tweet.getUserId(), tweet.getTweet());
+		List<QueuedTweet> routed = new ArrayList<>(topics.size());
+		for (String topic : topics) {
+			routed.add(new QueuedTweet(topic, tweet.getUserId(), tweet.getTweet()));
+		}
+		return routed;
 	}
 
-	private void readTwitterStream() {
-		StatusListener statusListener = new StatusListener() {
-			@Override
-			public void onException(Exception ex) {
-				logger.error("Exception in Twitter stream listener", ex);
-			}
-			
-			@Override
-			public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
-				logger.warn("Twitter track limitation notice: {}", numberOfLimitedStatuses);
-			}
-			
-			@Override
-			public void onStatus(Status status) {
-                // Refactored formatting logic
-                String formattedMessage = formatTweetForKafka(status);
-
-                if (formattedMessage != null) {
-                    logger.info("Received status, formatted message: {}", formattedMessage);
-                    writeToKafka(formattedMessage);
-                } else {
-                    // Logging for null formattedMessage is handled within formatTweetForKafka
-                    // or could add a specific log here if required for the listener context.
-                    logger.warn("Skipping message for status ID {} due to formatting issues (null output).", status != null ? status.getId() : "unknown (null status)");
-                }
-			}
-			
-			@Override
-			public void onStallWarning(StallWarning warning) {
-				logger.warn("Twitter stall warning: {}", warning);
-			}
-			
+	@Override
+	public void run(String... args) throws Exception {
+		if (reactiveKafkaSender != null) {
+			// tweets are taken from the source as Kafka acknowledges earlier ones
+			reactiveKafkaSender.send(TweetSourceFlux.of(tweetSource, this::onDeletion)
+					.doOnNext(tweet -> {
+						statusLogger.info("Received status, formatted message: {}", tweet.getTweet());
+						if (tweetCaptureWriter != null) {
+							tweetCaptureWriter.append(tweet.getUserId(), tweet.getTweet());
+						}
+					})
+					.concatMapIterable(this::route))
+					.subscribe(null, error -> logger.error("Reactive sender stopped", error));
+			return;
+		}
+		tweetSource.start(new TweetSource.Listener() {
 			@Override
-			public void onScrubGeo(long userId, long upToStatusId) {
-				logger.info("Twitter scrub_geo event for userId {} upToStatusId {}", userId, upToStatusId);
+			public void onTweet(long userId, TwitterUser twitterUser) {
+				statusLogger.info("Received status, formatted message: {}", twitterUser);
+				if (tweetCaptureWriter != null) {
+					tweetCaptureWriter.append(userId, twitterUser);
+				}
+				writeToKafka(userId, twitterUser);
 			}
-			
+
 			@Override
-			public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
-				logger.info("Twitter status deletion notice: {}", statusDeletionNotice);
+			public void onDeletion(long userId, long tweetId) {
+				SpringKafkaApplicationSenderMain.this.onDeletion(userId, tweetId);
 			}
-		};
-			
-		twitterStream.addListener(statusListener);
-		twitterStream.filter("#java","#java8","#Black Friday","#Ashes cricket","#python","#Donald Trump");
+		});
+	}
+
+	private void onDeletion(long userId, long tweetId) {
+		if (deletionNoticeSender != null) {
+			// the receivers drop the tweet from their query caches
+			deletionNoticeSender.send(userId, tweetId);
+		}
 	}
 }
@@ -0,0 +1,114 @@
+package msg.sender;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.Locale;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import msg.common.SampledLogger;
+import msg.common.TwitterUserSerializer;
+import msg.common.TwitterUserWireFormat;
+import msg.model.TwitterUser;
+
+/**
+ * Records the tweets the sender receives to {@code tweet.source.capture.file}, for {@link ReplayTweetSource}.
+ * Files named {@code .ndjson}, {@code .jsonl} or {@code .json} get one JSON tweet per line,
+ * <pre>
+ * {"userId":12,"dateTime":1698314400000,"userName":"name","tweetMessage":"text","tweetId":42}
+ * </pre>
+ * with a {@code retweetedId} for retweets, other files binary {@link SpillFile} entries, {@code [int length][long user id][binary wire format]}, which
+ * are smaller and faster to replay. Tweets are appended to an existing file.
+ */
+public class TweetCaptureWriter implements Closeable {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TweetCaptureWriter.class);
+
+    private static final SampledLogger failedLogger = SampledLogger.perSecond(logger, 1);
+
+    private final Path path;
+
+    private final OutputStream out;
+
+    private final JsonGenerator json;
+
+    private final DataOutputStream binary;
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    public TweetCaptureWriter(Path path) throws IOException {
+        this.path = path;
+        if (path.toAbsolutePath().getParent() != null) {
+            Files.createDirectories(path.toAbsolutePath().getParent());
+        }
+        this.out = new BufferedOutputStream(Files.newOutputStream(path, StandardOpenOption.CREATE,
+                StandardOpenOption.APPEND), 1 << 16);
+        if (isNdjson(path)) {
+            this.json = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)
+                    .setRootValueSeparator(null);
+            this.binary = null;
+        } else {
+            this.json = null;
+            this.binary = new DataOutputStream(out);
+            serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG,
+                    TwitterUserWireFormat.BINARY.name()), false);
+        }
+    }
+
+    static boolean isNdjson(Path path) {
+        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".ndjson") || name.endsWith(".jsonl") || name.endsWith(".json");
+    }
+
+    /**
+     * Appends a tweet, a failed write is logged and the tweet is sent anyway.
+     */
+    public synchronized void append(long userId, TwitterUser twitterUser) {
+        try {
+            if (json != null) {
+                json.writeStartObject();
+                json.writeNumberField("userId", userId);
+                json.writeNumberField("dateTime", twitterUser.getDateTime().getTime());
+                json.writeStringField("userName", twitterUser.getUserName());
+                json.writeStringField("tweetMessage", twitterUser.getTweetMessage());
+                if (twitterUser.getTweetId() != null) {
+                    json.writeNumberField("tweetId", twitterUser.getTweetId());
+                }
+                if (twitterUser.getRetweetedId() != null) {
+                    json.writeNumberField("retweetedId", twitterUser.getRetweetedId());
+                }
+                json.writeEndObject();
+                json.writeRaw('\n');
+            } else {
+                byte[] tweet = serializer.serialize(null, twitterUser);
+                binary.writeInt(8 + tweet.length);
+                binary.writeLong(userId);
+                binary.write(tweet);
+            }
+        } catch (IOException e) {
+            failedLogger.warn("Could not record a tweet to {}: {}", path, e.getMessage());
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (json != null) {
+            json.close();
+        } else {
+            binary.close();
+        }
+    }
+}
@@ -0,0 +1,336 @@
+package msg.sender;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import msg.common.BoundedRingBuffer;
+import msg.common.SampledLogger;
+import msg.model.TwitterUser;
+
+/**
+ * Decouples the twitter4j stream thread from Kafka: {@link #submit(long, TwitterUser)} puts the tweet into a
+ * lock-free {@link BoundedRingBuffer} and returns, publisher threads take tweets out and send them.
+ * <p>
+ * There is one ring and one publisher thread per {@code kafka.producer.ingest.publishers}, and a tweet goes to
+ * the ring chosen by its user id, so the tweets of a user are still sent in order. When a ring is full the
+ * {@link OverflowPolicy} decides; with {@link OverflowPolicy#SPILL} every tweet goes to the {@link SpillFile}
+ * for as long as it holds entries, so spilled tweets are never overtaken by newer ones. Publishers move
+ * spilled tweets back into the rings whenever theirs is empty.
+ * <p>
+ * Tweets of the {@code kafka.producer.transactional.topics} are collected per topic and sent with
+ * {@link KafkaSender#sendBatch} in transactions of up to {@code kafka.producer.transaction.max.tweets}, or of
+ * what a publisher has when its ring runs empty or after {@link #TRANSACTION_LINGER_NANOS}; the publisher waits
+ * for each commit.
+ * <p>
+ * Queue depth and the submitted, published, dropped and spilled counts are exported over JMX and as
+ * {@code tweets.ingest.*} meters.
+ */
+@ManagedResource(objectName = "msg.sender:name=tweetIngestQueue")
+public class TweetIngestQueue implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TweetIngestQueue.class);
+
+    private static final SampledLogger failedLogger = SampledLogger.perSecond(logger, 10);
+
+    private static final long IDLE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    // open transactions are sent at the latest after this long, even while the ring stays busy
+    static final long TRANSACTION_LINGER_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final KafkaSender kafkaSender;
+
+    private final String topic;
+
+    private final OverflowPolicy overflowPolicy;
+
+    private final SpillFile spillFile;
+
+    private final Set<String> transactionalTopics;
+
+    private final int transactionMaxTweets;
+
+    private final List<BoundedRingBuffer<QueuedTweet>> rings;
+
+    private final List<Thread> publishers;
+
+    private final LongAdder submitted = new LongAdder();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder spilled = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private volatile boolean running = true;
+
+    /**
+     * @param capacity total capacity, split evenly over the publishers' rings
+     * @param spillFile where {@link OverflowPolicy#SPILL} writes tweets, {@code null} for the other policies
+     */
+    public TweetIngestQueue(KafkaSender kafkaSender, String topic, int capacity, int publisherCount,
+            OverflowPolicy overflowPolicy, SpillFile spillFile) {
+        this(kafkaSender, topic, capacity, publisherCount, overflowPolicy, spillFile, Collections.emptySet(), 1);
+    }
+
+    /**
+     * @param transactionalTopics topics whose tweets are sent in transactions, may be empty
+     * @param transactionMaxTweets the most tweets per transaction
+     */
+    public TweetIngestQueue(KafkaSender kafkaSender, String topic, int capacity, int publisherCount,
+            OverflowPolicy overflowPolicy, SpillFile spillFile, Set<String> transactionalTopics,
+            int transactionMaxTweets) {
+        if (transactionMaxTweets < 1) {
+            throw new IllegalArgumentException("Transactions need at least one tweet: " + transactionMaxTweets);
+        }
+        if (overflowPolicy == OverflowPolicy.SPILL && spillFile == null) {
+            throw new IllegalArgumentException("The spill overflow policy needs a spill file");
+        }
+        this.kafkaSender = kafkaSender;
+        this.topic = topic;
+        this.overflowPolicy = overflowPolicy;
+        this.spillFile = spillFile;
+        this.transactionalTopics = new HashSet<>(transactionalTopics);
+        this.transactionMaxTweets = transactionMaxTweets;
+        this.rings = new ArrayList<>(publisherCount);
+        this.publishers = new ArrayList<>(publisherCount);
+        for (int i = 0; i < publisherCount; i++) {
+            BoundedRingBuffer<QueuedTweet> ring = new BoundedRingBuffer<>(Math.max(1, capacity / publisherCount));
+            rings.add(ring);
+            Thread publisher = new Thread(() -> publish(ring), "tweet-publisher-" + (i + 1));
+            publisher.setDaemon(true);
+            publishers.add(publisher);
+        }
+    }
+
+    public void start() {
+        publishers.forEach(Thread::start);
+    }
+
+    /**
+     * Queues a tweet for sending to the queue's topic. Only blocks with {@link OverflowPolicy#BLOCK}.
+     */
+    public void submit(long userId, TwitterUser tweet) {
+        submit(null, userId, tweet);
+    }
+
+    /**
+     * Queues a tweet for sending to {@code topic}, the queue's topic if {@code null}. A user's tweets stay in
+     * order per topic. Only blocks with {@link OverflowPolicy#BLOCK}.
+     */
+    public void submit(String topic, long userId, TwitterUser tweet) {
+        submitted.increment();
+        QueuedTweet queuedTweet = new QueuedTweet(topic, userId, tweet);
+        if (spillFile != null && !spillFile.isEmpty()) {
+            spill(queuedTweet); // queue behind the tweets already spilled
+            return;
+        }
+        BoundedRingBuffer<QueuedTweet> ring = ringFor(userId);
+        if (ring.offer(queuedTweet)) {
+            return;
+        }
+        switch (overflowPolicy) {
+        case BLOCK:
+            while (!ring.offer(queuedTweet)) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+            break;
+        case DROP_OLDEST:
+            do {
+                if (ring.poll() != null) {
+                    dropped.increment();
+                }
+            } while (!ring.offer(queuedTweet));
+            break;
+        case DROP_NEWEST:
+            dropped.increment();
+            break;
+        case SPILL:
+            spill(queuedTweet);
+            break;
+        }
+    }
+
+    private void spill(QueuedTweet queuedTweet) {
+        spillFile.append(queuedTweet);
+        spilled.increment();
+    }
+
+    private BoundedRingBuffer<QueuedTweet> ringFor(long userId) {
+        return rings.get((int) Math.floorMod(userId ^ (userId >>> 32), (long) rings.size()));
+    }
+
+    private void publish(BoundedRingBuffer<QueuedTweet> ring) {
+        // the open transaction of each transactional topic, in the order the tweets were taken
+        Map<String, List<QueuedTweet>> transactions = new HashMap<>();
+        long openSince = 0; // when the oldest open transaction got its first tweet, 0 if none is open
+        while (running || !ring.isEmpty()) {
+            QueuedTweet queuedTweet = ring.poll();
+            if (queuedTweet != null) {
+                String tweetTopic = queuedTweet.getTopic() != null ? queuedTweet.getTopic() : topic;
+                if (transactionalTopics.contains(tweetTopic)) {
+                    List<QueuedTweet> transaction = transactions.computeIfAbsent(tweetTopic,
+                            t -> new ArrayList<>(transactionMaxTweets));
+                    transaction.add(queuedTweet);
+                    if (transaction.size() >= transactionMaxTweets) {
+                        sendTransaction(tweetTopic, transaction);
+                        if (allEmpty(transactions)) {
+                            openSince = 0; // the next tweet opens a fresh transaction with its own linger
+                        }
+                    } else if (openSince == 0) {
+                        openSince = System.nanoTime();
+                    }
+                } else {
+                    send(tweetTopic, queuedTweet);
+                }
+                if (openSince != 0 && System.nanoTime() - openSince >= TRANSACTION_LINGER_NANOS) {
+                    transactions.forEach(this::sendTransaction);
+                    openSince = 0;
+                }
+                continue;
+            }
+            transactions.forEach(this::sendTransaction);
+            openSince = 0;
+            if (spillFile == null || spillFile.isEmpty()
+                    || spillFile.replay(spilledTweet -> ringFor(spilledTweet.getUserId()).offer(spilledTweet)) == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        transactions.forEach(this::sendTransaction);
+    }
+
+    private static boolean allEmpty(Map<String, List<QueuedTweet>> transactions) {
+        for (List<QueuedTweet> transaction : transactions.values()) {
+            if (!transaction.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void send(String tweetTopic, QueuedTweet queuedTweet) {
+        try {
+            kafkaSender.sendMessage(tweetTopic, queuedTweet.getUserId(), queuedTweet.getTweet());
+            published.increment();
+        } catch (Exception e) {
+            // for example a TimeoutException once max.block.ms is exceeded
+            failed.increment();
+            failedLogger.error("Failed to send tweet {}: {}", queuedTweet.getTweet(), e.getMessage());
+        }
+    }
+
+    private void sendTransaction(String tweetTopic, List<QueuedTweet> transaction) {
+        if (transaction.isEmpty()) {
+            return;
+        }
+        try {
+            kafkaSender.sendBatch(tweetTopic, transaction);
+            published.add(transaction.size());
+        } catch (Exception e) {
+            failed.add(transaction.size());
+            failedLogger.error("Failed to send {} tweets to {} in a transaction: {}", transaction.size(), tweetTopic,
+                    e.getMessage());
+        }
+        transaction.clear();
+    }
+
+    /**
+     * Stops taking new work once the rings are drained, spilled tweets stay on disk for the next start.
+     */
+    public void close() throws InterruptedException, IOException {
+        running = false;
+        for (Thread publisher : publishers) {
+            publisher.join(TimeUnit.SECONDS.toMillis(30));
+        }
+        if (spillFile != null) {
+            spillFile.close();
+        }
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("tweets.ingest.depth", this, TweetIngestQueue::getDepth)
+                .description("Tweets waiting in the rings")
+                .register(registry);
+        Gauge.builder("tweets.ingest.spill.depth", this, TweetIngestQueue::getSpillDepth)
+                .description("Tweets waiting in the spill file")
+                .register(registry);
+        bindCounter(registry, "submitted", submitted);
+        bindCounter(registry, "published", published);
+        bindCounter(registry, "dropped", dropped);
+        bindCounter(registry, "spilled", spilled);
+        bindCounter(registry, "failed", failed);
+    }
+
+    private static void bindCounter(MeterRegistry registry, String name, LongAdder counter) {
+        FunctionCounter.builder("tweets.ingest." + name, counter, LongAdder::sum).register(registry);
+    }
+
+    @ManagedAttribute(description = "Tweets waiting in the rings")
+    public int getDepth() {
+        int depth = 0;
+        for (BoundedRingBuffer<QueuedTweet> ring : rings) {
+            depth += ring.size();
+        }
+        return depth;
+    }
+
+    @ManagedAttribute(description = "Total capacity of the rings")
+    public int getCapacity() {
+        int capacity = 0;
+        for (BoundedRingBuffer<QueuedTweet> ring : rings) {
+            capacity += ring.capacity();
+        }
+        return capacity;
+    }
+
+    @ManagedAttribute(description = "Tweets waiting in the spill file")
+    public long getSpillDepth() {
+        return spillFile == null ? 0 : spillFile.size();
+    }
+
+    @ManagedAttribute
+    public long getSubmitted() {
+        return submitted.sum();
+    }
+
+    @ManagedAttribute
+    public long getPublished() {
+        return published.sum();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @ManagedAttribute
+    public long getSpilled() {
+        return spilled.sum();
+    }
+
+    @ManagedAttribute(description = "Tweets whose send threw, for example after max.block.ms")
+    public long getFailed() {
+        return failed.sum();
+    }
+}
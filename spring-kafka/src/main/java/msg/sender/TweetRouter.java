@@ -0,0 +1,352 @@
+package msg.sender;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import msg.common.AhoCorasick;
+import msg.model.TwitterUser;
+
+/**
+ * Pre-publish stage of the sender, enabled with {@code sender.filter.enabled}: matches the text of every tweet
+ * against the keywords and hashtags of the rules in {@code sender.filter.rules.file}, and its user against their
+ * user ids, and tells which topics it goes to. Tweets no rule matches are dropped before they are queued and
+ * serialized.
+ * <p>
+ * The rules file is a properties file with a comma separated {@code match} list of keywords, a comma separated
+ * {@code users} list of Twitter user ids, or both, and an optional {@code topic} per rule:
+ * <pre>
+ * java.match=#java,#java8,#jvm,spring boot
+ * java.topic=java-tweets
+ * kafka.match=kafka,#kafka
+ * vip.users=783214,17874544
+ * </pre>
+ * A rule without a topic routes to {@code sender.filter.topic.template}, {@code kafka.topic.name} unless set;
+ * {@code {rule}} in a topic or the template is replaced by the rule name, so {@code tweets-{rule}} gives each
+ * stream a topic of its own. A tweet matching several rules is sent once to each of their topics.
+ * <p>
+ * The keywords of all rules are compiled into a single {@link AhoCorasick} automaton, so a tweet is matched in
+ * one pass over its text however many keywords there are; see there for how keywords match.
+ * <p>
+ * The file is checked for changes every {@code sender.filter.rules.reload.interval.ms}. Changed rules are
+ * compiled on the side and swapped in at once, without restarting the tweet source; rules that do not load
+ * are logged and the previous ones stay in place. Matched and dropped tweets and reloads are counted as
+ * {@code tweets.filter.*} meters.
+ */
+@ManagedResource(objectName = "msg.sender:name=tweetRouter")
+public class TweetRouter implements MeterBinder {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TweetRouter.class);
+
+    private static final String MATCH = ".match";
+
+    private static final String USERS = ".users";
+
+    private static final String TOPIC = ".topic";
+
+    private static final String RULE_PLACEHOLDER = "{rule}";
+
+    private final Path rulesFile;
+
+    private final String topicTemplate;
+
+    private final long reloadIntervalMs;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "tweet-router-reloader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final LongAdder matched = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder reloads = new LongAdder();
+
+    private final LongAdder failedReloads = new LongAdder();
+
+    private volatile Rules rules;
+
+    // the version of the file the rules were last loaded from
+    private FileTime lastModified;
+
+    private long lastSize;
+
+    /**
+     * Loads the rules, a rules file that cannot be loaded at start-up fails the sender.
+     *
+     * @param topicTemplate the topic of rules without one, {@code {rule}} is replaced by the rule name
+     */
+    public TweetRouter(Path rulesFile, String topicTemplate, long reloadIntervalMs) throws IOException {
+        this.rulesFile = rulesFile;
+        this.topicTemplate = topicTemplate;
+        this.reloadIntervalMs = reloadIntervalMs;
+        this.lastModified = Files.getLastModifiedTime(rulesFile);
+        this.lastSize = Files.size(rulesFile);
+        this.rules = load();
+        logger.info("Routing tweets by {} rules with {} keywords and {} users from {}", rules.ruleCount,
+                rules.getKeywords(), rules.userTopics.size(), rulesFile);
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::reloadIfModified, reloadIntervalMs, reloadIntervalMs,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * The topics of the rules matching the tweet or its user, each once, in the order of their rules; empty if
+     * the tweet is to be dropped.
+     */
+    public List<String> route(long userId, TwitterUser twitterUser) {
+        List<String> topics = rules.route(userId, twitterUser.getTweetMessage());
+        (topics.isEmpty() ? dropped : matched).increment();
+        return topics;
+    }
+
+    synchronized void reloadIfModified() {
+        try {
+            FileTime modified = Files.getLastModifiedTime(rulesFile);
+            long size = Files.size(rulesFile);
+            if (modified.equals(lastModified) && size == lastSize) {
+                return;
+            }
+            // the file may still be written to, it is loaded again once it changes once more
+            lastModified = modified;
+            lastSize = size;
+        } catch (IOException e) {
+            logger.warn("Could not check {} for changes, keeping the current rules: {}", rulesFile, e.toString());
+            return;
+        }
+        reload();
+    }
+
+    /**
+     * Loads the rules file now.
+     *
+     * @return whether the new rules are in place, the previous ones are kept otherwise
+     */
+    @ManagedOperation(description = "Loads the rules file now, the current rules are kept if it cannot be loaded")
+    public synchronized boolean reload() {
+        try {
+            rules = load();
+            reloads.increment();
+            logger.info("Reloaded {} rules with {} keywords and {} users from {}", rules.ruleCount,
+                    rules.getKeywords(), rules.userTopics.size(), rulesFile);
+            return true;
+        } catch (IOException | RuntimeException e) {
+            failedReloads.increment();
+            logger.error("Could not reload {}, keeping the current rules: {}", rulesFile, e.toString());
+            return false;
+        }
+    }
+
+    private Rules load() throws IOException {
+        Properties properties = new Properties();
+        try (Reader reader = Files.newBufferedReader(rulesFile, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        Set<String> ruleNames = new TreeSet<>();
+        for (String key : properties.stringPropertyNames()) {
+            ruleNames.add(ruleName(key));
+        }
+        List<String> keywords = new ArrayList<>();
+        List<Integer> keywordTopics = new ArrayList<>();
+        Map<Long, int[]> userTopics = new HashMap<>();
+        List<String> topics = new ArrayList<>();
+        for (String rule : ruleNames) {
+            String match = properties.getProperty(rule + MATCH, "");
+            String users = properties.getProperty(rule + USERS, "");
+            String topic = properties.getProperty(rule + TOPIC, topicTemplate).trim().replace(RULE_PLACEHOLDER, rule);
+            if (topic.isEmpty()) {
+                throw new IOException("Empty topic for rule " + rule);
+            }
+            int topicIndex = topics.indexOf(topic);
+            if (topicIndex < 0) {
+                topicIndex = topics.size();
+                topics.add(topic);
+            }
+            int ruleEntries = 0;
+            for (String keyword : match.split(",")) {
+                if (!keyword.trim().isEmpty()) {
+                    keywords.add(keyword.trim());
+                    keywordTopics.add(topicIndex);
+                    ruleEntries++;
+                }
+            }
+            for (String user : users.split(",")) {
+                if (!user.trim().isEmpty()) {
+                    userTopics.merge(userId(rule, user.trim()), new int[] {topicIndex}, TweetRouter::concat);
+                    ruleEntries++;
+                }
+            }
+            if (ruleEntries == 0) {
+                throw new IOException("Rule " + rule + " has no " + MATCH + " keywords or " + USERS + " ids");
+            }
+        }
+        if (ruleNames.isEmpty()) {
+            throw new IOException("No rules in " + rulesFile);
+        }
+        int[] topicOfKeyword = new int[keywordTopics.size()];
+        for (int i = 0; i < topicOfKeyword.length; i++) {
+            topicOfKeyword[i] = keywordTopics.get(i);
+        }
+        return new Rules(keywords.isEmpty() ? null : new AhoCorasick(keywords), topicOfKeyword, userTopics,
+                topics.toArray(new String[0]), ruleNames.size());
+    }
+
+    private static String ruleName(String key) throws IOException {
+        for (String suffix : new String[] {MATCH, USERS, TOPIC}) {
+            if (key.endsWith(suffix) && key.length() > suffix.length()) {
+                return key.substring(0, key.length() - suffix.length());
+            }
+        }
+        throw new IOException("Unknown key " + key + ", rules have " + MATCH + ", " + USERS + " and " + TOPIC
+                + " keys");
+    }
+
+    private static long userId(String rule, String user) throws IOException {
+        try {
+            return Long.parseLong(user);
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid user id " + user + " in rule " + rule);
+        }
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("tweets.filter.matched", matched, LongAdder::sum)
+                .description("Tweets matching at least one rule")
+                .register(registry);
+        FunctionCounter.builder("tweets.filter.dropped", dropped, LongAdder::sum)
+                .description("Tweets matching no rule, not sent")
+                .register(registry);
+        FunctionCounter.builder("tweets.filter.reloads", reloads, LongAdder::sum)
+                .tag("result", "success")
+                .register(registry);
+        FunctionCounter.builder("tweets.filter.reloads", failedReloads, LongAdder::sum)
+                .tag("result", "failure")
+                .register(registry);
+        Gauge.builder("tweets.filter.keywords", this, TweetRouter::getKeywords)
+                .description("Keywords of the current rules")
+                .register(registry);
+        Gauge.builder("tweets.filter.users", this, TweetRouter::getUsers)
+                .description("User ids of the current rules")
+                .register(registry);
+    }
+
+    @ManagedAttribute
+    public long getMatched() {
+        return matched.sum();
+    }
+
+    @ManagedAttribute
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    @ManagedAttribute(description = "Rules currently in place")
+    public int getRules() {
+        return rules.ruleCount;
+    }
+
+    @ManagedAttribute(description = "Keywords of the current rules")
+    public int getKeywords() {
+        return rules.getKeywords();
+    }
+
+    @ManagedAttribute(description = "User ids of the current rules")
+    public int getUsers() {
+        return rules.userTopics.size();
+    }
+
+    /**
+     * The compiled rules, replaced as a whole on reload.
+     */
+    private static final class Rules {
+
+        // null if no rule has keywords
+        private final AhoCorasick automaton;
+
+        private final int[] topicOfKeyword;
+
+        private final Map<Long, int[]> userTopics;
+
+        private final String[] topics;
+
+        private final int ruleCount;
+
+        Rules(AhoCorasick automaton, int[] topicOfKeyword, Map<Long, int[]> userTopics, String[] topics,
+                int ruleCount) {
+            this.automaton = automaton;
+            this.topicOfKeyword = topicOfKeyword;
+            this.userTopics = userTopics;
+            this.topics = topics;
+            this.ruleCount = ruleCount;
+        }
+
+        List<String> route(long userId, String text) {
+            boolean[] matchedTopics = new boolean[topics.length];
+            if (automaton != null && text != null) {
+                automaton.match(text, keyword -> matchedTopics[topicOfKeyword[keyword]] = true);
+            }
+            int[] ofUser = userTopics.get(userId);
+            if (ofUser != null) {
+                for (int topic : ofUser) {
+                    matchedTopics[topic] = true;
+                }
+            }
+            List<String> routed = null;
+            for (int i = 0; i < topics.length; i++) {
+                if (matchedTopics[i]) {
+                    if (routed == null) {
+                        routed = new ArrayList<>(1);
+                    }
+                    routed.add(topics[i]);
+                }
+            }
+            return routed != null ? routed : Collections.emptyList();
+        }
+
+        int getKeywords() {
+            return automaton == null ? 0 : automaton.size();
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package msg.sender;
+
+import msg.model.TwitterUser;
+
+/**
+ * Where the sender gets its tweets from, chosen with {@code tweet.source}: the live Twitter stream
+ * ({@link TwitterTweetSource}) or a recorded capture file replayed at a configurable rate
+ * ({@link ReplayTweetSource}), so the pipeline can be loaded without Twitter credentials.
+ * <p>
+ * A source delivers formatted tweets to its {@link Listener} from a thread of its own; tweets it cannot
+ * format are counted as skipped in {@link SenderMetrics} and not delivered.
+ */
+public interface TweetSource {
+
+    /**
+     * Starts delivering tweets, returns without waiting for them.
+     */
+    void start(Listener listener);
+
+    /**
+     * Stops delivering tweets.
+     */
+    void stop();
+
+    interface Listener {
+
+        /**
+         * A tweet, keyed by the id of the user who sent it.
+         */
+        void onTweet(long userId, TwitterUser twitterUser);
+
+        /**
+         * A tweet was deleted by its user.
+         */
+        void onDeletion(long userId, long tweetId);
+    }
+}
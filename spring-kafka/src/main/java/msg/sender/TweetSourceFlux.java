@@ -0,0 +1,98 @@
+package msg.sender;
+
+import java.util.function.BiConsumer;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Operators;
+
+/**
+ * The tweets of a {@link TweetSource} as a {@link Flux} that only takes tweets as they are requested: the source
+ * thread waits in {@link TweetSource.Listener#onTweet} until there is demand, so a subscriber that falls behind
+ * slows the source down instead of tweets piling up in memory.
+ * <p>
+ * A {@link ReplayTweetSource} simply replays slower. The Twitter stream cannot be slowed down: twitter4j buffers
+ * while its thread waits and Twitter eventually disconnects a stream that is not read, as with
+ * {@link OverflowPolicy#BLOCK}.
+ */
+public final class TweetSourceFlux {
+
+    private TweetSourceFlux() {
+    }
+
+    /**
+     * Starts the source on subscription and stops it on cancellation.
+     *
+     * @param onDeletion called with the user and tweet id of deletion notices, which are not backpressured
+     */
+    public static Flux<QueuedTweet> of(TweetSource source, BiConsumer<Long, Long> onDeletion) {
+        return Flux.create(sink -> {
+            Demand demand = new Demand();
+            sink.onRequest(demand::add);
+            sink.onDispose(() -> {
+                demand.cancel();
+                source.stop();
+            });
+            source.start(new TweetSource.Listener() {
+                @Override
+                public void onTweet(long userId, TwitterUser twitterUser) {
+                    if (demand.take()) {
+                        sink.next(new QueuedTweet(userId, twitterUser));
+                    }
+                }
+
+                @Override
+                public void onDeletion(long userId, long tweetId) {
+                    onDeletion.accept(userId, tweetId);
+                }
+            });
+        }, FluxSink.OverflowStrategy.ERROR);
+    }
+
+    /**
+     * Tweets requested and not yet delivered.
+     */
+    private static final class Demand {
+
+        private long requested;
+
+        private boolean cancelled;
+
+        synchronized void add(long n) {
+            requested = Operators.addCap(requested, n);
+            notifyAll();
+        }
+
+        /**
+         * Waits for demand and takes one tweet of it.
+         *
+         * @return false once cancelled, the tweet is dropped
+         */
+        synchronized boolean take() {
+            boolean interrupted = false;
+            while (requested == 0 && !cancelled) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (cancelled) {
+                return false;
+            }
+            if (requested != Long.MAX_VALUE) {
+                requested--;
+            }
+            return true;
+        }
+
+        synchronized void cancel() {
+            cancelled = true;
+            notifyAll();
+        }
+    }
+}
@@ -1,33 +1,48 @@
-package msg.sender;
-
-import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.context.annotation.Bean;
-import org.springframework.context.annotation.Configuration;
-import org.springframework.core.env.Environment;
-
-import twitter4j.TwitterStream;
-import twitter4j.TwitterStreamFactory;
-import twitter4j.conf.ConfigurationBuilder;
-
-@Configuration
-public class TwitterConfig {
-
-	 @Autowired
-	 private Environment env;
-		
-	
-	@Bean
-	TwitterStream twitterStream() {
-		 ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
-		 String appId = env.getProperty("social.twitter.app-id");
-		 String appSecret = env.getProperty("social.twitter.app-secret");
-		 String oathToken = env.getProperty("social.twitter.oath.token");
-		 String oathTokenSecret = env.getProperty("social.twitter.oath-secret");
-			
-         configurationBuilder.setOAuthConsumerKey(appId)
-                 .setOAuthConsumerSecret(appSecret)
-                 .setOAuthAccessToken(oathToken)
-                 .setOAuthAccessTokenSecret(oathTokenSecret);
-    	return new TwitterStreamFactory(configurationBuilder.build()).getInstance();
-	}
-}
+package msg.sender;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+
+import twitter4j.TwitterStream;
+import twitter4j.TwitterStreamFactory;
+import twitter4j.conf.ConfigurationBuilder;
+
+/**
+ * The Twitter stream, the default {@link TweetSource} ({@code tweet.source=twitter}).
+ */
+@Configuration
+@ConditionalOnProperty(name = "tweet.source", havingValue = "twitter", matchIfMissing = true)
+public class TwitterConfig {
+
+	 @Autowired
+	 private Environment env;
+
+	 // the hashtags the stream is filtered on, comma separated; empty for the sample stream
+	 @Value("${social.twitter.track:#java,#java8,#Black Friday,#Ashes cricket,#python,#Donald Trump}")
+	 private String[] track;
+		
+	
+	@Bean
+	TwitterStream twitterStream() {
+		 ConfigurationBuilder configurationBuilder = new ConfigurationBuilder();
+		 String appId = env.getProperty("social.twitter.app-id");
+		 String appSecret = env.getProperty("social.twitter.app-secret");
+		 String oathToken = env.getProperty("social.twitter.oath.token");
+		 String oathTokenSecret = env.getProperty("social.twitter.oath-secret");
+			
+         configurationBuilder.setOAuthConsumerKey(appId)
+                 .setOAuthConsumerSecret(appSecret)
+                 .setOAuthAccessToken(oathToken)
+                 .setOAuthAccessTokenSecret(oathTokenSecret);
+    	return new TwitterStreamFactory(configurationBuilder.build()).getInstance();
+	}
+
+	@Bean(destroyMethod = "stop")
+	TweetSource twitterTweetSource(SenderMetrics senderMetrics) {
+		return new TwitterTweetSource(twitterStream(), track, senderMetrics);
+	}
+}
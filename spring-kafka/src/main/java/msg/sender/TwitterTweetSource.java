@@ -0,0 +1,97 @@
+package msg.sender;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import msg.common.SampledLogger;
+import msg.model.TwitterUser;
+import twitter4j.StallWarning;
+import twitter4j.Status;
+import twitter4j.StatusDeletionNotice;
+import twitter4j.StatusListener;
+import twitter4j.TwitterStream;
+
+/**
+ * Tweets of the Twitter streaming API matching {@code social.twitter.track}, the default {@link TweetSource}.
+ * With an empty track list the sample stream is read instead. Statuses are formatted with {@link SpringKafkaApplicationSenderMain#formatTweetForKafka} on the twitter4j
+ * stream thread.
+ */
+public class TwitterTweetSource implements TweetSource {
+
+    private static final Logger logger = LoggerFactory
+            .getLogger(TwitterTweetSource.class);
+
+    private static final SampledLogger skippedLogger = SampledLogger.perSecond(logger, 10);
+
+    private final TwitterStream twitterStream;
+
+    private final String[] track;
+
+    private final SenderMetrics senderMetrics;
+
+    public TwitterTweetSource(TwitterStream twitterStream, String[] track, SenderMetrics senderMetrics) {
+        this.twitterStream = twitterStream;
+        this.track = track;
+        this.senderMetrics = senderMetrics;
+    }
+
+    @Override
+    public void start(Listener listener) {
+        twitterStream.addListener(new StatusListener() {
+            @Override
+            public void onException(Exception ex) {
+                logger.error("Exception in Twitter stream listener", ex);
+            }
+
+            @Override
+            public void onTrackLimitationNotice(int numberOfLimitedStatuses) {
+                logger.warn("Twitter track limitation notice: {}", numberOfLimitedStatuses);
+            }
+
+            @Override
+            public void onStatus(Status status) {
+                senderMetrics.statusReceived();
+                long startNanos = System.nanoTime();
+                TwitterUser twitterUser = SpringKafkaApplicationSenderMain.formatTweetForKafka(status);
+                senderMetrics.formatted(System.nanoTime() - startNanos);
+
+                if (twitterUser != null) {
+                    listener.onTweet(status.getUser().getId(), twitterUser);
+                } else {
+                    // the reason is logged by formatTweetForKafka
+                    senderMetrics.statusSkipped();
+                    skippedLogger.warn("Skipping message for status ID {} due to formatting issues (null output).",
+                            status != null ? status.getId() : "unknown (null status)");
+                }
+            }
+
+            @Override
+            public void onStallWarning(StallWarning warning) {
+                logger.warn("Twitter stall warning: {}", warning);
+            }
+
+            @Override
+            public void onScrubGeo(long userId, long upToStatusId) {
+                logger.info("Twitter scrub_geo event for userId {} upToStatusId {}", userId, upToStatusId);
+            }
+
+            @Override
+            public void onDeletionNotice(StatusDeletionNotice statusDeletionNotice) {
+                // as frequent as tweets on the sample stream
+                logger.debug("Twitter status deletion notice: {}", statusDeletionNotice);
+                listener.onDeletion(statusDeletionNotice.getUserId(), statusDeletionNotice.getStatusId());
+            }
+        });
+        if (track.length > 0) {
+            twitterStream.filter(track);
+        } else {
+            // nothing to track, the sample stream leaves the choice to the TweetRouter
+            twitterStream.sample();
+        }
+    }
+
+    @Override
+    public void stop() {
+        twitterStream.shutdown();
+    }
+}
@@ -0,0 +1,76 @@
+package msg.sender;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.kafka.clients.producer.Partitioner;
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Partitions tweets by the Twitter user id record key, so all tweets of a user land on the same
+ * partition and are consumed in order.
+ * <p>
+ * Keys are hashed with murmur2 like Kafka's default partitioner. A few very active accounts can
+ * hash to the same partition and make it lag behind the others, so the ids listed in
+ * {@link #HOT_USER_IDS_CONFIG} are instead dealt out round-robin over the partitions in ascending
+ * id order. The assignment only depends on the configured ids and the partition count, so a hot user
+ * always stays on one partition as well. Records without a key are spread round-robin.
+ */
+public class UserIdPartitioner implements Partitioner {
+
+    public static final String HOT_USER_IDS_CONFIG = "twitter.partitioner.hot.user.ids";
+
+    // hot user id -> its position in ascending id order
+    private final Map<Long, Integer> hotUserSlots = new HashMap<>();
+
+    private final AtomicInteger unkeyedCounter = new AtomicInteger(ThreadLocalRandom.current().nextInt());
+
+    @Override
+    public void configure(Map<String, ?> configs) {
+        Object hotUserIds = configs.get(HOT_USER_IDS_CONFIG);
+        if (hotUserIds == null) {
+            return;
+        }
+        TreeSet<Long> sortedIds = new TreeSet<>();
+        for (String hotUserId : StringUtils.commaDelimitedListToStringArray(hotUserIds.toString())) {
+            if (StringUtils.hasText(hotUserId)) {
+                sortedIds.add(Long.valueOf(hotUserId.trim()));
+            }
+        }
+        int slot = 0;
+        for (Long id : sortedIds) {
+            hotUserSlots.put(id, slot++);
+        }
+    }
+
+    @Override
+    public int partition(String topic, Object key, byte[] keyBytes, Object value, byte[] valueBytes, Cluster cluster) {
+        List<PartitionInfo> partitions = cluster.partitionsForTopic(topic);
+        int numPartitions = partitions.size();
+        if (keyBytes == null) {
+            List<PartitionInfo> availablePartitions = cluster.availablePartitionsForTopic(topic);
+            int next = Utils.toPositive(unkeyedCounter.getAndIncrement());
+            if (availablePartitions.isEmpty()) {
+                return next % numPartitions;
+            }
+            return availablePartitions.get(next % availablePartitions.size()).partition();
+        }
+        Integer hotUserSlot = key instanceof Long ? hotUserSlots.get(key) : null;
+        if (hotUserSlot != null) {
+            return hotUserSlot % numPartitions;
+        }
+        return Utils.toPositive(Utils.murmur2(keyBytes)) % numPartitions;
+    }
+
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,98 @@
+package msg.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AhoCorasickTest {
+
+    private static List<String> matches(AhoCorasick automaton, String text) {
+        List<String> matches = new ArrayList<>();
+        automaton.match(text, keyword -> matches.add(automaton.getKeywords().get(keyword)));
+        return matches;
+    }
+
+    @Test
+    void match_findsAllKeywordsInOnePassIgnoringCase() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("#java", "kafka", "spring boot"));
+
+        assertEquals(Arrays.asList("#java", "spring boot", "kafka"),
+                matches(automaton, "Learning #Java with Spring Boot and KAFKA"));
+        assertEquals(Collections.emptyList(), matches(automaton, "nothing to see here"));
+    }
+
+    @Test
+    void match_onlyWholeWords() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("#java", "kafka"));
+
+        assertEquals(Collections.emptyList(), matches(automaton, "#javascript is not kafkaesque"));
+        assertEquals(Collections.emptyList(), matches(automaton, "nokafka"));
+        assertEquals(Arrays.asList("#java", "kafka"), matches(automaton, "#java, kafka."));
+        // the # is not a word character, so a hashtag may follow a letter-less prefix
+        assertEquals(Arrays.asList("#java"), matches(automaton, "(#java)"));
+    }
+
+    @Test
+    void match_overlappingKeywordsFollowTheFailureLinks() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("he", "she", "his", "hers"));
+
+        // "he" ends with "she", but is not a word of its own there
+        assertEquals(Arrays.asList("she"), matches(new AhoCorasick(Arrays.asList("she", "he")), "she"));
+        assertEquals(Arrays.asList("s he", "he"), matches(new AhoCorasick(Arrays.asList("s he", "he")), "s he"));
+        assertEquals(Arrays.asList("hers"), matches(automaton, "hers"));
+        assertEquals(Arrays.asList("his", "she"), matches(automaton, "his she"));
+    }
+
+    @Test
+    void match_reportsEveryOccurrenceAndDuplicateKeywords() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("#kafka", "#kafka"));
+        List<Integer> indexes = new ArrayList<>();
+
+        automaton.match("#kafka and #kafka", indexes::add);
+
+        assertEquals(Arrays.asList(0, 1, 0, 1), indexes);
+    }
+
+    @Test
+    void match_nonAsciiKeywords() {
+        AhoCorasick automaton = new AhoCorasick(Arrays.asList("café", "#日本"));
+
+        assertEquals(Arrays.asList("café", "#日本"), matches(automaton, "CAFÉ in #日本"));
+    }
+
+    @Test
+    void match_agreesWithNaiveSearch() {
+        Random random = new Random(42);
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            keywords.add("#" + Integer.toString(random.nextInt(100000), 36));
+        }
+        AhoCorasick automaton = new AhoCorasick(keywords);
+        for (int t = 0; t < 200; t++) {
+            StringBuilder text = new StringBuilder();
+            for (int w = 0; w < 20; w++) {
+                text.append(w % 3 == 0 ? keywords.get(random.nextInt(keywords.size())) : "word" + w).append(' ');
+            }
+            List<String> expected = new ArrayList<>();
+            for (String word : text.toString().split(" ")) {
+                for (String keyword : keywords) {
+                    if (keyword.equals(word)) {
+                        expected.add(keyword);
+                    }
+                }
+            }
+            assertEquals(expected, matches(automaton, text.toString()));
+        }
+    }
+
+    @Test
+    void constructor_rejectsEmptyKeywords() {
+        assertThrows(IllegalArgumentException.class, () -> new AhoCorasick(Arrays.asList("#java", "")));
+    }
+}
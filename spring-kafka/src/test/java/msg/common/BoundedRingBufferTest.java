@@ -0,0 +1,100 @@
+package msg.common;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundedRingBufferTest {
+
+    @Test
+    void constructor_roundsCapacityUpToPowerOfTwo() {
+        assertEquals(2, new BoundedRingBuffer<>(1).capacity());
+        assertEquals(8, new BoundedRingBuffer<>(5).capacity());
+        assertEquals(8, new BoundedRingBuffer<>(8).capacity());
+        assertThrows(IllegalArgumentException.class, () -> new BoundedRingBuffer<>(0));
+    }
+
+    @Test
+    void offerAndPoll_areFifoAcrossWraparound() {
+        BoundedRingBuffer<Integer> ring = new BoundedRingBuffer<>(4);
+        int next = 0;
+        for (int lap = 0; lap < 10; lap++) {
+            for (int i = 0; i < 3; i++) {
+                assertTrue(ring.offer(lap * 3 + i));
+            }
+            for (int i = 0; i < 3; i++) {
+                assertEquals(next++, ring.poll().intValue());
+            }
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    void offer_fullRing_returnsFalse() {
+        BoundedRingBuffer<String> ring = new BoundedRingBuffer<>(2);
+
+        assertTrue(ring.offer("a"));
+        assertTrue(ring.offer("b"));
+        assertFalse(ring.offer("c"));
+        assertEquals(2, ring.size());
+
+        assertEquals("a", ring.poll());
+        assertTrue(ring.offer("c"));
+    }
+
+    @Test
+    void poll_emptyRing_returnsNull() {
+        assertNull(new BoundedRingBuffer<String>(4).poll());
+    }
+
+    @Test
+    void offer_concurrentProducers_loseNothing() throws InterruptedException {
+        BoundedRingBuffer<Integer> ring = new BoundedRingBuffer<>(64);
+        int producers = 4;
+        int perProducer = 10_000;
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] threads = new Thread[producers];
+        for (int p = 0; p < producers; p++) {
+            int first = p * perProducer;
+            threads[p] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = first; i < first + perProducer; i++) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            });
+            threads[p].start();
+        }
+
+        start.countDown();
+        Set<Integer> received = new HashSet<>();
+        int[] lastPerProducer = new int[producers];
+        Arrays.fill(lastPerProducer, -1);
+        while (received.size() < producers * perProducer) {
+            Integer value = ring.poll();
+            if (value == null) {
+                Thread.yield();
+                continue;
+            }
+            // each producer's values come out in the order it offered them
+            int producer = value / perProducer;
+            assertTrue(value > lastPerProducer[producer]);
+            lastPerProducer[producer] = value;
+            received.add(value);
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertTrue(ring.isEmpty());
+    }
+}
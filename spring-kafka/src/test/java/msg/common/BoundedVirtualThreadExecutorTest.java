@@ -0,0 +1,142 @@
+package msg.common;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.*;
+
+public class BoundedVirtualThreadExecutorTest {
+
+    private final BoundedVirtualThreadExecutor executor = new BoundedVirtualThreadExecutor("test-", 2);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    @Test
+    void constructor_usesVirtualThreadsOnlyWhenTheRuntimeHasThem() {
+        boolean runtimeHasVirtualThreads;
+        try {
+            Thread.class.getMethod("ofVirtual");
+            runtimeHasVirtualThreads = true;
+        } catch (NoSuchMethodException e) {
+            runtimeHasVirtualThreads = false;
+        }
+
+        assertEquals(runtimeHasVirtualThreads, executor.isVirtual());
+    }
+
+    @Test
+    void execute_runsTaskOnNamedThread() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        String[] threadName = new String[1];
+
+        executor.execute(() -> {
+            threadName[0] = Thread.currentThread().getName();
+            done.countDown();
+        });
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertTrue(threadName[0].startsWith("test-"));
+    }
+
+    @Test
+    void execute_atMaxConcurrency_blocksUntilATaskFinishes() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        executor.execute(blocked);
+        executor.execute(blocked);
+        assertEquals(2, executor.getActiveTasks());
+
+        AtomicBoolean submitted = new AtomicBoolean();
+        Thread submitter = new Thread(() -> {
+            executor.execute(() -> { });
+            submitted.set(true);
+        });
+        submitter.start();
+        submitter.join(200);
+        assertFalse(submitted.get());
+
+        release.countDown();
+        submitter.join(5000);
+        assertTrue(submitted.get());
+    }
+
+    @Test
+    void tryExecute_atMaxConcurrency_runsTaskWithoutWaiting() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        assertTrue(executor.tryExecute(blocked));
+        assertTrue(executor.tryExecute(blocked));
+
+        CountDownLatch done = new CountDownLatch(1);
+        assertFalse(executor.tryExecute(done::countDown));
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(2, executor.getActiveTasks());
+        release.countDown();
+    }
+
+    @Test
+    void tryExecute_platformThreadsBeyondTheBound_queueForTheOverflowThreads() throws InterruptedException {
+        assumeFalse(executor.isVirtual());
+        CountDownLatch release = new CountDownLatch(1);
+        Runnable blocked = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        assertTrue(executor.tryExecute(blocked));
+        assertTrue(executor.tryExecute(blocked));
+
+        CountDownLatch done = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            assertFalse(executor.tryExecute(() -> {
+                blocked.run();
+                done.countDown();
+            }));
+        }
+        // two overflow threads, one per permit, the other tasks wait for them
+        assertEquals(3, executor.getQueuedTasks());
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(0, executor.getQueuedTasks());
+    }
+
+    @Test
+    void execute_taskThrows_releasesPermit() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            executor.execute(() -> {
+                done.countDown();
+                throw new IllegalStateException("enrichment failed");
+            });
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        CountDownLatch third = new CountDownLatch(1);
+        executor.execute(third::countDown);
+        assertTrue(third.await(5, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,63 @@
+package msg.common;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CountMinSketchTest {
+
+    @Test
+    void constructor_roundsWidthUpToPowerOfTwo() {
+        assertEquals(1, new CountMinSketch(1, 1).getWidth());
+        assertEquals(1024, new CountMinSketch(1000, 4).getWidth());
+        assertEquals(1024, new CountMinSketch(1024, 4).getWidth());
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(0, 4));
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(16, 0));
+    }
+
+    @Test
+    void estimate_neverUndercountsAndStaysWithinTheErrorBound() {
+        CountMinSketch sketch = new CountMinSketch(1024, 4);
+        for (int key = 0; key < 5000; key++) {
+            sketch.add("key" + key, key % 10 + 1);
+        }
+        // e / width of the total, all but a few keys stay within it
+        long bound = (long) Math.ceil(Math.E / 1024 * sketch.getTotal());
+        int beyondBound = 0;
+        for (int key = 0; key < 5000; key++) {
+            long estimate = sketch.estimate("key" + key);
+            assertTrue(estimate >= key % 10 + 1);
+            if (estimate > key % 10 + 1 + bound) {
+                beyondBound++;
+            }
+        }
+        assertTrue(beyondBound < 5000 * 0.02, beyondBound + " keys beyond the bound");
+    }
+
+    @Test
+    void estimate_unseenKeyOfAnEmptySketchIsZero() {
+        CountMinSketch sketch = new CountMinSketch(64, 3);
+
+        assertEquals(0, sketch.estimate("java"));
+        sketch.add("java", 3);
+        sketch.add("java", 2);
+        assertEquals(5, sketch.estimate("java"));
+        assertEquals(5, sketch.estimate(CountMinSketch.hash("java")));
+    }
+
+    @Test
+    void add_rejectsNegativeCounts() {
+        assertThrows(IllegalArgumentException.class, () -> new CountMinSketch(64, 3).add("java", -1));
+    }
+
+    @Test
+    void clear_resetsCountsAndTotal() {
+        CountMinSketch sketch = new CountMinSketch(64, 3);
+        sketch.add("java", 7);
+
+        sketch.clear();
+
+        assertEquals(0, sketch.estimate("java"));
+        assertEquals(0, sketch.getTotal());
+    }
+}
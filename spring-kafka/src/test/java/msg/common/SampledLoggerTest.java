@@ -0,0 +1,75 @@
+package msg.common;
+
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+public class SampledLoggerTest {
+
+    @Test
+    void info_levelDisabled_neverLogsOrCountsSuppressed() {
+        Logger logger = mock(Logger.class);
+        when(logger.isInfoEnabled()).thenReturn(false);
+        SampledLogger sampled = SampledLogger.perSecond(logger, 1);
+
+        sampled.info("message {}", 1);
+        sampled.info("message {}", 2);
+
+        verify(logger, never()).info(anyString(), any(Object[].class));
+        assertEquals(0, sampled.getSuppressed());
+    }
+
+    @Test
+    void info_overLimit_suppressesTheRest() {
+        Logger logger = mock(Logger.class);
+        when(logger.isInfoEnabled()).thenReturn(true);
+        SampledLogger sampled = SampledLogger.perSecond(logger, 2);
+
+        for (int i = 0; i < 5; i++) {
+            sampled.info("message {}", i);
+        }
+
+        verify(logger).info("message {}", new Object[] {0});
+        verify(logger).info("message {}", new Object[] {1});
+        verifyNoMoreInteractions(ignoreStubs(logger));
+        assertEquals(3, sampled.getSuppressed());
+    }
+
+    @Test
+    void info_nextInterval_appendsSuppressedCount() throws InterruptedException {
+        Logger logger = mock(Logger.class);
+        when(logger.isInfoEnabled()).thenReturn(true);
+        SampledLogger sampled = new SampledLogger(logger, 1, TimeUnit.MILLISECONDS.toNanos(20));
+
+        sampled.info("message {}", "a");
+        sampled.info("message {}", "b");
+        sampled.info("message {}", "c");
+        Thread.sleep(50);
+        sampled.info("message {}", "d");
+
+        verify(logger).info("message {}", new Object[] {"a"});
+        verify(logger).info("message {} [{} similar messages suppressed]", new Object[] {"d", 2L});
+        assertEquals(0, sampled.getSuppressed());
+    }
+
+    @Test
+    void error_withThrowable_keepsThrowableLast() throws InterruptedException {
+        Logger logger = mock(Logger.class);
+        when(logger.isErrorEnabled()).thenReturn(true);
+        SampledLogger sampled = new SampledLogger(logger, 1, TimeUnit.MILLISECONDS.toNanos(20));
+        RuntimeException failure = new RuntimeException("boom");
+
+        sampled.error("failed {}", "a", failure);
+        sampled.error("failed {}", "b", failure);
+        Thread.sleep(50);
+        sampled.error("failed {}", "c", failure);
+
+        verify(logger).error("failed {} [{} similar messages suppressed]", new Object[] {"c", 1L, failure});
+    }
+}
@@ -0,0 +1,152 @@
+package msg.common;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TwitterUserDeserializerTest {
+
+    private static final Date DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    private final TwitterUserDeserializer deserializer = new TwitterUserDeserializer();
+
+    private TwitterUser deserialize(String message) {
+        return deserializer.deserialize("testTopic", message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private String createMessage(String date, String user, String text) {
+        return String.join(Constants.MESSAGE_DELIMITER, date, user, text);
+    }
+
+    private byte[] binary(TwitterUser twitterUser) {
+        TwitterUserSerializer serializer = new TwitterUserSerializer();
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+        return serializer.serialize("testTopic", twitterUser);
+    }
+
+    @Test
+    void deserialize_validMessage_returnsTwitterUser() {
+        assertEquals(new TwitterUser(DATE, "testUser", "Hello Kafka"),
+                deserialize(createMessage(DATE.toString(), "testUser", "Hello Kafka")));
+    }
+
+    @Test
+    void deserialize_delimiterInText_keepsItInText() {
+        String text = "first" + Constants.MESSAGE_DELIMITER + "second" + Constants.MESSAGE_DELIMITER;
+
+        assertEquals(new TwitterUser(DATE, "testUser", text),
+                deserialize(createMessage(DATE.toString(), "testUser", text)));
+    }
+
+    @Test
+    void deserialize_textEndingInDelimiterAndDigits_keepsItInText() {
+        String text = "first" + Constants.MESSAGE_DELIMITER + "42";
+
+        assertEquals(new TwitterUser(DATE, "testUser", text),
+                deserialize(createMessage(DATE.toString(), "testUser", text)));
+    }
+
+    @Test
+    void deserialize_binaryWithTweetId_roundTrips() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka", Long.MAX_VALUE);
+
+        assertEquals(twitterUser, deserializer.deserialize("testTopic", binary(twitterUser)));
+    }
+
+    @Test
+    void deserialize_multiByteCharacters_roundTripsWithSerializer() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "Zoë 日本", "price 5€ 😀 #java");
+
+        byte[] bytes = new TwitterUserSerializer().serialize("testTopic", twitterUser);
+
+        assertEquals(twitterUser, deserializer.deserialize("testTopic", bytes));
+    }
+
+    @Test
+    void deserialize_tooFewParts_returnsNull() {
+        assertNull(deserialize(DATE + Constants.MESSAGE_DELIMITER + "user"));
+        assertNull(deserialize("no delimiter"));
+        assertNull(deserialize(""));
+    }
+
+    @Test
+    void deserialize_emptyPart_returnsNull() {
+        assertNull(deserialize(createMessage("", "user", "text")));
+        assertNull(deserialize(createMessage(DATE.toString(), "", "text")));
+        assertNull(deserialize(createMessage(DATE.toString(), "user", "")));
+    }
+
+    @Test
+    void deserialize_unparseableDate_returnsNull() {
+        assertNull(deserialize(createMessage("2023-10-26", "user", "text")));
+    }
+
+    @Test
+    void deserialize_null_returnsNull() {
+        assertNull(deserializer.deserialize("testTopic", null));
+    }
+
+    @Test
+    void deserialize_binaryMessage_roundTripsWithSerializer() {
+        // millisecond precision is kept, unlike in the text format
+        TwitterUser twitterUser = new TwitterUser(new Date(DATE.getTime() + 123), "Zoë 日本", "price 5€ 😀 #java");
+
+        assertEquals(twitterUser, deserializer.deserialize("testTopic", binary(twitterUser)));
+    }
+
+    @Test
+    void deserialize_binaryTextLongerThanOneVarintByte_roundTrips() {
+        char[] text = new char[300];
+        Arrays.fill(text, 'x');
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", new String(text));
+
+        assertEquals(twitterUser, deserializer.deserialize("testTopic", binary(twitterUser)));
+    }
+
+    @Test
+    void deserialize_legacyAndBinaryOnSameTopic_detectsFormatPerRecord() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka");
+
+        assertEquals(twitterUser, deserialize(createMessage(DATE.toString(), "testUser", "Hello Kafka")));
+        assertEquals(twitterUser, deserializer.deserialize("testTopic", binary(twitterUser)));
+    }
+
+    @Test
+    void detect_textWithoutDate_isText() {
+        byte[] text = TwitterUserWireFormat.TEXT.encode(new TwitterUser(null, "testUser", "Hello Kafka"));
+
+        assertEquals(TwitterUserWireFormat.TEXT, TwitterUserWireFormat.detect(text));
+        assertEquals(TwitterUserWireFormat.BINARY,
+                TwitterUserWireFormat.detect(binary(new TwitterUser(DATE, "testUser", "Hello Kafka"))));
+    }
+
+    @Test
+    void deserialize_unknownBinaryVersion_returnsNull() {
+        byte[] bytes = binary(new TwitterUser(DATE, "testUser", "Hello Kafka"));
+        bytes[1] = 0x1F;
+
+        assertNull(deserializer.deserialize("testTopic", bytes));
+    }
+
+    @Test
+    void deserialize_truncatedBinary_returnsNull() {
+        byte[] bytes = binary(new TwitterUser(DATE, "testUser", "Hello Kafka"));
+
+        assertNull(deserializer.deserialize("testTopic", Arrays.copyOf(bytes, 5)));
+        assertNull(deserializer.deserialize("testTopic", Arrays.copyOf(bytes, 12)));
+        assertNull(deserializer.deserialize("testTopic", Arrays.copyOf(bytes, bytes.length - 1)));
+    }
+
+    @Test
+    void deserialize_binaryEmptyField_returnsNull() {
+        assertNull(deserializer.deserialize("testTopic", binary(new TwitterUser(DATE, "", "text"))));
+        assertNull(deserializer.deserialize("testTopic", binary(new TwitterUser(DATE, "user", null))));
+    }
+}
@@ -0,0 +1,145 @@
+package msg.common;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TwitterUserSerializerTest {
+
+    private static final Date DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    private final TwitterUserSerializer serializer = new TwitterUserSerializer();
+
+    private byte[] expectedBytes(String date, String user, String text) {
+        return String.join(Constants.MESSAGE_DELIMITER, date, user, text).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void serialize_asciiFields_joinsWithDelimiter() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka");
+
+        assertArrayEquals(expectedBytes(DATE.toString(), "testUser", "Hello Kafka"),
+                serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void serialize_multiByteCharacters_matchesStringGetBytes() {
+        // 2 byte (é), 3 byte (€, 日本) and 4 byte (emoji surrogate pair) sequences
+        TwitterUser twitterUser = new TwitterUser(DATE, "Zoë 日本", "price 5€ 😀 #java");
+
+        assertArrayEquals(expectedBytes(DATE.toString(), "Zoë 日本", "price 5€ 😀 #java"),
+                serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void serialize_unpairedSurrogate_writesQuestionMark() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "user", "broken \uD83D text");
+
+        assertArrayEquals(expectedBytes(DATE.toString(), "user", "broken ? text"),
+                serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void serialize_nullFields_writtenAsEmpty() {
+        TwitterUser twitterUser = new TwitterUser(DATE, null, null);
+
+        assertArrayEquals(expectedBytes(DATE.toString(), "", ""), serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void serialize_null_returnsNull() {
+        assertNull(serializer.serialize("testTopic", null));
+    }
+
+    @Test
+    void serialize_binaryFormat_writesMagicVersionMillisAndLengthPrefixedFields() {
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+
+        byte[] bytes = serializer.serialize("testTopic", new TwitterUser(DATE, "ab", "é"));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xFF, 0x01,
+                0x00, 0x00, 0x01, (byte) 0x8B, 0x6B, 0x6D, 0x31, 0x00,
+                0x02, 'a', 'b',
+                0x02, (byte) 0xC3, (byte) 0xA9 }, bytes);
+    }
+
+    @Test
+    void serialize_tweetIds_notWrittenInTextFormat() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka", 1234567890123L, 42L);
+
+        assertArrayEquals(expectedBytes(DATE.toString(), "testUser", "Hello Kafka"),
+                serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void serialize_binaryFormatWithTweetId_writesVersion2WithIdAfterMillis() {
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+
+        byte[] bytes = serializer.serialize("testTopic", new TwitterUser(DATE, "ab", "é", 0x0102L));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xFF, 0x02,
+                0x00, 0x00, 0x01, (byte) 0x8B, 0x6B, 0x6D, 0x31, 0x00,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02,
+                0x02, 'a', 'b',
+                0x02, (byte) 0xC3, (byte) 0xA9 }, bytes);
+    }
+
+    @Test
+    void serialize_binaryFormatRetweet_writesVersion3WithBothIdsAfterMillis() {
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+
+        byte[] bytes = serializer.serialize("testTopic", new TwitterUser(DATE, "ab", "é", 0x0102L, 0x03L));
+
+        assertArrayEquals(new byte[] {
+                (byte) 0xFF, 0x03,
+                0x00, 0x00, 0x01, (byte) 0x8B, 0x6B, 0x6D, 0x31, 0x00,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x01, 0x02,
+                0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x00, 0x03,
+                0x02, 'a', 'b',
+                0x02, (byte) 0xC3, (byte) 0xA9 }, bytes);
+        assertEquals(new TwitterUser(DATE, "ab", "é", 0x0102L, 0x03L), TwitterUserWireFormat.BINARY.decode(bytes));
+    }
+
+    @Test
+    void serialize_topicOverride_appliesOnlyToThatTopic() {
+        Map<String, Object> configs = new HashMap<>();
+        configs.put(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "text");
+        configs.put(TwitterUserSerializer.TOPIC_WIRE_FORMATS_CONFIG, " binaryTopic:BINARY , otherTopic:text,");
+        serializer.configure(configs, false);
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka");
+
+        assertArrayEquals(TwitterUserWireFormat.BINARY.encode(twitterUser), serializer.serialize("binaryTopic", twitterUser));
+        assertArrayEquals(expectedBytes(DATE.toString(), "testUser", "Hello Kafka"),
+                serializer.serialize("otherTopic", twitterUser));
+        assertArrayEquals(expectedBytes(DATE.toString(), "testUser", "Hello Kafka"),
+                serializer.serialize("testTopic", twitterUser));
+    }
+
+    @Test
+    void configure_invalidTopicOverride_throws() {
+        assertThrows(IllegalArgumentException.class, () -> serializer.configure(
+                Collections.singletonMap(TwitterUserSerializer.TOPIC_WIRE_FORMATS_CONFIG, "topicWithoutFormat"), false));
+        assertThrows(IllegalArgumentException.class, () -> serializer.configure(
+                Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "xml"), false));
+    }
+
+    @Test
+    void configure_topicOverrideWithoutValidFormat_namesTheEntry() {
+        for (String entry : new String[] { "topic:", "topic:bogus", ":binary" }) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class, () -> serializer.configure(
+                    Collections.singletonMap(TwitterUserSerializer.TOPIC_WIRE_FORMATS_CONFIG, entry), false));
+            assertEquals("Expected topic:format in " + TwitterUserSerializer.TOPIC_WIRE_FORMATS_CONFIG
+                    + " but got '" + entry + "'", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,308 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.bson.BsonDocument;
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Subscriber;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.MongoWriteException;
+import com.mongodb.ServerAddress;
+import com.mongodb.WriteConcern;
+import com.mongodb.WriteError;
+import com.mongodb.bulk.BulkWriteError;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.AggregatePublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class BucketTweetStoreTest {
+
+    private static final long HOUR = 3600000L;
+
+    private static final Date WINDOW = new Date(1698314400000L); // 2023-10-26T10:00:00Z, start of an hour
+
+    @Mock
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private BucketTweetStore store;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(reactiveMongoTemplate.getCollection("buckets")).thenReturn(collection);
+        lenient().when(collection.withWriteConcern(WriteConcern.W1)).thenReturn(collection);
+        store = new BucketTweetStore(reactiveMongoTemplate, "buckets", WriteConcern.W1, Duration.ofHours(1), 3);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_pushesEachUserAndWindowInOneUpsert() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<BulkWriteOptions> options = ArgumentCaptor.forClass(BulkWriteOptions.class);
+        when(collection.bulkWrite(models.capture(), options.capture()))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList())));
+
+        Long stored = store.upsertAll(Arrays.asList(
+                tweet(1L, "user1", 60000),
+                tweet(2L, "user2", 120000),
+                tweet(3L, "user1", 1000),
+                tweet(4L, "user1", HOUR + 1000))).block();
+
+        assertEquals(Long.valueOf(4), stored);
+        assertFalse(options.getValue().isOrdered());
+        assertEquals(3, models.getValue().size());
+        UpdateOneModel<Document> push = (UpdateOneModel<Document>) models.getValue().get(0);
+        assertTrue(push.getOptions().isUpsert());
+        Document filter = toDocument(push.getFilter());
+        assertEquals("user1", filter.get("userName"));
+        assertEquals(WINDOW, filter.get("start"));
+        // only a bucket with room for both tweets matches, otherwise a new one is started
+        assertEquals(new Document("$lte", 1), filter.get("count"));
+        Document update = toDocument(push.getUpdate());
+        List<Document> pushed = (List<Document>) ((Document) ((Document) update.get("$push")).get("tweets")).get("$each");
+        assertEquals(Arrays.asList(1L, 3L), Arrays.asList(pushed.get(0).get("tweetId"), pushed.get(1).get("tweetId")));
+        assertEquals(new Document("count", 2), update.get("$inc"));
+        assertEquals(new Document("first", new Date(WINDOW.getTime() + 1000)), update.get("$min"));
+        assertEquals(new Document("last", new Date(WINDOW.getTime() + 60000)), update.get("$max"));
+
+        Document nextWindow = toDocument(((UpdateOneModel<Document>) models.getValue().get(2)).getFilter());
+        assertEquals(new Date(WINDOW.getTime() + HOUR), nextWindow.get("start"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_moreTweetsThanABucketHolds_splitsIntoSeveralPushes() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 0, 0, 2, Collections.emptyList())));
+
+        store.upsertAll(Arrays.asList(tweet(1L, "user", 1), tweet(2L, "user", 2), tweet(3L, "user", 3),
+                tweet(4L, "user", 4))).block();
+
+        assertEquals(2, models.getValue().size());
+        assertEquals(new Document("count", 3),
+                toDocument(((UpdateOneModel<Document>) models.getValue().get(0)).getUpdate()).get("$inc"));
+        assertEquals(new Document("count", 1),
+                toDocument(((UpdateOneModel<Document>) models.getValue().get(1)).getUpdate()).get("$inc"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_onlyMatchesBucketsWithoutTheTweets() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList())));
+
+        Long stored = store.upsertAll(Arrays.asList(tweet(1L, "user", 1), tweet(2L, "user", 2),
+                tweet(1L, "user", 1))).block();
+
+        assertEquals(Long.valueOf(2), stored);
+        Document filter = toDocument(((UpdateOneModel<Document>) models.getValue().get(0)).getFilter());
+        assertEquals(new Document("$nin", Arrays.asList(1L, 2L)), filter.get("tweets.tweetId"));
+        assertEquals(new Document("count", 2),
+                toDocument(((UpdateOneModel<Document>) models.getValue().get(0)).getUpdate()).get("$inc"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_pushRejectedAsDuplicate_writesItsTweetsOneByOneAndCountsOnlyTheNewOnes() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+                // the push of user1 holds tweet 1, stored already, the push of user2 succeeds
+                .thenReturn(Mono.error(duplicateKey(0)))
+                // of the single pushes tweet 1 is rejected again and tweet 3 is added
+                .thenReturn(Mono.error(duplicateKey(0)));
+
+        Long stored = store.upsertAll(Arrays.asList(tweet(1L, "user1", 1), tweet(2L, "user2", 2),
+                tweet(3L, "user1", 3))).block();
+
+        assertEquals(Long.valueOf(2), stored);
+        List<WriteModel<Document>> singles = models.getAllValues().get(1);
+        assertEquals(2, singles.size());
+        assertEquals(new Document("count", 1),
+                toDocument(((UpdateOneModel<Document>) singles.get(1)).getUpdate()).get("$inc"));
+    }
+
+    @Test
+    void upsertAll_otherWriteError_fails() {
+        MongoBulkWriteException error = new MongoBulkWriteException(
+                BulkWriteResult.acknowledged(0, 0, 0, 0, Collections.emptyList()),
+                Collections.singletonList(new BulkWriteError(121, "Document failed validation", new BsonDocument(), 0)),
+                null, new ServerAddress());
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class))).thenReturn(Mono.error(error));
+
+        assertThrows(MongoBulkWriteException.class,
+                () -> store.upsertAll(Collections.singletonList(tweet(1L, "user", 1))).block());
+    }
+
+    @Test
+    void upsertAll_emptyList_doesNotWrite() {
+        assertEquals(Long.valueOf(0), store.upsertAll(Collections.emptyList()).block());
+
+        verify(collection, never()).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByUserName_unpacksSortsAndLimitsOnTheServer() {
+        AggregatePublisher<Document> aggregatePublisher = mock(AggregatePublisher.class);
+        ArgumentCaptor<List<Bson>> pipeline = ArgumentCaptor.forClass(List.class);
+        when(collection.aggregate(pipeline.capture())).thenReturn(aggregatePublisher);
+        doAnswer(invocation -> {
+            Flux.just(unwound(2L, 2000), unwound(4L, HOUR + 1000))
+                    .subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(aggregatePublisher).subscribe(any());
+
+        List<TwitterUser> tweets = store.findByUserName("user", WINDOW, new Date(WINDOW.getTime() + 2 * HOUR),
+                new TweetCursor(new Date(WINDOW.getTime() + 1000), 1L), 10).collectList().block();
+
+        assertEquals(Arrays.asList(2L, 4L), Arrays.asList(tweets.get(0).getTweetId(), tweets.get(1).getTweetId()));
+        assertEquals("user", tweets.get(0).getUserName());
+        assertEquals("tweet 2", tweets.get(0).getTweetMessage());
+        assertEquals(new Date(WINDOW.getTime() + 2000), tweets.get(0).getDateTime());
+
+        List<Document> stages = new ArrayList<>();
+        pipeline.getValue().forEach(stage -> stages.add(toDocument(stage)));
+        Document bucketMatch = (Document) stages.get(0).get("$match");
+        assertEquals("user", bucketMatch.get("userName"));
+        // buckets before the cursor are skipped, the cursor's bucket may still hold later tweets
+        assertEquals(new Document("$gt", new Date(WINDOW.getTime() + 1000 - HOUR)).append("$lt",
+                new Date(WINDOW.getTime() + 2 * HOUR)), bucketMatch.get("start"));
+        assertEquals("$tweets", stages.get(1).get("$unwind"));
+        assertTrue(stages.get(2).toJson().contains("tweets.tweetId"));
+        assertEquals(new Document("tweets.dateTime", 1).append("tweets.tweetId", 1), stages.get(3).get("$sort"));
+        assertEquals(10, stages.get(4).get("$limit"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void search_findsBucketsByTextAndMatchesTheTweetsByWord() {
+        AggregatePublisher<Document> aggregatePublisher = mock(AggregatePublisher.class);
+        ArgumentCaptor<List<Bson>> pipeline = ArgumentCaptor.forClass(List.class);
+        when(collection.aggregate(pipeline.capture())).thenReturn(aggregatePublisher);
+        doAnswer(invocation -> {
+            Flux.<Document>empty().subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(aggregatePublisher).subscribe(any());
+
+        store.search("kafka streams", null, 5).collectList().block();
+
+        assertEquals(new Document("$text", new Document("$search", "kafka streams")),
+                toDocument(pipeline.getValue().get(0)).get("$match"));
+        Document tweetMatch = (Document) toDocument(pipeline.getValue().get(2)).get("$match");
+        assertEquals(toDocument(Filters.regex("tweets.tweetMessage", "\\Qkafka\\E|\\Qstreams\\E", "i")), tweetMatch);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByHashtag_findsBucketsByTextAndMatchesTheTweetsByTag() {
+        AggregatePublisher<Document> aggregatePublisher = mock(AggregatePublisher.class);
+        ArgumentCaptor<List<Bson>> pipeline = ArgumentCaptor.forClass(List.class);
+        when(collection.aggregate(pipeline.capture())).thenReturn(aggregatePublisher);
+        doAnswer(invocation -> {
+            Flux.<Document>empty().subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(aggregatePublisher).subscribe(any());
+
+        store.findByHashtag("kafka", WINDOW, new Date(WINDOW.getTime() + HOUR), null, 5).collectList().block();
+
+        Document bucketMatch = (Document) toDocument(pipeline.getValue().get(0)).get("$match");
+        assertEquals(new Document("$search", "kafka"), bucketMatch.get("$text"));
+        Document tweetMatch = (Document) toDocument(pipeline.getValue().get(2)).get("$match");
+        assertEquals(toDocument(Filters.regex("tweets.tweetMessage", TweetStore.hashtagPattern("kafka")))
+                .get("tweets.tweetMessage"), tweetMatch.get("tweets.tweetMessage"));
+    }
+
+    @Test
+    void upsert_tweetWithoutId_getsContentId() {
+        when(collection.updateOne(any(Bson.class), any(Bson.class), any()))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(0, 1L, null)));
+
+        TwitterUser saved = store.upsert(new TwitterUser(WINDOW, "user", "text")).block();
+
+        assertEquals(TweetStore.contentId(new TwitterUser(WINDOW, "user", "text")), saved.getTweetId().longValue());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_retweet_storesAndReadsBackTheRetweetedId() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList())));
+
+        store.upsertAll(Collections.singletonList(
+                new TwitterUser(new Date(WINDOW.getTime() + 1), "user", "RT tweet 1", 5L, 1L))).block();
+
+        Document update = toDocument(((UpdateOneModel<Document>) models.getValue().get(0)).getUpdate());
+        Document pushed = ((List<Document>) ((Document) ((Document) update.get("$push")).get("tweets")).get("$each"))
+                .get(0);
+        assertEquals(1L, pushed.get("retweetedId"));
+        TwitterUser read = BucketTweetStore.toTwitterUser(new Document("userName", "user").append("tweets", pushed));
+        assertEquals(Long.valueOf(5), read.getTweetId());
+        assertEquals(Long.valueOf(1), read.getRetweetedId());
+    }
+
+    @Test
+    void upsert_tweetStoredAlready_isNotAnError() {
+        when(collection.updateOne(any(Bson.class), any(Bson.class), any()))
+                .thenReturn(Mono.error(new MongoWriteException(
+                        new WriteError(11000, "E11000 duplicate key", new BsonDocument()), new ServerAddress())));
+
+        TwitterUser saved = store.upsert(tweet(1L, "user", 1)).block();
+
+        assertEquals(Long.valueOf(1), saved.getTweetId());
+    }
+
+    private static MongoBulkWriteException duplicateKey(int index) {
+        return new MongoBulkWriteException(BulkWriteResult.acknowledged(0, 1, 0, 1, Collections.emptyList()),
+                Collections.singletonList(new BulkWriteError(11000, "E11000 duplicate key", new BsonDocument(), index)),
+                null, new ServerAddress());
+    }
+
+    private static TwitterUser tweet(long tweetId, String userName, long offsetMillis) {
+        return new TwitterUser(new Date(WINDOW.getTime() + offsetMillis), userName, "tweet " + tweetId, tweetId);
+    }
+
+    private static Document unwound(long tweetId, long offsetMillis) {
+        return new Document("userName", "user").append("tweets", new Document("tweetId", tweetId)
+                .append("dateTime", new Date(WINDOW.getTime() + offsetMillis))
+                .append("tweetMessage", "tweet " + tweetId));
+    }
+
+    private static Document toDocument(Bson bson) {
+        return Document.parse(bson.toBsonDocument(Document.class,
+                com.mongodb.MongoClient.getDefaultCodecRegistry()).toJson());
+    }
+}
@@ -0,0 +1,96 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class CachingTweetStoreTest {
+
+    private static final long NOW = 1698314400000L;
+
+    private static final Date END = new Date(Long.MAX_VALUE);
+
+    @Mock
+    private TweetStore tweetStore;
+
+    private TweetCache tweetCache;
+
+    private CachingTweetStore store;
+
+    @BeforeEach
+    void setUp() {
+        tweetCache = new TweetCache(100, 1 << 20, 60_000L, () -> NOW);
+        store = new CachingTweetStore(tweetStore, tweetCache);
+    }
+
+    @Test
+    void findByUserName_answersRecentTweetsFromTheCache() {
+        TwitterUser tweet = new TwitterUser(new Date(NOW), "user1", "#kafka", 1L);
+        when(tweetStore.upsert(tweet)).thenReturn(Mono.just(tweet));
+        store.upsert(tweet).block();
+
+        List<TwitterUser> byUser = store.findByUserName("user1", new Date(NOW), END, null, 10).collectList().block();
+
+        assertEquals(Collections.singletonList(tweet), byUser);
+        verify(tweetStore, never()).findByUserName(any(), any(), any(), any(), anyInt());
+    }
+
+    @Test
+    void findByHashtag_alwaysReadsTheStore() {
+        TwitterUser tweet = new TwitterUser(new Date(NOW), "user1", "#kafka", 1L);
+        when(tweetStore.upsert(tweet)).thenReturn(Mono.just(tweet));
+        when(tweetStore.findByHashtag("kafka", new Date(NOW), END, null, 10)).thenReturn(Flux.empty());
+        store.upsert(tweet).block();
+
+        store.findByHashtag("kafka", new Date(NOW), END, null, 10).collectList().block();
+
+        verify(tweetStore).findByHashtag("kafka", new Date(NOW), END, null, 10);
+    }
+
+    @Test
+    void findByUserName_missReadsTheStore() {
+        TwitterUser stored = new TwitterUser(new Date(NOW - 3_600_000L), "user1", "old", 1L);
+        when(tweetStore.findByUserName("user1", new Date(0), END, null, 10)).thenReturn(Flux.just(stored));
+
+        List<TwitterUser> tweets = store.findByUserName("user1", new Date(0), END, null, 10).collectList().block();
+
+        assertEquals(Collections.singletonList(stored), tweets);
+        assertEquals(1, tweetCache.getMisses());
+    }
+
+    @Test
+    void upsertAll_failedWrite_doesNotCache() {
+        List<TwitterUser> tweets = Arrays.asList(new TwitterUser(new Date(NOW), "user1", "text", 1L));
+        when(tweetStore.upsertAll(tweets)).thenReturn(Mono.error(new IllegalStateException("down")));
+
+        assertThrows(IllegalStateException.class, () -> store.upsertAll(tweets).block());
+
+        assertEquals(0, tweetCache.getSize());
+    }
+
+    @Test
+    void upsertAll_cachesTheWrittenTweets() {
+        List<TwitterUser> tweets = Arrays.asList(new TwitterUser(new Date(NOW), "user1", "text", 1L),
+                new TwitterUser(new Date(NOW), "user2", "text", 2L));
+        when(tweetStore.upsertAll(tweets)).thenReturn(Mono.just(2L));
+
+        store.upsertAll(tweets).block();
+
+        assertEquals(2, tweetCache.getSize());
+    }
+}
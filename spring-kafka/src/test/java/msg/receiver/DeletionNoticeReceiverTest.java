@@ -0,0 +1,64 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.MockConsumer;
+import org.apache.kafka.clients.consumer.OffsetResetStrategy;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.ConsumerFactory;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class DeletionNoticeReceiverTest {
+
+    private static final String TOPIC = "tweet-deletions";
+
+    @Test
+    void run_assignsAllPartitionsFromTheEndAndInvalidatesDeletedTweets() throws InterruptedException {
+        MockConsumer<Long, Long> consumer = new MockConsumer<>(OffsetResetStrategy.LATEST);
+        Node node = new Node(0, "localhost", 9092);
+        consumer.updatePartitions(TOPIC, Arrays.asList(
+                new PartitionInfo(TOPIC, 0, node, null, null), new PartitionInfo(TOPIC, 1, node, null, null)));
+        TopicPartition partition0 = new TopicPartition(TOPIC, 0);
+        TopicPartition partition1 = new TopicPartition(TOPIC, 1);
+        Map<TopicPartition, Long> endOffsets = new HashMap<>();
+        endOffsets.put(partition0, 5L);
+        endOffsets.put(partition1, 7L);
+        consumer.updateEndOffsets(endOffsets);
+        @SuppressWarnings("unchecked")
+        ConsumerFactory<Long, Long> consumerFactory = mock(ConsumerFactory.class);
+        when(consumerFactory.createConsumer()).thenReturn(consumer);
+        TweetCache tweetCache = new TweetCache(10, 1 << 20, 60_000L);
+        tweetCache.add(new TwitterUser(new Date(), "user1", "deleted", 42L));
+        DeletionNoticeReceiver receiver = new DeletionNoticeReceiver(consumerFactory, TOPIC, tweetCache);
+
+        receiver.start();
+        for (int i = 0; i < 100 && consumer.assignment().isEmpty(); i++) {
+            Thread.sleep(10);
+        }
+        consumer.schedulePollTask(() -> consumer.addRecord(new ConsumerRecord<>(TOPIC, 1, 7L, 1L, 42L)));
+        for (int i = 0; i < 300 && tweetCache.getSize() > 0; i++) {
+            Thread.sleep(10);
+        }
+        Set<TopicPartition> assignment = consumer.assignment();
+        long position = consumer.position(partition0);
+        receiver.stop();
+
+        assertEquals(new HashSet<>(Arrays.asList(partition0, partition1)), assignment);
+        assertEquals(5L, position);
+        assertEquals(0, tweetCache.getSize());
+        assertTrue(consumer.closed());
+    }
+}
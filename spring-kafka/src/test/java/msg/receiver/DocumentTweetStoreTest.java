@@ -0,0 +1,197 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.bson.Document;
+import org.bson.conversions.Bson;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Subscriber;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.index.ReactiveIndexOperations;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import com.mongodb.WriteConcern;
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.bulk.BulkWriteUpsert;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.client.result.UpdateResult;
+import com.mongodb.reactivestreams.client.FindPublisher;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class DocumentTweetStoreTest {
+
+    private static final Date DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    @Mock
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private DocumentTweetStore store;
+
+    @BeforeEach
+    void setUp() {
+        MappingMongoConverter converter = new MappingMongoConverter(mock(DbRefResolver.class), new MongoMappingContext());
+        converter.afterPropertiesSet();
+        lenient().when(reactiveMongoTemplate.getConverter()).thenReturn(converter);
+        lenient().when(reactiveMongoTemplate.getCollectionName(TwitterUser.class)).thenReturn("twitterUser");
+        lenient().when(reactiveMongoTemplate.getCollection("twitterUser")).thenReturn(collection);
+        lenient().when(collection.withWriteConcern(WriteConcern.MAJORITY)).thenReturn(collection);
+        store = new DocumentTweetStore(reactiveMongoTemplate, WriteConcern.MAJORITY);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void upsertAll_sendsOneUnorderedBulkWriteOfSetOnInsertUpsertsById() {
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<BulkWriteOptions> options = ArgumentCaptor.forClass(BulkWriteOptions.class);
+        when(collection.bulkWrite(models.capture(), options.capture())).thenReturn(Mono.just(BulkWriteResult.acknowledged(
+                0, 0, 0, 0, Collections.singletonList(new BulkWriteUpsert(0, null)))));
+
+        Long inserted = store.upsertAll(Arrays.asList(
+                new TwitterUser(DATE, "user1", "first", 1L),
+                new TwitterUser(DATE, "user2", "second", 2L))).block();
+
+        assertEquals(Long.valueOf(1), inserted);
+        assertFalse(options.getValue().isOrdered());
+        assertEquals(2, models.getValue().size());
+        UpdateOneModel<Document> upsert = (UpdateOneModel<Document>) models.getValue().get(0);
+        assertTrue(upsert.getOptions().isUpsert());
+        assertEquals(new Document("_id", 1L), toDocument(upsert.getFilter()));
+        Document setOnInsert = (Document) ((Document) upsert.getUpdate()).get("$setOnInsert");
+        assertEquals("user1", setOnInsert.get("userName"));
+        assertEquals(DATE, setOnInsert.get("dateTime"));
+        assertFalse(setOnInsert.containsKey("_id"));
+        verify(collection).withWriteConcern(WriteConcern.MAJORITY);
+    }
+
+    @Test
+    void upsertAll_emptyList_doesNotWrite() {
+        assertEquals(Long.valueOf(0), store.upsertAll(Collections.emptyList()).block());
+
+        verify(collection, never()).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+
+    @Test
+    void upsert_tweetWithoutId_getsNegativeContentId() {
+        when(collection.updateOne(any(Bson.class), any(Bson.class), any(UpdateOptions.class)))
+                .thenReturn(Mono.just(UpdateResult.acknowledged(1, 0L, null)));
+
+        TwitterUser saved = store.upsert(new TwitterUser(DATE, "user", "text")).block();
+
+        assertTrue(saved.getTweetId() < 0);
+        assertEquals(saved.getTweetId().longValue(), TweetStore.contentId(new TwitterUser(DATE, "user", "text")));
+        assertNotEquals(saved.getTweetId().longValue(), TweetStore.contentId(new TwitterUser(DATE, "use", "rtext")));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void ensureIndexes_createsUserNameAndDateTimeIndexes() {
+        ReactiveIndexOperations indexOperations = mock(ReactiveIndexOperations.class);
+        when(reactiveMongoTemplate.indexOps("twitterUser")).thenReturn(indexOperations);
+        when(indexOperations.ensureIndex(any())).thenReturn(Mono.just("index"));
+
+        store.ensureIndexes();
+
+        verify(indexOperations).ensureIndex(DocumentTweetStore.INDEXES.get(0));
+        verify(indexOperations).ensureIndex(DocumentTweetStore.INDEXES.get(1));
+        assertEquals(new Document("userName", 1).append("dateTime", -1), DocumentTweetStore.INDEXES.get(0).getIndexKeys());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByUserName_readsAfterTheCursorOrderedByDateAndId() {
+        FindPublisher<Document> findPublisher = mock(FindPublisher.class);
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        ArgumentCaptor<Bson> sort = ArgumentCaptor.forClass(Bson.class);
+        when(collection.find(filter.capture())).thenReturn(findPublisher);
+        when(findPublisher.sort(sort.capture())).thenReturn(findPublisher);
+        when(findPublisher.limit(50)).thenReturn(findPublisher);
+        doAnswer(invocation -> {
+            Flux.just(new Document("_id", 7L).append("userName", "user").append("dateTime", DATE)
+                    .append("tweetMessage", "text"))
+                    .subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(findPublisher).subscribe(any());
+
+        List<TwitterUser> tweets = store.findByUserName("user", new Date(0), new Date(Long.MAX_VALUE),
+                new TweetCursor(DATE, 5L), 50).collectList().block();
+
+        assertEquals(Collections.singletonList(new TwitterUser(DATE, "user", "text", 7L)), tweets);
+        assertEquals(new Document("dateTime", 1).append("_id", 1), toDocument(sort.getValue()));
+        String query = toDocument(filter.getValue()).toJson();
+        assertTrue(query.contains("\"userName\" : \"user\""), query);
+        assertTrue(query.contains("\"$or\""), query);
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void search_usesTheTextIndex() {
+        FindPublisher<Document> findPublisher = mock(FindPublisher.class);
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        when(collection.find(filter.capture())).thenReturn(findPublisher);
+        when(findPublisher.sort(any(Bson.class))).thenReturn(findPublisher);
+        when(findPublisher.limit(10)).thenReturn(findPublisher);
+        doAnswer(invocation -> {
+            Flux.<Document>empty().subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(findPublisher).subscribe(any());
+
+        store.search("kafka", null, 10).collectList().block();
+
+        assertEquals(new Document("$text", new Document("$search", "kafka")), toDocument(filter.getValue()));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void findByHashtag_findsByTextAndMatchesTheWholeTag() {
+        FindPublisher<Document> findPublisher = mock(FindPublisher.class);
+        ArgumentCaptor<Bson> filter = ArgumentCaptor.forClass(Bson.class);
+        when(collection.find(filter.capture())).thenReturn(findPublisher);
+        when(findPublisher.sort(any(Bson.class))).thenReturn(findPublisher);
+        when(findPublisher.limit(10)).thenReturn(findPublisher);
+        doAnswer(invocation -> {
+            Flux.<Document>empty().subscribe(invocation.<Subscriber<Document>>getArgument(0));
+            return null;
+        }).when(findPublisher).subscribe(any());
+
+        store.findByHashtag("kafka", new Date(0), DATE, null, 10).collectList().block();
+
+        Document query = toDocument(filter.getValue());
+        assertEquals(new Document("$search", "kafka"), query.get("$text"));
+        assertEquals(toDocument(Filters.regex("tweetMessage", TweetStore.hashtagPattern("kafka"))).get("tweetMessage"),
+                query.get("tweetMessage"));
+        assertTrue(TweetStore.hashtagPattern("kafka").matcher("about #Kafka.").find());
+        assertFalse(TweetStore.hashtagPattern("kafka").matcher("about #kafkastreams").find());
+    }
+
+    private static Document toDocument(Bson bson) {
+        return Document.parse(bson.toBsonDocument(Document.class,
+                com.mongodb.MongoClient.getDefaultCodecRegistry()).toJson());
+    }
+}
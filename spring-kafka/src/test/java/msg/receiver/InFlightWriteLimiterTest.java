@@ -0,0 +1,121 @@
+package msg.receiver;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.config.KafkaListenerEndpointRegistry;
+import org.springframework.kafka.listener.MessageListenerContainer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class InFlightWriteLimiterTest {
+
+    @Mock
+    private KafkaListenerEndpointRegistry kafkaListenerEndpointRegistry;
+
+    @Mock
+    private MessageListenerContainer container;
+
+    @InjectMocks
+    private InFlightWriteLimiter limiter = new InFlightWriteLimiter(4, 1000);
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(kafkaListenerEndpointRegistry.getListenerContainers())
+                .thenReturn(Collections.singletonList(container));
+    }
+
+    @Test
+    void acquire_belowLimits_doesNotPause() {
+        limiter.acquire(3, 100);
+
+        assertFalse(limiter.isPaused());
+        assertEquals(3, limiter.getInFlightWrites());
+        assertEquals(100, limiter.getInFlightBytes());
+        verify(container, never()).pause();
+    }
+
+    @Test
+    void acquire_writeLimitReached_pausesOnce() {
+        limiter.acquire(4, 100);
+        limiter.acquire(1, 100);
+
+        assertTrue(limiter.isPaused());
+        verify(container, times(1)).pause();
+    }
+
+    @Test
+    void acquire_byteLimitReached_pauses() {
+        limiter.acquire(1, 1000);
+
+        assertTrue(limiter.isPaused());
+        verify(container).pause();
+    }
+
+    @Test
+    void release_resumesOnlyAfterDrainingToHalf() {
+        limiter.acquire(4, 100);
+
+        limiter.release(1, 25);
+        verify(container, never()).resume();
+        assertTrue(limiter.isPaused());
+
+        limiter.release(1, 25);
+        verify(container, times(1)).resume();
+        assertFalse(limiter.isPaused());
+        assertEquals(2, limiter.getInFlightWrites());
+        assertEquals(50, limiter.getInFlightBytes());
+    }
+
+    @Test
+    void release_whenNotPaused_doesNotResume() {
+        limiter.acquire(1, 10);
+        limiter.release(1, 10);
+
+        verify(container, never()).resume();
+    }
+
+    @Test
+    void setBacklogged_pausesUntilClearedEvenWhenDrained() {
+        limiter.setBacklogged(true);
+        limiter.acquire(1, 10);
+        limiter.release(1, 10);
+
+        assertTrue(limiter.isPaused());
+        verify(container, never()).resume();
+
+        limiter.setBacklogged(false);
+
+        assertFalse(limiter.isPaused());
+        verify(container, times(1)).resume();
+    }
+
+    @Test
+    void acquireAndRelease_concurrently_endResumedOnceDrained() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(() -> {
+                for (int i = 0; i < 20_000; i++) {
+                    limiter.acquire(1, 10);
+                    limiter.release(1, 10);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(0, limiter.getInFlightWrites());
+        assertFalse(limiter.isPaused());
+    }
+}
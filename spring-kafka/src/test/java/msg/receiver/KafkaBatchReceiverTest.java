@@ -0,0 +1,198 @@
+package msg.receiver;
+
+import msg.common.Constants;
+import msg.common.TwitterUserDeserializer;
+import msg.common.TwitterUserSerializer;
+import msg.model.TwitterUser;
+
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.Spy;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class KafkaBatchReceiverTest {
+
+    @Mock
+    private TweetStore tweetStore;
+
+    @Mock
+    private InFlightWriteLimiter inFlightWriteLimiter;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private ReceiverMetrics receiverMetrics = new ReceiverMetrics(meterRegistry);
+
+    // no retries, a failed write fails at once
+    @Spy
+    private WriteRetry writeRetry = new WriteRetry(0, 0, 0);
+
+    @InjectMocks
+    private KafkaBatchReceiver kafkaBatchReceiver;
+
+    @Captor
+    private ArgumentCaptor<List<TwitterUser>> twitterUsersCaptor;
+
+    private static final Date FIRST_DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    private static final Date SECOND_DATE = new Date(1698400800000L); // 2023-10-27T10:00:00Z
+
+    @BeforeEach
+    void stubLagUpdate() {
+        // the tests pass no consumer, so there are no fetch metrics to read
+        lenient().doNothing().when(receiverMetrics).updateLag(any());
+    }
+
+    private ConsumerRecord<Long, TwitterUser> record(long offset, String value) {
+        return record("testTopic", offset, value);
+    }
+
+    private ConsumerRecord<Long, TwitterUser> record(String topic, long offset, String value) {
+        return new ConsumerRecord<>(topic, 0, offset, null,
+                new TwitterUserDeserializer().deserialize(topic, value == null ? null : value.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private ConsumerRecord<Long, TwitterUser> binaryRecord(long offset, TwitterUser twitterUser) {
+        return binaryRecord("testTopic", offset, twitterUser);
+    }
+
+    /**
+     * A record in the binary wire format, the text format carries no tweet id.
+     */
+    private ConsumerRecord<Long, TwitterUser> binaryRecord(String topic, long offset, TwitterUser twitterUser) {
+        TwitterUserSerializer serializer = new TwitterUserSerializer();
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+        return new ConsumerRecord<>(topic, 0, offset, null,
+                new TwitterUserDeserializer().deserialize(topic, serializer.serialize(topic, twitterUser)));
+    }
+
+    private String createMessage(String date, String user, String text) {
+        return String.join(Constants.MESSAGE_DELIMITER, date, user, text);
+    }
+
+    @Test
+    void receiveBatch_validRecords_insertsAllInOneCall() {
+        List<ConsumerRecord<Long, TwitterUser>> records = Arrays.asList(
+                record(0, createMessage(FIRST_DATE.toString(), "user1", "first")),
+                record(1, createMessage(SECOND_DATE.toString(), "user2", "second")));
+
+        when(tweetStore.upsertAll(anyList())).thenReturn(Mono.just(2L));
+
+        kafkaBatchReceiver.receiveBatch(records, null);
+
+        verify(tweetStore, times(1)).upsertAll(twitterUsersCaptor.capture());
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
+        verify(inFlightWriteLimiter).acquire(eq(2), anyLong());
+        verify(inFlightWriteLimiter).release(eq(2), anyLong());
+
+        List<TwitterUser> inserted = twitterUsersCaptor.getValue();
+        assertEquals(2, inserted.size());
+        assertEquals(new TwitterUser(FIRST_DATE, "user1", "first"), inserted.get(0));
+        assertEquals(new TwitterUser(SECOND_DATE, "user2", "second"), inserted.get(1));
+    }
+
+    @Test
+    void receiveBatch_malformedRecords_areSkipped() {
+        List<ConsumerRecord<Long, TwitterUser>> records = Arrays.asList(
+                record(0, "date" + Constants.MESSAGE_DELIMITER + "user"),
+                record(1, createMessage(SECOND_DATE.toString(), "user2", "second")),
+                record(2, null));
+
+        when(tweetStore.upsertAll(anyList())).thenReturn(Mono.just(2L));
+
+        kafkaBatchReceiver.receiveBatch(records, null);
+
+        verify(tweetStore).upsertAll(twitterUsersCaptor.capture());
+        List<TwitterUser> inserted = twitterUsersCaptor.getValue();
+        assertEquals(1, inserted.size());
+        assertEquals("user2", inserted.get(0).getUserName());
+    }
+
+    @Test
+    void receiveBatch_onlyMalformedRecords_doesNotInsert() {
+        kafkaBatchReceiver.receiveBatch(Collections.singletonList(record(0, "")), null);
+
+        verify(tweetStore, never()).upsertAll(anyList());
+    }
+
+    @Test
+    void receiveBatch_insertFails_doesNotThrow() {
+        when(tweetStore.upsertAll(anyList()))
+                .thenReturn(Mono.error(new RuntimeException("DB error")));
+
+        // Errors from the reactive insert are handled in the subscriber and must not reach the container
+        kafkaBatchReceiver.receiveBatch(
+                Collections.singletonList(record(0, createMessage(FIRST_DATE.toString(), "user1", "first"))), null);
+
+        verify(tweetStore).upsertAll(anyList());
+        verify(inFlightWriteLimiter).release(eq(1), anyLong());
+    }
+
+    @Test
+    void receiveBatch_recordsReceivedParseFailuresAndWriteLatency() {
+        when(tweetStore.upsertAll(anyList())).thenReturn(Mono.error(new RuntimeException("DB error")));
+
+        kafkaBatchReceiver.receiveBatch(Arrays.asList(
+                record(0, createMessage(FIRST_DATE.toString(), "user1", "first")),
+                record(1, "")), null);
+
+        assertEquals(2, meterRegistry.find("tweets.received").counter().count());
+        assertEquals(1, meterRegistry.find("tweets.parse.failures").counter().count());
+        assertEquals(1, meterRegistry.find("tweets.write").tags("mode", "batch", "result", "failure").timer().count());
+    }
+
+    @Test
+    void receiveBatch_duplicateTweetIds_insertsEachTweetOnce() {
+        ReflectionTestUtils.setField(kafkaBatchReceiver, "tweetDeduplicator", new TweetDeduplicator(16, 60000));
+        TwitterUser first = new TwitterUser(FIRST_DATE, "user1", "first", 1L);
+        TwitterUser second = new TwitterUser(SECOND_DATE, "user2", "second", 2L);
+        when(tweetStore.upsertAll(anyList())).thenReturn(Mono.just(2L));
+
+        kafkaBatchReceiver.receiveBatch(Arrays.asList(binaryRecord(0, first), binaryRecord(1, second), binaryRecord(2, first)),
+                null);
+        kafkaBatchReceiver.receiveBatch(Collections.singletonList(binaryRecord(3, second)), null);
+
+        verify(tweetStore, times(1)).upsertAll(twitterUsersCaptor.capture());
+        assertEquals(2, (twitterUsersCaptor.getValue()).size());
+        verify(inFlightWriteLimiter, times(1)).acquire(eq(2), anyLong());
+    }
+
+    @Test
+    void receiveBatch_severalTopics_writesEachToTheStoreOfItsTopic() {
+        TweetStore javaStore = mock(TweetStore.class);
+        ReflectionTestUtils.setField(kafkaBatchReceiver, "topicTweetStores", new TopicTweetStores(
+                new ReceiverTopics("testTopic", "testTopic|tweets-.*", ""), tweetStore, "twitterUser",
+                "{collection}-{topic}", collection -> javaStore));
+        ReflectionTestUtils.setField(kafkaBatchReceiver, "tweetDeduplicator", new TweetDeduplicator(16, 60000));
+        TwitterUser tweet = new TwitterUser(FIRST_DATE, "user1", "#java", 1L);
+        when(tweetStore.upsertAll(anyList())).thenReturn(Mono.just(1L));
+        when(javaStore.upsertAll(anyList())).thenReturn(Mono.just(2L));
+
+        kafkaBatchReceiver.receiveBatch(Arrays.asList(binaryRecord("tweets-java", 0, tweet), binaryRecord(0, tweet),
+                record("tweets-java", 1, createMessage(SECOND_DATE.toString(), "user2", "#java"))), null);
+
+        verify(tweetStore, times(1)).upsertAll(twitterUsersCaptor.capture());
+        assertEquals(1, twitterUsersCaptor.getValue().size());
+        verify(javaStore, times(1)).upsertAll(twitterUsersCaptor.capture());
+        assertEquals(2, twitterUsersCaptor.getValue().size());
+    }
+}
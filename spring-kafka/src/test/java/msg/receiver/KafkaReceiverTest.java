@@ -1,14 +1,13 @@
 package msg.receiver;
 
 import msg.common.Constants;
+import msg.common.TwitterUserDeserializer;
+import msg.common.TwitterUserSerializer;
 import msg.model.TwitterUser;
-// Corrected import for the actual repository if it's in msg.repository
-// However, KafkaReceiver.java currently uses a type msg.receiver.TwitterUserRepository
-// For the test to compile against the current KafkaReceiver, this mock needs to match.
-// If KafkaReceiver is updated to use msg.repository.TwitterUserRepository, this test should also be updated.
-// For now, assuming msg.receiver.TwitterUserRepository as per current KafkaReceiver.java
-// import msg.repository.TwitterUserRepository; 
 
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.record.TimestampType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -17,9 +16,16 @@ import org.mockito.Captor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
+import org.mockito.Spy;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
 import reactor.core.publisher.Mono;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -28,46 +34,93 @@ import static org.junit.jupiter.api.Assertions.*;
 public class KafkaReceiverTest {
 
     @Mock
-    private TwitterUserRepository twitterUserRepository; // Using the type from msg.receiver
+    private TweetStore tweetStore;
+
+    @Mock
+    private InFlightWriteLimiter inFlightWriteLimiter;
+
+    @Mock
+    private OffsetCommitTracker offsetCommitTracker;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Spy
+    private ReceiverMetrics receiverMetrics = new ReceiverMetrics(meterRegistry);
+
+    // no retries, a failed write fails at once
+    @Spy
+    private WriteRetry writeRetry = new WriteRetry(0, 0, 0);
 
     @InjectMocks
     private KafkaReceiver kafkaReceiver;
 
     @Captor
     private ArgumentCaptor<TwitterUser> twitterUserCaptor;
+
+    private static final Date TEST_DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
     
+    @BeforeEach
+    void stubLagUpdate() {
+        // the tests pass no consumer, so there are no fetch metrics to read
+        lenient().doNothing().when(receiverMetrics).updateLag(any());
+    }
+
     // This is needed if not using @ExtendWith(MockitoExtension.class) or if constructor injection is not used for mocks
     // @BeforeEach
     // void setUp() {
     //     MockitoAnnotations.openMocks(this);
     // }
 
+    // Runs the raw message through the value deserializer the receiver is configured with
+    private ConsumerRecord<Long, TwitterUser> record(String message) {
+        return record(0L, message);
+    }
+
+    private ConsumerRecord<Long, TwitterUser> record(long offset, String message) {
+        return record(offset, message == null ? null : message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private ConsumerRecord<Long, TwitterUser> record(long offset, byte[] bytes) {
+        return new ConsumerRecord<>("testTopic", 0, offset, ConsumerRecord.NO_TIMESTAMP, TimestampType.NO_TIMESTAMP_TYPE,
+                ConsumerRecord.NULL_CHECKSUM, ConsumerRecord.NULL_SIZE, bytes == null ? ConsumerRecord.NULL_SIZE : bytes.length,
+                null, new TwitterUserDeserializer().deserialize("testTopic", bytes));
+    }
+
     private String createMessage(String date, String user, String text) {
         return String.join(Constants.MESSAGE_DELIMITER, date, user, text);
     }
 
+    /**
+     * A record in the binary wire format, the text format carries no tweet id.
+     */
+    private byte[] binaryMessage(TwitterUser twitterUser) {
+        TwitterUserSerializer serializer = new TwitterUserSerializer();
+        serializer.configure(Collections.singletonMap(TwitterUserSerializer.WIRE_FORMAT_CONFIG, "binary"), false);
+        return serializer.serialize("testTopic", twitterUser);
+    }
+
     @Test
     void receiveMsg_validMessage_savesUser() {
-        String testDate = "2023-10-26";
+        Date testDate = TEST_DATE;
         String testUser = "testUser";
         String testText = "Hello Kafka";
-        String message = createMessage(testDate, testUser, testText);
+        String message = createMessage(testDate.toString(), testUser, testText);
         
         TwitterUser mockTwitterUser = new TwitterUser(testDate, testUser, testText);
         // We can't easily mock the static TwitterUser.newInstance, so we rely on its actual behavior.
         // KafkaReceiver's internal call to TwitterUser.newInstance will create an actual TwitterUser object.
 
-        when(twitterUserRepository.save(any(TwitterUser.class))).thenReturn(Mono.empty());
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
 
-        kafkaReceiver.receiveMsg(message);
+        kafkaReceiver.receiveMsg(record(message), null);
 
-        verify(twitterUserRepository).save(twitterUserCaptor.capture());
+        verify(tweetStore).upsert(twitterUserCaptor.capture());
         TwitterUser capturedUser = twitterUserCaptor.getValue();
 
         assertNotNull(capturedUser);
-        assertEquals(testDate, capturedUser.getTime());
-        assertEquals(testUser, capturedUser.getUser());
-        assertEquals(testText, capturedUser.getText());
+        assertEquals(testDate, capturedUser.getDateTime());
+        assertEquals(testUser, capturedUser.getUserName());
+        assertEquals(testText, capturedUser.getTweetMessage());
         
         // Verify that subscribe was called on the Mono returned by save
         // This is a bit tricky. What we can verify is that save() itself was called.
@@ -81,38 +134,41 @@ public class KafkaReceiverTest {
     void receiveMsg_malformedMessage_tooFewParts_doesNotSave() {
         String message = "date" + Constants.MESSAGE_DELIMITER + "user";
 
-        kafkaReceiver.receiveMsg(message);
+        kafkaReceiver.receiveMsg(record(message), null);
 
         // Verify newInstance is not called (indirectly, by save not being called)
         // Verify save is not called
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
         // Logging verification is complex; we assume error logging happens based on code.
     }
 
     @Test
-    void receiveMsg_malformedMessage_tooManyParts_doesNotSave() {
-        String message = "date" + Constants.MESSAGE_DELIMITER + "user" + Constants.MESSAGE_DELIMITER + "text" + Constants.MESSAGE_DELIMITER + "extra";
+    void receiveMsg_delimiterInTweetText_keepsItInText() {
+        // Only the first two delimiters separate fields, the tweet text may contain the delimiter itself
+        String message = TEST_DATE + Constants.MESSAGE_DELIMITER + "user" + Constants.MESSAGE_DELIMITER + "text" + Constants.MESSAGE_DELIMITER + "extra";
 
-        kafkaReceiver.receiveMsg(message);
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
 
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        kafkaReceiver.receiveMsg(record(message), null);
+
+        verify(tweetStore).upsert(twitterUserCaptor.capture());
+        assertEquals("text" + Constants.MESSAGE_DELIMITER + "extra", twitterUserCaptor.getValue().getTweetMessage());
     }
     
     @Test
     void receiveMsg_nullMessage_doesNotSave() {
-        // StringUtils.split(null, *) returns null, so this covers null messages.
-        kafkaReceiver.receiveMsg(null);
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        // TwitterUserDeserializer returns null for null data, so this covers null messages.
+        kafkaReceiver.receiveMsg(record(null), null);
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
     }
 
     @Test
     void receiveMsg_emptyMessage_doesNotSave() {
-        String message = ""; // StringUtils.split("", DELIMITER) results in {""} - an array with one empty string.
-                             // This means parts.length will be 1, not 3.
+        String message = ""; // No delimiters at all, so TwitterUserDeserializer returns null.
 
-        kafkaReceiver.receiveMsg(message);
+        kafkaReceiver.receiveMsg(record(message), null);
 
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
     }
 
     @Test
@@ -140,8 +196,8 @@ public class KafkaReceiverTest {
         // Given `TwitterUser twitterUser = TwitterUser.newInstance(parts); if (twitterUser == null) { logger.error(...); return; }`
         // this test implicitly tests that `TwitterUser.newInstance` would return null for such input for save not to be called.
 
-        kafkaReceiver.receiveMsg(message);
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        kafkaReceiver.receiveMsg(record(message), null);
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
     }
     
     @Test
@@ -151,28 +207,27 @@ public class KafkaReceiverTest {
         // Similar to the above, if newInstance returns null for this, save won't be called.
         String message = "abc" + Constants.MESSAGE_DELIMITER + Constants.MESSAGE_DELIMITER + "def";
 
-        kafkaReceiver.receiveMsg(message);
+        kafkaReceiver.receiveMsg(record(message), null);
         // This assertion depends on TwitterUser.newInstance returning null for ["abc", "", "def"]
-        verify(twitterUserRepository, never()).save(any(TwitterUser.class));
+        verify(tweetStore, never()).upsert(any(TwitterUser.class));
     }
 
 
     @Test
     void receiveMsg_repositorySaveFails_logsError() {
-        String testDate = "2023-10-26";
         String testUser = "testUserFailure";
         String testText = "Save should fail";
-        String message = createMessage(testDate, testUser, testText);
+        String message = createMessage(TEST_DATE.toString(), testUser, testText);
 
-        when(twitterUserRepository.save(any(TwitterUser.class)))
+        when(tweetStore.upsert(any(TwitterUser.class)))
                 .thenReturn(Mono.error(new RuntimeException("DB error")));
 
-        kafkaReceiver.receiveMsg(message);
+        kafkaReceiver.receiveMsg(record(message), null);
 
-        verify(twitterUserRepository).save(twitterUserCaptor.capture());
+        verify(tweetStore).upsert(twitterUserCaptor.capture());
         TwitterUser capturedUser = twitterUserCaptor.getValue();
         assertNotNull(capturedUser);
-        assertEquals(testUser, capturedUser.getUser());
+        assertEquals(testUser, capturedUser.getUserName());
 
         // We expect an error to be logged by the .doOnError callback in KafkaReceiver.
         // Direct verification of SLF4J logs is complex in basic unit tests.
@@ -181,4 +236,184 @@ public class KafkaReceiverTest {
         // it might propagate or cause other issues, which this test doesn't cover directly.
         // However, the call to save() is verified.
     }
+
+    @Test
+    void receiveMsg_validMessage_releasesInFlightWriteWhenSaveCompletes() {
+        String message = createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka");
+
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(record(message), null);
+
+        long bytes = message.getBytes(StandardCharsets.UTF_8).length;
+        verify(inFlightWriteLimiter).acquire(1, bytes);
+        verify(inFlightWriteLimiter).release(1, bytes);
+    }
+
+    @Test
+    void receiveMsg_malformedMessage_doesNotAcquireInFlightWrite() {
+        kafkaReceiver.receiveMsg(record("date" + Constants.MESSAGE_DELIMITER + "user"), null);
+
+        verifyZeroInteractions(inFlightWriteLimiter);
+    }
+
+    @Test
+    void receiveMsg_saveSucceeds_completesTrackedRecord() {
+        ConsumerRecord<Long, TwitterUser> record = record(createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka"));
+
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(record, null);
+
+        verify(offsetCommitTracker).track(record);
+        verify(offsetCommitTracker).complete(record);
+    }
+
+    @Test
+    void receiveMsg_saveFails_doesNotCompleteTrackedRecord() {
+        ConsumerRecord<Long, TwitterUser> record = record(createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka"));
+
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")));
+
+        kafkaReceiver.receiveMsg(record, null);
+
+        verify(offsetCommitTracker).track(record);
+        verify(offsetCommitTracker, never()).complete(record);
+    }
+
+    @Test
+    void receiveMsg_saveFails_failsTrackedRecord() {
+        ConsumerRecord<Long, TwitterUser> record = record(createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka"));
+
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")));
+
+        kafkaReceiver.receiveMsg(record, null);
+
+        verify(offsetCommitTracker).fail(record);
+    }
+
+    @Test
+    void receiveMsg_saveFailsThenRetrySucceeds_commitAdvancesPastIt() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 60_000);
+        ReflectionTestUtils.setField(kafkaReceiver, "offsetCommitTracker", tracker);
+        ReflectionTestUtils.setField(kafkaReceiver, "writeRetry", new WriteRetry(3, 1, 1));
+        ConsumerRecord<Long, TwitterUser> failing = record(0, createMessage(TEST_DATE.toString(), "user1", "retried"));
+        ConsumerRecord<Long, TwitterUser> next = record(1, createMessage(TEST_DATE.toString(), "user2", "written"));
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")))
+                .thenReturn(Mono.just(failing.value()), Mono.just(next.value()));
+
+        kafkaReceiver.receiveMsg(failing, null);
+        kafkaReceiver.receiveMsg(next, null);
+
+        // the retry runs after its backoff, off the calling thread
+        verify(inFlightWriteLimiter, timeout(5000).times(2)).release(eq(1), anyLong());
+        verify(tweetStore, times(3)).upsert(any(TwitterUser.class));
+        TopicPartition partition = new TopicPartition("testTopic", 0);
+        assertEquals(2, tracker.committableOffsets(Collections.singleton(partition)).get(partition).offset());
+    }
+
+    @Test
+    void receiveMsg_malformedMessage_completesTrackedRecord() {
+        ConsumerRecord<Long, TwitterUser> record = record("date" + Constants.MESSAGE_DELIMITER + "user");
+
+        kafkaReceiver.receiveMsg(record, null);
+
+        verify(offsetCommitTracker).track(record);
+        verify(offsetCommitTracker).complete(record);
+    }
+
+    @Test
+    void receiveMsg_workerMode_savesOnWorkerAndCompletesTrackedRecord() throws InterruptedException {
+        KeyedWorkerPool keyedWorkerPool = new KeyedWorkerPool(2, 4, inFlightWriteLimiter);
+        ReflectionTestUtils.setField(kafkaReceiver, "keyedExecutor", keyedWorkerPool);
+        ConsumerRecord<Long, TwitterUser> record = record(createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka"));
+        String[] savingThread = new String[1];
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.fromCallable(() -> {
+            savingThread[0] = Thread.currentThread().getName();
+            return record.value();
+        }));
+
+        kafkaReceiver.receiveMsg(record, null);
+        keyedWorkerPool.shutdown();
+
+        assertTrue(savingThread[0].startsWith("tweet-writer-"));
+        verify(offsetCommitTracker).complete(record);
+        verify(inFlightWriteLimiter).release(eq(1), anyLong());
+    }
+
+    @Test
+    void receiveMsg_workerModeSaveFails_doesNotCompleteTrackedRecord() throws InterruptedException {
+        KeyedWorkerPool keyedWorkerPool = new KeyedWorkerPool(2, 4, inFlightWriteLimiter);
+        ReflectionTestUtils.setField(kafkaReceiver, "keyedExecutor", keyedWorkerPool);
+        ConsumerRecord<Long, TwitterUser> record = record(createMessage(TEST_DATE.toString(), "testUser", "Hello Kafka"));
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")));
+
+        kafkaReceiver.receiveMsg(record, null);
+        keyedWorkerPool.shutdown();
+
+        verify(offsetCommitTracker, never()).complete(record);
+        verify(inFlightWriteLimiter).release(eq(1), anyLong());
+    }
+
+    @Test
+    void receiveMsg_recordsReceivedParseFailuresAndWriteLatency() {
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(record(createMessage(TEST_DATE.toString(), "user", "text")), null);
+        kafkaReceiver.receiveMsg(record("date" + Constants.MESSAGE_DELIMITER + "user"), null);
+
+        assertEquals(2, meterRegistry.find("tweets.received").counter().count());
+        assertEquals(1, meterRegistry.find("tweets.parse.failures").counter().count());
+        assertEquals(1, meterRegistry.find("tweets.write").tags("mode", "single", "result", "success").timer().count());
+    }
+
+    @Test
+    void receiveMsg_duplicateTweetId_savesOnceAndCompletesDuplicate() {
+        ReflectionTestUtils.setField(kafkaReceiver, "tweetDeduplicator", new TweetDeduplicator(16, 60000));
+        byte[] message = binaryMessage(new TwitterUser(TEST_DATE, "testUser", "Hello Kafka", 42L));
+        ConsumerRecord<Long, TwitterUser> first = record(0L, message);
+        ConsumerRecord<Long, TwitterUser> duplicate = record(0L, message);
+        when(tweetStore.upsert(any(TwitterUser.class))).thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(first, null);
+        kafkaReceiver.receiveMsg(duplicate, null);
+
+        verify(tweetStore, times(1)).upsert(any(TwitterUser.class));
+        verify(inFlightWriteLimiter, times(1)).acquire(eq(1), anyLong());
+        verify(offsetCommitTracker).complete(duplicate);
+    }
+
+    @Test
+    void receiveMsg_saveFails_redeliveryIsSavedAgain() {
+        ReflectionTestUtils.setField(kafkaReceiver, "tweetDeduplicator", new TweetDeduplicator(16, 60000));
+        byte[] message = binaryMessage(new TwitterUser(TEST_DATE, "testUser", "Hello Kafka", 42L));
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")))
+                .thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(record(0L, message), null);
+        kafkaReceiver.receiveMsg(record(0L, message), null);
+
+        verify(tweetStore, times(2)).upsert(any(TwitterUser.class));
+    }
+
+    @Test
+    void receiveMsg_countsTrendsOnlyForWrittenTweets() {
+        TrendingAggregator trendingAggregator = new TrendingAggregator(new SlidingTopK(60000, 6, 10, 256, 4),
+                new SlidingTopK(60000, 6, 10, 256, 4), null, "trending", "test", 10000);
+        ReflectionTestUtils.setField(kafkaReceiver, "trendingAggregator", trendingAggregator);
+        when(tweetStore.upsert(any(TwitterUser.class)))
+                .thenReturn(Mono.error(new RuntimeException("DB error")))
+                .thenReturn(Mono.empty());
+
+        kafkaReceiver.receiveMsg(record(createMessage(TEST_DATE.toString(), "testUser", "#kafka fails")), null);
+        kafkaReceiver.receiveMsg(record(createMessage(TEST_DATE.toString(), "testUser", "#kafka works")), null);
+
+        assertEquals(1, trendingAggregator.getUsers().getTotal());
+        assertEquals(1, trendingAggregator.getHashtags().getTotal());
+    }
 }
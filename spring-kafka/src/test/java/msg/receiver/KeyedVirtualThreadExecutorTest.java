@@ -0,0 +1,132 @@
+package msg.receiver;
+
+import msg.common.BoundedVirtualThreadExecutor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class KeyedVirtualThreadExecutorTest {
+
+    private final InFlightWriteLimiter inFlightWriteLimiter = mock(InFlightWriteLimiter.class);
+
+    private final KeyedVirtualThreadExecutor executor = new KeyedVirtualThreadExecutor(
+            new BoundedVirtualThreadExecutor("test-writer-", 4), inFlightWriteLimiter);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        executor.shutdown();
+    }
+
+    @Test
+    void execute_sameKey_runsInSubmissionOrder() throws InterruptedException {
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(50);
+
+        for (int i = 0; i < 50; i++) {
+            int sequence = i;
+            executor.execute(7L, () -> {
+                if (sequence % 5 == 0) {
+                    sleep(2); // a slow write must not let later writes of the key overtake it
+                }
+                executed.add(sequence);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 50; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+    }
+
+    @Test
+    void execute_slowKey_doesNotHoldUpOtherKeys() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+
+        executor.execute(1L, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        executor.execute(2L, otherDone::countDown);
+
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void execute_allTasksDone_forgetsKeys() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(3);
+        for (long key = 0; key < 3; key++) {
+            executor.execute(key, done::countDown);
+        }
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 100 && executor.getActiveKeys() > 0; i++) {
+            sleep(10);
+        }
+        assertEquals(0, executor.getActiveKeys());
+    }
+
+    @Test
+    void execute_atMaxConcurrency_doesNotBlockAndPausesUntilTasksDrain() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(6);
+
+        // one slow user fills the limit with waiting tasks, and further submissions still return
+        Thread listener = new Thread(() -> {
+            for (int i = 0; i < 6; i++) {
+                executor.execute(1L, () -> {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                });
+            }
+        });
+        listener.start();
+        listener.join(5000);
+
+        assertFalse(listener.isAlive());
+        assertEquals(6, executor.getPendingTasks());
+        verify(inFlightWriteLimiter, times(1)).setBacklogged(true);
+        verify(inFlightWriteLimiter, never()).setBacklogged(false);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        verify(inFlightWriteLimiter, timeout(5000)).setBacklogged(false);
+    }
+
+    @Test
+    void execute_belowMaxConcurrency_doesNotPause() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            executor.execute((long) i, done::countDown);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+
+        verify(inFlightWriteLimiter, never()).setBacklogged(true);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
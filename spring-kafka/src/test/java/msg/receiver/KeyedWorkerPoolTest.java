@@ -0,0 +1,111 @@
+package msg.receiver;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class KeyedWorkerPoolTest {
+
+    private final InFlightWriteLimiter inFlightWriteLimiter = mock(InFlightWriteLimiter.class);
+
+    private final KeyedWorkerPool pool = new KeyedWorkerPool(4, 2, inFlightWriteLimiter);
+
+    @AfterEach
+    void tearDown() throws InterruptedException {
+        pool.shutdown();
+    }
+
+    @Test
+    void execute_sameKey_runsInSubmissionOrder() throws InterruptedException {
+        List<Integer> executed = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(100);
+
+        for (int i = 0; i < 100; i++) {
+            int sequence = i;
+            pool.execute(42L, () -> {
+                executed.add(sequence);
+                done.countDown();
+            });
+        }
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, executed.get(i).intValue());
+        }
+    }
+
+    @Test
+    void execute_keysOnDifferentWorkers_runInParallel() throws InterruptedException {
+        Long blockedKey = 1L;
+        Long otherKey = 2L;
+        assertNotEquals(KeyedWorkerPool.workerIndex(blockedKey, 4), KeyedWorkerPool.workerIndex(otherKey, 4));
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch otherDone = new CountDownLatch(1);
+
+        pool.execute(blockedKey, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        pool.execute(otherKey, otherDone::countDown);
+
+        assertTrue(otherDone.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    @Test
+    void execute_fullQueue_doesNotBlockAndPausesUntilWorkerCatchesUp() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(5);
+
+        // one running task and then the queue of key 1 fills up and overflows without blocking
+        for (int i = 0; i < 5; i++) {
+            pool.execute(1L, () -> {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                done.countDown();
+            });
+        }
+
+        assertTrue(pool.getQueuedTasks() >= 3);
+        verify(inFlightWriteLimiter, times(1)).setBacklogged(true);
+        verify(inFlightWriteLimiter, never()).setBacklogged(false);
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        verify(inFlightWriteLimiter, timeout(5000)).setBacklogged(false);
+    }
+
+    @Test
+    void execute_queueBelowCapacity_doesNotPause() throws InterruptedException {
+        for (int i = 0; i < 10; i++) {
+            CountDownLatch done = new CountDownLatch(1);
+            pool.execute(1L, done::countDown);
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+
+        verify(inFlightWriteLimiter, never()).setBacklogged(true);
+    }
+
+    @Test
+    void workerIndex_nullKey_isValid() {
+        assertEquals(0, KeyedWorkerPool.workerIndex(null, 4));
+        for (long key = -50; key < 50; key++) {
+            int index = KeyedWorkerPool.workerIndex(key, 3);
+            assertTrue(index >= 0 && index < 3);
+        }
+    }
+}
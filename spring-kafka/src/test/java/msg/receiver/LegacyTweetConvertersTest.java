@@ -0,0 +1,56 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.convert.DbRefResolver;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+
+public class LegacyTweetConvertersTest {
+
+    private static final Date DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    private MappingMongoConverter converter;
+
+    @BeforeEach
+    void setUp() {
+        MongoCustomConversions conversions = new MongoCustomConversions(LegacyTweetConverters.all());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        mappingContext.afterPropertiesSet();
+        converter = new MappingMongoConverter(mock(DbRefResolver.class), mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+    }
+
+    @Test
+    void read_legacyDocument_parsesDateWithoutTweetId() {
+        Document legacy = new Document("_id", new ObjectId())
+                .append("dateTime", DATE.toString())
+                .append("userName", "testUser")
+                .append("tweetMessage", "Hello Kafka");
+
+        assertEquals(new TwitterUser(DATE, "testUser", "Hello Kafka"), converter.read(TwitterUser.class, legacy));
+    }
+
+    @Test
+    void read_currentDocument_isUnchanged() {
+        TwitterUser twitterUser = new TwitterUser(DATE, "testUser", "Hello Kafka", 42L, 7L);
+        Document document = new Document();
+        converter.write(twitterUser, document);
+
+        assertEquals(42L, document.get("_id"));
+        assertTrue(document.get("dateTime") instanceof Date);
+        assertEquals(twitterUser, converter.read(TwitterUser.class, document));
+    }
+}
@@ -0,0 +1,203 @@
+package msg.receiver;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.OffsetAndMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.mockito.Mockito.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(MockitoExtension.class)
+public class OffsetCommitTrackerTest {
+
+    private static final TopicPartition PARTITION_0 = new TopicPartition("testTopic", 0);
+    private static final TopicPartition PARTITION_1 = new TopicPartition("testTopic", 1);
+
+    @Mock
+    private Consumer<Integer, String> consumer;
+
+    private ConsumerRecord<Integer, String> record(int partition, long offset) {
+        return new ConsumerRecord<>("testTopic", partition, offset, null, "message");
+    }
+
+    @Test
+    void committableOffsets_onlyAdvancesOverContiguousCompletedOffsets() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 60_000);
+        tracker.track(record(0, 10));
+        tracker.track(record(0, 11));
+        tracker.track(record(0, 12));
+
+        tracker.complete(record(0, 11));
+        tracker.complete(record(0, 12));
+        assertTrue(tracker.committableOffsets(Collections.singleton(PARTITION_0)).isEmpty());
+
+        tracker.complete(record(0, 10));
+        Map<TopicPartition, OffsetAndMetadata> offsets = tracker.committableOffsets(Collections.singleton(PARTITION_0));
+        assertEquals(13, offsets.get(PARTITION_0).offset());
+    }
+
+    @Test
+    void committableOffsets_tracksPartitionsIndependently() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 60_000);
+        tracker.track(record(0, 5));
+        tracker.track(record(1, 7));
+        tracker.track(record(1, 8));
+
+        tracker.complete(record(1, 7));
+
+        Map<TopicPartition, OffsetAndMetadata> offsets =
+                tracker.committableOffsets(Arrays.asList(PARTITION_0, PARTITION_1));
+        assertFalse(offsets.containsKey(PARTITION_0));
+        assertEquals(8, offsets.get(PARTITION_1).offset());
+    }
+
+    @Test
+    void committableOffsets_notReturnedTwice() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 60_000);
+        tracker.track(record(0, 0));
+        tracker.complete(record(0, 0));
+
+        assertEquals(1, tracker.committableOffsets(Collections.singleton(PARTITION_0)).size());
+        assertTrue(tracker.committableOffsets(Collections.singleton(PARTITION_0)).isEmpty());
+    }
+
+    @Test
+    void commitIfDue_belowThresholds_doesNotCommit() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(2, 60_000);
+        tracker.track(record(0, 0));
+        tracker.complete(record(0, 0));
+
+        tracker.commitIfDue(consumer);
+
+        verifyZeroInteractions(consumer);
+    }
+
+    @Test
+    void commitIfDue_countReached_commitsAsynchronously() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(2, 60_000);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION_0));
+        tracker.track(record(0, 0));
+        tracker.track(record(0, 1));
+        tracker.complete(record(0, 0));
+        tracker.complete(record(0, 1));
+
+        tracker.commitIfDue(consumer);
+
+        verify(consumer).commitAsync(
+                eq(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(2))), any());
+    }
+
+    @Test
+    void commitIfDue_intervalElapsed_commitsAsynchronously() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 0);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION_0));
+        tracker.track(record(0, 3));
+        tracker.complete(record(0, 3));
+
+        tracker.commitIfDue(consumer);
+
+        verify(consumer).commitAsync(
+                eq(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(4))), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void commitIfDue_twoConsumersSharingTheTracker_countAndCommitTheirOwnPartitions() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(2, 60_000);
+        Consumer<Integer, String> other = mock(Consumer.class);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION_0));
+        when(other.assignment()).thenReturn(Collections.singleton(PARTITION_1));
+        tracker.track(record(0, 0));
+        tracker.track(record(0, 1));
+        tracker.track(record(1, 0));
+        tracker.track(record(1, 1));
+        tracker.complete(record(1, 0));
+        tracker.complete(record(0, 0));
+        tracker.complete(record(0, 1));
+
+        // the count of partition 1 is not reached, and the busy consumer's completions do not commit it
+        tracker.commitIfDue(other);
+        verify(other, never()).commitAsync(anyMap(), any());
+
+        tracker.commitIfDue(consumer);
+        verify(consumer).commitAsync(
+                eq(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(2))), any());
+
+        // the commit of partition 0 did not restart the count of partition 1
+        tracker.complete(record(1, 1));
+        tracker.commitIfDue(other);
+        verify(other).commitAsync(
+                eq(Collections.singletonMap(PARTITION_1, new OffsetAndMetadata(2))), any());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void commitIfDue_intervalElapsed_commitsEachConsumerOnItsOwnTimer() throws InterruptedException {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 50);
+        Consumer<Integer, String> other = mock(Consumer.class);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION_0));
+        when(other.assignment()).thenReturn(Collections.singleton(PARTITION_1));
+        tracker.track(record(0, 0));
+        tracker.track(record(1, 0));
+        tracker.complete(record(0, 0));
+        tracker.complete(record(1, 0));
+        Thread.sleep(60);
+
+        tracker.commitIfDue(consumer);
+        tracker.commitIfDue(other);
+
+        verify(consumer).commitAsync(
+                eq(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(1))), any());
+        verify(other).commitAsync(
+                eq(Collections.singletonMap(PARTITION_1, new OffsetAndMetadata(1))), any());
+    }
+
+    @Test
+    void onPartitionsRevokedBeforeCommit_commitsSynchronouslyAndForgetsPartition() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 60_000);
+        tracker.track(record(0, 0));
+        tracker.track(record(0, 1));
+        tracker.complete(record(0, 0));
+
+        tracker.onPartitionsRevokedBeforeCommit(consumer, Collections.singleton(PARTITION_0));
+
+        verify(consumer).commitSync(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(1)));
+        tracker.complete(record(0, 1));
+        assertTrue(tracker.committableOffsets(Collections.singleton(PARTITION_0)).isEmpty());
+    }
+
+    @Test
+    void commitIfDue_failedRecord_seeksBackAndHoldsCommitUntilRedeliveryCompletes() {
+        OffsetCommitTracker tracker = new OffsetCommitTracker(100, 0);
+        when(consumer.assignment()).thenReturn(Collections.singleton(PARTITION_0));
+        tracker.track(record(0, 0));
+        tracker.track(record(0, 1));
+        tracker.track(record(0, 2));
+        tracker.complete(record(0, 0));
+        tracker.fail(record(0, 1));
+        tracker.complete(record(0, 2));
+
+        tracker.commitIfDue(consumer);
+
+        verify(consumer).seek(PARTITION_0, 1);
+        verify(consumer).commitAsync(
+                eq(Collections.singletonMap(PARTITION_0, new OffsetAndMetadata(1))), any());
+
+        // redelivered from the failed offset on
+        tracker.track(record(0, 1));
+        tracker.track(record(0, 2));
+        tracker.complete(record(0, 1));
+        tracker.complete(record(0, 2));
+
+        assertEquals(3, tracker.committableOffsets(Collections.singleton(PARTITION_0)).get(PARTITION_0).offset());
+    }
+}
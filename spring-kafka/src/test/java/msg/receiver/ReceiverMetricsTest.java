@@ -0,0 +1,117 @@
+package msg.receiver;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class ReceiverMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final ReceiverMetrics receiverMetrics = new ReceiverMetrics(meterRegistry);
+
+    private static MetricName fetchMetric(String name, Map<String, String> tags) {
+        return new MetricName(name, ReceiverMetrics.FETCH_METRICS_GROUP, "", tags);
+    }
+
+    private static Metric metric(MetricName name, double value) {
+        Metric metric = mock(Metric.class);
+        when(metric.metricValue()).thenReturn(value);
+        return metric;
+    }
+
+    @Test
+    void lagPartition_readsBothMetricNamingSchemes() {
+        assertEquals(new TopicPartition("tweets-en", 3),
+                ReceiverMetrics.lagPartition(fetchMetric("tweets-en-3.records-lag", Collections.emptyMap())));
+
+        Map<String, String> tags = new HashMap<>();
+        tags.put("topic", "tweets");
+        tags.put("partition", "1");
+        assertEquals(new TopicPartition("tweets", 1), ReceiverMetrics.lagPartition(fetchMetric("records-lag", tags)));
+
+        assertNull(ReceiverMetrics.lagPartition(fetchMetric("records-lag-max", Collections.emptyMap())));
+        assertNull(ReceiverMetrics.lagPartition(
+                new MetricName("tweets-3.records-lag", "other-metrics", "", Collections.emptyMap())));
+    }
+
+    @Test
+    void updateLag_publishesLagPerPartition() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        MetricName lag0 = fetchMetric("tweets-0.records-lag", Collections.emptyMap());
+        MetricName lag1 = fetchMetric("tweets-1.records-lag", Collections.emptyMap());
+        Map<MetricName, Metric> metrics = new HashMap<>();
+        metrics.put(lag0, metric(lag0, 42.0));
+        metrics.put(lag1, metric(lag1, Double.NaN));
+        doReturn(metrics).when(consumer).metrics();
+
+        receiverMetrics.updateLag(consumer);
+
+        assertEquals(42.0, meterRegistry.find("kafka.consumer.lag").tags("topic", "tweets", "partition", "0")
+                .gauge().value());
+        // no fetch yet for partition 1
+        assertNull(meterRegistry.find("kafka.consumer.lag").tags("partition", "1").gauge());
+    }
+
+    @Test
+    void partitionsRevoked_zeroesTheirLag() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        MetricName lag0 = fetchMetric("tweets-0.records-lag", Collections.emptyMap());
+        MetricName lag1 = fetchMetric("tweets-1.records-lag", Collections.emptyMap());
+        Map<MetricName, Metric> metrics = new HashMap<>();
+        metrics.put(lag0, metric(lag0, 42.0));
+        metrics.put(lag1, metric(lag1, 7.0));
+        doReturn(metrics).when(consumer).metrics();
+        receiverMetrics.updateLag(consumer);
+
+        receiverMetrics.partitionsRevoked(Collections.singletonList(new TopicPartition("tweets", 0)));
+
+        assertEquals(0.0, meterRegistry.find("kafka.consumer.lag").tags("partition", "0").gauge().value());
+        assertEquals(7.0, meterRegistry.find("kafka.consumer.lag").tags("partition", "1").gauge().value());
+    }
+
+    @Test
+    void updateLag_readsMetricsAtMostOncePerSecond() {
+        Consumer<?, ?> consumer = mock(Consumer.class);
+        doReturn(Collections.emptyMap()).when(consumer).metrics();
+
+        receiverMetrics.updateLag(consumer);
+        receiverMetrics.updateLag(consumer);
+
+        verify(consumer, times(1)).metrics();
+    }
+
+    @Test
+    void timeWrite_timesFromSubscription() {
+        Mono<String> write = receiverMetrics.timeWrite(Mono.just("saved"), "single");
+        assertNull(meterRegistry.find("tweets.write").timer());
+
+        assertEquals("saved", write.block());
+        assertThrows(RuntimeException.class,
+                () -> receiverMetrics.timeWrite(Mono.error(new RuntimeException("DB error")), "single").block());
+
+        assertEquals(1, meterRegistry.find("tweets.write").tags("result", "success").timer().count());
+        assertEquals(1, meterRegistry.find("tweets.write").tags("result", "failure").timer().count());
+    }
+
+    @Test
+    void received_countsRecords() {
+        receiverMetrics.received(3);
+        receiverMetrics.parseFailed();
+
+        assertEquals(3, meterRegistry.find("tweets.received").counter().count());
+        assertEquals(1, meterRegistry.find("tweets.parse.failures").counter().count());
+    }
+}
@@ -0,0 +1,58 @@
+package msg.receiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReceiverTopicsTest {
+
+    @Test
+    void withoutPattern_subscribesToTheDefaultTopic() {
+        ReceiverTopics topics = new ReceiverTopics("darsan", "", "");
+
+        assertArrayEquals(new String[] {"darsan"}, topics.getListenerTopics());
+        assertNull(topics.getListenerPattern());
+        assertTrue(topics.consumes("darsan"));
+        assertFalse(topics.consumes("tweets-java"));
+    }
+
+    @Test
+    void withPattern_leavesDedicatedTopicsToTheirListeners() {
+        ReceiverTopics topics = new ReceiverTopics("darsan", "darsan|tweets-.*", "tweets-java:auto, tweets-kafka:4");
+
+        assertEquals(0, topics.getListenerTopics().length);
+        assertTrue(topics.getListenerPattern().matcher("tweets-python").matches());
+        assertTrue(topics.getListenerPattern().matcher("darsan").matches());
+        assertFalse(topics.getListenerPattern().matcher("tweets-java").matches());
+        assertFalse(topics.getListenerPattern().matcher("tweets-kafka").matches());
+        assertTrue(topics.getListenerPattern().matcher("tweets-javascript").matches());
+
+        Map<String, String> dedicated = new LinkedHashMap<>();
+        dedicated.put("tweets-java", ReceiverTopics.AUTO);
+        dedicated.put("tweets-kafka", "4");
+        assertEquals(dedicated, topics.getDedicatedTopics());
+        assertTrue(topics.consumes("tweets-java"));
+        assertFalse(topics.consumes("other"));
+    }
+
+    @Test
+    void invalidConcurrency_fails() {
+        assertThrows(IllegalArgumentException.class, () -> new ReceiverTopics("darsan", "", "tweets-java"));
+        assertThrows(IllegalArgumentException.class, () -> new ReceiverTopics("darsan", "", "tweets-java:0"));
+        assertThrows(IllegalArgumentException.class, () -> new ReceiverTopics("darsan", "", "darsan:2"));
+    }
+
+    @Test
+    void missingOrNonNumericThreads_failWithTheEntry() {
+        for (String entry : new String[] {"tweets-java:", "tweets-java:many", ":2"}) {
+            IllegalArgumentException e = assertThrows(IllegalArgumentException.class,
+                    () -> new ReceiverTopics("darsan", "tweets-.*", entry));
+            assertFalse(e instanceof NumberFormatException);
+            assertEquals("Expected topic:threads in kafka.consumer.topic.concurrency but got '" + entry + "'",
+                    e.getMessage());
+        }
+    }
+}
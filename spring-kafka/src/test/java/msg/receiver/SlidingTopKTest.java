@@ -0,0 +1,68 @@
+package msg.receiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SlidingTopKTest {
+
+    private static final long NOW = 1698314400000L; // start of a minute
+
+    private static final long MINUTE = 60_000L;
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    @Test
+    void top_returnsTheMostFrequentKeysFirst() {
+        SlidingTopK topK = new SlidingTopK(3 * MINUTE, 3, 2, 1024, 4, clock::get);
+        add(topK, "java", 5);
+        add(topK, "python", 3);
+        add(topK, "kafka", 1);
+
+        assertEquals(Arrays.asList(new SlidingTopK.Count("java", 5), new SlidingTopK.Count("python", 3)), topK.top());
+        assertEquals(9, topK.getTotal());
+    }
+
+    @Test
+    void add_keyOvertakingTheLeastFrequentTopKeyReplacesIt() {
+        SlidingTopK topK = new SlidingTopK(3 * MINUTE, 3, 2, 1024, 4, clock::get);
+        add(topK, "java", 5);
+        add(topK, "python", 2);
+        add(topK, "kafka", 3);
+
+        assertEquals(Arrays.asList(new SlidingTopK.Count("java", 5), new SlidingTopK.Count("kafka", 3)), topK.top());
+    }
+
+    @Test
+    void top_dropsTheCountsOfSlicesThatLeftTheWindow() {
+        SlidingTopK topK = new SlidingTopK(3 * MINUTE, 3, 2, 1024, 4, clock::get);
+        add(topK, "java", 5);
+        clock.set(NOW + MINUTE);
+        add(topK, "python", 2);
+        add(topK, "java", 1);
+
+        clock.set(NOW + 3 * MINUTE);
+        assertEquals(Arrays.asList(new SlidingTopK.Count("python", 2), new SlidingTopK.Count("java", 1)), topK.top());
+        assertEquals(NOW + MINUTE, topK.getWindowStart());
+
+        clock.set(NOW + 10 * MINUTE);
+        assertEquals(Collections.emptyList(), topK.top());
+        assertEquals(0, topK.getTotal());
+    }
+
+    @Test
+    void constructor_rejectsInvalidSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new SlidingTopK(MINUTE, 0, 10, 1024, 4, clock::get));
+        assertThrows(IllegalArgumentException.class, () -> new SlidingTopK(MINUTE, 6, 0, 1024, 4, clock::get));
+    }
+
+    private static void add(SlidingTopK topK, String key, int times) {
+        for (int i = 0; i < times; i++) {
+            topK.add(key);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package msg.receiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class TopicTweetStoresTest {
+
+    private final TweetStore defaultStore = mock(TweetStore.class);
+
+    private final List<String> collections = new ArrayList<>();
+
+    private final List<Runnable> indexTasks = new ArrayList<>();
+
+    private final TopicTweetStores stores = new TopicTweetStores(
+            new ReceiverTopics("darsan", "darsan|tweets-.*", ""), defaultStore, "twitterUser",
+            "{collection}-{topic}", collection -> {
+                collections.add(collection);
+                return mock(TweetStore.class);
+            }, indexTasks::add);
+
+    @Test
+    void forTopic_defaultTopic_usesTheDefaultStore() {
+        assertSame(defaultStore, stores.forTopic("darsan"));
+        assertTrue(collections.isEmpty());
+    }
+
+    @Test
+    void forTopic_otherTopic_createsItsStoreOnce() {
+        TweetStore java = stores.forTopic("tweets-java");
+
+        assertSame(java, stores.forTopic("tweets-java"));
+        assertNotSame(java, stores.forTopic("tweets-kafka"));
+        assertEquals(2, collections.size());
+        assertEquals("twitterUser-tweets-java", collections.get(0));
+    }
+
+    @Test
+    void forTopic_otherTopic_ensuresIndexesOffTheCallingThread() {
+        TweetStore java = stores.forTopic("tweets-java");
+        stores.forTopic("tweets-java");
+
+        verify(java, never()).ensureIndexes();
+        assertEquals(1, indexTasks.size());
+        indexTasks.get(0).run();
+        verify(java).ensureIndexes();
+    }
+
+    @Test
+    void existing_onlyReturnsStoresCreatedByTheListeners() {
+        assertSame(defaultStore, stores.existing("darsan"));
+        assertNull(stores.existing("tweets-java"));
+        assertNull(stores.existing("other"));
+
+        TweetStore java = stores.forTopic("tweets-java");
+
+        assertSame(java, stores.existing("tweets-java"));
+        assertEquals(1, collections.size());
+    }
+
+    @Test
+    void forTopic_topicNotConsumed_fails() {
+        assertThrows(IllegalArgumentException.class, () -> stores.forTopic("other"));
+        assertTrue(collections.isEmpty());
+    }
+}
@@ -0,0 +1,96 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+
+import com.mongodb.bulk.BulkWriteResult;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.WriteModel;
+import com.mongodb.reactivestreams.client.MongoCollection;
+import reactor.core.publisher.Mono;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TrendingAggregatorTest {
+
+    private static final long NOW = 1698314400000L;
+
+    @Mock
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Mock
+    private MongoCollection<Document> collection;
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    private TrendingAggregator aggregator;
+
+    @BeforeEach
+    void setUp() {
+        aggregator = new TrendingAggregator(new SlidingTopK(60_000L, 6, 10, 256, 4, clock::get),
+                new SlidingTopK(60_000L, 6, 10, 256, 4, clock::get), reactiveMongoTemplate, "trending",
+                "receiver-1", 10_000L);
+    }
+
+    @Test
+    void add_countsTheUserAndEachHashtagOnce() {
+        aggregator.add(new TwitterUser(new Date(NOW), "user1", "#Java and #java, #kafka", 1L));
+        aggregator.add(new TwitterUser(new Date(NOW), "user1", "more #java", 2L));
+
+        assertEquals(Arrays.asList(new SlidingTopK.Count("java", 2), new SlidingTopK.Count("kafka", 1)),
+                aggregator.getHashtags().top());
+        assertEquals(Arrays.asList(new SlidingTopK.Count("user1", 2)), aggregator.getUsers().top());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void flush_replacesTheDocumentsOfThisReceiverInOneBulkWrite() {
+        aggregator.add(new TwitterUser(new Date(NOW), "user1", "#java", 1L));
+        ArgumentCaptor<List<WriteModel<Document>>> models = ArgumentCaptor.forClass(List.class);
+        when(reactiveMongoTemplate.getCollection("trending")).thenReturn(collection);
+        when(collection.bulkWrite(models.capture(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.just(BulkWriteResult.unacknowledged()));
+
+        aggregator.flush().block();
+
+        assertEquals(2, models.getValue().size());
+        Document hashtags = ((ReplaceOneModel<Document>) models.getValue().get(0)).getReplacement();
+        assertTrue(((ReplaceOneModel<Document>) models.getValue().get(0)).getOptions().isUpsert());
+        assertEquals("hashtags/receiver-1", hashtags.get("_id"));
+        assertEquals("hashtags", hashtags.get("kind"));
+        assertEquals(1L, hashtags.get("total"));
+        assertEquals(new Date(NOW - 50_000L), hashtags.get("windowStart"));
+        assertEquals(Arrays.asList(new Document("key", "java").append("count", 1L)), hashtags.get("top"));
+        Document users = ((ReplaceOneModel<Document>) models.getValue().get(1)).getReplacement();
+        assertEquals("users/receiver-1", users.get("_id"));
+    }
+
+    @Test
+    void flush_failureDoesNotThrowOutOfStop() throws InterruptedException {
+        when(reactiveMongoTemplate.getCollection("trending")).thenReturn(collection);
+        when(collection.bulkWrite(anyList(), any(BulkWriteOptions.class)))
+                .thenReturn(Mono.error(new IllegalStateException("down")));
+
+        aggregator.stop();
+
+        verify(collection).bulkWrite(anyList(), any(BulkWriteOptions.class));
+    }
+}
@@ -0,0 +1,155 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetCacheTest {
+
+    private static final long NOW = 1698314400000L;
+
+    private static final long TTL = 60_000L;
+
+    private static final Date END = new Date(Long.MAX_VALUE);
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+
+    private TweetCache cache;
+
+    @BeforeEach
+    void setUp() {
+        cache = new TweetCache(100, 1 << 20, TTL, clock::get);
+    }
+
+    @Test
+    void find_returnsCachedTweetsOfTheUserOldestFirst() {
+        cache.add(tweet(2L, NOW, "user1", "later"));
+        cache.add(tweet(1L, NOW - 10, "user1", "earlier"));
+        cache.add(tweet(3L, NOW, "user2", "other user"));
+
+        List<TwitterUser> found = cache.findByUserName("user1", new Date(NOW), END, null, 10);
+
+        assertEquals(Collections.singletonList(2L), ids(found));
+        assertEquals(1, cache.getHits());
+        assertEquals(0, cache.getMisses());
+    }
+
+    @Test
+    void find_missesForUnknownKeysAndQueriesStartingBeforeTheEntry() {
+        cache.add(tweet(1L, NOW, "user1", "text"));
+
+        assertNull(cache.findByUserName("user2", new Date(NOW), END, null, 10));
+        assertNull(cache.findByUserName("user1", new Date(NOW - 1), END, null, 10));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    void find_coversTheWholeTtlOnceTheEntryIsThatOld() {
+        cache.add(tweet(1L, NOW, "user1", "text"));
+        clock.set(NOW + 2 * TTL);
+        cache.add(tweet(2L, NOW + 2 * TTL, "user1", "text"));
+
+        List<TwitterUser> found = cache.findByUserName("user1", new Date(NOW + TTL), END, null, 10);
+
+        assertEquals(Collections.singletonList(2L), ids(found));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void add_ignoresExpiredAndDuplicateTweets() {
+        cache.add(tweet(1L, NOW - TTL - 1, "user1", "too old"));
+        cache.add(tweet(2L, NOW, "user1", "text"));
+        cache.add(tweet(2L, NOW, "user1", "text"));
+        cache.add(new TwitterUser(new Date(NOW), "user1", "no id"));
+
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void find_pagesAfterTheCursorUpToLimitAndEnd() {
+        for (long id = 1; id <= 5; id++) {
+            cache.add(tweet(id, NOW + id / 2, "user1", "text"));
+        }
+
+        List<TwitterUser> first = cache.findByUserName("user1", new Date(NOW), END, null, 2);
+        List<TwitterUser> second = cache.findByUserName("user1", new Date(NOW), END,
+                TweetCursor.after(first.get(1)), 2);
+        List<TwitterUser> bounded = cache.findByUserName("user1", new Date(NOW), new Date(NOW + 2), null, 10);
+
+        assertEquals(Arrays.asList(1L, 2L), ids(first));
+        assertEquals(Arrays.asList(3L, 4L), ids(second));
+        assertEquals(Arrays.asList(1L, 2L, 3L), ids(bounded));
+    }
+
+    @Test
+    void invalidate_removesTheTweet() {
+        cache.add(tweet(1L, NOW, "user1", "#kafka"));
+        cache.add(tweet(2L, NOW, "user1", "#kafka"));
+
+        cache.invalidate(1L);
+        cache.invalidate(42L);
+
+        assertEquals(Collections.singletonList(2L), ids(cache.findByUserName("user1", new Date(NOW), END, null, 10)));
+        assertEquals(1, cache.getSize());
+    }
+
+    @Test
+    void add_evictsTheLeastRecentlyUsedEntryOverMaxEntries() {
+        cache = new TweetCache(2, 1 << 20, TTL, clock::get);
+        cache.add(tweet(1L, NOW, "user1", "text"));
+        cache.add(tweet(2L, NOW, "user2", "text"));
+        cache.findByUserName("user1", new Date(NOW), END, null, 10);
+
+        cache.add(tweet(3L, NOW, "user3", "text"));
+
+        assertNotNull(cache.findByUserName("user1", new Date(NOW), END, null, 10));
+        assertNull(cache.findByUserName("user2", new Date(NOW), END, null, 10));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.getSize());
+    }
+
+    @Test
+    void add_evictsOverMaxBytes() {
+        TweetCache sizing = new TweetCache(100, 1 << 20, TTL, clock::get);
+        sizing.add(tweet(1L, NOW, "user1", "text"));
+        long bytesPerTweet = sizing.getBytes();
+        cache = new TweetCache(100, 2 * bytesPerTweet, TTL, clock::get);
+
+        cache.add(tweet(1L, NOW, "user1", "text"));
+        cache.add(tweet(2L, NOW, "user2", "text"));
+        cache.add(tweet(3L, NOW, "user3", "text"));
+
+        assertEquals(2 * bytesPerTweet, cache.getBytes());
+        assertNull(cache.findByUserName("user1", new Date(NOW), END, null, 10));
+        assertEquals(1, cache.getEvictions());
+    }
+
+    @Test
+    void clear_dropsAllEntries() {
+        cache.add(tweet(1L, NOW, "user1", "#kafka"));
+
+        cache.clear();
+
+        assertNull(cache.findByUserName("user1", new Date(NOW), END, null, 10));
+        assertEquals(0, cache.getSize());
+        assertEquals(0, cache.getBytes());
+    }
+
+    private static TwitterUser tweet(long id, long millis, String userName, String text) {
+        return new TwitterUser(new Date(millis), userName, text, id);
+    }
+
+    private static List<Long> ids(List<TwitterUser> tweets) {
+        return tweets.stream().map(TwitterUser::getTweetId).collect(Collectors.toList());
+    }
+}
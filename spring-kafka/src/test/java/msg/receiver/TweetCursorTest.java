@@ -0,0 +1,39 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetCursorTest {
+
+    private static final Date DATE = new Date(1698314400000L);
+
+    @Test
+    void toString_parsesBack() {
+        TweetCursor cursor = TweetCursor.after(new TwitterUser(DATE, "user", "text", -42L));
+
+        assertEquals("1698314400000_-42", cursor.toString());
+        assertEquals(cursor, TweetCursor.parse(cursor.toString()));
+    }
+
+    @Test
+    void parse_rejectsMalformedCursors() {
+        assertThrows(IllegalArgumentException.class, () -> TweetCursor.parse("1698314400000"));
+        assertThrows(IllegalArgumentException.class, () -> TweetCursor.parse("_5"));
+        assertThrows(IllegalArgumentException.class, () -> TweetCursor.parse("yesterday_5"));
+    }
+
+    @Test
+    void filter_matchesLaterTimesAndLaterIdsAtTheSameTime() {
+        Document filter = Document.parse(new TweetCursor(DATE, 5L).filter("dateTime", "_id")
+                .toBsonDocument(Document.class, com.mongodb.MongoClient.getDefaultCodecRegistry()).toJson());
+
+        assertEquals(Document.parse("{ $or: [ { dateTime: { $gt: { $date: 1698314400000 } } },"
+                + " { dateTime: { $date: 1698314400000 }, _id: { $gt: { $numberLong: \"5\" } } } ] }"), filter);
+    }
+}
@@ -0,0 +1,121 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.Test;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetDeduplicatorTest {
+
+    private final AtomicLong clock = new AtomicLong();
+
+    private static TwitterUser tweet(Long tweetId) {
+        return new TwitterUser(new Date(0), "user", "text", tweetId);
+    }
+
+    @Test
+    void markSeen_sameIdTwice_secondIsDuplicate() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 60000, clock::get);
+
+        assertTrue(deduplicator.markSeen(tweet(1L)));
+        assertTrue(deduplicator.markSeen(tweet(2L)));
+        assertFalse(deduplicator.markSeen(tweet(1L)));
+        assertTrue(deduplicator.markSeen(tweet(0L)));
+        assertFalse(deduplicator.markSeen(tweet(0L)));
+        assertEquals(3, deduplicator.getSize());
+    }
+
+    @Test
+    void markSeen_sameIdOnAnotherTopic_isNotADuplicate() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 60000, clock::get);
+
+        assertTrue(deduplicator.markSeen("tweets-java", tweet(1L)));
+        assertTrue(deduplicator.markSeen("tweets-kafka", tweet(1L)));
+        assertFalse(deduplicator.markSeen("tweets-java", tweet(1L)));
+
+        deduplicator.forget("tweets-kafka", tweet(1L));
+        assertTrue(deduplicator.markSeen("tweets-kafka", tweet(1L)));
+    }
+
+    @Test
+    void markSeen_retweets_areDuplicatesOfTheRetweetedTweet() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 60000, clock::get);
+
+        assertTrue(deduplicator.markSeen(new TwitterUser(new Date(), "user", "text", 1L)));
+        assertFalse(deduplicator.markSeen(new TwitterUser(new Date(), "user", "RT text", 2L, 1L)));
+        assertFalse(deduplicator.markSeen(new TwitterUser(new Date(), "other", "RT text", 3L, 1L)));
+    }
+
+    @Test
+    void markSeen_withoutTweetId_alwaysPassesAndIsNotCounted() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 60000, clock::get);
+
+        assertTrue(deduplicator.markSeen(tweet(null)));
+        assertTrue(deduplicator.markSeen(tweet(null)));
+        assertEquals(0, deduplicator.getLookups());
+    }
+
+    @Test
+    void markSeen_afterTwoWindows_idIsForgotten() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 1000, clock::get);
+        deduplicator.markSeen(tweet(1L));
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(1500));
+        assertFalse(deduplicator.markSeen(tweet(1L)), "still in the previous generation");
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(2500));
+        assertTrue(deduplicator.markSeen(tweet(1L)));
+    }
+
+    @Test
+    void markSeen_overCapacity_keepsTheNewestGenerations() {
+        // one id per stripe and generation
+        TweetDeduplicator deduplicator = new TweetDeduplicator(16, 60000, clock::get);
+        for (long id = 1; id <= 10000; id++) {
+            assertTrue(deduplicator.markSeen(tweet(id)));
+        }
+
+        assertTrue(deduplicator.getSize() <= 32);
+        assertFalse(deduplicator.markSeen(tweet(10000L)));
+        assertTrue(deduplicator.markSeen(tweet(1L)));
+    }
+
+    @Test
+    void forget_removesIdAndKeepsOthersFindable() {
+        TweetDeduplicator deduplicator = new TweetDeduplicator(4096, 60000, clock::get);
+        for (long id = 1; id <= 2000; id++) {
+            deduplicator.markSeen(tweet(id));
+        }
+
+        for (long id = 1; id <= 2000; id += 2) {
+            deduplicator.forget(tweet(id));
+        }
+
+        for (long id = 1; id <= 2000; id++) {
+            assertEquals(id % 2 == 1, deduplicator.markSeen(tweet(id)), "tweet " + id);
+        }
+    }
+
+    @Test
+    void bindTo_publishesLookupsHitsAndRatio() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        TweetDeduplicator deduplicator = new TweetDeduplicator(1024, 60000, clock::get);
+        deduplicator.bindTo(registry);
+
+        deduplicator.markSeen(tweet(1L));
+        deduplicator.markSeen(tweet(1L));
+        deduplicator.markSeen(tweet(1L));
+        deduplicator.markSeen(tweet(2L));
+
+        assertEquals(4, registry.find("tweets.dedup.lookups").functionCounter().count());
+        assertEquals(2, registry.find("tweets.dedup.hits").functionCounter().count());
+        assertEquals(0.5, registry.find("tweets.dedup.hit.ratio").gauge().value());
+        assertEquals(2, registry.find("tweets.dedup.size").gauge().value());
+    }
+}
@@ -0,0 +1,122 @@
+package msg.receiver;
+
+import msg.model.TwitterUser;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import reactor.core.publisher.Flux;
+
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TweetQueryHandlerTest {
+
+    private static final Date DATE = new Date(1698314400000L); // 2023-10-26T10:00:00Z
+
+    @Mock
+    private TweetStore tweetStore;
+
+    private WebTestClient client;
+
+    @BeforeEach
+    void setUp() {
+        client = WebTestClient.bindToRouterFunction(new TweetQueryHandler(tweetStore, 100, 1000, 2).routes()).build();
+    }
+
+    @Test
+    void findByUserName_streamsOneJsonTweetPerLine() {
+        when(tweetStore.findByUserName(eq("user"), eq(DATE), eq(new Date(Long.MAX_VALUE)), isNull(), eq(100)))
+                .thenReturn(Flux.just(new TwitterUser(DATE, "user", "first", 1L),
+                        new TwitterUser(DATE, "user", "second", 2L)));
+
+        String body = client.get().uri("/tweets/user/user?from=2023-10-26T10:00:00Z").exchange()
+                .expectStatus().isOk()
+                .expectHeader().contentType(TweetQueryHandler.APPLICATION_NDJSON)
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        String[] lines = body.split("\n");
+        assertEquals(2, lines.length);
+        assertTrue(lines[0].contains("\"tweetMessage\":\"first\""), lines[0]);
+        assertTrue(lines[1].contains("\"tweetId\":2"), lines[1]);
+    }
+
+    @Test
+    void findByDateTime_passesCursorAndCapsTheLimit() {
+        when(tweetStore.findByDateTime(any(Date.class), any(Date.class), any(TweetCursor.class), anyInt()))
+                .thenReturn(Flux.empty());
+
+        client.get().uri("/tweets?to=2023-10-26T10:00:00Z&after=1698314400000_5&limit=5000").exchange()
+                .expectStatus().isOk();
+
+        verify(tweetStore).findByDateTime(new Date(0), DATE, new TweetCursor(DATE, 5L), 1000);
+    }
+
+    @Test
+    void search_withEventStream_sendsServerSentEventsWithTheCursorAsId() {
+        when(tweetStore.search("kafka", null, 3)).thenReturn(Flux.just(new TwitterUser(DATE, "user", "kafka", 9L)));
+
+        String body = client.get().uri("/tweets/search?q=kafka&limit=3").accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueMatches("Content-Type", "text/event-stream.*")
+                .expectBody(String.class).returnResult().getResponseBody();
+
+        assertTrue(body.contains("id:1698314400000_9\n"), body);
+        assertTrue(body.contains("data:{"), body);
+    }
+
+    @Test
+    void invalidParameters_areBadRequests() {
+        client.get().uri("/tweets/search").exchange().expectStatus().isBadRequest();
+        client.get().uri("/tweets?from=yesterday").exchange().expectStatus().isBadRequest();
+        client.get().uri("/tweets?after=nope").exchange().expectStatus().isBadRequest();
+        client.get().uri("/tweets?limit=0").exchange().expectStatus().isBadRequest();
+
+        verifyZeroInteractions(tweetStore);
+    }
+
+    @Test
+    void results_areRequestedFromTheStoreInFetchSizeBatches() {
+        AtomicLong largestRequest = new AtomicLong();
+        when(tweetStore.findByDateTime(any(Date.class), any(Date.class), isNull(), anyInt()))
+                .thenReturn(Flux.range(1, 10).map(i -> new TwitterUser(DATE, "user", "tweet", (long) i))
+                        .doOnRequest(n -> largestRequest.accumulateAndGet(n, Math::max)));
+
+        client.get().uri("/tweets").exchange().expectStatus().isOk().expectBody(String.class);
+
+        assertEquals(2, largestRequest.get());
+    }
+
+    @Test
+    void topicParameter_readsTheStoreOfTheTopic() {
+        TweetStore javaStore = mock(TweetStore.class);
+        TopicTweetStores topicTweetStores = new TopicTweetStores(new ReceiverTopics("darsan", "darsan|tweets-.*", ""),
+                tweetStore, "twitterUser", "{collection}-{topic}", collection -> javaStore);
+        client = WebTestClient.bindToRouterFunction(
+                new TweetQueryHandler(tweetStore, topicTweetStores, 100, 1000, 2).routes()).build();
+        when(javaStore.search("kafka", null, 100)).thenReturn(Flux.empty());
+
+        // no tweet of it written yet, a query does not create its store
+        client.get().uri("/tweets/search?q=kafka&topic=tweets-java").exchange().expectStatus().isNotFound();
+        topicTweetStores.forTopic("tweets-java");
+
+        client.get().uri("/tweets/search?q=kafka&topic=tweets-java").exchange().expectStatus().isOk();
+        client.get().uri("/tweets/search?q=kafka&topic=other").exchange().expectStatus().isNotFound();
+
+        verify(javaStore).search("kafka", null, 100);
+        verifyZeroInteractions(tweetStore);
+    }
+}
@@ -0,0 +1,62 @@
+package msg.sender;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.*;
+
+public class DeletionNoticeSenderTest {
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<Long, Long> kafkaTemplate = mock(KafkaTemplate.class);
+
+    private static SettableListenableFuture<SendResult<Long, Long>> sent() {
+        SettableListenableFuture<SendResult<Long, Long>> future = new SettableListenableFuture<>();
+        future.set(null);
+        return future;
+    }
+
+    @Test
+    void send_producerBlocked_returnsWithoutWaiting() throws InterruptedException {
+        CountDownLatch brokerBack = new CountDownLatch(1);
+        when(kafkaTemplate.send(eq("deletions"), anyLong(), anyLong())).thenAnswer(invocation -> {
+            // like a send waiting max.block.ms for metadata
+            brokerBack.await();
+            return sent();
+        });
+        DeletionNoticeSender sender = new DeletionNoticeSender(kafkaTemplate, "deletions");
+        sender.start();
+
+        Thread streamThread = new Thread(() -> {
+            sender.send(1L, 10L);
+            sender.send(2L, 20L);
+        });
+        streamThread.start();
+        streamThread.join(5000);
+        assertFalse(streamThread.isAlive());
+
+        brokerBack.countDown();
+        sender.close();
+        verify(kafkaTemplate).send("deletions", 1L, 10L);
+        verify(kafkaTemplate).send("deletions", 2L, 20L);
+        verify(kafkaTemplate).flush();
+    }
+
+    @Test
+    void send_queueFull_dropsTheNotice() {
+        DeletionNoticeSender sender = new DeletionNoticeSender(kafkaTemplate, "deletions");
+
+        // not started, nothing takes the notices
+        for (int i = 0; i <= DeletionNoticeSender.QUEUE_CAPACITY; i++) {
+            sender.send(1L, i);
+        }
+
+        assertEquals(DeletionNoticeSender.QUEUE_CAPACITY, sender.getQueuedNotices());
+        verifyZeroInteractions(kafkaTemplate);
+    }
+}
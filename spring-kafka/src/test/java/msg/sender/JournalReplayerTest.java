@@ -0,0 +1,169 @@
+package msg.sender;
+
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.errors.NetworkException;
+import org.apache.kafka.common.errors.RecordTooLargeException;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.errors.TopicAuthorizationException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.kafka.support.SendResult;
+import org.springframework.util.concurrent.SettableListenableFuture;
+
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class JournalReplayerTest {
+
+    private static final String TOPIC = "tweets";
+
+    @SuppressWarnings("unchecked")
+    private final KafkaTemplate<Long, TwitterUser> kafkaTemplate = mock(KafkaTemplate.class);
+
+    private Path directory;
+
+    private SendJournal journal;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("replayer-test");
+        journal = new SendJournal(directory, 4096);
+        for (int i = 0; i < 3; i++) {
+            journal.append(TOPIC, 1000L + i, tweet(i));
+        }
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        journal.close();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static TwitterUser tweet(int sequence) {
+        return new TwitterUser(new Date(1698314400000L + sequence), "user", "tweet " + sequence);
+    }
+
+    private static SettableListenableFuture<SendResult<Long, TwitterUser>> sent() {
+        SettableListenableFuture<SendResult<Long, TwitterUser>> future = new SettableListenableFuture<>();
+        future.set(null);
+        return future;
+    }
+
+    private static SettableListenableFuture<SendResult<Long, TwitterUser>> failed() {
+        return failed(new IllegalStateException("broker down"));
+    }
+
+    private static SettableListenableFuture<SendResult<Long, TwitterUser>> failed(Throwable cause) {
+        SettableListenableFuture<SendResult<Long, TwitterUser>> future = new SettableListenableFuture<>();
+        future.setException(cause);
+        return future;
+    }
+
+    @Test
+    void replayBatch_allAcknowledged_removesThemFromJournal() {
+        when(kafkaTemplate.send(anyString(), anyLong(), any())).thenAnswer(invocation -> sent());
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 2, 10, 1000);
+
+        assertEquals(2, replayer.replayBatch());
+        assertEquals(1, replayer.replayBatch());
+        assertEquals(0, replayer.replayBatch());
+
+        verify(kafkaTemplate).send(TOPIC, 1000L, tweet(0));
+        verify(kafkaTemplate).send(TOPIC, 1001L, tweet(1));
+        verify(kafkaTemplate).send(TOPIC, 1002L, tweet(2));
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    void replayBatch_failure_keepsUnacknowledgedTweets() {
+        when(kafkaTemplate.send(TOPIC, 1000L, tweet(0))).thenAnswer(invocation -> sent());
+        when(kafkaTemplate.send(TOPIC, 1001L, tweet(1))).thenAnswer(invocation -> failed());
+        when(kafkaTemplate.send(TOPIC, 1002L, tweet(2))).thenAnswer(invocation -> sent());
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 10, 10, 1000);
+
+        assertEquals(-1, replayer.replayBatch());
+
+        assertEquals(2, journal.getPendingRecords());
+        assertEquals(tweet(1), journal.peek(1).get(0).getTweet());
+    }
+
+    @Test
+    void replayBatch_sendThrows_keepsAllTweets() {
+        when(kafkaTemplate.send(anyString(), anyLong(), any())).thenThrow(new IllegalStateException("no metadata"));
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 10, 10, 1000);
+
+        assertEquals(-1, replayer.replayBatch());
+        assertEquals(3, journal.getPendingRecords());
+    }
+
+    @Test
+    void replayBatch_nonRetriableFailure_dropsTheTweetAndReplaysTheRest() {
+        when(kafkaTemplate.send(TOPIC, 1000L, tweet(0))).thenAnswer(invocation ->
+                failed(new KafkaProducerException(null, "send failed", new RecordTooLargeException("too large"))));
+        when(kafkaTemplate.send(TOPIC, 1001L, tweet(1))).thenAnswer(invocation -> sent());
+        when(kafkaTemplate.send(TOPIC, 1002L, tweet(2))).thenAnswer(invocation -> sent());
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 10, 10, 1000);
+
+        assertEquals(3, replayer.replayBatch());
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    void replayBatch_sendThrowsNonRetriable_dropsTheTweetAndReplaysTheRest() {
+        when(kafkaTemplate.send(TOPIC, 1000L, tweet(0))).thenThrow(new SerializationException("cannot serialize"));
+        when(kafkaTemplate.send(TOPIC, 1001L, tweet(1))).thenAnswer(invocation -> sent());
+        when(kafkaTemplate.send(TOPIC, 1002L, tweet(2))).thenAnswer(invocation -> sent());
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 10, 10, 1000);
+
+        assertEquals(3, replayer.replayBatch());
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    void replayBatch_retriableFailure_keepsTheTweet() {
+        when(kafkaTemplate.send(anyString(), anyLong(), any())).thenAnswer(invocation ->
+                failed(new KafkaProducerException(null, "send failed", new NetworkException("disconnected"))));
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 10, 10, 1000);
+
+        assertEquals(-1, replayer.replayBatch());
+        assertEquals(3, journal.getPendingRecords());
+    }
+
+    @Test
+    void isPermanent_onlyNonRetriableKafkaErrors() {
+        assertTrue(JournalReplayer.isPermanent(new TopicAuthorizationException("not allowed")));
+        assertFalse(JournalReplayer.isPermanent(new TimeoutException("no metadata")));
+        assertFalse(JournalReplayer.isPermanent(new KafkaException("failed", new NetworkException("disconnected"))));
+        assertFalse(JournalReplayer.isPermanent(new IllegalStateException("broker down")));
+    }
+
+    @Test
+    void start_drainsJournalInBackground() throws InterruptedException {
+        when(kafkaTemplate.send(anyString(), anyLong(), any())).thenAnswer(invocation -> sent());
+        JournalReplayer replayer = new JournalReplayer(journal, kafkaTemplate, 2, 10, 1000);
+
+        replayer.start();
+        verify(kafkaTemplate, timeout(5000)).send(TOPIC, 1002L, tweet(2));
+        replayer.close();
+
+        assertTrue(journal.isEmpty());
+    }
+}
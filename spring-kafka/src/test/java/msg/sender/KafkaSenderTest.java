@@ -9,12 +9,26 @@ import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.kafka.core.KafkaOperations;
 import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.kafka.support.SendResult;
 import org.springframework.util.concurrent.ListenableFuture;
 import org.springframework.util.concurrent.ListenableFutureCallback;
+import org.springframework.util.concurrent.SuccessCallback;
+import org.springframework.util.concurrent.FailureCallback;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.apache.kafka.clients.producer.RecordMetadata;
 
+import msg.common.BoundedVirtualThreadExecutor;
+import msg.model.TwitterUser;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 import static org.mockito.Mockito.*;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -22,25 +36,29 @@ import static org.junit.jupiter.api.Assertions.*;
 public class KafkaSenderTest {
 
     @Mock
-    private KafkaTemplate<Integer, String> kafkaTemplate;
+    private KafkaTemplate<Long, TwitterUser> kafkaTemplate;
 
     @Mock
-    private ListenableFuture<SendResult<Integer, String>> mockFuture;
+    private ListenableFuture<SendResult<Long, TwitterUser>> mockFuture;
     
     @Mock
-    private SendResult<Integer, String> mockSendResult;
+    private SendResult<Long, TwitterUser> mockSendResult;
 
     @Mock
     private RecordMetadata mockRecordMetadata;
 
+    @Mock
+    private SenderMetrics senderMetrics;
+
     @InjectMocks
     private KafkaSender kafkaSender;
 
     @Captor
-    private ArgumentCaptor<ListenableFutureCallback<SendResult<Integer, String>>> callbackCaptor;
+    private ArgumentCaptor<ListenableFutureCallback<SendResult<Long, TwitterUser>>> callbackCaptor;
 
     private final String testTopic = "testTopic";
-    private final String testMessage = "Hello Kafka!";
+    private final Long testUserId = 67890L;
+    private final TwitterUser testMessage = new TwitterUser(new Date(1698314400000L), "testUser", "Hello Kafka!");
 
     @BeforeEach
     void setUp() {
@@ -51,11 +69,11 @@ public class KafkaSenderTest {
 
     @Test
     void sendMessage_successfulSend_callsKafkaTemplateAndAddsCallback() {
-        when(kafkaTemplate.send(testTopic, testMessage)).thenReturn(mockFuture);
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
 
-        kafkaSender.sendMessage(testTopic, testMessage);
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
 
-        verify(kafkaTemplate).send(testTopic, testMessage);
+        verify(kafkaTemplate).send(testTopic, testUserId, testMessage);
         verify(mockFuture).addCallback(any(ListenableFutureCallback.class));
     }
 
@@ -63,14 +81,14 @@ public class KafkaSenderTest {
     void sendMessage_kafkaTemplateSendThrowsException_shouldNotAddCallbackIfFutureNotReturned() {
         // This test assumes kafkaTemplate.send() itself might throw an exception
         // before returning a future (e.g., configuration error, immediate connection issue).
-        when(kafkaTemplate.send(testTopic, testMessage)).thenThrow(new RuntimeException("Kafka connection failed"));
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenThrow(new RuntimeException("Kafka connection failed"));
 
         // We expect the KafkaSender.sendMessage to not suppress this synchronous exception
         assertThrows(RuntimeException.class, () -> {
-            kafkaSender.sendMessage(testTopic, testMessage);
+            kafkaSender.sendMessage(testTopic, testUserId, testMessage);
         });
 
-        verify(kafkaTemplate).send(testTopic, testMessage);
+        verify(kafkaTemplate).send(testTopic, testUserId, testMessage);
         // If .send() throws, addCallback on a future would not be reached.
         verify(mockFuture, never()).addCallback(any(ListenableFutureCallback.class));
     }
@@ -79,17 +97,17 @@ public class KafkaSenderTest {
     @Test
     void sendMessage_callbackOnSuccess_logsCorrectly() {
         // Arrange
-        when(kafkaTemplate.send(eq(testTopic), eq(testMessage))).thenReturn(mockFuture);
+        when(kafkaTemplate.send(eq(testTopic), eq(testUserId), eq(testMessage))).thenReturn(mockFuture);
         // The actual SendResult and RecordMetadata would be provided by Spring Kafka
         // We mock them here to simulate a successful callback
         when(mockSendResult.getRecordMetadata()).thenReturn(mockRecordMetadata);
         when(mockRecordMetadata.offset()).thenReturn(123L);
 
-        kafkaSender.sendMessage(testTopic, testMessage);
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
 
         // Capture the callback
         verify(mockFuture).addCallback(callbackCaptor.capture());
-        ListenableFutureCallback<SendResult<Integer, String>> callback = callbackCaptor.getValue();
+        ListenableFutureCallback<SendResult<Long, TwitterUser>> callback = callbackCaptor.getValue();
 
         // Act: Simulate the Kafka success callback
         callback.onSuccess(mockSendResult);
@@ -106,14 +124,14 @@ public class KafkaSenderTest {
     @Test
     void sendMessage_callbackOnFailure_logsError() {
         // Arrange
-        when(kafkaTemplate.send(eq(testTopic), eq(testMessage))).thenReturn(mockFuture);
+        when(kafkaTemplate.send(eq(testTopic), eq(testUserId), eq(testMessage))).thenReturn(mockFuture);
         Throwable testException = new RuntimeException("Simulated send failure");
 
-        kafkaSender.sendMessage(testTopic, testMessage);
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
 
         // Capture the callback
         verify(mockFuture).addCallback(callbackCaptor.capture());
-        ListenableFutureCallback<SendResult<Integer, String>> callback = callbackCaptor.getValue();
+        ListenableFutureCallback<SendResult<Long, TwitterUser>> callback = callbackCaptor.getValue();
 
         // Act: Simulate the Kafka failure callback
         callback.onFailure(testException);
@@ -134,20 +152,164 @@ public class KafkaSenderTest {
         
         // Use doAnswer to capture the callback and immediately invoke onFailure
         doAnswer(invocation -> {
-            ListenableFutureCallback<SendResult<Integer, String>> callback = invocation.getArgument(0);
+            ListenableFutureCallback<SendResult<Long, TwitterUser>> callback = invocation.getArgument(0);
             callback.onFailure(new RuntimeException("Async send failed"));
             return null; // addCallback is void
         }).when(mockFuture).addCallback(any(ListenableFutureCallback.class));
 
-        when(kafkaTemplate.send(testTopic, testMessage)).thenReturn(mockFuture);
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
 
-        kafkaSender.sendMessage(testTopic, testMessage);
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
 
-        verify(kafkaTemplate).send(testTopic, testMessage);
+        verify(kafkaTemplate).send(testTopic, testUserId, testMessage);
         verify(mockFuture).addCallback(callbackCaptor.capture());
         
         // In this setup, onFailure is invoked during the addCallback mock execution.
         // Assertions for logging (if possible) or other side effects of failure would go here.
         // For now, this confirms the callback mechanism is wired.
     }
+
+    @Test
+    void sendMessage_virtualThreadMode_runsCallbackOffTheProducerThread() throws InterruptedException {
+        BoundedVirtualThreadExecutor sendResultExecutor = new BoundedVirtualThreadExecutor("send-result-", 4);
+        ReflectionTestUtils.setField(kafkaSender, "sendResultExecutor", sendResultExecutor);
+        String[] callbackThread = new String[1];
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
+        when(mockSendResult.getRecordMetadata()).thenAnswer(invocation -> {
+            callbackThread[0] = Thread.currentThread().getName();
+            return mockRecordMetadata;
+        });
+        doAnswer(invocation -> {
+            SuccessCallback<SendResult<Long, TwitterUser>> onSuccess = invocation.getArgument(0);
+            onSuccess.onSuccess(mockSendResult);
+            return null;
+        }).when(mockFuture).addCallback(any(SuccessCallback.class), any(FailureCallback.class));
+
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
+        sendResultExecutor.shutdown();
+
+        verify(mockFuture, never()).addCallback(any(ListenableFutureCallback.class));
+        assertTrue(callbackThread[0].startsWith("send-result-"));
+    }
+
+    @Test
+    void sendMessage_virtualThreadMode_permitsTakenDoesNotBlockTheProducerThread() throws InterruptedException {
+        BoundedVirtualThreadExecutor sendResultExecutor = new BoundedVirtualThreadExecutor("send-result-", 1);
+        ReflectionTestUtils.setField(kafkaSender, "sendResultExecutor", sendResultExecutor);
+        CountDownLatch release = new CountDownLatch(1);
+        sendResultExecutor.execute(() -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        CountDownLatch callbackRan = new CountDownLatch(1);
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
+        when(mockSendResult.getRecordMetadata()).thenAnswer(invocation -> {
+            callbackRan.countDown();
+            return mockRecordMetadata;
+        });
+        doAnswer(invocation -> {
+            SuccessCallback<SendResult<Long, TwitterUser>> onSuccess = invocation.getArgument(0);
+            onSuccess.onSuccess(mockSendResult);
+            return null;
+        }).when(mockFuture).addCallback(any(SuccessCallback.class), any(FailureCallback.class));
+
+        Thread producerThread = new Thread(() -> kafkaSender.sendMessage(testTopic, testUserId, testMessage));
+        producerThread.start();
+        producerThread.join(5000);
+
+        assertFalse(producerThread.isAlive());
+        assertTrue(callbackRan.await(5, TimeUnit.SECONDS));
+        release.countDown();
+        sendResultExecutor.shutdown();
+    }
+
+    @Test
+    void sendMessage_journalEnabled_failedSendIsJournaledOffTheProducerThread() {
+        SendJournal sendJournal = mock(SendJournal.class);
+        ReflectionTestUtils.setField(kafkaSender, "sendJournal", sendJournal);
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
+        when(sendJournal.appendAsync(testTopic, testUserId, testMessage))
+                .thenReturn(CompletableFuture.completedFuture(null));
+
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
+        verify(mockFuture).addCallback(callbackCaptor.capture());
+        callbackCaptor.getValue().onFailure(new RuntimeException("Simulated send failure"));
+
+        verify(sendJournal).appendAsync(testTopic, testUserId, testMessage);
+        verify(sendJournal, never()).append(anyString(), anyLong(), any(TwitterUser.class));
+    }
+
+    @Test
+    void sendMessage_journalEnabled_synchronousFailureIsJournaled() {
+        SendJournal sendJournal = mock(SendJournal.class);
+        ReflectionTestUtils.setField(kafkaSender, "sendJournal", sendJournal);
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenThrow(new RuntimeException("Kafka connection failed"));
+
+        assertDoesNotThrow(() -> kafkaSender.sendMessage(testTopic, testUserId, testMessage));
+
+        verify(sendJournal).append(testTopic, testUserId, testMessage);
+    }
+
+    @Test
+    void sendMessage_recordsSendLatencyByResult() {
+        when(kafkaTemplate.send(testTopic, testUserId, testMessage)).thenReturn(mockFuture);
+        when(mockSendResult.getRecordMetadata()).thenReturn(mockRecordMetadata);
+
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
+        kafkaSender.sendMessage(testTopic, testUserId, testMessage);
+        verify(mockFuture, times(2)).addCallback(callbackCaptor.capture());
+        callbackCaptor.getAllValues().get(0).onSuccess(mockSendResult);
+        callbackCaptor.getAllValues().get(1).onFailure(new RuntimeException("Simulated send failure"));
+
+        verify(senderMetrics).sent(anyLong());
+        verify(senderMetrics).sendFailed(anyLong());
+    }
+
+    @SuppressWarnings("unchecked")
+    private KafkaTemplate<Long, TwitterUser> transactionalKafkaTemplate() {
+        KafkaTemplate<Long, TwitterUser> transactionalKafkaTemplate = mock(KafkaTemplate.class);
+        ReflectionTestUtils.setField(kafkaSender, "transactionalKafkaTemplate", transactionalKafkaTemplate);
+        return transactionalKafkaTemplate;
+    }
+
+    private final List<QueuedTweet> batch = Arrays.asList(new QueuedTweet(1L, testMessage),
+            new QueuedTweet(2L, testMessage));
+
+    @Test
+    void sendBatch_withoutTransactions_fails() {
+        assertThrows(IllegalStateException.class, () -> kafkaSender.sendBatch(testTopic, batch));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    void sendBatch_sendsAllTweetsInOneTransaction() {
+        KafkaTemplate<Long, TwitterUser> transactionalKafkaTemplate = transactionalKafkaTemplate();
+        when(transactionalKafkaTemplate.executeInTransaction(any())).thenAnswer(invocation -> invocation
+                .<KafkaOperations.OperationsCallback<Long, TwitterUser, Object>>getArgument(0)
+                .doInOperations(transactionalKafkaTemplate));
+
+        kafkaSender.sendBatch(testTopic, batch);
+
+        verify(transactionalKafkaTemplate).send(testTopic, 1L, testMessage);
+        verify(transactionalKafkaTemplate).send(testTopic, 2L, testMessage);
+        verify(senderMetrics).transactionCommitted(eq(2), anyLong());
+        verifyZeroInteractions(kafkaTemplate);
+    }
+
+    @Test
+    void sendBatch_abortedTransaction_journalsEveryTweet() {
+        SendJournal sendJournal = mock(SendJournal.class);
+        ReflectionTestUtils.setField(kafkaSender, "sendJournal", sendJournal);
+        when(transactionalKafkaTemplate().executeInTransaction(any()))
+                .thenThrow(new RuntimeException("Simulated abort"));
+
+        assertDoesNotThrow(() -> kafkaSender.sendBatch(testTopic, batch));
+
+        verify(sendJournal).append(testTopic, 1L, testMessage);
+        verify(sendJournal).append(testTopic, 2L, testMessage);
+        verify(senderMetrics).transactionAborted(eq(2), anyLong());
+    }
 }
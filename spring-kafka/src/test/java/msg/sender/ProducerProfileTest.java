@@ -0,0 +1,67 @@
+package msg.sender;
+
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProducerProfileTest {
+
+    @Test
+    void of_nameIgnoringCase_returnsProfile() {
+        assertEquals(ProducerProfile.THROUGHPUT, ProducerProfile.of("throughput"));
+        assertEquals(ProducerProfile.LATENCY, ProducerProfile.of(" Latency "));
+        assertThrows(IllegalArgumentException.class, () -> ProducerProfile.of("fastest"));
+    }
+
+    @Test
+    void applyTo_throughput_lingersAndCompresses() {
+        Map<String, Object> props = new HashMap<>();
+
+        ProducerProfile.THROUGHPUT.applyTo(props);
+
+        assertEquals(131072, props.get(ProducerConfig.BATCH_SIZE_CONFIG));
+        assertEquals(20, props.get(ProducerConfig.LINGER_MS_CONFIG));
+        assertEquals("lz4", props.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+        assertEquals(67108864L, props.get(ProducerConfig.BUFFER_MEMORY_CONFIG));
+        assertEquals(5, props.get(ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION));
+    }
+
+    @Test
+    void applyTo_latency_sendsImmediatelyUncompressed() {
+        Map<String, Object> props = new HashMap<>();
+
+        ProducerProfile.LATENCY.applyTo(props);
+
+        assertEquals(0, props.get(ProducerConfig.LINGER_MS_CONFIG));
+        assertEquals("none", props.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+    }
+
+    @Test
+    void applyTo_setsClientIdNamingTheProfile() {
+        Map<String, Object> props = new HashMap<>();
+
+        ProducerProfile.LATENCY.applyTo(props);
+
+        assertEquals("tweet-sender-latency", props.get(ProducerConfig.CLIENT_ID_CONFIG));
+    }
+
+    @Test
+    void clientId_suffixedForOtherProducers() {
+        assertEquals("tweet-sender-throughput-deletions", ProducerProfile.THROUGHPUT.clientId("deletions"));
+    }
+
+    @Test
+    void producerProfile_publishedAsGauge() {
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+        new SenderMetrics(registry).producerProfile(ProducerProfile.LATENCY);
+
+        assertEquals(1, registry.find("tweets.send.profile").tags("profile", "latency").gauge().value());
+    }
+}
@@ -0,0 +1,98 @@
+package msg.sender;
+
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.TopicPartition;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.reactivestreams.Publisher;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.Flux;
+import reactor.kafka.sender.KafkaSender;
+import reactor.kafka.sender.SenderRecord;
+import reactor.kafka.sender.SenderResult;
+
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class ReactiveKafkaSenderTest {
+
+    private static final String TOPIC = "tweets";
+
+    @Mock
+    private KafkaSender<Long, TwitterUser> kafkaSender;
+
+    @Mock
+    private SenderMetrics senderMetrics;
+
+    private final TwitterUser tweet = new TwitterUser(new Date(1698314400000L), "user", "Hello Kafka!");
+
+    @BeforeEach
+    void acknowledgeAllButUser13() {
+        // answers like reactor-kafka with stopOnError(false): a result per record, failed ones with the exception
+        when(kafkaSender.send(any())).thenAnswer(invocation -> Flux
+                .from(invocation.<Publisher<SenderRecord<Long, TwitterUser, SendCorrelation>>>getArgument(0))
+                .map(record -> result(record, record.key() == 13L ? new RuntimeException("Simulated failure") : null)));
+    }
+
+    private static SenderResult<SendCorrelation> result(SenderRecord<Long, TwitterUser, SendCorrelation> record,
+            Exception exception) {
+        RecordMetadata metadata = exception != null ? null
+                : new RecordMetadata(new TopicPartition(record.topic(), 0), 0, 7, 0, 0L, 0, 0);
+        return new SenderResult<SendCorrelation>() {
+            @Override
+            public RecordMetadata recordMetadata() {
+                return metadata;
+            }
+
+            @Override
+            public Exception exception() {
+                return exception;
+            }
+
+            @Override
+            public SendCorrelation correlationMetadata() {
+                return record.correlationMetadata();
+            }
+        };
+    }
+
+    @Test
+    void send_returnsTheCorrelationOfEveryTweet() {
+        ReactiveKafkaSender sender = new ReactiveKafkaSender(kafkaSender, TOPIC, senderMetrics, null);
+
+        List<SenderResult<SendCorrelation>> results = sender.send(Flux.just(new QueuedTweet(1L, tweet),
+                new QueuedTweet("kafka-tweets", 2L, tweet))).collectList().block();
+
+        assertEquals(2, results.size());
+        assertEquals(0, results.get(0).correlationMetadata().getSequence());
+        assertEquals(TOPIC, results.get(0).correlationMetadata().getTopic());
+        assertEquals(1L, results.get(0).correlationMetadata().getUserId());
+        assertEquals("kafka-tweets", results.get(1).correlationMetadata().getTopic());
+        assertSame(tweet, results.get(1).correlationMetadata().getTweet());
+        verify(senderMetrics, times(2)).sent(anyLong());
+    }
+
+    @Test
+    void send_failedTweet_isJournaledAndTheFluxGoesOn() {
+        SendJournal sendJournal = mock(SendJournal.class);
+        ReactiveKafkaSender sender = new ReactiveKafkaSender(kafkaSender, TOPIC, senderMetrics, sendJournal);
+
+        List<SenderResult<SendCorrelation>> results = sender.send(Flux.just(new QueuedTweet(13L, tweet),
+                new QueuedTweet(14L, tweet))).collectList().block();
+
+        assertNotNull(results.get(0).exception());
+        assertNull(results.get(1).exception());
+        verify(sendJournal).append(TOPIC, 13L, tweet);
+        verify(senderMetrics).sendFailed(anyLong());
+        verify(senderMetrics).sent(anyLong());
+    }
+}
@@ -0,0 +1,157 @@
+package msg.sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplayTweetSourceTest {
+
+    private static final long DATE = 1698314400000L;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private final SenderMetrics senderMetrics = new SenderMetrics(meterRegistry);
+
+    private final List<Long> userIds = new ArrayList<>();
+
+    private final List<TwitterUser> tweets = new ArrayList<>();
+
+    private final TweetSource.Listener listener = new TweetSource.Listener() {
+        @Override
+        public void onTweet(long userId, TwitterUser twitterUser) {
+            userIds.add(userId);
+            tweets.add(twitterUser);
+        }
+
+        @Override
+        public void onDeletion(long userId, long tweetId) {
+            fail("A capture holds no deletions");
+        }
+    };
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("capture");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (java.util.stream.Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static TwitterUser tweet(int sequence) {
+        return new TwitterUser(new Date(DATE + sequence), "user" + sequence, "tweet #" + sequence, 100L + sequence);
+    }
+
+    private Path record(String fileName, int count) throws IOException {
+        Path path = directory.resolve(fileName);
+        try (TweetCaptureWriter writer = new TweetCaptureWriter(path)) {
+            for (int i = 0; i < count; i++) {
+                writer.append(i, tweet(i));
+            }
+        }
+        return path;
+    }
+
+    @Test
+    void replay_ndjsonCapture_deliversTheRecordedTweets() throws IOException {
+        Path path = record("tweets.ndjson", 3);
+
+        new ReplayTweetSource(path, 0, 1 << 20, senderMetrics).replay(listener);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L), userIds);
+        assertEquals(Arrays.asList(tweet(0), tweet(1), tweet(2)), tweets);
+    }
+
+    @Test
+    void replay_binaryCapture_deliversTheRecordedTweets() throws IOException {
+        Path path = record("tweets.bin", 3);
+
+        new ReplayTweetSource(path, 0, 1 << 20, senderMetrics).replay(listener);
+
+        assertEquals(Arrays.asList(0L, 1L, 2L), userIds);
+        assertEquals(Arrays.asList(tweet(0), tweet(1), tweet(2)), tweets);
+    }
+
+    @Test
+    void replay_recordsAcrossMappedChunks_areReadWhole() throws IOException {
+        Path ndjson = record("tweets.ndjson", 50);
+        Path binary = record("tweets.bin", 50);
+
+        new ReplayTweetSource(ndjson, 0, 300, senderMetrics).replay(listener);
+        new ReplayTweetSource(binary, 0, 300, senderMetrics).replay(listener);
+
+        assertEquals(100, tweets.size());
+        assertEquals(tweet(49), tweets.get(49));
+        assertEquals(tweet(49), tweets.get(99));
+    }
+
+    @Test
+    void replay_recordLargerThanAChunk_fails() throws IOException {
+        Path path = record("tweets.ndjson", 2);
+
+        assertThrows(IOException.class, () -> new ReplayTweetSource(path, 0, 16, senderMetrics).replay(listener));
+    }
+
+    @Test
+    void replay_queryApiOutput_isKeyedByUserNameAndSkipsUnreadableLines() throws IOException {
+        Path path = directory.resolve("query.jsonl");
+        Files.write(path, ("{\"dateTime\":1698314400000,\"userName\":\"user\",\"tweetMessage\":\"text\",\"tweetId\":7}\n"
+                + "not json\n"
+                + "{\"userName\":\"user\",\"tweetMessage\":\"no date\"}\r\n"
+                + "\n"
+                + "{\"dateTime\":\"2023-10-26T10:00:00Z\",\"userName\":\"user\",\"tweetMessage\":\"last\"}")
+                .getBytes(StandardCharsets.UTF_8));
+
+        new ReplayTweetSource(path, 0, 1 << 20, senderMetrics).replay(listener);
+
+        assertEquals(Arrays.asList(new TwitterUser(new Date(DATE), "user", "text", 7L),
+                new TwitterUser(new Date(DATE), "user", "last", null)), tweets);
+        assertEquals("user".hashCode() & 0xFFFFFFFFL, userIds.get(0).longValue());
+        assertEquals(userIds.get(0), userIds.get(1));
+        assertEquals(2, meterRegistry.find("tweets.stream.skipped").counter().count());
+    }
+
+    @Test
+    void replay_atTheRecordedRate_keepsTheTweetsApart() throws IOException {
+        Path path = directory.resolve("paced.ndjson");
+        Files.write(path, ("{\"userId\":1,\"dateTime\":1698314400000,\"userName\":\"u\",\"tweetMessage\":\"a\"}\n"
+                + "{\"userId\":1,\"dateTime\":1698314401000,\"userName\":\"u\",\"tweetMessage\":\"b\"}\n")
+                .getBytes(StandardCharsets.UTF_8));
+
+        long start = System.nanoTime();
+        new ReplayTweetSource(path, 10, 1 << 20, senderMetrics).replay(listener);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(2, tweets.size());
+        assertTrue(elapsedMillis >= 100, "1s of tweets at 10x took " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void constructor_rejectsNegativeRates() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ReplayTweetSource(directory.resolve("x.ndjson"), -1, 1024, senderMetrics));
+    }
+}
@@ -0,0 +1,218 @@
+package msg.sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SendJournalTest {
+
+    private static final String TOPIC = "tweets";
+
+    // room for about three records per segment
+    private static final int SEGMENT_BYTES = 200;
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("journal-test");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    private static TwitterUser tweet(int sequence) {
+        return new TwitterUser(new Date(1698314400000L + sequence), "user" + sequence, "tweet " + sequence);
+    }
+
+    private static void assertEntry(int sequence, SendJournal.Entry entry) {
+        assertEquals(TOPIC, entry.getTopic());
+        assertEquals(1000L + sequence, entry.getUserId());
+        assertEquals(tweet(sequence), entry.getTweet());
+    }
+
+    private long segmentFiles() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.journal")) {
+            long count = 0;
+            for (Path ignored : files) {
+                count++;
+            }
+            return count;
+        }
+    }
+
+    @Test
+    void peekAndRemove_returnEntriesInOrderAcrossSegments() throws IOException {
+        try (SendJournal journal = new SendJournal(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 10; i++) {
+                journal.append(TOPIC, 1000L + i, tweet(i));
+            }
+            assertEquals(10, journal.getPendingRecords());
+            assertTrue(journal.getSegmentCount() > 1);
+
+            List<SendJournal.Entry> first = journal.peek(4);
+            assertEquals(4, first.size());
+            for (int i = 0; i < 4; i++) {
+                assertEntry(i, first.get(i));
+            }
+            // peek does not consume
+            assertEntry(0, journal.peek(1).get(0));
+
+            journal.remove(4);
+            List<SendJournal.Entry> rest = journal.peek(100);
+            assertEquals(6, rest.size());
+            for (int i = 0; i < 6; i++) {
+                assertEntry(i + 4, rest.get(i));
+            }
+
+            journal.remove(6);
+            assertTrue(journal.isEmpty());
+            assertEquals(10, journal.getReplayedRecords());
+            assertEquals(1, segmentFiles());
+        }
+    }
+
+    @Test
+    void constructor_resumesFromCheckpoint() throws IOException {
+        try (SendJournal journal = new SendJournal(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 7; i++) {
+                journal.append(TOPIC, 1000L + i, tweet(i));
+            }
+            journal.remove(5);
+        }
+
+        try (SendJournal journal = new SendJournal(directory, SEGMENT_BYTES)) {
+            assertEquals(2, journal.getPendingRecords());
+            List<SendJournal.Entry> entries = journal.peek(10);
+            assertEntry(5, entries.get(0));
+            assertEntry(6, entries.get(1));
+
+            journal.append(TOPIC, 1007L, tweet(7));
+            assertEntry(7, journal.peek(10).get(2));
+        }
+    }
+
+    @Test
+    void constructor_discardsRecordsFromFirstChecksumMismatch() throws IOException {
+        try (SendJournal journal = new SendJournal(directory, 4096)) {
+            for (int i = 0; i < 3; i++) {
+                journal.append(TOPIC, 1000L + i, tweet(i));
+            }
+        }
+        Path segment = directory.resolve(JournalSegment.fileName(0));
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            int secondRecord = JournalSegment.RECORD_HEADER_BYTES + length.getInt(0);
+            // flip a payload byte of the second record, as if the crash tore it
+            channel.write(ByteBuffer.wrap(new byte[] { 0x7f }), secondRecord + JournalSegment.RECORD_HEADER_BYTES + 3);
+        }
+
+        try (SendJournal journal = new SendJournal(directory, 4096)) {
+            assertEquals(1, journal.getPendingRecords());
+            assertEntry(0, journal.peek(10).get(0));
+
+            journal.append(TOPIC, 1003L, tweet(3));
+            List<SendJournal.Entry> entries = journal.peek(10);
+            assertEquals(2, entries.size());
+            assertEntry(3, entries.get(1));
+        }
+    }
+
+    @Test
+    void append_afterClose_isRejected() throws IOException {
+        SendJournal journal = new SendJournal(directory, SEGMENT_BYTES);
+        journal.close();
+
+        assertThrows(IllegalStateException.class, () -> journal.append(TOPIC, 1000L, tweet(0)));
+    }
+
+    @Test
+    void appendAsync_appendsOnJournalThreadAndCloseWaitsForIt() throws Exception {
+        SendJournal journal = new SendJournal(directory, SEGMENT_BYTES);
+        for (int i = 0; i < 100; i++) {
+            journal.appendAsync(TOPIC, 1000L + i, tweet(i));
+        }
+        journal.close();
+
+        try (SendJournal reopened = new SendJournal(directory, SEGMENT_BYTES)) {
+            List<SendJournal.Entry> entries = reopened.peek(200);
+            assertEquals(100, entries.size());
+            for (int i = 0; i < 100; i++) {
+                assertEntry(i, entries.get(i));
+            }
+        }
+    }
+
+    @Test
+    void appendAsync_journalThreadBehind_neverAppendsOnTheCaller() throws Exception {
+        SendJournal journal = new SendJournal(directory, 4 * 1024 * 1024);
+        CountDownLatch holding = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        // holds the journal's lock, so the journal thread and any append on the caller would wait for it
+        Thread holder = new Thread(() -> {
+            synchronized (journal) {
+                holding.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        holder.start();
+        assertTrue(holding.await(5, TimeUnit.SECONDS));
+
+        Thread networkThread = new Thread(() -> {
+            for (int i = 0; i < 20_000; i++) {
+                journal.appendAsync(TOPIC, 1000L + i, tweet(i));
+            }
+        });
+        networkThread.start();
+        networkThread.join(10_000);
+        boolean blocked = networkThread.isAlive();
+        release.countDown();
+        journal.close();
+
+        assertFalse(blocked);
+        assertEquals(20_000, journal.getJournaledRecords());
+    }
+
+    @Test
+    void appendAsync_afterClose_completesExceptionally() throws IOException {
+        SendJournal journal = new SendJournal(directory, SEGMENT_BYTES);
+        journal.close();
+
+        assertTrue(journal.appendAsync(TOPIC, 1000L, tweet(0)).isCompletedExceptionally());
+    }
+
+    @Test
+    void append_recordLargerThanSegment_isRejected() throws IOException {
+        try (SendJournal journal = new SendJournal(directory, 32)) {
+            assertThrows(IllegalArgumentException.class, () -> journal.append(TOPIC, 1000L, tweet(0)));
+        }
+    }
+}
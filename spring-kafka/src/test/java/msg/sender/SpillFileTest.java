@@ -0,0 +1,221 @@
+package msg.sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpillFileTest {
+
+    private static final int SEGMENT_BYTES = 1024 * 1024;
+
+    private Path directory;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        directory = Files.createTempDirectory("spill-test").resolve("tweets");
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory.getParent())) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private long segmentFiles() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".spill")).count();
+        }
+    }
+
+    private static QueuedTweet tweet(int sequence) {
+        return new QueuedTweet(1000L + sequence,
+                new TwitterUser(new Date(1698314400000L + sequence), "user" + sequence, "tweet " + sequence));
+    }
+
+    private static void assertSameTweet(QueuedTweet expected, QueuedTweet actual) {
+        assertEquals(expected.getTopic(), actual.getTopic());
+        assertEquals(expected.getUserId(), actual.getUserId());
+        assertEquals(expected.getTweet(), actual.getTweet());
+    }
+
+    @Test
+    void replay_returnsEntriesInOrderAndEmptiesFile() throws IOException {
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 3; i++) {
+                spillFile.append(tweet(i));
+            }
+            assertEquals(3, spillFile.size());
+
+            List<QueuedTweet> replayed = new ArrayList<>();
+            assertEquals(3, spillFile.replay(replayed::add));
+
+            for (int i = 0; i < 3; i++) {
+                assertSameTweet(tweet(i), replayed.get(i));
+            }
+            assertTrue(spillFile.isEmpty());
+            assertEquals(0, spillFile.segmentCount());
+        }
+        assertEquals(0, segmentFiles());
+    }
+
+    @Test
+    void replay_refusedEntry_staysInFile() throws IOException {
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 3; i++) {
+                spillFile.append(tweet(i));
+            }
+
+            List<QueuedTweet> replayed = new ArrayList<>();
+            assertEquals(1, spillFile.replay(entry -> replayed.size() < 1 && replayed.add(entry)));
+            assertEquals(2, spillFile.size());
+
+            replayed.clear();
+            assertEquals(2, spillFile.replay(replayed::add));
+            assertSameTweet(tweet(1), replayed.get(0));
+            assertSameTweet(tweet(2), replayed.get(1));
+        }
+    }
+
+    @Test
+    void constructor_recoversEntriesAndDropsTornTail() throws IOException {
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            spillFile.append(tweet(0));
+            spillFile.append(tweet(1));
+        }
+        Path segment = directory.resolve(SpillSegment.fileName(0));
+        long size = Files.size(segment);
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+            channel.truncate(size - 3); // crashed in the middle of writing the second entry
+        }
+
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            assertEquals(1, spillFile.size());
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(replayed::add);
+            assertEquals(1, replayed.size());
+            assertSameTweet(tweet(0), replayed.get(0));
+        }
+    }
+
+    @Test
+    void replay_keepsTheTopicOfRoutedTweets() throws IOException {
+        QueuedTweet routed = new QueuedTweet("kafka-tweets", 7L,
+                new TwitterUser(new Date(1698314400000L), "user", "#kafka", 42L));
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            spillFile.append(tweet(0));
+            spillFile.append(routed);
+        }
+
+        // recovered after a restart, unrouted and routed entries mixed
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            assertEquals(2, spillFile.size());
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(replayed::add);
+            assertSameTweet(tweet(0), replayed.get(0));
+            assertSameTweet(routed, replayed.get(1));
+        }
+    }
+
+    @Test
+    void replay_deletesSegmentsOnceReplayed() throws IOException {
+        Path probe = directory.resolveSibling("probe");
+        try (SpillFile spillFile = new SpillFile(probe, SEGMENT_BYTES)) {
+            spillFile.append(tweet(0));
+        }
+        // room for two of the test entries per segment
+        int segmentBytes = 2 * (int) Files.size(probe.resolve(SpillSegment.fileName(0)));
+        try (SpillFile spillFile = new SpillFile(directory, segmentBytes)) {
+            for (int i = 0; i < 6; i++) {
+                spillFile.append(tweet(i));
+            }
+            assertEquals(3, spillFile.segmentCount());
+
+            List<QueuedTweet> replayed = new ArrayList<>();
+            assertEquals(3, spillFile.replay(entry -> replayed.size() < 3 && replayed.add(entry)));
+            assertEquals(2, spillFile.segmentCount());
+            assertEquals(2, segmentFiles());
+
+            spillFile.append(tweet(6));
+            assertEquals(4, spillFile.replay(replayed::add));
+            for (int i = 0; i < 7; i++) {
+                assertSameTweet(tweet(i), replayed.get(i));
+            }
+            assertEquals(0, segmentFiles());
+        }
+    }
+
+    @Test
+    void constructor_resumesFromTheCheckpoint() throws IOException {
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            for (int i = 0; i < 3; i++) {
+                spillFile.append(tweet(i));
+            }
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(entry -> replayed.size() < 1 && replayed.add(entry));
+        }
+
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            assertEquals(2, spillFile.size());
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(replayed::add);
+            assertEquals(2, replayed.size());
+            assertSameTweet(tweet(1), replayed.get(0));
+            assertSameTweet(tweet(2), replayed.get(1));
+        }
+    }
+
+    @Test
+    void constructor_afterFullReplay_startsANewSegment() throws IOException {
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            spillFile.append(tweet(0));
+            spillFile.replay(entry -> true);
+        }
+
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            assertTrue(spillFile.isEmpty());
+            spillFile.append(tweet(1));
+        }
+        assertTrue(Files.exists(directory.resolve(SpillSegment.fileName(1))));
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(replayed::add);
+            assertEquals(1, replayed.size());
+            assertSameTweet(tweet(1), replayed.get(0));
+        }
+    }
+
+    @Test
+    void constructor_takesOverTheSpillFileOfEarlierVersions() throws IOException {
+        Path legacy = directory.resolveSibling("tweets.spill");
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            spillFile.append(tweet(0));
+        }
+        Files.move(directory.resolve(SpillSegment.fileName(0)), legacy);
+        Files.delete(directory.resolve("checkpoint"));
+        Files.delete(directory);
+
+        try (SpillFile spillFile = new SpillFile(directory, SEGMENT_BYTES)) {
+            assertEquals(1, spillFile.size());
+            List<QueuedTweet> replayed = new ArrayList<>();
+            spillFile.replay(replayed::add);
+            assertSameTweet(tweet(0), replayed.get(0));
+        }
+        assertFalse(Files.exists(legacy));
+    }
+}
@@ -1,6 +1,6 @@
 package msg.sender;
 
-import msg.common.Constants;
+import msg.model.TwitterUser;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -12,6 +12,7 @@ import twitter4j.User;
 import java.util.Date;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 @ExtendWith(MockitoExtension.class)
@@ -24,7 +25,6 @@ public class SpringKafkaApplicationSenderMainTest {
     private User mockUser;
 
     private Date testDate;
-    private String testDateString;
     private final String testUserName = "testUser";
     private final String testTweetText = "This is a test tweet.";
     private final long testStatusId = 12345L;
@@ -34,7 +34,6 @@ public class SpringKafkaApplicationSenderMainTest {
     @BeforeEach
     void setUp() {
         testDate = new Date();
-        testDateString = testDate.toString(); // As per current formatting logic
         // Resetting mocks is handled by MockitoExtension, but good to re-initialize shared test data
     }
 
@@ -44,17 +43,34 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getUser()).thenReturn(mockUser);
         when(mockUser.getName()).thenReturn(testUserName);
         when(mockStatus.getText()).thenReturn(testTweetText);
-        when(mockStatus.getId()).thenReturn(testStatusId); // For logging within the method
+        when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String expected = String.join(Constants.MESSAGE_DELIMITER, testDateString, testUserName, testTweetText);
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser expected = new TwitterUser(testDate, testUserName, testTweetText, testStatusId);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
 
         assertEquals(expected, actual);
     }
 
+    @Test
+    void formatTweetForKafka_retweet_keepsOwnIdAndCarriesIdOfRetweetedStatus() {
+        Status retweetedStatus = mock(Status.class);
+        when(mockStatus.getId()).thenReturn(testStatusId);
+        when(mockStatus.getCreatedAt()).thenReturn(testDate);
+        when(mockStatus.getUser()).thenReturn(mockUser);
+        when(mockUser.getName()).thenReturn(testUserName);
+        when(mockStatus.getText()).thenReturn(testTweetText);
+        when(mockStatus.getRetweetedStatus()).thenReturn(retweetedStatus);
+        when(retweetedStatus.getId()).thenReturn(999L);
+
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+
+        assertEquals(Long.valueOf(testStatusId), actual.getTweetId());
+        assertEquals(Long.valueOf(999L), actual.getRetweetedId());
+    }
+
     @Test
     void formatTweetForKafka_nullStatus_returnsNull() {
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(null);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(null);
         assertNull(actual);
     }
 
@@ -65,7 +81,7 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getId()).thenReturn(testStatusId); 
         // No need to mock other fields if the first check fails
 
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
         assertNull(actual);
     }
 
@@ -75,7 +91,7 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getUser()).thenReturn(null);
         when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
         assertNull(actual);
     }
 
@@ -87,7 +103,7 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getId()).thenReturn(testStatusId);
         when(mockUser.getId()).thenReturn(testUserId); // For logging within the method
 
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
         assertNull(actual);
     }
 
@@ -99,7 +115,7 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getText()).thenReturn(null);
         when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
         assertNull(actual);
     }
 
@@ -111,8 +127,8 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getText()).thenReturn(testTweetText);
         when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String expected = String.join(Constants.MESSAGE_DELIMITER, testDateString, "", testTweetText);
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser expected = new TwitterUser(testDate, "", testTweetText, testStatusId);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
 
         assertEquals(expected, actual);
     }
@@ -125,8 +141,8 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getText()).thenReturn(""); // Empty text
         when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String expected = String.join(Constants.MESSAGE_DELIMITER, testDateString, testUserName, "");
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser expected = new TwitterUser(testDate, testUserName, "", testStatusId);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
 
         assertEquals(expected, actual);
     }
@@ -139,8 +155,8 @@ public class SpringKafkaApplicationSenderMainTest {
         when(mockStatus.getText()).thenReturn(""); 
         when(mockStatus.getId()).thenReturn(testStatusId);
 
-        String expected = String.join(Constants.MESSAGE_DELIMITER, testDateString, "", "");
-        String actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
+        TwitterUser expected = new TwitterUser(testDate, "", "", testStatusId);
+        TwitterUser actual = SpringKafkaApplicationSenderMain.formatTweetForKafka(mockStatus);
 
         assertEquals(expected, actual);
     }
@@ -0,0 +1,259 @@
+package msg.sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+public class TweetIngestQueueTest {
+
+    private static final String TOPIC = "tweets";
+
+    private static final long USER_ID = 67890L;
+
+    private final KafkaSender kafkaSender = mock(KafkaSender.class);
+
+    private Path spillDir;
+
+    private TweetIngestQueue queue;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        spillDir = Files.createTempDirectory("ingest-test");
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (queue != null) {
+            queue.close();
+        }
+        try (Stream<Path> files = Files.walk(spillDir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+        }
+    }
+
+    private static TwitterUser tweet(int sequence) {
+        return new TwitterUser(new Date(1698314400000L + sequence), "user", "tweet " + sequence);
+    }
+
+    @Test
+    void submit_publishesInOrder() {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 16, 1, OverflowPolicy.BLOCK, null);
+        queue.start();
+
+        for (int i = 0; i < 5; i++) {
+            queue.submit(USER_ID, tweet(i));
+        }
+
+        InOrder inOrder = inOrder(kafkaSender);
+        for (int i = 0; i < 5; i++) {
+            inOrder.verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(i));
+        }
+        assertEquals(5, queue.getSubmitted());
+    }
+
+    @Test
+    void submit_dropNewest_discardsTweetWhenFull() {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 2, 1, OverflowPolicy.DROP_NEWEST, null);
+
+        for (int i = 0; i < 3; i++) {
+            queue.submit(USER_ID, tweet(i));
+        }
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, queue.getDropped());
+
+        queue.start();
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(1));
+        verify(kafkaSender).sendMessage(TOPIC, USER_ID, tweet(0));
+        verify(kafkaSender, never()).sendMessage(TOPIC, USER_ID, tweet(2));
+    }
+
+    @Test
+    void submit_dropOldest_discardsQueuedTweetWhenFull() {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 2, 1, OverflowPolicy.DROP_OLDEST, null);
+
+        for (int i = 0; i < 3; i++) {
+            queue.submit(USER_ID, tweet(i));
+        }
+        assertEquals(2, queue.getDepth());
+        assertEquals(1, queue.getDropped());
+
+        queue.start();
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(2));
+        verify(kafkaSender).sendMessage(TOPIC, USER_ID, tweet(1));
+        verify(kafkaSender, never()).sendMessage(TOPIC, USER_ID, tweet(0));
+    }
+
+    @Test
+    void submit_spill_keepsOrderAcrossSpillFile() throws IOException {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 2, 1, OverflowPolicy.SPILL,
+                new SpillFile(spillDir.resolve(TOPIC), 1024 * 1024));
+
+        for (int i = 0; i < 6; i++) {
+            queue.submit(USER_ID, tweet(i));
+        }
+        assertEquals(2, queue.getDepth());
+        assertEquals(4, queue.getSpilled());
+        assertEquals(4, queue.getSpillDepth());
+
+        queue.start();
+        InOrder inOrder = inOrder(kafkaSender);
+        for (int i = 0; i < 6; i++) {
+            inOrder.verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(i));
+        }
+        assertEquals(0, queue.getSpillDepth());
+        assertEquals(0, queue.getDropped());
+    }
+
+    @Test
+    void submit_routedTweets_goToTheirTopicThroughTheSpillFile() throws IOException {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 2, 1, OverflowPolicy.SPILL,
+                new SpillFile(spillDir.resolve(TOPIC), 1024 * 1024));
+
+        for (int i = 0; i < 4; i++) {
+            queue.submit("kafka-tweets", USER_ID, tweet(i));
+        }
+        queue.submit(USER_ID, tweet(4));
+        assertEquals(3, queue.getSpilled());
+
+        queue.start();
+        InOrder inOrder = inOrder(kafkaSender);
+        for (int i = 0; i < 4; i++) {
+            inOrder.verify(kafkaSender, timeout(5000)).sendMessage("kafka-tweets", USER_ID, tweet(i));
+        }
+        inOrder.verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(4));
+    }
+
+    @Test
+    void submit_block_waitsForPublisher() throws InterruptedException {
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            release.await();
+            return null;
+        }).when(kafkaSender).sendMessage(anyString(), anyLong(), any());
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 2, 1, OverflowPolicy.BLOCK, null);
+        queue.start();
+
+        // the first tweet is being sent, the next two fill the ring
+        queue.submit(USER_ID, tweet(0));
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(0));
+        queue.submit(USER_ID, tweet(1));
+        queue.submit(USER_ID, tweet(2));
+        Thread producer = new Thread(() -> queue.submit(USER_ID, tweet(3)));
+        producer.start();
+
+        producer.join(200);
+        assertTrue(producer.isAlive());
+
+        release.countDown();
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(3));
+    }
+
+    @Test
+    void publish_sendFailure_isCountedAndPublishingGoesOn() {
+        doThrow(new IllegalStateException("buffer exhausted"))
+                .when(kafkaSender).sendMessage(TOPIC, USER_ID, tweet(0));
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 4, 1, OverflowPolicy.DROP_NEWEST, null);
+        queue.start();
+
+        queue.submit(USER_ID, tweet(0));
+        queue.submit(USER_ID, tweet(1));
+
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(1));
+        assertEquals(1, queue.getFailed());
+    }
+
+    @Test
+    void constructor_spillWithoutFile_isRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new TweetIngestQueue(kafkaSender, TOPIC, 4, 1, OverflowPolicy.SPILL, null));
+    }
+
+    @Test
+    void submit_transactionalTopic_sendsBatchesOfAtMostMaxTweets() {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 16, 1, OverflowPolicy.BLOCK, null,
+                Collections.singleton("kafka-tweets"), 2);
+        List<List<TwitterUser>> transactions = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            List<TwitterUser> transaction = new ArrayList<>();
+            for (QueuedTweet queuedTweet : invocation.<List<QueuedTweet>>getArgument(1)) {
+                transaction.add(queuedTweet.getTweet());
+            }
+            return transactions.add(transaction);
+        }).when(kafkaSender).sendBatch(eq("kafka-tweets"), anyList());
+        for (int i = 0; i < 5; i++) {
+            queue.submit("kafka-tweets", USER_ID, tweet(i));
+        }
+        queue.submit(USER_ID, tweet(5));
+
+        queue.start();
+
+        verify(kafkaSender, timeout(5000)).sendMessage(TOPIC, USER_ID, tweet(5));
+        verify(kafkaSender, timeout(5000).times(3)).sendBatch(eq("kafka-tweets"), anyList());
+        assertEquals(Arrays.asList(Arrays.asList(tweet(0), tweet(1)), Arrays.asList(tweet(2), tweet(3)),
+                Collections.singletonList(tweet(4))), transactions);
+        assertEquals(6, queue.getPublished());
+    }
+
+    @Test
+    void submit_transactionalTopic_lingerStartsAgainAfterAFullTransaction() {
+        queue = new TweetIngestQueue(kafkaSender, TOPIC, 16, 1, OverflowPolicy.BLOCK, null,
+                Collections.singleton("kafka-tweets"), 2);
+        // each slow send takes most of the linger, both together more than all of it
+        long slowMillis = TimeUnit.NANOSECONDS.toMillis(TweetIngestQueue.TRANSACTION_LINGER_NANOS) * 3 / 5;
+        List<List<TwitterUser>> transactions = Collections.synchronizedList(new ArrayList<>());
+        doAnswer(invocation -> {
+            List<TwitterUser> transaction = new ArrayList<>();
+            for (QueuedTweet queuedTweet : invocation.<List<QueuedTweet>>getArgument(1)) {
+                transaction.add(queuedTweet.getTweet());
+            }
+            if (transactions.isEmpty()) {
+                Thread.sleep(slowMillis);
+            }
+            return transactions.add(transaction);
+        }).when(kafkaSender).sendBatch(eq("kafka-tweets"), anyList());
+        doAnswer(invocation -> {
+            Thread.sleep(slowMillis);
+            return null;
+        }).when(kafkaSender).sendMessage(TOPIC, USER_ID, tweet(3));
+        queue.submit("kafka-tweets", USER_ID, tweet(0));
+        queue.submit("kafka-tweets", USER_ID, tweet(1)); // full, sent
+        queue.submit("kafka-tweets", USER_ID, tweet(2)); // opens the next transaction
+        queue.submit(USER_ID, tweet(3));
+        queue.submit("kafka-tweets", USER_ID, tweet(4)); // within the linger of tweet 2's transaction
+
+        queue.start();
+
+        verify(kafkaSender, timeout(5000).times(2)).sendBatch(eq("kafka-tweets"), anyList());
+        assertEquals(Arrays.asList(Arrays.asList(tweet(0), tweet(1)), Arrays.asList(tweet(2), tweet(4))),
+                transactions);
+    }
+
+    @Test
+    void overflowPolicy_of_acceptsPropertyNames() {
+        assertEquals(OverflowPolicy.DROP_OLDEST, OverflowPolicy.of("drop-oldest"));
+        assertEquals(OverflowPolicy.SPILL, OverflowPolicy.of(" Spill "));
+        assertThrows(IllegalArgumentException.class, () -> OverflowPolicy.of("discard"));
+    }
+}
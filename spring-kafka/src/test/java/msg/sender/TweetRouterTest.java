@@ -0,0 +1,134 @@
+package msg.sender;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import msg.model.TwitterUser;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetRouterTest {
+
+    private static final String DEFAULT_TOPIC = "tweets";
+
+    private static final long USER_ID = 42L;
+
+    private Path rulesFile;
+
+    private TweetRouter router;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        rulesFile = Files.createTempFile("filter-rules", ".properties");
+        writeRules("java.match=#java, #jvm\n"
+                + "kafka.match=kafka,#kafka\n"
+                + "kafka.topic=kafka-tweets\n"
+                + "streams.match=kafka streams\n"
+                + "streams.topic=kafka-tweets\n");
+        router = new TweetRouter(rulesFile, DEFAULT_TOPIC, 60000);
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        router.stop();
+        Files.deleteIfExists(rulesFile);
+    }
+
+    private void writeRules(String rules) throws IOException {
+        Files.write(rulesFile, rules.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static TwitterUser tweet(String text) {
+        return new TwitterUser(new Date(1698314400000L), "user", text);
+    }
+
+    @Test
+    void route_sendsToTheTopicOfEachMatchingRuleOnce() {
+        assertEquals(Collections.singletonList(DEFAULT_TOPIC), router.route(USER_ID, tweet("Hello #JVM")));
+        assertEquals(Arrays.asList(DEFAULT_TOPIC, "kafka-tweets"),
+                router.route(USER_ID, tweet("#java and kafka streams, #kafka")));
+        assertEquals(2, router.getMatched());
+        assertEquals(3, router.getRules());
+        assertEquals(5, router.getKeywords());
+    }
+
+    @Test
+    void route_dropsTweetsMatchingNoRule() {
+        assertEquals(Collections.emptyList(), router.route(USER_ID, tweet("#javascript is kafkaesque")));
+        assertEquals(1, router.getDropped());
+        assertEquals(0, router.getMatched());
+    }
+
+    @Test
+    void reloadIfModified_swapsInChangedRules() throws IOException {
+        writeRules("python.match=#python\npython.topic=python-tweets\n");
+        Files.setLastModifiedTime(rulesFile, FileTime.fromMillis(System.currentTimeMillis() + 5000));
+
+        router.reloadIfModified();
+
+        assertEquals(Collections.singletonList("python-tweets"), router.route(USER_ID, tweet("#python")));
+        assertEquals(Collections.emptyList(), router.route(USER_ID, tweet("#java")));
+    }
+
+    @Test
+    void reload_invalidRules_keepsTheCurrentOnes() throws IOException {
+        writeRules("java.topic=java-tweets\n");
+
+        assertFalse(router.reload());
+
+        assertEquals(Collections.singletonList(DEFAULT_TOPIC), router.route(USER_ID, tweet("#java")));
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        router.bindTo(registry);
+        assertEquals(1, registry.find("tweets.filter.reloads").tag("result", "failure").functionCounter().count());
+    }
+
+    @Test
+    void constructor_failsOnRulesWithoutKeywords() throws IOException {
+        writeRules("# nothing yet\njava.match= , \n");
+
+        assertThrows(IOException.class, () -> new TweetRouter(rulesFile, DEFAULT_TOPIC, 60000));
+    }
+
+    @Test
+    void route_matchesRulesByUserId() throws IOException {
+        writeRules("java.match=#java\n"
+                + "vip.users=7, 42\n"
+                + "vip.topic=vip-tweets\n");
+        assertTrue(router.reload());
+
+        assertEquals(Collections.singletonList("vip-tweets"), router.route(USER_ID, tweet("no keyword")));
+        assertEquals(Arrays.asList(DEFAULT_TOPIC, "vip-tweets"), router.route(7L, tweet("#java")));
+        assertEquals(Collections.emptyList(), router.route(8L, tweet("no keyword")));
+        assertEquals(2, router.getUsers());
+    }
+
+    @Test
+    void route_replacesTheRulePlaceholderInTopics() throws IOException {
+        writeRules("java.match=#java\n"
+                + "kafka.match=#kafka\n"
+                + "kafka.topic=stream-{rule}\n");
+        router = new TweetRouter(rulesFile, "tweets-{rule}", 60000);
+
+        assertEquals(Arrays.asList("tweets-java", "stream-kafka"), router.route(USER_ID, tweet("#kafka #java")));
+    }
+
+    @Test
+    void constructor_failsOnUnknownKeysAndInvalidUserIds() throws IOException {
+        writeRules("java.matches=#java\n");
+        assertThrows(IOException.class, () -> new TweetRouter(rulesFile, DEFAULT_TOPIC, 60000));
+
+        writeRules("vip.users=@someone\n");
+        assertThrows(IOException.class, () -> new TweetRouter(rulesFile, DEFAULT_TOPIC, 60000));
+    }
+}
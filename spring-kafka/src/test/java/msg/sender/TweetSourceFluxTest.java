@@ -0,0 +1,100 @@
+package msg.sender;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscription;
+
+import msg.model.TwitterUser;
+import reactor.core.publisher.BaseSubscriber;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TweetSourceFluxTest {
+
+    /**
+     * Delivers a number of tweets from a thread of its own, like the replay source.
+     */
+    private static final class ThreadTweetSource implements TweetSource {
+
+        private final int tweets;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+
+        private volatile boolean stopped;
+
+        ThreadTweetSource(int tweets) {
+            this.tweets = tweets;
+        }
+
+        @Override
+        public void start(Listener listener) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < tweets && !stopped; i++) {
+                    listener.onTweet(i, new TwitterUser(new Date(1698314400000L + i), "user", "tweet " + i));
+                }
+                listener.onDeletion(7L, 42L);
+                done.countDown();
+            }, "test-tweet-source");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    private static final class RequestingSubscriber extends BaseSubscriber<QueuedTweet> {
+
+        private final List<Long> userIds = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(2);
+        }
+
+        @Override
+        protected void hookOnNext(QueuedTweet tweet) {
+            userIds.add(tweet.getUserId());
+        }
+    }
+
+    @Test
+    void of_deliversOnlyRequestedTweets_theSourceWaitsForDemand() throws InterruptedException {
+        ThreadTweetSource source = new ThreadTweetSource(5);
+        List<Long> deletions = Collections.synchronizedList(new ArrayList<>());
+        RequestingSubscriber subscriber = new RequestingSubscriber();
+
+        TweetSourceFlux.of(source, (userId, tweetId) -> deletions.add(tweetId)).subscribe(subscriber);
+
+        assertFalse(source.done.await(200, TimeUnit.MILLISECONDS), "the source must wait for demand");
+        assertEquals(2, subscriber.userIds.size());
+
+        subscriber.request(3);
+
+        assertTrue(source.done.await(5, TimeUnit.SECONDS));
+        assertEquals(5, subscriber.userIds.size());
+        assertEquals(Long.valueOf(4L), subscriber.userIds.get(4));
+        assertEquals(Collections.singletonList(42L), deletions);
+    }
+
+    @Test
+    void of_cancelled_releasesAndStopsTheSource() throws InterruptedException {
+        ThreadTweetSource source = new ThreadTweetSource(5);
+        RequestingSubscriber subscriber = new RequestingSubscriber();
+        TweetSourceFlux.of(source, (userId, tweetId) -> { }).subscribe(subscriber);
+
+        subscriber.dispose();
+
+        assertTrue(source.done.await(5, TimeUnit.SECONDS));
+        assertTrue(source.stopped);
+        assertTrue(subscriber.userIds.size() <= 2);
+    }
+}
@@ -0,0 +1,101 @@
+package msg.sender;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import msg.model.TwitterUser;
+import twitter4j.Status;
+import twitter4j.StatusDeletionNotice;
+import twitter4j.StatusListener;
+import twitter4j.TwitterStream;
+import twitter4j.User;
+
+import java.util.Date;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+@ExtendWith(MockitoExtension.class)
+public class TwitterTweetSourceTest {
+
+    @Mock
+    private TwitterStream twitterStream;
+
+    @Mock
+    private TweetSource.Listener listener;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    private StatusListener start() {
+        String[] track = {"#java", "#kafka"};
+        new TwitterTweetSource(twitterStream, track, new SenderMetrics(meterRegistry)).start(listener);
+
+        verify(twitterStream).filter(track);
+        // read from the invocations, no matcher compiles against addListener(StreamListener), it is package private
+        return mockingDetails(twitterStream).getInvocations().stream()
+                .filter(invocation -> invocation.getMethod().getName().equals("addListener"))
+                .map(invocation -> invocation.<StatusListener>getArgument(0))
+                .findFirst()
+                .orElseThrow(() -> new AssertionError("No listener added"));
+    }
+
+    @Test
+    void start_emptyTrack_readsTheSampleStream() {
+        new TwitterTweetSource(twitterStream, new String[0], new SenderMetrics(meterRegistry)).start(listener);
+
+        verify(twitterStream).sample();
+        verify(twitterStream, never()).filter(any(String[].class));
+    }
+
+    @Test
+    void onStatus_deliversTheFormattedTweetKeyedByUserId() {
+        StatusListener statusListener = start();
+        Status status = mock(Status.class);
+        User user = mock(User.class);
+        Date date = new Date(1698314400000L);
+        when(status.getCreatedAt()).thenReturn(date);
+        when(status.getUser()).thenReturn(user);
+        when(status.getText()).thenReturn("#java");
+        when(status.getId()).thenReturn(42L);
+        when(user.getName()).thenReturn("user");
+        when(user.getId()).thenReturn(7L);
+
+        statusListener.onStatus(status);
+
+        verify(listener).onTweet(7L, new TwitterUser(date, "user", "#java", 42L));
+        assertEquals(1, meterRegistry.find("tweets.stream.received").counter().count());
+    }
+
+    @Test
+    void onStatus_unformattableStatus_isSkipped() {
+        StatusListener statusListener = start();
+
+        statusListener.onStatus(mock(Status.class));
+
+        verify(listener, never()).onTweet(anyLong(), any());
+        assertEquals(1, meterRegistry.find("tweets.stream.skipped").counter().count());
+    }
+
+    @Test
+    void onDeletionNotice_isForwarded() {
+        StatusListener statusListener = start();
+        StatusDeletionNotice notice = mock(StatusDeletionNotice.class);
+        when(notice.getUserId()).thenReturn(7L);
+        when(notice.getStatusId()).thenReturn(42L);
+
+        statusListener.onDeletionNotice(notice);
+
+        verify(listener).onDeletion(7L, 42L);
+    }
+
+    @Test
+    void stop_shutsTheStreamDown() {
+        new TwitterTweetSource(twitterStream, new String[0], new SenderMetrics(meterRegistry)).stop();
+
+        verify(twitterStream).shutdown();
+    }
+}
@@ -0,0 +1,97 @@
+package msg.sender;
+
+import org.apache.kafka.common.Cluster;
+import org.apache.kafka.common.Node;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.serialization.LongSerializer;
+import org.apache.kafka.common.utils.Utils;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class UserIdPartitionerTest {
+
+    private static final String TOPIC = "tweets";
+
+    private final UserIdPartitioner partitioner = new UserIdPartitioner();
+
+    private final LongSerializer keySerializer = new LongSerializer();
+
+    private Cluster cluster;
+
+    @BeforeEach
+    void setUp() {
+        Node node = new Node(0, "localhost", 9092);
+        List<PartitionInfo> partitions = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            partitions.add(new PartitionInfo(TOPIC, i, node, new Node[] { node }, new Node[] { node }));
+        }
+        cluster = new Cluster("cluster", Collections.singletonList(node), partitions,
+                Collections.emptySet(), Collections.emptySet());
+    }
+
+    private int partition(Long userId) {
+        return partitioner.partition(TOPIC, userId, userId == null ? null : keySerializer.serialize(TOPIC, userId),
+                null, null, cluster);
+    }
+
+    @Test
+    void partition_sameUser_alwaysSamePartition() {
+        partitioner.configure(Collections.emptyMap());
+
+        int partition = partition(123456789L);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(partition, partition(123456789L));
+        }
+    }
+
+    @Test
+    void partition_regularUser_matchesMurmur2OfKey() {
+        partitioner.configure(Collections.emptyMap());
+
+        byte[] keyBytes = keySerializer.serialize(TOPIC, 42L);
+        assertEquals(Utils.toPositive(Utils.murmur2(keyBytes)) % 4,
+                partition(42L));
+    }
+
+    @Test
+    void partition_hotUsers_spreadOverAllPartitions() {
+        partitioner.configure(Collections.singletonMap(UserIdPartitioner.HOT_USER_IDS_CONFIG, "400, 100,300,200,"));
+
+        assertEquals(0, partition(100L));
+        assertEquals(1, partition(200L));
+        assertEquals(2, partition(300L));
+        assertEquals(3, partition(400L));
+    }
+
+    @Test
+    void partition_moreHotUsersThanPartitions_wrapsAround() {
+        partitioner.configure(Collections.singletonMap(UserIdPartitioner.HOT_USER_IDS_CONFIG, "1,2,3,4,5"));
+
+        assertEquals(0, partition(5L));
+    }
+
+    @Test
+    void partition_noKey_roundRobinsOverPartitions() {
+        partitioner.configure(Collections.emptyMap());
+
+        Set<Integer> partitions = new HashSet<>();
+        for (int i = 0; i < 4; i++) {
+            partitions.add(partition(null));
+        }
+        assertEquals(4, partitions.size());
+    }
+
+    @Test
+    void configure_invalidHotUserId_throws() {
+        assertThrows(NumberFormatException.class, () -> partitioner.configure(
+                Collections.singletonMap(UserIdPartitioner.HOT_USER_IDS_CONFIG, "duke")));
+    }
+}